@@ -0,0 +1,191 @@
+package com.commonsware.android.job.CellSites;
+
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build.VERSION;
+import android.os.SystemClock;
+import android.telephony.CellIdentityCdma;
+import android.telephony.CellIdentityGsm;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityWcdma;
+import android.telephony.CellInfoCdma;
+import android.telephony.CellInfoGsm;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoWcdma;
+import android.telephony.CellLocation;
+import android.telephony.CellSignalStrengthCdma;
+import android.telephony.CellSignalStrengthGsm;
+import android.telephony.CellSignalStrengthLte;
+import android.telephony.CellSignalStrengthWcdma;
+import android.telephony.NeighboringCellInfo;
+import android.telephony.TelephonyManager;
+import android.telephony.cdma.CdmaCellLocation;
+import android.telephony.gsm.GsmCellLocation;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * The TelephonyManager behind {@link CellScanner}: one getAllCellInfo()
+ * call per read, and the serving CellLocation and neighbouring cells only
+ * when that came back empty, copied field for field into a
+ * {@link TelephonySnapshot}. Nothing is validated here; that is
+ * {@link SnapshotConverter}'s job, on the phone and on the JVM alike.
+ */
+public class AndroidTelephonySource implements TelephonySource {
+    public static final String TAG = "AndroidTelephonySource";
+    private final Context context;
+    private TelephonyManager telephonyManager;
+
+    public AndroidTelephonySource(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    TelephonyManager getTelephonyManager() {
+        if (this.telephonyManager == null) {
+            this.telephonyManager = (TelephonyManager) this.context.getSystemService(Context.TELEPHONY_SERVICE);
+        }
+        return this.telephonyManager;
+    }
+
+    @Override
+    public boolean read(TelephonySnapshot out) {
+        return read(out, null);
+    }
+
+    /**
+     * As {@link #read(TelephonySnapshot)}, but takes the cells telephony
+     * pushed to a PhoneStateListener instead of asking getAllCellInfo()
+     * for its cached list; a null reported list polls. False if there is
+     * no phone radio.
+     */
+    @SuppressLint("MissingPermission")
+    public boolean read(TelephonySnapshot out, List<android.telephony.CellInfo> reported) {
+        out.elapsedNanos = SystemClock.elapsedRealtimeNanos();
+        TelephonyManager tm = getTelephonyManager();
+        if (tm == null || tm.getPhoneType() == TelephonyManager.PHONE_TYPE_NONE) {
+            return false;
+        }
+        out.phoneType = tm.getPhoneType();
+
+        List<android.telephony.CellInfo> all = reported;
+        List<NeighboringCellInfo> neighbours = null;
+        CellLocation serving = null;
+        try {
+            if (all == null && VERSION.SDK_INT >= 18) {
+                all = tm.getAllCellInfo();
+            }
+            if (all == null || all.isEmpty()) {
+                serving = tm.getCellLocation();
+                neighbours = tm.getNeighboringCellInfo();
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Cell info not permitted", e);
+        }
+
+        if (all != null) {
+            for (int i = 0; i < all.size(); i++) {
+                copy(all.get(i), out);
+            }
+        }
+        if (serving != null || (neighbours != null && !neighbours.isEmpty())) {
+            out.networkType = tm.getNetworkType();
+            out.networkOperator = getNetworkOperator(tm);
+        }
+        if (serving instanceof GsmCellLocation) {
+            GsmCellLocation gsm = (GsmCellLocation) serving;
+            out.hasServing = true;
+            out.serving.type = TelephonySnapshot.TYPE_GSM_LOCATION;
+            out.serving.lac = gsm.getLac();
+            out.serving.cid = gsm.getCid();
+            out.serving.psc = gsm.getPsc();
+        } else if (serving instanceof CdmaCellLocation) {
+            CdmaCellLocation cdma = (CdmaCellLocation) serving;
+            out.hasServing = true;
+            out.serving.type = TelephonySnapshot.TYPE_CDMA_LOCATION;
+            out.serving.mnc = cdma.getSystemId();
+            out.serving.lac = cdma.getNetworkId();
+            out.serving.cid = cdma.getBaseStationId();
+        }
+        if (neighbours != null) {
+            for (int i = 0; i < neighbours.size(); i++) {
+                NeighboringCellInfo nci = neighbours.get(i);
+                TelephonySnapshot.Cell cell = out.addNeighbour();
+                cell.networkType = nci.getNetworkType();
+                cell.lac = nci.getLac();
+                cell.cid = nci.getCid();
+                cell.psc = nci.getPsc();
+                cell.dbm = nci.getRssi();
+            }
+        }
+        return true;
+    }
+
+    private static String getNetworkOperator(TelephonyManager tm) {
+        String networkOperator = tm.getNetworkOperator();
+        if (networkOperator == null || networkOperator.length() <= 3) {
+            return tm.getSimOperator();
+        }
+        return networkOperator;
+    }
+
+    @TargetApi(18)
+    private static void copy(android.telephony.CellInfo observed, TelephonySnapshot out) {
+        TelephonySnapshot.Cell cell;
+        if (observed instanceof CellInfoLte) {
+            CellIdentityLte ident = ((CellInfoLte) observed).getCellIdentity();
+            CellSignalStrengthLte strength = ((CellInfoLte) observed).getCellSignalStrength();
+            cell = out.addCell();
+            cell.type = TelephonySnapshot.TYPE_LTE;
+            cell.mcc = ident.getMcc();
+            cell.mnc = ident.getMnc();
+            cell.lac = ident.getTac();
+            cell.cid = ident.getCi();
+            cell.psc = ident.getPci();
+            cell.asu = strength.getAsuLevel();
+            cell.dbm = strength.getDbm();
+            cell.timingAdvance = strength.getTimingAdvance();
+            cell.level = strength.getLevel();
+        } else if (observed instanceof CellInfoGsm) {
+            CellIdentityGsm ident = ((CellInfoGsm) observed).getCellIdentity();
+            CellSignalStrengthGsm strength = ((CellInfoGsm) observed).getCellSignalStrength();
+            cell = out.addCell();
+            cell.type = TelephonySnapshot.TYPE_GSM;
+            cell.mcc = ident.getMcc();
+            cell.mnc = ident.getMnc();
+            cell.lac = ident.getLac();
+            cell.cid = ident.getCid();
+            cell.asu = strength.getAsuLevel();
+            cell.dbm = strength.getDbm();
+            cell.level = strength.getLevel();
+        } else if (observed instanceof CellInfoWcdma) {
+            CellIdentityWcdma ident = ((CellInfoWcdma) observed).getCellIdentity();
+            CellSignalStrengthWcdma strength = ((CellInfoWcdma) observed).getCellSignalStrength();
+            cell = out.addCell();
+            cell.type = TelephonySnapshot.TYPE_WCDMA;
+            cell.mcc = ident.getMcc();
+            cell.mnc = ident.getMnc();
+            cell.lac = ident.getLac();
+            cell.cid = ident.getCid();
+            cell.psc = ident.getPsc();
+            cell.asu = strength.getAsuLevel();
+            cell.dbm = strength.getDbm();
+            cell.level = strength.getLevel();
+        } else if (observed instanceof CellInfoCdma) {
+            CellIdentityCdma ident = ((CellInfoCdma) observed).getCellIdentity();
+            CellSignalStrengthCdma strength = ((CellInfoCdma) observed).getCellSignalStrength();
+            cell = out.addCell();
+            cell.type = TelephonySnapshot.TYPE_CDMA;
+            cell.mnc = ident.getSystemId();
+            cell.lac = ident.getNetworkId();
+            cell.cid = ident.getBasestationId();
+            cell.dbm = strength.getDbm();
+            cell.level = strength.getLevel();
+        } else {
+            return;
+        }
+        cell.registered = observed.isRegistered();
+        cell.timestampNanos = observed.getTimeStamp();
+    }
+}
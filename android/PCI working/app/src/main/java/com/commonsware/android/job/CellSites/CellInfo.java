@@ -11,30 +11,8 @@ import android.telephony.gsm.GsmCellLocation;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-public class CellInfo implements Parcelable {
-    public static final String CELL_RADIO_CDMA = "cdma";
-    public static final String CELL_RADIO_GSM = "gsm";
-    public static final String CELL_RADIO_LTE = "lte";
-    public static final String CELL_RADIO_UNKNOWN = "";
-    public static final String CELL_RADIO_WCDMA = "wcdma";
+public class CellInfo extends CellData implements Parcelable {
     public static final Creator<CellInfo> CellCreator = new CellCreator();
-    public static final int UNKNOWN_ASU = -1;
-    public static final int UNKNOWN_CID = -1;
-    public static final int UNKNOWN_LAC = -1;
-    public static final int UNKNOWN_PCI = -1;
-    public static final int UNKNOWN_PSC = -1;
-    public static final int UNKNOWN_SIGNAL_STRENGTH = -1000;
-    private int mAsu;
-    private String mCellRadio;
-    private int mCid;
-    private int mLac;
-    private int mMcc;
-    private int mMnc;
-    private int mPscPci;
-    private int mSignalStrength;
-    private int mTa;
-    private int mSimpleLevel;
-    private byte isRegistered;
 
     /* renamed from: com.unwiredlabs.mobilesignaldebugger.Scanners.CellInfo$1 */
     static class CellCreator implements Creator<CellInfo> {
@@ -88,14 +66,6 @@ public class CellInfo implements Parcelable {
         }
     };
 
-    public void setSignalStrength(int signalStrength) {
-        this.mSignalStrength = signalStrength;
-    }
-
-    public int getSignalStrength() {
-        return this.mSignalStrength;
-    }
-
     public CellInfo() {
         reset();
     }
@@ -118,31 +88,6 @@ public class CellInfo implements Parcelable {
         }
     }
 
-    static String getCellRadioTypeName(int networkType) {
-        switch (networkType) {
-            case 1:
-            case 2:
-                return CELL_RADIO_GSM;
-            case 3:
-            case 8:
-            case 9:
-            case 10:
-            case 15:
-                return CELL_RADIO_WCDMA;
-            case 5:
-            case 6:
-            case 7:
-            case 11:
-            case 12:
-            case 14:
-                return CELL_RADIO_CDMA;
-            case 13:
-                return CELL_RADIO_LTE;
-            default:
-                return "";
-        }
-    }
-
     private static String getRadioTypeName(int phoneType) {
         switch (phoneType) {
             case 1:
@@ -154,44 +99,6 @@ public class CellInfo implements Parcelable {
         }
     }
 
-    public boolean isCellRadioValid() {
-        return (this.mCellRadio == null || this.mCellRadio.length() <= 0 || this.mCellRadio.equals("0")) ? false : true;
-    }
-
-    public String getCellRadio() {
-        return this.mCellRadio;
-    }
-
-    public int getMcc() {
-        return this.mMcc;
-    }
-
-    public int getMnc() {
-        return this.mMnc;
-    }
-
-    public int getCid() {
-        return this.mCid;
-    }
-
-    public int getLac() {
-        return this.mLac;
-    }
-
-    public int getPsc() {
-        return this.mPscPci;
-    }
-
-    public int getAsu() {
-        return this.mAsu;
-    }
-
-    public int getSimpleLevel() { return  this.mSimpleLevel; }
-
-    public byte getIsRegistered() { return this.isRegistered; }
-
-    public void setIsRegistered(byte value) { this.isRegistered = value; }
-
     public JSONObject toJSONObject() {
         JSONObject obj = new JSONObject();
         try {
@@ -220,10 +127,6 @@ public class CellInfo implements Parcelable {
         }
     }
 
-    public String getCellIdentity() {
-        return getCellRadio() + " " + getMcc() + " " + getMnc() + " " + getLac() + " " + getCid() + " " + getPsc();
-    }
-
     public int describeContents() {
         return 0;
     }
@@ -242,20 +145,6 @@ public class CellInfo implements Parcelable {
         dest.writeByte(this.isRegistered);
     }
 
-    void reset() {
-        this.mCellRadio = CELL_RADIO_GSM;
-        this.mMcc = -1;
-        this.mMnc = -1;
-        this.mLac = -1;
-        this.mCid = -1;
-        this.mSignalStrength = UNKNOWN_SIGNAL_STRENGTH;
-        this.mAsu = -1;
-        this.mTa = -1;
-        this.mPscPci = -1;
-        this.mSimpleLevel = -1;
-        this.isRegistered = 0;
-    }
-
     void setCellLocation(CellLocation cl, int networkType, String networkOperator, Integer signalStrength) {
         if (cl instanceof GsmCellLocation) {
             GsmCellLocation gcl = (GsmCellLocation) cl;
@@ -294,157 +183,4 @@ public class CellInfo implements Parcelable {
             throw new IllegalArgumentException("Unexpected CellLocation type: " + cl.getClass().getName());
         }
     }
-
-    public void setGsmCellInfo(int mcc, int mnc, int lac, int cid, int asu, int mSignalStrength, int simpleLevel) {
-        this.mCellRadio = CELL_RADIO_GSM;
-        if (mcc == Integer.MAX_VALUE) {
-            mcc = -1;
-        }
-        this.mMcc = mcc;
-        if (mnc == Integer.MAX_VALUE) {
-            mnc = -1;
-        }
-        this.mMnc = mnc;
-        if (lac == Integer.MAX_VALUE) {
-            lac = -1;
-        }
-        this.mLac = lac;
-        if (cid == Integer.MAX_VALUE) {
-            cid = -1;
-        }
-        this.mCid = cid;
-        this.mAsu = asu;
-        this.mSignalStrength = mSignalStrength;
-    }
-
-    public void setWcdmaCellInfo(int mcc, int mnc, int lac, int cid, int psc, int asu, int signalStrength) {
-        this.mCellRadio = CELL_RADIO_WCDMA;
-        if (mcc == Integer.MAX_VALUE) {
-            mcc = -1;
-        }
-        this.mMcc = mcc;
-        if (mnc == Integer.MAX_VALUE) {
-            mnc = -1;
-        }
-        this.mMnc = mnc;
-        if (lac == Integer.MAX_VALUE) {
-            lac = -1;
-        }
-        this.mLac = lac;
-        if (cid == Integer.MAX_VALUE) {
-            cid = -1;
-        }
-        this.mCid = cid;
-        if (psc == Integer.MAX_VALUE) {
-            psc = -1;
-        }
-        this.mPscPci = psc;
-        this.mAsu = asu;
-        this.mSignalStrength = signalStrength;
-    }
-
-    public void setLteCellInfo(int mcc, int mnc, int ci, int psc, int lac, int asu, int signalStrength, int ta, int simpleLevel) {
-        this.mCellRadio = CELL_RADIO_LTE;
-        if (mcc == Integer.MAX_VALUE) {
-            mcc = -1;
-        }
-        this.mMcc = mcc;
-        if (mnc == Integer.MAX_VALUE) {
-            mnc = -1;
-        }
-        this.mMnc = mnc;
-        if (lac == Integer.MAX_VALUE) {
-            lac = -1;
-        }
-        this.mLac = lac;
-        if (ci == Integer.MAX_VALUE) {
-            ci = -1;
-        }
-        this.mCid = ci;
-        if (psc == Integer.MAX_VALUE) {
-            psc = -1;
-        }
-        this.mPscPci = psc;
-        this.mAsu = asu;
-        this.mSignalStrength = signalStrength;
-        this.mTa = ta;
-        this.mSimpleLevel = simpleLevel;
-    }
-
-    void setCdmaCellInfo(int baseStationId, int networkId, int systemId, int dbm, int simpleLevel) {
-        this.mCellRadio = CELL_RADIO_CDMA;
-        if (systemId == Integer.MAX_VALUE) {
-            systemId = -1;
-        }
-        this.mMnc = systemId;
-        if (networkId == Integer.MAX_VALUE) {
-            networkId = -1;
-        }
-        this.mLac = networkId;
-        if (baseStationId == Integer.MAX_VALUE) {
-            baseStationId = -1;
-        }
-        this.mCid = baseStationId;
-        this.mSignalStrength = dbm;
-        this.mSimpleLevel = simpleLevel;
-    }
-
-    void setNetworkOperator(String mccMnc) {
-        if (mccMnc == null || mccMnc.length() < 5 || mccMnc.length() > 8) {
-            throw new IllegalArgumentException("Bad mccMnc: " + mccMnc);
-        }
-        this.mMcc = Integer.parseInt(mccMnc.substring(0, 3));
-        this.mMnc = Integer.parseInt(mccMnc.substring(3));
-    }
-
-    public boolean equals(Object o) {
-        if (o == this) {
-            return true;
-        }
-        if (!(o instanceof CellInfo)) {
-            return false;
-        }
-        CellInfo ci = (CellInfo) o;
-        if (this.mCellRadio.equals(ci.mCellRadio) &&
-                this.mMcc == ci.mMcc &&
-                this.mMnc == ci.mMnc &&
-                this.mCid == ci.mCid &&
-                this.mLac == ci.mLac &&
-                this.mSignalStrength == ci.mSignalStrength &&
-                this.mAsu == ci.mAsu &&
-                this.mTa == ci.mTa &&
-                this.mPscPci == ci.mPscPci &&
-                this.isRegistered == ci.isRegistered) {
-            return true;
-        }
-        return false;
-    }
-
-    public int hashCode() {
-        return ((((((((((((((((this.mCellRadio.hashCode() + 527) * 31) + this.mMcc) * 31) + this.mMnc) * 31) + this.mCid) * 31) + this.mLac) * 31) + this.mSignalStrength) * 31) + this.mAsu) * 31) + this.mTa) * 31) + this.mPscPci;
-    }
-
-    public static String header()
-    {
-        return "Radio,Mcc,Mnc,Cid,Lac,SignalS,Level,mAsu,mTa,PscPci,isReg";
-    }
-
-    public String toString() {
-        String mta = (this.mTa == Integer.MAX_VALUE) ? "max" : ((Integer)this.mTa).toString();
-        return this.mCellRadio + "," +
-                this.mMcc + "," +
-                this.mMnc + "," +
-                this.mCid + "," +
-                this.mLac + "," +
-                this.mSignalStrength + "," +
-                this.mSimpleLevel + "," +
-                this.mAsu + "," +
-                mta + "," +
-                this.mPscPci + "," +
-                this.isRegistered;
-    }
-
-    public String getTowerId() {
-        return "" + getCid() + ":" + getLac() + ":" + getPsc();
-    }
 }
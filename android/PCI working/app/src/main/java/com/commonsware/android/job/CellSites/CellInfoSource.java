@@ -0,0 +1,186 @@
+package com.commonsware.android.job.CellSites;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.telephony.CellLocation;
+import android.telephony.PhoneStateListener;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.commonsware.android.job.CellSites.metrics.Gauge;
+import com.commonsware.android.job.CellSites.metrics.MetricsRegistry;
+import com.commonsware.android.job.CellSites.schedule.ScanScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Event-driven replacement for polling {@link CellScanner} on a main-looper
+ * timer. Subscribes to cell info and serving cell changes on its own
+ * looper thread, converts the cells telephony pushes there, and hands the
+ * callback only scans that pass a {@link SnapshotFilter}: nothing stale,
+ * nothing identical to the last snapshot, and no telephony work on the UI
+ * thread.
+ *
+ * Devices that never push cell info still get a getAllCellInfo() poll
+ * every REFRESH_MILLIS, and the filter drops it if the modem's cached list
+ * has not moved on. With a {@link ScanScheduler} the poll comes instead
+ * after the interval it picks from every scan, pushed or polled; with
+ * metrics set too, that interval and its reason are kept as gauges.
+ */
+public class CellInfoSource {
+    public static final String TAG = "CellInfoSource";
+    static final long REFRESH_MILLIS = 60000;
+
+    public interface Callback {
+        /**
+         * A new snapshot, on the source's thread; timestampNanos is the
+         * newest cell timestamp, 0 if the platform gave none.
+         */
+        void onScan(ArrayList<CellInfo> cells, long timestampNanos);
+    }
+
+    private final Context context;
+    private final CellScanner scanner;
+    private final ScanScheduler scheduler;
+    private final SnapshotFilter filter = new SnapshotFilter();
+    private HandlerThread thread;
+    private Handler handler;
+    private PhoneStateListener listener;
+    private Callback callback;
+    // set before start(), used on the source thread only
+    private Gauge scheduleInterval;
+    private Gauge scheduleReason;
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            publish(null);
+        }
+    };
+
+    public CellInfoSource(Context context, CellScanner scanner) {
+        this(context, scanner, null);
+    }
+
+    public CellInfoSource(Context context, CellScanner scanner, ScanScheduler scheduler) {
+        this.context = context.getApplicationContext();
+        this.scanner = scanner;
+        this.scheduler = scheduler;
+    }
+
+    public void setMetrics(MetricsRegistry metrics) {
+        this.scheduleInterval = metrics.gauge(MetricsRegistry.SCHEDULE_INTERVAL_MILLIS);
+        this.scheduleReason = metrics.gauge(MetricsRegistry.SCHEDULE_REASON);
+    }
+
+    public synchronized void start(final Callback callback) {
+        if (this.thread != null) {
+            return;
+        }
+        this.thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        this.thread.start();
+        this.handler = new Handler(this.thread.getLooper());
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                subscribe(callback);
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (this.thread == null) {
+            return;
+        }
+        this.handler.removeCallbacks(this.refresh);
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                unsubscribe();
+            }
+        });
+        // pending refreshes are dropped with the looper
+        this.thread.quitSafely();
+        this.thread = null;
+    }
+
+    public SnapshotFilter getFilter() {
+        return this.filter;
+    }
+
+    public ScanScheduler getScheduler() {
+        return this.scheduler;
+    }
+
+    // on the source thread from here on; PhoneStateListener delivers to the looper it was created on
+
+    @SuppressLint("MissingPermission")
+    private void subscribe(Callback callback) {
+        this.callback = callback;
+        this.filter.reset();
+        if (this.scheduler != null) {
+            this.scheduler.reset();
+        }
+        this.listener = new PhoneStateListener() {
+            @Override
+            public void onCellInfoChanged(List<android.telephony.CellInfo> cellInfo) {
+                publish(cellInfo);
+            }
+
+            @Override
+            public void onCellLocationChanged(CellLocation location) {
+                // the serving cell moved; the cached list may lag, so ask for it now
+                publish(null);
+            }
+        };
+        TelephonyManager tm = getTelephonyManager();
+        if (tm != null) {
+            try {
+                tm.listen(this.listener, PhoneStateListener.LISTEN_CELL_INFO | PhoneStateListener.LISTEN_CELL_LOCATION);
+            } catch (SecurityException e) {
+                Log.e(TAG, "Cell info updates not permitted", e);
+            }
+        }
+        this.refresh.run();
+    }
+
+    private void unsubscribe() {
+        TelephonyManager tm = getTelephonyManager();
+        if (tm != null && this.listener != null) {
+            tm.listen(this.listener, PhoneStateListener.LISTEN_NONE);
+        }
+        this.listener = null;
+        this.callback = null;
+    }
+
+    private void publish(List<android.telephony.CellInfo> reported) {
+        if (this.callback == null) {
+            return;
+        }
+        ArrayList<CellInfo> cells = this.scanner.scan(reported);
+        long timestampNanos = this.scanner.getLastTimestampNanos();
+        long delay = REFRESH_MILLIS;
+        if (this.scheduler != null && !cells.isEmpty()) {
+            // unchanged scans count too: they are what lengthens the interval
+            delay = this.scheduler.observe(cells, SystemClock.elapsedRealtime());
+            if (this.scheduleInterval != null) {
+                this.scheduleInterval.set(delay);
+                this.scheduleReason.set(this.scheduler.getReason());
+            }
+        }
+        this.handler.removeCallbacks(this.refresh);
+        this.handler.postDelayed(this.refresh, delay);
+        if (!cells.isEmpty() && this.filter.accept(cells, timestampNanos)) {
+            this.callback.onScan(cells, timestampNanos);
+        }
+    }
+
+    private TelephonyManager getTelephonyManager() {
+        return (TelephonyManager) this.context.getSystemService(Context.TELEPHONY_SERVICE);
+    }
+}
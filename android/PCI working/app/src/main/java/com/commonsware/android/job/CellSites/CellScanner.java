@@ -0,0 +1,145 @@
+package com.commonsware.android.job.CellSites;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.commonsware.android.job.CellSites.metrics.Histogram;
+import com.commonsware.android.job.CellSites.metrics.MetricsRegistry;
+import com.commonsware.android.job.CellSites.trace.TraceWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass replacement for running {@link KScanner} and {@link Scanner}
+ * back to back: one getAllCellInfo() call per scan, every cell converted
+ * once, and the legacy serving/neighbouring cell APIs only consulted for
+ * what getAllCellInfo() does not report.
+ *
+ * The radio is read by an {@link AndroidTelephonySource} into a
+ * {@link TelephonySnapshot} and converted by a {@link SnapshotConverter},
+ * which is the part of the scan the JVM replay exercises. With a
+ * {@link TraceWriter} set, every snapshot read is also recorded for that
+ * replay.
+ */
+public class CellScanner {
+    public static final String TAG = "CellScanner";
+    private static final SnapshotConverter.Factory<CellInfo> CELLS = new SnapshotConverter.Factory<CellInfo>() {
+        @Override
+        public CellInfo create() {
+            return new CellInfo();
+        }
+    };
+    private final Context context;
+    private final AndroidTelephonySource source;
+    private final TelephonySnapshot snapshot = new TelephonySnapshot();
+    private final SnapshotConverter<CellInfo> converter = new SnapshotConverter<CellInfo>(CELLS);
+    private TraceWriter recorder;
+    private Histogram scanMicros;
+    private Histogram scanCells;
+    private String deviceId;
+    private long lastConversionNanos;
+    private long lastTimestampNanos;
+
+    public CellScanner(Context context) {
+        this.context = context.getApplicationContext();
+        this.source = new AndroidTelephonySource(context);
+    }
+
+    @SuppressLint("MissingPermission")
+    public String getDeviceId() {
+        if (this.deviceId == null) {
+            TelephonyManager tm = this.source.getTelephonyManager();
+            String id = tm == null ? null : tm.getDeviceId();
+            if (id == null || id.length() == 0) {
+                id = Settings.Secure.getString(this.context.getContentResolver(), Settings.Secure.ANDROID_ID);
+            }
+            this.deviceId = id;
+        }
+        return this.deviceId;
+    }
+
+    /**
+     * Records every snapshot read from now on; null stops. The caller owns
+     * the writer and closes it.
+     */
+    public synchronized void setRecorder(TraceWriter recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Records the duration (telephony calls included) and cell count of
+     * every scan from now on.
+     */
+    public synchronized void setMetrics(MetricsRegistry metrics) {
+        this.scanMicros = metrics.histogram(MetricsRegistry.SCAN_MICROS);
+        this.scanCells = metrics.histogram(MetricsRegistry.SCAN_CELLS);
+    }
+
+    /**
+     * Time spent converting and deduplicating the cells of the last scan,
+     * excluding the telephony calls themselves.
+     */
+    public long getLastConversionNanos() {
+        return this.lastConversionNanos;
+    }
+
+    /**
+     * Newest timestamp among the getAllCellInfo() cells of the last scan, on
+     * the elapsed-realtime clock; 0 if the platform reported none.
+     */
+    public long getLastTimestampNanos() {
+        return this.lastTimestampNanos;
+    }
+
+    public ArrayList<CellInfo> scan() {
+        return scan(null);
+    }
+
+    /**
+     * As {@link #scan()}, but converts the cells telephony pushed to a
+     * PhoneStateListener instead of asking getAllCellInfo() for its cached
+     * list; a null reported list polls.
+     */
+    public synchronized ArrayList<CellInfo> scan(List<android.telephony.CellInfo> reported) {
+        long begin = SystemClock.elapsedRealtimeNanos();
+        ArrayList<CellInfo> result = new ArrayList<CellInfo>();
+        this.snapshot.clear();
+        this.lastTimestampNanos = 0;
+        if (!this.source.read(this.snapshot, reported)) {
+            return result;
+        }
+        record();
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        this.lastTimestampNanos = this.snapshot.getNewestTimestampNanos();
+        this.converter.convert(this.snapshot, result);
+        long end = SystemClock.elapsedRealtimeNanos();
+        this.lastConversionNanos = end - start;
+        if (this.scanMicros != null) {
+            this.scanMicros.record((end - begin) / 1000);
+            this.scanCells.record(result.size());
+        }
+        return result;
+    }
+
+    private void record() {
+        if (this.recorder == null) {
+            return;
+        }
+        try {
+            if (!this.recorder.write(this.snapshot)) {
+                Log.i(TAG, "Trace full after " + this.recorder.getSnapshotCount() + " snapshots");
+                this.recorder = null;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot record telephony trace", e);
+            this.recorder = null;
+        }
+    }
+}
@@ -29,6 +29,10 @@ import java.util.Collections;
 import java.util.List;
 
 
+/**
+ * Superseded by {@link CellScanner}, which reads the radio once per scan.
+ */
+@Deprecated
 public class KScanner {
     protected static String name = Namer.getName(KScanner.class);
     protected final Context context;
@@ -25,6 +25,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+/**
+ * Superseded by {@link CellScanner}, which reads the radio once per scan.
+ */
+@Deprecated
 public class Scanner {
     public static final String TAG = "Scanner : ";
     private static TelephonyManager telephonyManager;
@@ -272,7 +276,7 @@ public class Scanner {
         }
         com.commonsware.android.job.CellSites.CellInfo cell = new com.commonsware.android.job.CellSites.CellInfo();
         CellSignalStrengthWcdma strength = ((CellInfoWcdma) observedCell).getCellSignalStrength();
-        cell.setWcdmaCellInfo(ident.getMcc(), ident.getMnc(), ident.getLac(), ident.getCid(), ident.getPsc(), strength.getAsuLevel(), strength.getDbm());
+        cell.setWcdmaCellInfo(ident.getMcc(), ident.getMnc(), ident.getLac(), ident.getCid(), ident.getPsc(), strength.getAsuLevel(), strength.getDbm(), strength.getLevel());
         if (observedCell.isRegistered()) cell.setIsRegistered((byte)1);
         cells.add(cell);
         return true;
@@ -23,52 +23,31 @@ import android.util.Log;
 
 @TargetApi(Build.VERSION_CODES.LOLLIPOP_MR1)
 public class DemoJobService extends JobService {
-  private volatile Thread job=null;
-
   @Override
-  public boolean onStartJob(JobParameters params) {
+  public boolean onStartJob(final JobParameters params) {
     PersistableBundle pb=params.getExtras();
 
-    if (pb.getBoolean(MainActivity.KEY_DOWNLOAD, false)) {
-      job=new DownloadThread(params);
-      job.start();
-
-      return(true);
-    }
+    Log.d(getClass().getSimpleName(), "job begins");
 
-    Log.d(getClass().getSimpleName(), "job invoked");
+    ((DemoUnifiedApplication)getApplication()).getScanBurst()
+      .trigger("jobscheduler", pb.getBoolean(MainActivity.KEY_DOWNLOAD, false),
+        new Runnable() {
+          @Override
+          public void run() {
+            Log.d(DemoJobService.class.getSimpleName(), "job ends");
+            jobFinished(params, false);
+          }
+        });
 
-    return(false);
+    return(true);
   }
 
   @Override
-  synchronized public boolean onStopJob(JobParameters params) {
-    if (job!=null) {
-      Log.d(getClass().getSimpleName(), "job interrupted");
-      job.interrupt();
-    }
+  public boolean onStopJob(JobParameters params) {
+    // the burst is shared with the other modes, so it runs to the end;
+    // it is short, and the next period scans again anyway
+    Log.d(getClass().getSimpleName(), "job stopped early");
 
     return(false);
   }
-
-  synchronized private void clearJob() {
-    job=null;
-  }
-
-  private class DownloadThread extends Thread {
-    private final JobParameters params;
-
-    DownloadThread(JobParameters params) {
-      this.params=params;
-    }
-
-    @Override
-    public void run() {
-      Log.d(getClass().getSimpleName(), "job begins");
-      new DownloadJob().run();
-      Log.d(getClass().getSimpleName(), "job ends");
-      clearJob();
-      jobFinished(params, false);
-    }
-  }
 }
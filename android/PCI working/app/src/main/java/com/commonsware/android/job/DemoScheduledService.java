@@ -18,6 +18,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.support.v4.app.JobIntentService;
 import android.util.Log;
+import java.util.concurrent.ExecutionException;
 
 public class DemoScheduledService extends JobIntentService {
   private static final int UNIQUE_JOB_ID=23433;
@@ -30,9 +31,17 @@ public class DemoScheduledService extends JobIntentService {
   public void onHandleWork(Intent i) {
     Log.d(getClass().getSimpleName(), "scheduled work begins");
 
-    if (i.getBooleanExtra(PollReceiver.EXTRA_IS_DOWNLOAD, false)) {
-      new DownloadJob().run();  // do synchronously, as we are on
-      // a background thread already
+    try {
+      // JobIntentService holds its wake lock until we return
+      ((DemoUnifiedApplication)getApplication()).getScanBurst()
+        .trigger("alarm", i.getBooleanExtra(PollReceiver.EXTRA_IS_DOWNLOAD, false), null)
+        .get();
+    }
+    catch (InterruptedException e) {
+      Log.w(getClass().getSimpleName(), "scheduled work interrupted");
+    }
+    catch (ExecutionException e) {
+      Log.e(getClass().getSimpleName(), "scan burst failed", e.getCause());
     }
 
     Log.d(getClass().getSimpleName(), "scheduled work ends");
@@ -15,9 +15,47 @@
 package com.commonsware.android.job;
 
 import android.app.Application;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.util.Log;
+import com.commonsware.android.job.CellSites.celldb.CellStore;
+import com.commonsware.android.job.CellSites.journal.ScanJournal;
+import com.commonsware.android.job.CellSites.locate.FingerprintStore;
+import com.commonsware.android.job.CellSites.locate.GroundTruthBuffer;
+import com.commonsware.android.job.CellSites.locate.TowerStats;
+import com.commonsware.android.job.CellSites.metrics.MetricsRegistry;
+import com.commonsware.android.job.CellSites.upload.CollectorUploader;
+import com.commonsware.android.job.CellSites.upload.UploadStats;
 import com.evernote.android.job.JobManager;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class DemoUnifiedApplication extends Application {
+  static final String COLLECTOR_URL=
+    "http://radiolocation.ownme.ca:5013/collector/radioLocationBatch";
+  private ScanJournal journal=null;
+  private CollectorUploader uploader=null;
+  private CellStore cellStore=null;
+  private ScanBurst scanBurst=null;
+  private final MetricsRegistry metrics=new MetricsRegistry();
+  private final TowerStats towerStats=new TowerStats();
+  private final GroundTruthBuffer groundTruth=new GroundTruthBuffer();
+  private boolean listeningForFixes=false;
+  private final FingerprintStore fingerprints=new FingerprintStore();
+  // nothing is saved over the file before it has been read
+  private volatile boolean fingerprintsLoaded=false;
+  // one scan worker for every scheduling mode; idles out between bursts
+  private final ThreadPoolExecutor scanExecutor=
+    new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<Runnable>(4));
+
   @Override
   public void onCreate() {
     super.onCreate();
@@ -25,5 +63,250 @@ public class DemoUnifiedApplication extends Application {
     JobManager
       .create(this)
       .addJobCreator(new DemoUnifiedJobCreator());
+
+    try {
+      journal=new ScanJournal(new File(getFilesDir(), "journal"));
+      uploader=new CollectorUploader(journal, new URL(COLLECTOR_URL));
+      uploader.setMetrics(metrics);
+      uploader.start();
+    }
+    catch (IOException e) {
+      Log.e(getClass().getSimpleName(), "Cannot open scan journal", e);
+    }
+
+    try {
+      cellStore=new CellStore(new File(getFilesDir(), "celldb"));
+    }
+    catch (IOException e) {
+      Log.e(getClass().getSimpleName(), "Cannot open cell store", e);
+    }
+
+    scanExecutor.allowCoreThreadTimeOut(true);
+    scanBurst=new ScanBurst(this, scanExecutor, cellStore, journal, uploader,
+      metrics, towerStats, groundTruth, fingerprints);
+    startGroundTruth();
+
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        loadFingerprints();
+      }
+    }, "Fingerprint load").start();
+
+    if (cellStore!=null) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          updateCellStore();
+        }
+      }, "CellStore update").start();
+    }
+  }
+
+  /**
+   * Installs a freshly copied files/cells.db as the new base, then applies
+   * any MLS daily diffs dropped into files/mls-diffs in name order. Lookups
+   * keep using the previous generation until each step is swapped in.
+   */
+  private void updateCellStore() {
+    File cells=new File(getFilesDir(), "cells.db");
+
+    try {
+      if (cells.exists()) {
+        cellStore.installBase(cells);
+      }
+
+      File[] diffs=new File(getFilesDir(), "mls-diffs").listFiles();
+
+      if (diffs==null || cellStore.current()==null) {
+        return;
+      }
+
+      Arrays.sort(diffs);
+
+      for (File diff : diffs) {
+        long changed=cellStore.applyDiff(diff);
+
+        Log.i(getClass().getSimpleName(), "Applied "+changed+" cells from "
+          +diff.getName()+", generation "+cellStore.getGeneration());
+
+        if (!diff.delete()) {
+          Log.w(getClass().getSimpleName(), "Cannot delete "+diff);
+        }
+      }
+    }
+    catch (IOException e) {
+      Log.e(getClass().getSimpleName(), "Cannot update cell store", e);
+    }
+  }
+
+  private void loadFingerprints() {
+    try {
+      int count=fingerprints.load(getFingerprintFile());
+
+      Log.i(getClass().getSimpleName(), "Loaded "+count+" fingerprints: "+fingerprints);
+    }
+    catch (IOException e) {
+      // a damaged store is replaced by the fingerprints of new scans
+      Log.e(getClass().getSimpleName(), "Cannot load fingerprints", e);
+    }
+
+    fingerprintsLoaded=true;
+  }
+
+  private File getFingerprintFile() {
+    return(new File(getFilesDir(), "fingerprints.db"));
+  }
+
+  /**
+   * Writes the fingerprint store to files/fingerprints.db if it changed
+   * since it was loaded or last saved. Does disk I/O; call off the main
+   * thread.
+   */
+  synchronized void saveFingerprints() {
+    if (!fingerprintsLoaded || !fingerprints.hasUnsavedChanges()) {
+      return;
+    }
+
+    try {
+      fingerprints.save(getFingerprintFile());
+    }
+    catch (IOException e) {
+      Log.e(getClass().getSimpleName(), "Cannot save fingerprints", e);
+    }
+  }
+
+  /**
+   * Radio fingerprints from scans labelled with GPS fixes; locates scans
+   * where the MLS tower positions are off.
+   */
+  FingerprintStore getFingerprints() {
+    return(fingerprints);
+  }
+
+  /**
+   * Journal that every scan is appended to; drained to the collector by
+   * the uploader. Null if the journal could not be opened.
+   */
+  ScanJournal getScanJournal() {
+    return(journal);
+  }
+
+  /**
+   * Offline tower locations: the MLS export built by CellDatabaseBuilder
+   * plus applied daily diffs. Null if the store could not be opened; empty
+   * until a cells.db has been installed.
+   */
+  CellStore getCellStore() {
+    return(cellStore);
+  }
+
+  /**
+   * The scan-burst-and-flush task shared by the alarm, android-job and
+   * JobScheduler modes.
+   */
+  ScanBurst getScanBurst() {
+    return(scanBurst);
+  }
+
+  /**
+   * Live scanning keeps the modem up anyway, so while it runs the uploader
+   * batches as usual; otherwise uploads wait for a scan burst to flush.
+   * Going back to deferred sends what live mode left behind.
+   */
+  void setLiveUpload(boolean live) {
+    if (uploader!=null) {
+      uploader.setDeferred(!live);
+
+      if (!live) {
+        uploader.flush();
+      }
+    }
+  }
+
+  /**
+   * Listens on the passive provider for the GPS fixes that scans are
+   * labelled with: whatever fixes the phone computes anyway, for this app
+   * (live mode) or any other, so labelling never powers up the GPS by
+   * itself. Called again once the location permission is granted; no-op
+   * once listening.
+   */
+  synchronized void startGroundTruth() {
+    if (listeningForFixes) {
+      return;
+    }
+
+    LocationManager lmgr=(LocationManager)getSystemService(LOCATION_SERVICE);
+
+    try {
+      lmgr.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER, 0, 0,
+        new LocationListener() {
+          @Override
+          public void onLocationChanged(Location location) {
+            addFix(location);
+          }
+
+          @Override
+          public void onStatusChanged(String provider, int status, Bundle extras) {
+          }
+
+          @Override
+          public void onProviderEnabled(String provider) {
+          }
+
+          @Override
+          public void onProviderDisabled(String provider) {
+          }
+        });
+      listeningForFixes=true;
+    }
+    catch (SecurityException e) {
+      Log.w(getClass().getSimpleName(), "No location permission yet", e);
+    }
+  }
+
+  /**
+   * Adds a GPS fix to the ground truth; fixes from other providers, and
+   * ones already added through another listener, are ignored.
+   */
+  void addFix(Location location) {
+    if (LocationManager.GPS_PROVIDER.equals(location.getProvider())) {
+      groundTruth.add(location.getElapsedRealtimeNanos(), location.getLatitude(),
+        location.getLongitude(),
+        location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+        location.hasSpeed() ? location.getSpeed() : Float.NaN,
+        location.hasBearing() ? location.getBearing() : Float.NaN);
+    }
+  }
+
+  /**
+   * Recent GPS fixes that scans are joined to by time.
+   */
+  GroundTruthBuffer getGroundTruth() {
+    return(groundTruth);
+  }
+
+  /**
+   * Per-tower signal statistics fed by every scanning mode; the locators
+   * weigh towers by their smoothed dBm.
+   */
+  TowerStats getTowerStats() {
+    return(towerStats);
+  }
+
+  /**
+   * Scan, encode, pipeline and upload metrics of every scanning mode;
+   * a compact snapshot of them goes along with each upload.
+   */
+  MetricsRegistry getMetrics() {
+    return(metrics);
+  }
+
+  /**
+   * Bytes-on-wire and requests-per-scan of the uploader, or null if it is
+   * not running.
+   */
+  UploadStats getUploadStats() {
+    return(uploader==null ? null : uploader.getStats());
   }
 }
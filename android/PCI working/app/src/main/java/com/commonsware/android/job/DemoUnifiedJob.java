@@ -17,6 +17,7 @@ package com.commonsware.android.job;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import com.evernote.android.job.Job;
+import java.util.concurrent.ExecutionException;
 
 public class DemoUnifiedJob extends Job {
   static final String JOB_TAG=
@@ -27,11 +28,26 @@ public class DemoUnifiedJob extends Job {
   protected Result onRunJob(Params params) {
     Log.d(getClass().getSimpleName(), "scheduled unified work begins");
 
-    if (getParams()
-          .getExtras()
-          .getBoolean(PollReceiver.EXTRA_IS_DOWNLOAD, false)) {
-      new DownloadJob().run();  // do synchronously, as we are on
-                                // a background thread already
+    boolean flush=getParams()
+      .getExtras()
+      .getBoolean(PollReceiver.EXTRA_IS_DOWNLOAD, false);
+
+    try {
+      // synchronously, as android-job holds a wake lock for onRunJob()
+      ((DemoUnifiedApplication)getContext().getApplicationContext())
+        .getScanBurst()
+        .trigger("android-job", flush, null)
+        .get();
+    }
+    catch (InterruptedException e) {
+      Log.w(getClass().getSimpleName(), "scheduled unified work interrupted");
+
+      return(Result.FAILURE);
+    }
+    catch (ExecutionException e) {
+      Log.e(getClass().getSimpleName(), "scan burst failed", e.getCause());
+
+      return(Result.FAILURE);
     }
 
     Log.d(getClass().getSimpleName(), "scheduled unified work ends");
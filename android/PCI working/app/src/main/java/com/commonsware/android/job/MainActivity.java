@@ -26,10 +26,9 @@ import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.os.PersistableBundle;
 import android.os.SystemClock;
+import android.util.Log;
 import android.widget.ArrayAdapter;
 import android.widget.CompoundButton;
 import android.widget.EditText;
@@ -38,22 +37,37 @@ import android.widget.Switch;
 import android.widget.Toast;
 
 import com.commonsware.android.job.CellSites.CellInfo;
-import com.commonsware.android.job.CellSites.PCellInfo;
-import com.commonsware.android.job.CellSites.KScanner;
-import com.commonsware.android.job.CellSites.Scanner;
+import com.commonsware.android.job.CellSites.CellInfoSource;
+import com.commonsware.android.job.CellSites.CellScanner;
+import com.commonsware.android.job.CellSites.ScanRecord;
+import com.commonsware.android.job.CellSites.celldb.CellStore;
+import com.commonsware.android.job.CellSites.journal.ScanJournal;
+import com.commonsware.android.job.CellSites.locate.CellLocator;
+import com.commonsware.android.job.CellSites.locate.GroundTruthBuffer;
+import com.commonsware.android.job.CellSites.locate.NeighbourResolver;
+import com.commonsware.android.job.CellSites.locate.ParticleTracker;
+import com.commonsware.android.job.CellSites.metrics.Counter;
+import com.commonsware.android.job.CellSites.metrics.Gauge;
+import com.commonsware.android.job.CellSites.metrics.MetricsRegistry;
+import com.commonsware.android.job.CellSites.pipeline.ScanSlot;
+import com.commonsware.android.job.CellSites.pipeline.ScanStages;
+import com.commonsware.android.job.CellSites.pipeline.StagedPipeline;
+import com.commonsware.android.job.CellSites.schedule.ScanScheduler;
+import com.commonsware.android.job.CellSites.trace.TraceWriter;
+import com.commonsware.android.job.CellSites.upload.UploadStats;
 import com.evernote.android.job.JobManager;
 import com.evernote.android.job.JobRequest;
 import com.evernote.android.job.util.support.PersistableBundleCompat;
 
-import java.io.BufferedInputStream;
-import java.io.DataOutputStream;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static android.Manifest.permission.ACCESS_COARSE_LOCATION;
 import static android.Manifest.permission.ACCESS_FINE_LOCATION;
@@ -75,11 +89,27 @@ public class MainActivity extends AbstractPermissionActivity
   private Spinner type=null;
   private Spinner period=null;
   private EditText editText=null;
+  private static final int PIPELINE_CAPACITY=16;
+  private static final long TRACE_MAX_BYTES=16*1024*1024;
+  private volatile StagedPipeline<ScanSlot> pipeline=null;
+  private final AtomicReference<String> latestSnapshot=new AtomicReference<String>();
+  private final AtomicBoolean snapshotPending=new AtomicBoolean();
+  private final Runnable showSnapshot=new Runnable() {
+    @Override
+    public void run() {
+      snapshotPending.set(false);
+      editText.setText(latestSnapshot.get());
+    }
+  };
   private Switch download=null;
   private AlarmManager alarms=null;
   private int unifiedJobId=-1;
-  private UIUpdater mUIUpdater=null;
+  private CellInfoSource cellInfoSource=null;
   private LocationManager lmgr=null;
+  private CellScanner cellScanner=null;
+  private TraceWriter recorder=null;
+  private Gauge pipelineDepth=null;
+  private Counter pipelineDropped=null;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -104,8 +134,7 @@ public class MainActivity extends AbstractPermissionActivity
 
     @Override
     public void onLocationChanged(Location location) {
-        double roundedLat = (double) Math.round(location.getLatitude() * 10000d) / 10000d;
-        double roundedLon = (double) Math.round(location.getLongitude() * 10000d) / 10000d;
+        ((DemoUnifiedApplication)getApplication()).addFix(location);
     }
 
     @Override
@@ -167,14 +196,19 @@ public class MainActivity extends AbstractPermissionActivity
       .setOnCheckedChangeListener(this);
 
     alarms=(AlarmManager)getSystemService(ALARM_SERVICE);
+    DemoUnifiedApplication app=(DemoUnifiedApplication)getApplication();
+    MetricsRegistry metrics=app.getMetrics();
 
+    // the permissions are granted by now
+    app.startGroundTruth();
 
-    mUIUpdater = new UIUpdater(new Runnable() {
-      @Override
-      public void run() {
-        Invoke();
-      }
-    });
+    cellScanner=new CellScanner(this);
+    cellScanner.setMetrics(metrics);
+    pipelineDepth=metrics.gauge(MetricsRegistry.PIPELINE_DEPTH);
+    pipelineDropped=metrics.counter(MetricsRegistry.PIPELINE_DROPPED);
+
+    cellInfoSource=new CellInfoSource(this, cellScanner, new ScanScheduler());
+    cellInfoSource.setMetrics(metrics);
   }
 
   @Override
@@ -186,11 +220,11 @@ public class MainActivity extends AbstractPermissionActivity
         case 0:
           if (isChecked) {
               lmgr.requestLocationUpdates(LocationManager.GPS_PROVIDER,10000,5, this);
-              mUIUpdater.startUpdates();
+              startPipeline();
           }
           else {
             lmgr.removeUpdates(this);
-            mUIUpdater.stopUpdates();
+            stopPipeline();
           }
             break;
       case 1:
@@ -211,162 +245,198 @@ public class MainActivity extends AbstractPermissionActivity
     }
   }
 
-    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
-    private long age_ms_api_17(Location last) {
-        return (SystemClock.elapsedRealtimeNanos() - last
-                .getElapsedRealtimeNanos()) / (1000000 * 1000);
+  /**
+   * Live mode: the cell info source produces scans into a staged pipeline
+   * (normalize, ground truth, tower stats, locate, fingerprints, encode,
+   * journal) running on its own threads, whose last stage publishes a text
+   * snapshot. The UI only ever shows the latest snapshot, however many
+   * scans went by.
+   */
+  private void startPipeline() {
+    DemoUnifiedApplication app=(DemoUnifiedApplication)getApplication();
+    CellStore store=app.getCellStore();
+    ScanJournal journal=app.getScanJournal();
+    final StagedPipeline.Stage<ScanSlot> journalStage=
+      journal==null ? null : ScanStages.journal(journal);
+    List<StagedPipeline.Stage<ScanSlot>> stages=
+      new ArrayList<StagedPipeline.Stage<ScanSlot>>();
+
+    stages.add(ScanStages.normalize());
+    stages.add(ScanStages.groundTruth(app.getGroundTruth(),
+      GroundTruthBuffer.DEFAULT_TOLERANCE_NANOS));
+    stages.add(ScanStages.towerStats(app.getTowerStats(), false));
+
+    if (store!=null) {
+      CellLocator locator=new CellLocator(store, new NeighbourResolver());
+
+      locator.setTowerStats(app.getTowerStats());
+
+      stages.add(ScanStages.locate(locator, new ParticleTracker(store, locator,
+          ParticleTracker.DEFAULT_PARTICLES, System.nanoTime()), app.getFingerprints()));
     }
 
+    stages.add(ScanStages.fingerprints(app.getFingerprints()));
 
-    @SuppressLint("MissingPermission")
-  private void Invoke() {
-
-    Location location =  lmgr.getLastKnownLocation(LocationManager.GPS_PROVIDER);
-
-
-    KScanner scan = new KScanner(this);
-    scan.initialize();
-    //todo - determine the main cell (not the neighbours)
-    List<PCellInfo> cellSites = scan.ScanAndGetInfo();
-    String deviceId = scan.getDeviceId();
-    editText.setText("");
-    StringBuilder sb = new StringBuilder();
-
-    Scanner scanner = new Scanner(this);
-    ArrayList<CellInfo> cells = scanner.getAllCellInfo();
-    //merge
-    for (PCellInfo pcell: cellSites) {
-      CellInfo c = new CellInfo(pcell);
-        if (!cells.contains(c))
-          cells.add(c);
+    stages.add(ScanStages.encode(app.getMetrics()));
+    stages.add(new StagedPipeline.Stage<ScanSlot>() {
+      @Override
+      public void process(ScanSlot slot) throws Exception {
+        try {
+          if (journalStage!=null) {
+            journalStage.process(slot);
+          }
+        }
+        finally {
+          publishSnapshot(slot.record);
+        }
+      }
+    });
+
+    final StagedPipeline<ScanSlot> started=
+      new StagedPipeline<ScanSlot>("scan", PIPELINE_CAPACITY, ScanSlot.FACTORY, stages);
+
+    if (BuildConfig.DEBUG) {
+      startRecording();
     }
 
-    if (cells != null && cells.size() > 0)
-    {
-      sb.append("#deviceId,deviceTime\n");
-      sb.append(deviceId +',' + Calendar.getInstance().getTime().getTime() + '\n');
-      sb.append("#latitude,longitude,age,accuracy,speed,bearing\n");
-      if (location != null)
-      {
-        sb.append(String.format("%.6f,%.6f,%s,%s,%s,%s", location.getLatitude(), location.getLongitude(), age_ms_api_17(location), location.hasAccuracy() ? location.getAccuracy() : "?",
-                location.hasSpeed() ? location.getSpeed() : "?", location.hasBearing() ? location.getBearing() : "?") + '\n');
-      }
-      else {
-        sb.append(String.format("0,0,0,?,?,?\n"));
+    started.start();
+    pipeline=started;
+    app.setLiveUpload(true);
+    cellInfoSource.start(new CellInfoSource.Callback() {
+      @Override
+      public void onScan(ArrayList<CellInfo> cells, long timestampNanos) {
+        produce(started, cells);
       }
+    });
+  }
+
+  private void stopPipeline() {
+    StagedPipeline<ScanSlot> stopping=pipeline;
+
+    cellInfoSource.stop();
+    pipeline=null;
 
-      sb.append("#" + CellInfo.header()+'\n');
-      for (int i =0; i < cells.size(); i++)
-      {
-        sb.append(cells.get(i).toString() + '\n');
+    if (stopping!=null) {
+      try {
+        stopping.stop();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
     }
 
-    editText.setText(sb.toString());
+    final DemoUnifiedApplication app=(DemoUnifiedApplication)getApplication();
+
+    app.setLiveUpload(false);
+    stopRecording();
 
-    final String parameter = sb.toString();
-    Thread thread = new Thread(new Runnable() {
-      String p = "{ 'location':'" + parameter + "'}";
+    new Thread(new Runnable() {
       @Override
       public void run() {
-        try  {
-          URL url = new URL("http://radiolocation.ownme.ca:5013/collector/radioLocation");
-          HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-
-          conn.setRequestMethod("POST");
-
-          byte[] postData       = p.getBytes( StandardCharsets.UTF_8 );
-          int    postDataLength = postData.length;
-
-          conn.setDoOutput( true );
-          conn.setInstanceFollowRedirects( false );
-          conn.setRequestMethod( "POST" );
-          conn.setRequestProperty( "Content-Type", "application/json");
-          conn.setRequestProperty( "charset", "utf-8");
-          conn.setRequestProperty( "Content-Length", Integer.toString( postDataLength ));
-          conn.setUseCaches( false );
-          try( DataOutputStream wr = new DataOutputStream( conn.getOutputStream())) {
-            wr.write( postData );
-          }
-
-          // read the response
-          System.out.println("Response Code: " + conn.getResponseCode());
-          InputStream in = new BufferedInputStream(conn.getInputStream());
-          String response = org.apache.commons.io.IOUtils.toString(in, "UTF-8");
-          System.out.println(response);
-        } catch (Exception e) {
-          e.printStackTrace();
-        }
+        app.saveFingerprints();
       }
-    });
-    thread.start();
+    }, "Fingerprint save").start();
   }
 
-  public class UIUpdater {
-    // Create a Handler that uses the Main Looper to run in
-    private Handler mHandler = new Handler(Looper.getMainLooper());
-
-    private Runnable mStatusChecker;
-    private int UPDATE_INTERVAL = 10000;
-
-    /**
-     * Creates an UIUpdater object, that can be used to
-     * perform UIUpdates on a specified time interval.
-     *
-     * @param uiUpdater A runnable containing the update routine.
-     */
-    public UIUpdater(final Runnable uiUpdater) {
-      mStatusChecker = new Runnable() {
-        @Override
-        public void run() {
-          // Run the passed runnable
-          uiUpdater.run();
-          // Re-run it after the update interval
-          mHandler.postDelayed(this, UPDATE_INTERVAL);
-        }
-      };
+  /**
+   * Debug builds record what the radio reports in live mode to
+   * files/traces, one file per session, for replaying the scan path on
+   * the JVM (./gradlew :benchmarks:telephonyReplay -Ptrace=...).
+   */
+  private void startRecording() {
+    File dir=new File(getFilesDir(), "traces");
+
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      Log.w(getClass().getSimpleName(), "Cannot create "+dir);
+      return;
     }
 
-    /**
-     * The same as the default constructor, but specifying the
-     * intended update interval.
-     *
-     * @param uiUpdater A runnable containing the update routine.
-     * @param interval  The interval over which the routine
-     *                  should run (milliseconds).
-     */
-    public UIUpdater(Runnable uiUpdater, int interval){
-      this(uiUpdater);
-      UPDATE_INTERVAL = interval;
+    File file=new File(dir, "telephony-"+System.currentTimeMillis()+".trace");
+
+    try {
+      recorder=new TraceWriter(new BufferedOutputStream(new FileOutputStream(file)),
+        TRACE_MAX_BYTES);
+      cellScanner.setRecorder(recorder);
+    }
+    catch (IOException e) {
+      Log.e(getClass().getSimpleName(), "Cannot record to "+file, e);
     }
+  }
+
+  private void stopRecording() {
+    if (recorder!=null) {
+      // waits out a scan in progress, so the writer is ours to close
+      cellScanner.setRecorder(null);
 
-    /**
-     * Starts the periodical update routine (mStatusChecker
-     * adds the callback to the handler).
-     */
-    public synchronized void startUpdates(){
-      mStatusChecker.run();
+      try {
+        recorder.close();
+      }
+      catch (IOException e) {
+        Log.e(getClass().getSimpleName(), "Cannot close telephony trace", e);
+      }
+
+      recorder=null;
+    }
+  }
+
+  /**
+   * The scan stage, on the cell info source's thread: fills a free slot
+   * and hands it on. A full ring drops the scan rather than block the
+   * source; the pipeline counts it.
+   */
+  private void produce(StagedPipeline<ScanSlot> pipeline, ArrayList<CellInfo> cells) {
+    ScanSlot slot=pipeline.tryClaim();
+
+    if (slot==null) {
+      pipelineDropped.increment();
+      return;
     }
 
-    /**
-     * Stops the periodical update routine from running,
-     * by removing the callback.
-     */
-    public synchronized void stopUpdates(){
+    slot.clear();
 
-      mHandler.removeCallbacks(mStatusChecker);
+    // the ground truth stage labels the scan with the GPS fixes around this
+    slot.elapsedNanos = SystemClock.elapsedRealtimeNanos();
+    ScanRecord record = slot.record;
+    record.deviceId = cellScanner.getDeviceId();
+    record.deviceTime = Calendar.getInstance().getTime().getTime();
+    slot.scanned.addAll(cells);
+    pipeline.publish();
+    pipelineDepth.set(pipeline.getInFlight());
+  }
+
+  /**
+   * Last stage: renders the scan and the counters as text off the main
+   * thread, and posts one UI update unless one is already pending.
+   */
+  private void publishSnapshot(ScanRecord record) {
+    StringBuilder text=new StringBuilder(record.toCsv());
+    DemoUnifiedApplication app=(DemoUnifiedApplication)getApplication();
+    UploadStats stats=app.getUploadStats();
+    StagedPipeline<ScanSlot> current=pipeline;
+
+    if (stats!=null) {
+      text.append("#upload ").append(stats).append('\n');
     }
 
-    void startRepeatingTask() {
-      mStatusChecker.run();
+    text.append("#schedule ").append(cellInfoSource.getScheduler()).append('\n');
+    text.append("#wake ").append(app.getScanBurst()).append('\n');
+    text.append("#towers ").append(app.getTowerStats()).append('\n');
+    text.append("#gps ").append(app.getGroundTruth()).append('\n');
+    text.append("#fingerprints ").append(app.getFingerprints()).append('\n');
+
+    if (current!=null) {
+      text.append("#pipeline ").append(current).append('\n');
     }
 
-    void stopRepeatingTask() {
-      mHandler.removeCallbacks(mStatusChecker);
+    text.append("#metrics\n").append(app.getMetrics());
+
+    latestSnapshot.set(text.toString());
+
+    if (!snapshotPending.getAndSet(true)) {
+      runOnUiThread(showSnapshot);
     }
   }
 
-
   private void toggleWidgets(boolean enable) {
     type.setEnabled(enable);
     period.setEnabled(enable);
@@ -36,21 +36,34 @@ public class PollReceiver extends BroadcastReceiver {
     long period=i.getLongExtra(EXTRA_PERIOD, -1);
 
     if (period>0) {
+      // the selected period is the shortest; a calm radio environment
+      // stretches it
+      long delay=Math.max(period,
+        ((DemoUnifiedApplication)ctxt.getApplicationContext())
+          .getScanBurst()
+          .getWakeIntervalMillis());
+
       scheduleExactAlarm(ctxt,
           (AlarmManager)ctxt.getSystemService(Context.ALARM_SERVICE),
-          period, isDownload);
+          period, delay, isDownload);
     }
   }
 
   static void scheduleExactAlarm(Context ctxt, AlarmManager alarms,
                                  long period, boolean isDownload) {
+    scheduleExactAlarm(ctxt, alarms, period, period, isDownload);
+  }
+
+  static void scheduleExactAlarm(Context ctxt, AlarmManager alarms,
+                                 long period, long delay,
+                                 boolean isDownload) {
     Intent i=new Intent(ctxt, PollReceiver.class)
         .putExtra(EXTRA_PERIOD, period)
         .putExtra(EXTRA_IS_DOWNLOAD, isDownload);
     PendingIntent pi=PendingIntent.getBroadcast(ctxt, 0, i, 0);
 
     alarms.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP,
-        SystemClock.elapsedRealtime()+period, pi);
+        SystemClock.elapsedRealtime()+delay, pi);
   }
 
   static void scheduleInexactAlarm(Context ctxt, AlarmManager alarms,
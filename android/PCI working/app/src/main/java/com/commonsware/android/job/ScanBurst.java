@@ -0,0 +1,400 @@
+package com.commonsware.android.job;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import com.commonsware.android.job.CellSites.CellInfo;
+import com.commonsware.android.job.CellSites.CellScanner;
+import com.commonsware.android.job.CellSites.ScanRecord;
+import com.commonsware.android.job.CellSites.SnapshotFilter;
+import com.commonsware.android.job.CellSites.celldb.CellStore;
+import com.commonsware.android.job.CellSites.codec.BinaryWriter;
+import com.commonsware.android.job.CellSites.codec.ScanBatchEncoder;
+import com.commonsware.android.job.CellSites.journal.ScanJournal;
+import com.commonsware.android.job.CellSites.locate.CellLocator;
+import com.commonsware.android.job.CellSites.locate.FingerprintStore;
+import com.commonsware.android.job.CellSites.locate.GroundTruthBuffer;
+import com.commonsware.android.job.CellSites.locate.NeighbourResolver;
+import com.commonsware.android.job.CellSites.locate.ParticleTracker;
+import com.commonsware.android.job.CellSites.locate.TowerStats;
+import com.commonsware.android.job.CellSites.metrics.Histogram;
+import com.commonsware.android.job.CellSites.metrics.MetricsRegistry;
+import com.commonsware.android.job.CellSites.pipeline.ScanSlot;
+import com.commonsware.android.job.CellSites.pipeline.ScanStages;
+import com.commonsware.android.job.CellSites.pipeline.StagedPipeline;
+import com.commonsware.android.job.CellSites.schedule.ScanScheduler;
+import com.commonsware.android.job.CellSites.schedule.WakeLog;
+import com.commonsware.android.job.CellSites.upload.CollectorUploader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The wake-window workload that every scheduling mode runs: under one
+ * partial wake lock, K polls of the cell scanner a couple of seconds
+ * apart, every new snapshot normalized, added to the tower stats and
+ * located by the same stages as live mode, and the whole wake encoded into
+ * a single multi-scan journal entry. Scans are labelled with the GPS fixes
+ * around them only at the end of the wake, when the fixes that came in
+ * after the early scans are there to interpolate with; the labelled ones
+ * then go into the fingerprint store, which is saved after the wake.
+ *
+ * The uploader stays deferred between wakes, so the modem is only powered
+ * for an upload every M-th wake, once FLUSH_BYTES have piled up, or when a
+ * trigger asks for a flush; the wake lock is held until that upload is
+ * done. Each wake's awake time, CPU time, upload (radio) time, scans and
+ * bytes go to a {@link WakeLog} for tuning K and M; scan and encode times
+ * and sizes go to the application's {@link MetricsRegistry}.
+ *
+ * Bursts run one at a time on the application's bounded scan executor. A
+ * trigger that arrives while a burst is queued or running joins it rather
+ * than starting another, so an alarm and a job firing together cost one
+ * radio wakeup; such triggers are counted as coalesced. A flush asked for
+ * once the running burst has decided whether to upload is queued as a
+ * follow-up burst, which later triggers join instead.
+ *
+ * The last non-empty scan of every wake also goes to a
+ * {@link ScanScheduler}, whose interval the exact-alarm mode uses for its
+ * next alarm (never below the selected period). Inexact alarms and
+ * periodic jobs cannot be moved from inside a run, so those modes keep the
+ * selected fixed period.
+ */
+class ScanBurst {
+  static final int SCANS_PER_WAKE=3;
+  static final long BURST_SPACING_MS=2000;
+  static final int UPLOAD_EVERY_WAKES=4;
+  static final int FLUSH_BYTES=32*1024;
+  static final long UPLOAD_TIMEOUT_MS=60000;
+  static final long MIN_WAKE_INTERVAL_MS=60000;
+  static final long MAX_WAKE_INTERVAL_MS=60*60000;
+  private static final String TAG="ScanBurst";
+  private final Context ctxt;
+  private final Executor executor;
+  private final CellScanner scanner;
+  private final ScanJournal journal;
+  private final CollectorUploader uploader;
+  private final PowerManager.WakeLock wakeLock;
+  private final WakeLog wakeLog=new WakeLog();
+  private final SnapshotFilter filter=new SnapshotFilter();
+  // burst thread only, but its interval may be read from any thread
+  private final ScanScheduler scheduler=
+    new ScanScheduler(MIN_WAKE_INTERVAL_MS, MAX_WAKE_INTERVAL_MS);
+  private final GroundTruthBuffer groundTruth;
+  private final FingerprintStore fingerprints;
+  // one per scan of the current wake, reused across wakes
+  private final List<ScanSlot> wakeSlots=new ArrayList<ScanSlot>();
+  private final BinaryWriter entry=new BinaryWriter(4096);
+  private final ScanBatchEncoder encoder=new ScanBatchEncoder();
+  private final List<StagedPipeline.Stage<ScanSlot>> stages=
+    new ArrayList<StagedPipeline.Stage<ScanSlot>>();
+  private final List<Runnable> listeners=new ArrayList<Runnable>();
+  private final Histogram encodeMicros;
+  private final Histogram encodeBytes;
+  private FutureTask<Void> current=null;
+  private String currentSources=null;
+  private boolean currentFlush=false;
+  // the running burst has read currentFlush
+  private boolean decided=false;
+  private FutureTask<Void> next=null;
+  private String nextSources=null;
+  private final List<Runnable> nextListeners=new ArrayList<Runnable>();
+  private long triggers=0;
+  private long coalesced=0;
+  private long bursts=0;
+  private long scans=0;
+  // burst thread only
+  private int wakesSinceUpload=0;
+  private long bytesSinceUpload=0;
+
+  ScanBurst(Context ctxt, Executor executor, CellStore store,
+            ScanJournal journal, CollectorUploader uploader,
+            MetricsRegistry metrics, TowerStats towerStats,
+            GroundTruthBuffer groundTruth, FingerprintStore fingerprints) {
+    this.ctxt=ctxt.getApplicationContext();
+    this.executor=executor;
+    this.scanner=new CellScanner(ctxt);
+    this.journal=journal;
+    this.uploader=uploader;
+    this.groundTruth=groundTruth;
+    this.fingerprints=fingerprints;
+    scanner.setMetrics(metrics);
+    encodeMicros=metrics.histogram(MetricsRegistry.ENCODE_MICROS);
+    encodeBytes=metrics.histogram(MetricsRegistry.ENCODE_BYTES);
+
+    PowerManager pm=(PowerManager)this.ctxt.getSystemService(Context.POWER_SERVICE);
+
+    wakeLock=pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "radiolocation:"+TAG);
+    wakeLock.setReferenceCounted(false);
+
+    stages.add(ScanStages.normalize());
+    stages.add(ScanStages.towerStats(towerStats, false));
+
+    if (store!=null) {
+      CellLocator locator=new CellLocator(store, new NeighbourResolver());
+
+      locator.setTowerStats(towerStats);
+
+      stages.add(ScanStages.locate(locator, new ParticleTracker(store, locator,
+          ParticleTracker.DEFAULT_PARTICLES, System.nanoTime()), fingerprints));
+    }
+
+    if (uploader!=null) {
+      uploader.setDeferred(true);
+    }
+  }
+
+  /**
+   * Starts a burst, or joins the one queued or running, on behalf of
+   * source (for the log). With flush, the burst ends with an upload
+   * whatever the wake count. whenDone, if not null, runs on the
+   * executor once the burst is over; the returned future completes then
+   * too.
+   */
+  synchronized Future<?> trigger(String source, boolean flush, Runnable whenDone) {
+    triggers++;
+
+    if (current==null) {
+      current=newBurst();
+      currentSources=source;
+      currentFlush=flush;
+      decided=false;
+      executor.execute(current);
+    }
+    else if (decided && (flush || next!=null)) {
+      // too late for the running burst's upload: wait for the next one
+      if (next==null) {
+        next=newBurst();
+        nextSources=source;
+      }
+      else {
+        coalesced++;
+        nextSources+="+"+source;
+      }
+
+      if (whenDone!=null) {
+        nextListeners.add(whenDone);
+      }
+
+      return(next);
+    }
+    else {
+      coalesced++;
+      currentSources+="+"+source;
+      currentFlush|=flush;
+    }
+
+    if (whenDone!=null) {
+      listeners.add(whenDone);
+    }
+
+    return(current);
+  }
+
+  /**
+   * Time to the next wake that the radio environment calls for.
+   */
+  long getWakeIntervalMillis() {
+    return(scheduler.getIntervalMillis());
+  }
+
+  private FutureTask<Void> newBurst() {
+    return(new FutureTask<Void>(new Callable<Void>() {
+      @Override
+      public Void call() {
+        try {
+          burst();
+        }
+        finally {
+          finished();
+        }
+
+        return(null);
+      }
+    }));
+  }
+
+  private void burst() {
+    wakeLock.acquire(SCANS_PER_WAKE*BURST_SPACING_MS+UPLOAD_TIMEOUT_MS+10000);
+
+    try {
+      wake();
+    }
+    finally {
+      wakeLock.release();
+    }
+  }
+
+  private void wake() {
+    long start=SystemClock.elapsedRealtime();
+    long startCpu=Process.getElapsedCpuTime();
+    int kept=0;
+    ArrayList<CellInfo> last=null;
+
+    for (int i=0; i<SCANS_PER_WAKE; i++) {
+      if (i>0) {
+        SystemClock.sleep(BURST_SPACING_MS);
+      }
+
+      ArrayList<CellInfo> cells=scanner.scan();
+
+      if (!cells.isEmpty()) {
+        last=cells;
+      }
+
+      if (cells.isEmpty() || !filter.accept(cells, scanner.getLastTimestampNanos())) {
+        continue;
+      }
+
+      if (kept==wakeSlots.size()) {
+        wakeSlots.add(new ScanSlot());
+      }
+
+      ScanSlot slot=wakeSlots.get(kept);
+
+      slot.clear();
+      slot.elapsedNanos=SystemClock.elapsedRealtimeNanos();
+
+      ScanRecord record=slot.record;
+
+      record.deviceId=scanner.getDeviceId();
+      record.deviceTime=System.currentTimeMillis();
+      slot.scanned.addAll(cells);
+
+      for (StagedPipeline.Stage<ScanSlot> stage : stages) {
+        try {
+          stage.process(slot);
+        }
+        catch (Exception e) {
+          Log.e(TAG, "Scan stage failed", e);
+        }
+      }
+
+      if (!record.cells.isEmpty()) {
+        kept++;
+      }
+    }
+
+    if (last!=null) {
+      // unchanged scans count too: they are what lengthens the interval
+      scheduler.observe(last, SystemClock.elapsedRealtime());
+    }
+
+    encoder.reset();
+
+    for (int i=0; i<kept; i++) {
+      ScanSlot slot=wakeSlots.get(i);
+
+      if (groundTruth.join(slot.elapsedNanos,
+        GroundTruthBuffer.DEFAULT_TOLERANCE_NANOS, slot.record)) {
+        fingerprints.add(slot.record);
+      }
+
+      long encodeStart=System.nanoTime();
+
+      encoder.add(slot.record);
+      encodeMicros.record((System.nanoTime()-encodeStart)/1000);
+    }
+
+    int journalled=encoder.scanCount();
+    int bytes=0;
+
+    if (journalled>0 && journal!=null) {
+      // the whole wake is one entry: one dictionary, one append, one fsync
+      entry.reset();
+      encoder.writeTo(entry);
+
+      try {
+        journal.append(entry.array(), 0, entry.size());
+        bytes=entry.size();
+        // the scans share one dictionary, so only the average is known
+        encodeBytes.record(bytes/journalled, journalled);
+      }
+      catch (IOException e) {
+        Log.e(TAG, "Cannot journal "+journalled+" scans", e);
+      }
+    }
+
+    ((DemoUnifiedApplication)ctxt).saveFingerprints();
+
+    String sources;
+    boolean flush;
+
+    synchronized(this) {
+      sources=currentSources;
+      flush=currentFlush;
+      decided=true;
+      scans+=journalled;
+      bursts++;
+    }
+
+    wakesSinceUpload++;
+    bytesSinceUpload+=bytes;
+
+    boolean upload=uploader!=null && (flush
+      || wakesSinceUpload>=UPLOAD_EVERY_WAKES || bytesSinceUpload>=FLUSH_BYTES);
+    long radioMillis=0;
+    boolean uploaded=false;
+
+    if (upload) {
+      long uploadStart=SystemClock.elapsedRealtime();
+
+      try {
+        uploaded=uploader.flushAndWait(UPLOAD_TIMEOUT_MS);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      // a failed upload leaves its entries for the next one
+      radioMillis=Math.max(1, SystemClock.elapsedRealtime()-uploadStart);
+      wakesSinceUpload=0;
+      bytesSinceUpload=0;
+    }
+
+    long awake=SystemClock.elapsedRealtime()-start;
+    long cpu=Process.getElapsedCpuTime()-startCpu;
+
+    wakeLog.record(awake, cpu, radioMillis, journalled, bytes);
+
+    Log.i(TAG, "wake for "+sources+": "+journalled+" of "+SCANS_PER_WAKE
+      +" polls, "+bytes+" B journalled, "+awake+" ms awake, "+cpu+" ms cpu"
+      +(upload ? ", upload "+(uploaded ? "done" : "failed")+" in "+radioMillis+" ms" : ""));
+  }
+
+  private void finished() {
+    List<Runnable> done;
+
+    synchronized(this) {
+      done=new ArrayList<Runnable>(listeners);
+      listeners.clear();
+      current=next;
+      currentSources=nextSources;
+      next=null;
+      nextSources=null;
+
+      if (current!=null) {
+        currentFlush=true;
+        decided=false;
+        listeners.addAll(nextListeners);
+        nextListeners.clear();
+        executor.execute(current);
+      }
+    }
+
+    for (Runnable r : done) {
+      r.run();
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return(bursts+" bursts, "+scans+" scans, "+triggers+" triggers, "
+      +coalesced+" coalesced; "+wakeLog+"; next wake "+scheduler);
+  }
+}
@@ -0,0 +1,180 @@
+package com.commonsware.android.job.CellSites.benchmarks;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.ScanRecord;
+import com.commonsware.android.job.CellSites.SnapshotConverter;
+import com.commonsware.android.job.CellSites.TelephonySnapshot;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-scan cost of the cell model code that runs on every tick, for scans
+ * of 1 to 40 cells (a registered LTE cell plus LTE, WCDMA and GSM
+ * neighbours): rendering each cell as CSV and as the JSON object the app's
+ * CellInfo.toJSONObject() builds, equals/hashCode, the operator string
+ * parse, converting a telephony snapshot (what Scanner.addCellToList did
+ * per reported cell) and assembling the whole scan's CSV text block.
+ *
+ * Run with the GC profiler for allocation per scan:
+ * ./gradlew :benchmarks:jmh -PjmhInclude=CellModelBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CellModelBenchmark {
+    private static final SnapshotConverter.Factory<CellData> CELLS = new SnapshotConverter.Factory<CellData>() {
+        @Override
+        public CellData create() {
+            return new CellData();
+        }
+    };
+
+    @Param({"1", "5", "10", "20", "40"})
+    public int cells;
+
+    private final TelephonySnapshot snapshot = new TelephonySnapshot();
+    private final TelephonySnapshot neighbours = new TelephonySnapshot();
+    private final SnapshotConverter<CellData> converter = new SnapshotConverter<CellData>(CELLS);
+    private final List<CellData> converted = new ArrayList<CellData>();
+    private final ScanRecord record = new ScanRecord();
+    private CellData[] scan;
+    private CellData[] copy;
+    private final CellData neighbour = new CellData();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        this.snapshot.phoneType = 1;
+        this.neighbours.phoneType = 1;
+        this.neighbours.networkOperator = "302720";
+        for (int i = 0; i < this.cells; i++) {
+            TelephonySnapshot.Cell cell = this.snapshot.addCell();
+            cell.type = i == 0 || i % 3 == 1 ? TelephonySnapshot.TYPE_LTE
+                    : i % 3 == 2 ? TelephonySnapshot.TYPE_WCDMA : TelephonySnapshot.TYPE_GSM;
+            cell.registered = i == 0;
+            cell.timestampNanos = 1000000000L + i;
+            cell.mcc = 302;
+            cell.mnc = 720;
+            cell.lac = 21000 + i % 4;
+            cell.cid = 1000 + i;
+            cell.psc = cell.type == TelephonySnapshot.TYPE_GSM ? Integer.MAX_VALUE : i % 504;
+            cell.dbm = -70 - random.nextInt(50);
+            cell.asu = cell.dbm + 140;
+            cell.timingAdvance = i == 0 ? 5 : Integer.MAX_VALUE;
+            cell.level = 1 + random.nextInt(4);
+
+            TelephonySnapshot.Cell nci = this.neighbours.addNeighbour();
+            nci.networkType = 3;
+            nci.lac = 400;
+            nci.cid = 20000 + i;
+            nci.psc = i % 512;
+            nci.dbm = -90 - random.nextInt(20);
+        }
+
+        this.scan = new CellData[this.cells];
+        this.copy = new CellData[this.cells];
+        for (int i = 0; i < this.cells; i++) {
+            this.scan[i] = new CellData();
+            this.copy[i] = new CellData();
+            SnapshotConverter.convertCell(this.snapshot.getCell(i), this.scan[i]);
+            SnapshotConverter.convertCell(this.snapshot.getCell(i), this.copy[i]);
+            this.record.cells.add(this.scan[i]);
+        }
+        this.record.deviceId = "358240051111110";
+        this.record.deviceTime = 1500000000000L;
+        this.record.setLocation(45.4215, -75.6972, 3, 8.5f, 12.0f, 270.0f);
+        this.record.setRadioFix(45.4221, -75.6981, 450);
+    }
+
+    @Benchmark
+    public void cellToString(Blackhole bh) {
+        for (int i = 0; i < this.cells; i++) {
+            bh.consume(this.scan[i].toString());
+        }
+    }
+
+    /**
+     * The puts of CellInfo.toJSONObject(), against the JVM build of org.json.
+     */
+    @Benchmark
+    public void cellToJsonObject(Blackhole bh) throws JSONException {
+        for (int i = 0; i < this.cells; i++) {
+            CellData cell = this.scan[i];
+            JSONObject obj = new JSONObject();
+            obj.put("radio", cell.getCellRadio());
+            obj.put("cid", cell.getCid());
+            obj.put("lac", cell.getLac());
+            obj.put("mcc", cell.getMcc());
+            obj.put("mnc", cell.getMnc());
+            obj.put("simpleLevel", cell.getSimpleLevel());
+            obj.put("isRegistered", cell.getIsRegistered());
+            if (cell.getSignalStrength() != CellData.UNKNOWN_SIGNAL_STRENGTH) {
+                obj.put("signal", cell.getSignalStrength());
+            }
+            if (cell.getTimingAdvance() != -1) {
+                obj.put("timingAdvance", cell.getTimingAdvance());
+            }
+            if (cell.getPsc() != -1) {
+                obj.put("psc", cell.getPsc());
+            }
+            if (cell.getAsu() != -1) {
+                obj.put("asu", cell.getAsu());
+            }
+            bh.consume(obj);
+        }
+    }
+
+    @Benchmark
+    public void cellEqualsHashCode(Blackhole bh) {
+        for (int i = 0; i < this.cells; i++) {
+            bh.consume(this.scan[i].equals(this.copy[i]));
+            bh.consume(this.scan[i].hashCode());
+        }
+    }
+
+    /**
+     * setNetworkOperator's substring + parseInt, reached per neighbouring
+     * cell through the conversion that calls it.
+     */
+    @Benchmark
+    public void setNetworkOperator(Blackhole bh) {
+        for (int i = 0; i < this.cells; i++) {
+            SnapshotConverter.convertNeighbour(this.neighbours.getNeighbour(i), this.neighbours.networkOperator, this.neighbour);
+            bh.consume(this.neighbour.getMnc());
+        }
+    }
+
+    /**
+     * Validating, converting and deduping a reported cell list, the work
+     * Scanner.addCellToList did one cell at a time.
+     */
+    @Benchmark
+    public List<CellData> convertSnapshot() {
+        this.converted.clear();
+        this.converter.convert(this.snapshot, this.converted);
+        return this.converted;
+    }
+
+    /**
+     * The CSV text block per scan, formerly assembled in MainActivity.Invoke().
+     */
+    @Benchmark
+    public String scanToCsv() {
+        return this.record.toCsv();
+    }
+}
@@ -0,0 +1,115 @@
+package com.commonsware.android.job.CellSites.benchmarks;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.ScanRecord;
+import com.commonsware.android.job.CellSites.locate.FingerprintStore;
+import com.commonsware.android.job.CellSites.locate.RadioFix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-scan cost of a {@link FingerprintStore} k-NN match, with 10k and
+ * 100k fingerprints taken at random spots of a 20 x 20 km area covered by
+ * LTE towers every 500 m (about 60 fingerprints per serving cell at 100k)
+ * or every 2 km (about 1000, the long chains of a rural tower).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FingerprintBenchmark {
+    private static final double AREA = 20000;
+    private static final double METRES_PER_DEGREE = 111320.0;
+    private static final int QUERIES = 1024;
+
+    @Param({"10000", "100000"})
+    public int fingerprints;
+
+    @Param({"500", "2000"})
+    public int spacing;
+
+    private FingerprintStore store;
+    private final RadioFix fix = new RadioFix();
+    private final List<List<CellData>> queries = new ArrayList<List<CellData>>();
+    private int grid;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        this.grid = (int) (AREA / this.spacing) + 1;
+        this.store = new FingerprintStore(this.fingerprints, FingerprintStore.DEFAULT_K);
+        ScanRecord record = new ScanRecord();
+        double[] xs = new double[this.fingerprints];
+        double[] ys = new double[this.fingerprints];
+        for (int f = 0; f < this.fingerprints; f++) {
+            xs[f] = random.nextDouble() * AREA;
+            ys[f] = random.nextDouble() * AREA;
+            record.reset();
+            scan(xs[f], ys[f], random, record.cells);
+            record.setLocation(45 + ys[f] / METRES_PER_DEGREE,
+                    -75 + xs[f] / (METRES_PER_DEGREE * Math.cos(Math.toRadians(45))), 0, 5, 0, 0);
+            this.store.add(record);
+        }
+        int matched = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            int f = random.nextInt(this.fingerprints);
+            List<CellData> query = new ArrayList<CellData>();
+            scan(xs[f] + random.nextGaussian() * 10, ys[f] + random.nextGaussian() * 10, random, query);
+            this.queries.add(query);
+            if (this.store.locate(query, this.fix)) {
+                matched++;
+            }
+        }
+        System.out.printf("%n%s; %d of %d queries matched%n", this.store, matched, QUERIES);
+    }
+
+    /**
+     * Towers within 2.5 km, -15 - 32 log10(d) dBm plus 6 dB of noise, down
+     * to -125 dBm; the strongest is the serving cell.
+     */
+    private void scan(double x, double y, Random random, List<CellData> out) {
+        int reach = (int) Math.ceil(2500.0 / this.spacing);
+        int column = (int) Math.round(x / this.spacing);
+        int row = (int) Math.round(y / this.spacing);
+        int strongest = -1;
+        int strongestDbm = Integer.MIN_VALUE;
+        for (int i = Math.max(0, column - reach); i <= Math.min(this.grid - 1, column + reach); i++) {
+            for (int j = Math.max(0, row - reach); j <= Math.min(this.grid - 1, row + reach); j++) {
+                double d = Math.max(10, Math.hypot(x - i * this.spacing, y - j * this.spacing));
+                int dbm = (int) Math.round(-15 - 32 * Math.log10(d) + random.nextGaussian() * 6);
+                if (d > 2500 || dbm < -125) {
+                    continue;
+                }
+                int cid = i * this.grid + j;
+                CellData cell = new CellData();
+                cell.setLteCellInfo(302, 720, cid, cid % 504, 21000, 30, dbm, Integer.MAX_VALUE, 3);
+                out.add(cell);
+                if (dbm > strongestDbm) {
+                    strongestDbm = dbm;
+                    strongest = out.size() - 1;
+                }
+            }
+        }
+        if (strongest >= 0) {
+            out.get(strongest).setIsRegistered((byte) 1);
+        }
+    }
+
+    @Benchmark
+    public RadioFix locate() {
+        this.store.locate(this.queries.get(this.next++ & (QUERIES - 1)), this.fix);
+        return this.fix;
+    }
+}
@@ -0,0 +1,92 @@
+package com.commonsware.android.job.CellSites.benchmarks;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.CellKey;
+import com.commonsware.android.job.CellSites.RadioType;
+import com.commonsware.android.job.CellSites.celldb.CellRecords;
+import com.commonsware.android.job.CellSites.celldb.CellStore;
+import com.commonsware.android.job.CellSites.locate.CellLocator;
+import com.commonsware.android.job.CellSites.locate.RadioFix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-scan cost of {@link CellLocator} against a country-sized cell store
+ * (1M LTE towers), for scans of 1 to 40 resolved cells.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LocatorBenchmark {
+    private static final int TOWERS = 1000000;
+
+    @Param({"1", "5", "10", "20", "40"})
+    public int cells;
+
+    private File dir;
+    private CellStore store;
+    private CellLocator locator;
+    private final RadioFix fix = new RadioFix();
+    private final List<CellData> scan = new ArrayList<CellData>();
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        CellRecords records = new CellRecords(TOWERS);
+        for (int cid = 0; cid < TOWERS; cid++) {
+            int latitude = 450000000 + random.nextInt(20000000);
+            int longitude = -760000000 + random.nextInt(20000000);
+            records.add(CellKey.pack(RadioType.LTE, 302, 720, 0, cid, cid % 504),
+                    latitude, longitude, 21000, 200 + random.nextInt(3000), 10, 1500000000L);
+        }
+        records.sortAndDedupe();
+        this.dir = File.createTempFile("locator", "");
+        if (!this.dir.delete() || !this.dir.mkdirs()) {
+            throw new IOException("Cannot create " + this.dir);
+        }
+        File db = new File(this.dir, "cells.db");
+        records.writeTo(db, 1);
+        this.store = new CellStore(new File(this.dir, "store"));
+        this.store.installBase(db);
+        this.locator = new CellLocator(this.store);
+
+        int first = random.nextInt(TOWERS - this.cells);
+        for (int i = 0; i < this.cells; i++) {
+            CellData cell = new CellData();
+            cell.setLteCellInfo(302, 720, first + i, (first + i) % 504, 21000, 30, -80 - random.nextInt(40), i == 0 ? 5 : Integer.MAX_VALUE, 3);
+            cell.setIsRegistered((byte) (i == 0 ? 1 : 0));
+            this.scan.add(cell);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.store.close();
+        for (File f : new File(this.dir, "store").listFiles()) {
+            f.delete();
+        }
+        new File(this.dir, "store").delete();
+        this.dir.delete();
+    }
+
+    @Benchmark
+    public RadioFix locate() {
+        this.locator.locate(this.scan, this.fix);
+        return this.fix;
+    }
+}
@@ -0,0 +1,121 @@
+package com.commonsware.android.job.CellSites.benchmarks;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.CellKey;
+import com.commonsware.android.job.CellSites.RadioType;
+import com.commonsware.android.job.CellSites.celldb.CellRecords;
+import com.commonsware.android.job.CellSites.celldb.CellStore;
+import com.commonsware.android.job.CellSites.locate.CellLocator;
+import com.commonsware.android.job.CellSites.locate.ParticleTracker;
+import com.commonsware.android.job.CellSites.locate.RadioFix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one {@link ParticleTracker} update (predict, weigh, estimate,
+ * resample when degenerate) for a 1 Hz scan of 6 LTE cells, replayed along
+ * a drive through a 400 m tower grid.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParticleTrackerBenchmark {
+    private static final int GRID = 40;
+    private static final double SPACING = 400;
+    private static final int SCANS = 256;
+    private static final int CELLS_PER_SCAN = 6;
+
+    @Param({"1000", "5000", "20000"})
+    public int particles;
+
+    private File dir;
+    private CellStore store;
+    private ParticleTracker tracker;
+    private final RadioFix fix = new RadioFix();
+    private final List<List<CellData>> scans = new ArrayList<List<CellData>>();
+    private int next;
+    private long time;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        double metresPerLongitude = 111320.0 * Math.cos(Math.toRadians(45));
+        CellRecords records = new CellRecords(GRID * GRID);
+        for (int i = 0; i < GRID * GRID; i++) {
+            double x = (i % GRID) * SPACING;
+            double y = (i / GRID) * SPACING;
+            records.add(CellKey.pack(RadioType.LTE, 302, 720, 0, i, i % 504),
+                    (int) ((45 + y / 111320.0) * 1e7), (int) ((-75 + x / metresPerLongitude) * 1e7),
+                    21000, 600, 10, 1500000000L);
+        }
+        records.sortAndDedupe();
+        this.dir = File.createTempFile("tracker", "");
+        if (!this.dir.delete() || !this.dir.mkdirs()) {
+            throw new IOException("Cannot create " + this.dir);
+        }
+        File db = new File(this.dir, "cells.db");
+        records.writeTo(db, 1);
+        this.store = new CellStore(new File(this.dir, "store"));
+        this.store.installBase(db);
+        this.tracker = new ParticleTracker(this.store, new CellLocator(this.store), this.particles, 42);
+
+        // 15 m/s along a diagonal; the nearest towers, strongest first
+        for (int s = 0; s < SCANS; s++) {
+            double px = 2000 + 15 * s;
+            double py = 2000 + 10 * s;
+            int cx = (int) Math.round(px / SPACING);
+            int cy = (int) Math.round(py / SPACING);
+            List<CellData> scan = new ArrayList<CellData>();
+            int[][] offsets = {{0, 0}, {1, 0}, {0, 1}, {-1, 0}, {0, -1}, {1, 1}};
+            for (int c = 0; c < CELLS_PER_SCAN; c++) {
+                int id = (cy + offsets[c][1]) * GRID + cx + offsets[c][0];
+                double d = Math.hypot((id % GRID) * SPACING - px, (id / GRID) * SPACING - py);
+                int dbm = (int) (-70 - 35 * Math.log10(Math.max(d, 20) / 200) + random.nextGaussian() * 6);
+                CellData cell = new CellData();
+                cell.setLteCellInfo(302, 720, id, id % 504, 21000, 30, dbm, Integer.MAX_VALUE, 3);
+                cell.setIsRegistered((byte) (c == 0 ? 1 : 0));
+                scan.add(cell);
+            }
+            this.scans.add(scan);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.store.close();
+        for (File f : new File(this.dir, "store").listFiles()) {
+            f.delete();
+        }
+        new File(this.dir, "store").delete();
+        this.dir.delete();
+    }
+
+    @Benchmark
+    public RadioFix update() {
+        int s = this.next++;
+        if (s == SCANS) {
+            // start the drive over as a new track
+            s = 0;
+            this.next = 1;
+            this.tracker.reset();
+        }
+        this.time += 1000;
+        this.tracker.update(this.scans.get(s), this.time, this.fix);
+        return this.fix;
+    }
+}
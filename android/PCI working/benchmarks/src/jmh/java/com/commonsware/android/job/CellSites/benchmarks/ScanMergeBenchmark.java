@@ -0,0 +1,82 @@
+package com.commonsware.android.job.CellSites.benchmarks;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.CellDeduper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-scan conversion and merge cost of the old KScanner + Scanner double
+ * scan against the single-pass CellScanner.
+ *
+ * The telephony objects only exist on a device, so "conversion" here is the
+ * CellData setter work both paths do per reported cell: the old path did it
+ * twice (PCellInfo, then new CellInfo(pcell)) and merged with
+ * List.contains; the new path does it once and dedupes by identity.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScanMergeBenchmark {
+    @Param({"1", "5", "10", "20", "40"})
+    public int cells;
+
+    private int[][] reported;
+    // CellScanner keeps one deduper for its lifetime
+    private final CellDeduper<CellData> deduper = new CellDeduper<CellData>();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        this.reported = new int[this.cells][];
+        for (int i = 0; i < this.cells; i++) {
+            this.reported[i] = new int[]{302, 720, 1000 + i, i % 504, 21000, 30, -80 - random.nextInt(40), i == 0 ? 5 : Integer.MAX_VALUE, 3};
+        }
+    }
+
+    private CellData convert(int[] r, int signalJitter) {
+        CellData cell = new CellData();
+        cell.setLteCellInfo(r[0], r[1], r[2], r[3], r[4], r[5], r[6] + signalJitter, r[7], r[8]);
+        return cell;
+    }
+
+    @Benchmark
+    public List<CellData> doubleScanListMerge() {
+        // the two APIs sample signal strength at slightly different times
+        List<CellData> cellsFromScanner = new ArrayList<CellData>(this.cells);
+        for (int i = 0; i < this.cells; i++) {
+            cellsFromScanner.add(convert(this.reported[i], 0));
+        }
+        List<CellData> cellsFromKScanner = new ArrayList<CellData>(this.cells);
+        for (int i = 0; i < this.cells; i++) {
+            cellsFromKScanner.add(convert(this.reported[i], 1));
+        }
+        for (int i = 0; i < cellsFromKScanner.size(); i++) {
+            CellData c = cellsFromKScanner.get(i);
+            if (!cellsFromScanner.contains(c)) {
+                cellsFromScanner.add(c);
+            }
+        }
+        return cellsFromScanner;
+    }
+
+    @Benchmark
+    public List<CellData> singlePassDedupe() {
+        for (int i = 0; i < this.cells; i++) {
+            this.deduper.add(convert(this.reported[i], 0));
+        }
+        return this.deduper.drainTo(new ArrayList<CellData>(this.cells));
+    }
+}
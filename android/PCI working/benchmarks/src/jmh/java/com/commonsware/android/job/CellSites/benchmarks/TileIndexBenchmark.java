@@ -0,0 +1,86 @@
+package com.commonsware.android.job.CellSites.benchmarks;
+
+import com.commonsware.android.job.CellSites.CellKey;
+import com.commonsware.android.job.CellSites.RadioType;
+import com.commonsware.android.job.CellSites.celldb.CellDatabase;
+import com.commonsware.android.job.CellSites.celldb.CellRecords;
+import com.commonsware.android.job.CellSites.celldb.TileIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PCI-only neighbour lookups per second through {@link TileIndex} at
+ * several zoom levels, over 1M LTE towers spread across a 20 x 20 degree
+ * region (about 1100 towers inside the default 35 km radius, 2 per PCI).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TileIndexBenchmark {
+    private static final int TOWERS = 1000000;
+    private static final int QUERIES = 1024;
+
+    @Param({"8", "10", "11", "12", "13"})
+    public int zoom;
+
+    @Param({"5000", "35000"})
+    public int radius;
+
+    private File file;
+    private CellDatabase db;
+    private TileIndex index;
+    private final double[] latitudes = new double[QUERIES];
+    private final double[] longitudes = new double[QUERIES];
+    private final int[] pcis = new int[QUERIES];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        CellRecords records = new CellRecords(TOWERS);
+        for (int cid = 0; cid < TOWERS; cid++) {
+            records.add(CellKey.pack(RadioType.LTE, 302, 720 + cid % 3, 0, cid, random.nextInt(504)),
+                    350000000 + random.nextInt(200000000), -900000000 + random.nextInt(200000000),
+                    21000, 1000, 10, 1500000000L);
+        }
+        records.sortAndDedupe();
+        this.file = File.createTempFile("tiles", ".db");
+        records.writeTo(this.file, 1);
+        this.db = CellDatabase.open(this.file);
+        long start = System.nanoTime();
+        this.index = TileIndex.build(this.db, this.zoom);
+        System.out.printf("%nzoom %d: %d tiles, %d KB, built in %d ms%n", this.zoom, this.index.getTileCount(),
+                this.index.memoryBytes() >> 10, (System.nanoTime() - start) / 1000000);
+        for (int i = 0; i < QUERIES; i++) {
+            this.latitudes[i] = 36 + random.nextDouble() * 18;
+            this.longitudes[i] = -89 + random.nextDouble() * 18;
+            this.pcis[i] = random.nextInt(504);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.db.close();
+        this.file.delete();
+    }
+
+    @Benchmark
+    public int nearest() {
+        int q = this.next++ & (QUERIES - 1);
+        return this.index.nearest(RadioType.LTE, this.pcis[q], this.latitudes[q], this.longitudes[q],
+                this.radius, 302, 720, null);
+    }
+}
@@ -0,0 +1,522 @@
+package com.commonsware.android.job.CellSites.benchmarks;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.CellKey;
+import com.commonsware.android.job.CellSites.RadioType;
+import com.commonsware.android.job.CellSites.SnapshotConverter;
+import com.commonsware.android.job.CellSites.TelephonySnapshot;
+import com.commonsware.android.job.CellSites.pipeline.ScanSlot;
+import com.commonsware.android.job.CellSites.pipeline.ScanStages;
+import com.commonsware.android.job.CellSites.pipeline.StagedPipeline;
+import com.commonsware.android.job.CellSites.upload.JsonBatchFormat;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A fleet of simulated phones posting scans to a collector, to find out
+ * what a collector sustains before a real fleet does. Each device drives
+ * from tower to tower over the towers of an MLS export and scans at a
+ * fixed interval: the towers within reach become a telephony snapshot
+ * (the nearest one serving, signal from distance) that goes through the
+ * app's own conversion, normalize and encode stages, and every few scans
+ * the device posts them the way CollectorUploader does, as the gzipped
+ * JSON batch format.
+ *
+ * Devices are tasks on a scheduled pool whose size is the number of
+ * requests in flight. Latency is measured from the time the batch's last
+ * scan was due, not from when the request was sent, so a collector that
+ * falls behind shows up in the percentiles instead of slowing the load
+ * down; the service time, sent to answered, is printed next to it. Every few seconds it prints the rates of that interval; at the end
+ * the sustained rates and latency percentiles after the warm-up.
+ *
+ * Usage: FleetLoad [towers.csv] [devices] [intervalMs] [batchScans]
+ * [seconds] [threads] [collector URL|stub]; "stub" posts to a collector
+ * on localhost that accepts everything.
+ */
+public class FleetLoad {
+    private static final int WARMUP_SECONDS = 5;
+    private static final int REPORT_SECONDS = 5;
+    private static final int MAX_CELLS = 12;
+    private static final double REACH_METERS = 3000;
+    private static final double METERS_PER_DEGREE = 111320;
+    private static final SnapshotConverter.Factory<CellData> CELLS = new SnapshotConverter.Factory<CellData>() {
+        @Override
+        public CellData create() {
+            return new CellData();
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        File csv = new File(args.length > 0 ? args[0] : "../../infrastructure/cellsites/mozilla/import_data/sample.csv");
+        int devices = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long intervalMs = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+        int batchScans = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 60;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : 64;
+        String collector = args.length > 6 ? args[6] : "stub";
+        // HttpURLConnection keeps 5 idle sockets per host by default; the
+        // rest would reconnect on every request
+        System.setProperty("http.maxConnections", String.valueOf(threads));
+
+        MlsTowers towers = MlsTowers.load(csv);
+        System.out.printf(Locale.US, "%s: %d towers in %d grid cells; %d devices scanning every %d ms, %d scans per"
+                        + " request, %d threads%n", csv.getName(), towers.records.size(), towers.grid.size(), devices,
+                intervalMs, batchScans, threads);
+
+        HttpServer stub = null;
+        URL endpoint;
+        if ("stub".equals(collector)) {
+            stub = startStub(threads);
+            endpoint = new URL("http://127.0.0.1:" + stub.getAddress().getPort() + "/");
+        } else {
+            endpoint = new URL(collector);
+        }
+        try {
+            run(towers, endpoint, devices, intervalMs, batchScans, seconds, threads);
+        } finally {
+            if (stub != null) {
+                stub.stop(0);
+                ((ExecutorService) stub.getExecutor()).shutdownNow();
+            }
+        }
+    }
+
+    private static void run(MlsTowers towers, URL endpoint, int devices, long intervalMs, int batchScans, int seconds,
+                            int threads) throws InterruptedException {
+        Stats stats = new Stats();
+        ScheduledExecutorService pool = Executors.newScheduledThreadPool(threads);
+        Random random = new Random(42);
+        Device[] fleet = new Device[devices];
+        for (int i = 0; i < devices; i++) {
+            fleet[i] = new Device(String.format(Locale.US, "fleet-%06d", i), towers, endpoint, batchScans,
+                    stats, new Random(random.nextLong()));
+        }
+        // leave time to schedule them all, so no device starts late
+        long start = System.nanoTime() + 100000000L;
+        for (int i = 0; i < devices; i++) {
+            // spread the devices over the interval instead of all scanning at once
+            long offset = intervalMs * 1000000L * i / devices;
+            fleet[i].schedule(pool, start + offset, intervalMs * 1000000L);
+        }
+
+        Stats.Totals last = stats.totals();
+        Stats.Totals measured = null;
+        for (int s = REPORT_SECONDS; s <= WARMUP_SECONDS + seconds; s += REPORT_SECONDS) {
+            Thread.sleep(Math.max(0, (start + s * 1000000000L - System.nanoTime()) / 1000000L));
+            Stats.Totals now = stats.totals();
+            now.print(String.format(Locale.US, "%4d s", s), last);
+            last = now;
+            if (s == WARMUP_SECONDS) {
+                stats.clearLatencies();
+                measured = now;
+            }
+        }
+        pool.shutdownNow();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+
+        if (measured == null) {
+            measured = new Stats.Totals(start);
+        }
+        last.print("total ", measured);
+        stats.printLatencies();
+    }
+
+    /**
+     * One phone: its position and where it is driving to, and the scans
+     * it has not posted yet. Its ticks never overlap, whichever pool thread
+     * runs them.
+     */
+    private static final class Device implements Runnable {
+        private final String id;
+        private final MlsTowers towers;
+        private final URL endpoint;
+        private final int batchScans;
+        private final Stats stats;
+        private final Random random;
+        private final List<byte[]> pending = new ArrayList<byte[]>();
+        private final int home;
+        private double latitude;
+        private double longitude;
+        private double speed;
+        private float bearing;
+        private int target;
+        private long firstDue;
+        private long period;
+        private long ticks;
+        private int postAt;
+
+        Device(String id, MlsTowers towers, URL endpoint, int batchScans, Stats stats, Random random) {
+            this.id = id;
+            this.towers = towers;
+            this.endpoint = endpoint;
+            this.batchScans = batchScans;
+            this.stats = stats;
+            this.random = random;
+            this.home = random.nextInt(towers.records.size());
+            this.latitude = towers.latitude(this.home);
+            this.longitude = towers.longitude(this.home);
+            this.target = this.home;
+            // walking to highway speeds
+            this.speed = 1 + random.nextDouble() * 30;
+            // a shorter first batch, so the fleet's posts do not all fall
+            // on the same tick
+            this.postAt = 1 + random.nextInt(batchScans);
+        }
+
+        void schedule(ScheduledExecutorService pool, long firstDue, long period) {
+            this.firstDue = firstDue;
+            this.period = period;
+            pool.scheduleAtFixedRate(this, firstDue - System.nanoTime(), period, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            long due = this.firstDue + this.ticks++ * this.period;
+            Worker worker = Worker.get();
+            move(this.period / 1e9);
+            ScanSlot slot = worker.scan(this, due);
+            this.stats.scans.incrementAndGet();
+            if (slot.encoded.size() > 0) {
+                this.pending.add(Arrays.copyOf(slot.encoded.array(), slot.encoded.size()));
+            }
+            if (this.pending.size() >= this.postAt) {
+                worker.post(this.endpoint, this.pending, due, this.stats);
+                this.pending.clear();
+                this.postAt = this.batchScans;
+            }
+        }
+
+        /**
+         * Drives seconds towards the target tower, picking a new one nearby
+         * on arrival (or the home tower if there is none).
+         */
+        private void move(double seconds) {
+            double step = this.speed * seconds;
+            double north = (this.towers.latitude(this.target) - this.latitude) * METERS_PER_DEGREE;
+            double east = (this.towers.longitude(this.target) - this.longitude) * METERS_PER_DEGREE
+                    * Math.cos(Math.toRadians(this.latitude));
+            double distance = Math.sqrt(north * north + east * east);
+            if (distance <= step) {
+                this.latitude = this.towers.latitude(this.target);
+                this.longitude = this.towers.longitude(this.target);
+                int[] near = this.towers.near(this.latitude, this.longitude);
+                this.target = near.length > 1 ? near[this.random.nextInt(near.length)] : this.home;
+                return;
+            }
+            this.bearing = (float) ((Math.toDegrees(Math.atan2(east, north)) + 360) % 360);
+            this.latitude += north / distance * step / METERS_PER_DEGREE;
+            this.longitude += east / distance * step / (METERS_PER_DEGREE * Math.cos(Math.toRadians(this.latitude)));
+        }
+    }
+
+    /**
+     * What a pool thread needs to turn a device's position into an encoded
+     * scan and post a batch: the same stages the app runs, and buffers
+     * reused across devices.
+     */
+    private static final class Worker {
+        private static final ThreadLocal<Worker> WORKERS = new ThreadLocal<Worker>() {
+            @Override
+            protected Worker initialValue() {
+                return new Worker();
+            }
+        };
+
+        private final TelephonySnapshot snapshot = new TelephonySnapshot();
+        private final SnapshotConverter<CellData> converter = new SnapshotConverter<CellData>(CELLS);
+        private final ScanSlot slot = new ScanSlot();
+        private final StagedPipeline.Stage<ScanSlot> normalize = ScanStages.normalize();
+        private final StagedPipeline.Stage<ScanSlot> encode = ScanStages.encode();
+        private final JsonBatchFormat format = new JsonBatchFormat();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(64 * 1024);
+        private final byte[] responseBuffer = new byte[1024];
+        private final int[] candidates = new int[256];
+        private final double[] distances = new double[256];
+
+        static Worker get() {
+            return WORKERS.get();
+        }
+
+        ScanSlot scan(Device device, long due) {
+            fillSnapshot(device, due);
+            this.slot.clear();
+            this.converter.convert(this.snapshot, this.slot.scanned);
+            ScanSlot slot = this.slot;
+            slot.record.deviceId = device.id;
+            slot.record.deviceTime = System.currentTimeMillis() - (System.nanoTime() - due) / 1000000L;
+            slot.record.setLocation(device.latitude, device.longitude, 0, 5.0f, (float) device.speed, device.bearing);
+            try {
+                this.normalize.process(slot);
+                this.encode.process(slot);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return slot;
+        }
+
+        /**
+         * The towers within reach, nearest first and serving, with a
+         * log-distance path loss and a few dB of noise.
+         */
+        private void fillSnapshot(Device device, long due) {
+            MlsTowers towers = device.towers;
+            int count = 0;
+            int[] near = towers.near(device.latitude, device.longitude);
+            for (int i = 0; i < near.length && count < this.candidates.length; i++) {
+                double d = towers.distance(near[i], device.latitude, device.longitude);
+                if (d <= REACH_METERS) {
+                    // insertion sort; there are rarely more than a few dozen
+                    int j = count++;
+                    while (j > 0 && this.distances[j - 1] > d) {
+                        this.distances[j] = this.distances[j - 1];
+                        this.candidates[j] = this.candidates[j - 1];
+                        j--;
+                    }
+                    this.distances[j] = d;
+                    this.candidates[j] = near[i];
+                }
+            }
+
+            this.snapshot.clear();
+            this.snapshot.phoneType = 1;
+            this.snapshot.elapsedNanos = due;
+            for (int i = 0; i < count && i < MAX_CELLS; i++) {
+                long key = towers.records.keyAt(this.candidates[i]);
+                int radio = CellKey.radioType(key);
+                TelephonySnapshot.Cell cell = this.snapshot.addCell();
+                cell.type = radio == RadioType.LTE ? TelephonySnapshot.TYPE_LTE
+                        : radio == RadioType.WCDMA ? TelephonySnapshot.TYPE_WCDMA : TelephonySnapshot.TYPE_GSM;
+                cell.registered = i == 0;
+                cell.timestampNanos = due;
+                cell.mcc = CellKey.mcc(key);
+                cell.mnc = CellKey.mnc(key);
+                cell.lac = towers.records.areaAt(this.candidates[i]);
+                cell.cid = CellKey.cid(key);
+                int psc = CellKey.psc(key);
+                cell.psc = psc < 0 || radio == RadioType.GSM ? Integer.MAX_VALUE : psc;
+                double d = Math.max(this.distances[i], 50);
+                int dbm = (int) Math.round(-45 - 30 * Math.log10(d / 50) + device.random.nextGaussian() * 4);
+                cell.dbm = Math.max(-140, Math.min(-44, dbm));
+                cell.asu = radio == RadioType.LTE ? cell.dbm + 140
+                        : radio == RadioType.WCDMA ? cell.dbm + 116 : Math.max(0, (cell.dbm + 113) / 2);
+                // an LTE timing advance step is about 78 m
+                cell.timingAdvance = i == 0 && radio == RadioType.LTE ? (int) (this.distances[i] / 78.12)
+                        : Integer.MAX_VALUE;
+                cell.level = Math.max(0, Math.min(4, (cell.dbm + 125) / 10));
+            }
+        }
+
+        /**
+         * Posts the batch as CollectorUploader would and records the request
+         * against the time its last scan was due.
+         */
+        void post(URL endpoint, List<byte[]> batch, long due, Stats stats) {
+            try {
+                this.body.reset();
+                CountingOutputStream raw = new CountingOutputStream(new GZIPOutputStream(this.body));
+                this.format.write(batch, raw);
+                raw.close();
+
+                long sent = System.nanoTime();
+                HttpURLConnection conn = (HttpURLConnection) endpoint.openConnection();
+                boolean ok = false;
+                try {
+                    conn.setConnectTimeout(10000);
+                    conn.setReadTimeout(30000);
+                    conn.setDoOutput(true);
+                    conn.setRequestMethod("POST");
+                    conn.setRequestProperty("Content-Type", this.format.getContentType());
+                    conn.setRequestProperty("Content-Encoding", "gzip");
+                    conn.setFixedLengthStreamingMode(this.body.size());
+                    OutputStream out = conn.getOutputStream();
+                    try {
+                        this.body.writeTo(out);
+                    } finally {
+                        out.close();
+                    }
+                    int code = conn.getResponseCode();
+                    if (code < 200 || code >= 300) {
+                        throw new IOException("Collector answered " + code);
+                    }
+                    InputStream in = conn.getInputStream();
+                    try {
+                        while (in.read(this.responseBuffer) >= 0) {
+                            // drain so the socket goes back to the keep-alive pool
+                        }
+                    } finally {
+                        in.close();
+                    }
+                    ok = true;
+                } finally {
+                    if (!ok) {
+                        conn.disconnect();
+                    }
+                }
+                long now = System.nanoTime();
+                stats.onRequest(batch.size(), raw.count, this.body.size(), now - due, now - sent);
+            } catch (IOException e) {
+                stats.failures.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Counters shared by every pool thread, and the latencies of the
+     * measured period.
+     */
+    private static final class Stats {
+        final AtomicLong scans = new AtomicLong();
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong postedScans = new AtomicLong();
+        final AtomicLong rawBytes = new AtomicLong();
+        final AtomicLong wireBytes = new AtomicLong();
+        // from the batch's last scan due, and from the request sent
+        private long[] latencies = new long[4096];
+        private long[] serviceTimes = new long[4096];
+        private int latencyCount;
+
+        void onRequest(int scanCount, long raw, long wire, long latencyNanos, long serviceNanos) {
+            this.requests.incrementAndGet();
+            this.postedScans.addAndGet(scanCount);
+            this.rawBytes.addAndGet(raw);
+            this.wireBytes.addAndGet(wire);
+            synchronized (this) {
+                if (this.latencyCount == this.latencies.length) {
+                    this.latencies = Arrays.copyOf(this.latencies, this.latencyCount * 2);
+                    this.serviceTimes = Arrays.copyOf(this.serviceTimes, this.latencyCount * 2);
+                }
+                this.latencies[this.latencyCount] = latencyNanos;
+                this.serviceTimes[this.latencyCount++] = serviceNanos;
+            }
+        }
+
+        synchronized void clearLatencies() {
+            this.latencyCount = 0;
+        }
+
+        Totals totals() {
+            Totals totals = new Totals(System.nanoTime());
+            totals.scans = this.scans.get();
+            totals.requests = this.requests.get();
+            totals.failures = this.failures.get();
+            totals.postedScans = this.postedScans.get();
+            totals.rawBytes = this.rawBytes.get();
+            totals.wireBytes = this.wireBytes.get();
+            return totals;
+        }
+
+        synchronized void printLatencies() {
+            if (this.latencyCount == 0) {
+                System.out.println("no requests completed");
+                return;
+            }
+            printPercentiles("latency ms", this.latencies, this.latencyCount);
+            printPercentiles("service ms", this.serviceTimes, this.latencyCount);
+        }
+
+        private static void printPercentiles(String label, long[] nanos, int count) {
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            System.out.printf(Locale.US, "%s  p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f  (%d requests)%n",
+                    label, percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), sorted[sorted.length - 1] / 1e6, sorted.length);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+        }
+
+        static final class Totals {
+            final long nanos;
+            long scans;
+            long requests;
+            long failures;
+            long postedScans;
+            long rawBytes;
+            long wireBytes;
+
+            Totals(long nanos) {
+                this.nanos = nanos;
+            }
+
+            void print(String label, Totals since) {
+                double seconds = (this.nanos - since.nanos) / 1e9;
+                System.out.printf(Locale.US, "%s  %8.0f scans/s %7.0f req/s %8.1f KB/s sent (%8.1f KB/s JSON)"
+                                + "  %d failed%n", label, (this.scans - since.scans) / seconds,
+                        (this.requests - since.requests) / seconds, (this.wireBytes - since.wireBytes) / 1024.0 / seconds,
+                        (this.rawBytes - since.rawBytes) / 1024.0 / seconds, this.failures - since.failures);
+            }
+        }
+    }
+
+    static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+        }
+    }
+
+    /**
+     * A collector that reads and acknowledges every request, on as many
+     * threads as the fleet has.
+     */
+    private static HttpServer startStub(int threads) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), threads * 2);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) >= 0) {
+                    // discard
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+        server.start();
+        return server;
+    }
+}
@@ -0,0 +1,238 @@
+package com.commonsware.android.job.CellSites.benchmarks;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.CellKey;
+import com.commonsware.android.job.CellSites.RadioType;
+import com.commonsware.android.job.CellSites.ScanRecord;
+import com.commonsware.android.job.CellSites.locate.FingerprintStore;
+import com.commonsware.android.job.CellSites.locate.SignalLsh;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Recall and speed of {@link SignalLsh} candidates against an exact k-NN
+ * scan of every fingerprint, on synthetic fingerprints among the towers of
+ * an MLS export.
+ *
+ * Fingerprints are taken at random spots within 1.5 km of SITES random
+ * towers, about 100 per site at the default 100k. A scan hears the towers
+ * within 3 km, with log-distance path loss, 6 dB of shadowing that is
+ * fixed per tower and 100 m square (so nearby spots look alike) and 4 dB
+ * of fading per scan, down to -125 dBm; the strongest serves. Queries are
+ * fresh scans 20 m or so from a random fingerprint. Each LSH setting gets
+ * a store of its own with the same fingerprints; for every query the k
+ * nearest it returns are compared with the k nearest of an exhaustive
+ * search of that store (recall@k, see run()), and all queries are timed
+ * as a batch after a warm-up pass. The store's default serving cell
+ * chains are measured the same way.
+ *
+ * Usage: LshRecall [towers.csv] [fingerprints] [queries] [k]
+ * [bandsxrowsxlevelDb ...]
+ */
+public class LshRecall {
+    private static final double SPOT_METERS = 1500;
+    private static final double REACH_METERS = 3000;
+    private static final double QUERY_METERS = 20;
+    private static final double SHADOW_METERS = 100;
+    private static final int SITES = 1000;
+    private static final String[] SETTINGS = {"4x1x6", "8x1x6", "4x2x6", "8x2x6", "16x2x6", "32x2x6", "12x3x6",
+            "8x2x10"};
+
+    public static void main(String[] args) throws Exception {
+        File csv = new File(args.length > 0 ? args[0] : "../../../infrastructure/cellsites/mozilla/import_data/sample.csv");
+        int fingerprints = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int k = args.length > 3 ? Integer.parseInt(args[3]) : FingerprintStore.DEFAULT_K;
+        String[] settings = SETTINGS;
+        if (args.length > 4) {
+            settings = new String[args.length - 4];
+            System.arraycopy(args, 4, settings, 0, settings.length);
+        }
+
+        MlsTowers towers = MlsTowers.load(csv);
+        Random random = new Random(42);
+        List<ScanRecord> records = new ArrayList<ScanRecord>(fingerprints);
+        double[] latitudes = new double[fingerprints];
+        double[] longitudes = new double[fingerprints];
+        long start = System.nanoTime();
+        long cells = 0;
+        int[] sites = new int[Math.min(SITES, towers.records.size())];
+        for (int i = 0; i < sites.length; i++) {
+            sites[i] = random.nextInt(towers.records.size());
+        }
+        while (records.size() < fingerprints) {
+            int tower = sites[random.nextInt(sites.length)];
+            double angle = random.nextDouble() * 2 * Math.PI;
+            double distance = Math.sqrt(random.nextDouble()) * SPOT_METERS;
+            double latitude = towers.latitude(tower) + distance * Math.sin(angle) / MlsTowers.METERS_PER_DEGREE;
+            double longitude = towers.longitude(tower) + distance * Math.cos(angle)
+                    / (MlsTowers.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+            ScanRecord record = new ScanRecord();
+            scan(towers, latitude, longitude, random, record.cells);
+            if (record.cells.isEmpty()) {
+                continue;
+            }
+            record.setLocation(latitude, longitude, 0, 5, 0, 0);
+            latitudes[records.size()] = latitude;
+            longitudes[records.size()] = longitude;
+            records.add(record);
+            cells += record.cells.size();
+        }
+        List<List<CellData>> scans = new ArrayList<List<CellData>>(queries);
+        while (scans.size() < queries) {
+            int f = random.nextInt(fingerprints);
+            double latitude = latitudes[f] + random.nextGaussian() * QUERY_METERS / MlsTowers.METERS_PER_DEGREE;
+            double longitude = longitudes[f] + random.nextGaussian() * QUERY_METERS
+                    / (MlsTowers.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+            List<CellData> scan = new ArrayList<CellData>();
+            scan(towers, latitude, longitude, random, scan);
+            if (!scan.isEmpty()) {
+                scans.add(scan);
+            }
+        }
+        System.out.printf(Locale.US, "%s: %d towers; %d fingerprints of %.1f cells, %d queries, k %d (%d ms)%n",
+                csv.getName(), towers.records.size(), fingerprints, (double) cells / fingerprints, queries, k,
+                (System.nanoTime() - start) / 1000000);
+        System.out.printf(Locale.US, "%-14s %9s %11s %9s %10s %8s%n", "search", "build ms", "candidates", "recall@" + k,
+                "queries/s", "speedup");
+
+        double exactQps = 0;
+        boolean chainsDone = false;
+        for (String setting : settings) {
+            String[] parts = setting.split("x");
+            int bands = Integer.parseInt(parts[0]);
+            int rows = Integer.parseInt(parts[1]);
+            int levelDb = parts.length > 2 ? Integer.parseInt(parts[2]) : SignalLsh.DEFAULT_LEVEL_DB;
+            start = System.nanoTime();
+            FingerprintStore store = new FingerprintStore(fingerprints, k,
+                    new SignalLsh(fingerprints, bands, rows, levelDb));
+            for (ScanRecord record : records) {
+                store.add(record);
+            }
+            long buildMs = (System.nanoTime() - start) / 1000000;
+
+            int[] slots = new int[k];
+            double[][] exact = new double[queries][k];
+            int[] exactFound = new int[queries];
+            for (int q = 0; q < queries; q++) {
+                exactFound[q] = store.nearest(scans.get(q), FingerprintStore.SEARCH_EXACT, slots, exact[q]);
+            }
+            if (exactQps == 0) {
+                exactQps = run(store, scans, FingerprintStore.SEARCH_EXACT, exact, exactFound, k)[2];
+                print("exact", buildMs, fingerprints, 1, exactQps, exactQps);
+            }
+            if (!chainsDone) {
+                double[] chains = run(store, scans, FingerprintStore.SEARCH_CHAINS, exact, exactFound, k);
+                print("serving cells", buildMs, chains[0], chains[1], chains[2], exactQps);
+                chainsDone = true;
+            }
+            double[] lsh = run(store, scans, FingerprintStore.SEARCH_LSH, exact, exactFound, k);
+            print("lsh " + setting, buildMs, lsh[0], lsh[1], lsh[2], exactQps);
+        }
+    }
+
+    /**
+     * Mean candidates, recall@k and queries per second of one search over
+     * every query; the timed pass follows an untimed one. The i-th
+     * neighbour found is a hit if it is as near as the i-th of the exact
+     * search: distances are in whole dB squared, and which of two equally
+     * near fingerprints wins depends on the order they are compared in.
+     */
+    private static double[] run(FingerprintStore store, List<List<CellData>> scans, int search, double[][] exact,
+                                int[] exactFound, int k) {
+        int[] found = new int[k];
+        double[] distances = new double[k];
+        long candidates = 0;
+        long hits = 0;
+        long wanted = 0;
+        for (int q = 0; q < scans.size(); q++) {
+            int n = store.nearest(scans.get(q), search, found, distances);
+            candidates += store.getLastCandidates();
+            for (int i = 0; i < Math.min(n, exactFound[q]); i++) {
+                if (distances[i] <= exact[q][i] + 1e-9) {
+                    hits++;
+                }
+            }
+            wanted += exactFound[q];
+        }
+        long start = System.nanoTime();
+        for (int q = 0; q < scans.size(); q++) {
+            store.nearest(scans.get(q), search, found, null);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new double[]{(double) candidates / scans.size(), wanted == 0 ? 1 : (double) hits / wanted,
+                scans.size() / seconds};
+    }
+
+    private static void print(String search, long buildMs, double candidates, double recall, double qps,
+                              double exactQps) {
+        System.out.printf(Locale.US, "%-14s %9d %11.0f %9.3f %10.0f %7.0fx%n", search, buildMs, candidates, recall, qps,
+                qps / exactQps);
+    }
+
+    /**
+     * The towers within reach of the spot, in no particular order, with the
+     * strongest registered.
+     */
+    private static void scan(MlsTowers towers, double latitude, double longitude, Random random, List<CellData> out) {
+        int[] near = towers.near(latitude, longitude);
+        int strongest = -1;
+        int strongestDbm = Integer.MIN_VALUE;
+        for (int index : near) {
+            double d = towers.distance(index, latitude, longitude);
+            if (d > REACH_METERS) {
+                continue;
+            }
+            int dbm = (int) Math.round(-45 - 30 * Math.log10(Math.max(d, 50) / 50)
+                    + shadow(index, latitude, longitude) + random.nextGaussian() * 4);
+            if (dbm < -125) {
+                continue;
+            }
+            long key = towers.records.keyAt(index);
+            int radio = CellKey.radioType(key);
+            int psc = CellKey.psc(key);
+            CellData cell = new CellData();
+            if (radio == RadioType.LTE) {
+                cell.setLteCellInfo(CellKey.mcc(key), CellKey.mnc(key), CellKey.cid(key), psc,
+                        towers.records.areaAt(index), dbm + 140, dbm, Integer.MAX_VALUE, 3);
+            } else if (radio == RadioType.WCDMA) {
+                cell.setWcdmaCellInfo(CellKey.mcc(key), CellKey.mnc(key), towers.records.areaAt(index),
+                        CellKey.cid(key), psc, dbm + 116, dbm, 3);
+            } else {
+                cell.setGsmCellInfo(CellKey.mcc(key), CellKey.mnc(key), towers.records.areaAt(index),
+                        CellKey.cid(key), Math.max(0, (dbm + 113) / 2), dbm, 3);
+            }
+            out.add(cell);
+            if (dbm > strongestDbm) {
+                strongestDbm = dbm;
+                strongest = out.size() - 1;
+            }
+        }
+        if (strongest >= 0) {
+            out.get(strongest).setIsRegistered((byte) 1);
+        }
+    }
+
+    /**
+     * Shadowing of a tower at a spot: 6 dB Gaussian per SHADOW_METERS
+     * square, interpolated between the corners so it changes smoothly.
+     */
+    private static double shadow(int tower, double latitude, double longitude) {
+        double y = latitude * MlsTowers.METERS_PER_DEGREE / SHADOW_METERS;
+        double x = longitude * MlsTowers.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)) / SHADOW_METERS;
+        long row = (long) Math.floor(y);
+        long column = (long) Math.floor(x);
+        double fy = y - row;
+        double fx = x - column;
+        return (1 - fx) * (1 - fy) * lattice(tower, row, column) + fx * (1 - fy) * lattice(tower, row, column + 1)
+                + (1 - fx) * fy * lattice(tower, row + 1, column) + fx * fy * lattice(tower, row + 1, column + 1);
+    }
+
+    private static double lattice(int tower, long row, long column) {
+        return new Random((tower * 0x9E3779B97F4A7C15L + row) * 0xC2B2AE3D27D4EB4FL + column).nextGaussian() * 6;
+    }
+}
@@ -0,0 +1,124 @@
+package com.commonsware.android.job.CellSites.benchmarks;
+
+import com.commonsware.android.job.CellSites.celldb.MlsImporter;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * End-to-end throughput of {@link MlsImporter} on a generated MLS-format
+ * export: rows/s, MB/s and the process's peak resident set size.
+ *
+ * Usage: MlsImportBenchmark [rows] [csv] [threads]; the CSV is generated
+ * on first use (10M rows is about 900 MB). Peak RSS is VmHWM from
+ * /proc/self/status, so it is Linux only.
+ */
+public class MlsImportBenchmark {
+    private static final int[] MCCS = {202, 208, 214, 222, 234, 262, 302, 310, 311, 404, 440, 460, 505, 724};
+
+    public static void main(String[] args) throws IOException {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 10000000L;
+        File csv = new File(args.length > 1 ? args[1] : "build/mls-" + rows + ".csv");
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        if (!csv.exists()) {
+            long start = System.nanoTime();
+            generate(csv, rows);
+            System.out.printf(Locale.US, "generated %s (%d MB) in %.1f s%n", csv, csv.length() >> 20,
+                    (System.nanoTime() - start) / 1e9);
+        }
+        File db = new File(csv.getPath() + ".db");
+        MlsImporter importer = new MlsImporter(threads, MlsImporter.DEFAULT_CHUNK_BYTES, MlsImporter.DEFAULT_RUN_RECORDS);
+        long start = System.nanoTime();
+        long cells = importer.importCsv(csv, db, 1);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.US, "threads=%d rows=%d cells=%d runs=%d skipped=%d%n",
+                threads, importer.getRows(), cells, importer.getRuns(), importer.getSkipped());
+        System.out.printf(Locale.US, "%.1f s, %.0f rows/s, %.1f MB/s, db %d MB, peak RSS %s, max heap %d MB%n",
+                seconds, importer.getRows() / seconds, (csv.length() >> 20) / seconds, db.length() >> 20,
+                peakRss(), Runtime.getRuntime().maxMemory() >> 20);
+    }
+
+    static void generate(File csv, long rows) throws IOException {
+        File parent = csv.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        Random random = new Random(42);
+        StringBuilder line = new StringBuilder(128);
+        byte[] bytes = new byte[128];
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(csv), 1 << 20);
+        try {
+            out.write("radio,mcc,net,area,cell,unit,lon,lat,range,samples,changeable,created,updated,averageSignal\n".getBytes("US-ASCII"));
+            for (long i = 0; i < rows; i++) {
+                line.setLength(0);
+                int radio = random.nextInt(100);
+                boolean lte = radio < 64;
+                boolean gsm = radio >= 92;
+                line.append(lte ? "LTE" : gsm ? "GSM" : "UMTS").append(',');
+                line.append(MCCS[random.nextInt(MCCS.length)]).append(',');
+                line.append(random.nextInt(100)).append(',');
+                line.append(random.nextInt(65535)).append(',');
+                line.append(gsm ? random.nextInt(65535) : random.nextInt(1 << 28)).append(',');
+                if (!gsm && random.nextInt(3) != 0) {
+                    line.append(random.nextInt(lte ? 504 : 511));
+                }
+                line.append(',');
+                appendDegrees(line, (int) ((random.nextDouble() * 360 - 180) * 1e7));
+                line.append(',');
+                appendDegrees(line, random.nextInt(1800000000) - 900000000);
+                line.append(',');
+                line.append(random.nextInt(20000)).append(',');
+                line.append(1 + random.nextInt(5000)).append(",1,");
+                int created = 1300000000 + random.nextInt(240000000);
+                line.append(created).append(',').append(created + random.nextInt(1000000)).append(',');
+                line.append('\n');
+                int n = line.length();
+                for (int c = 0; c < n; c++) {
+                    bytes[c] = (byte) line.charAt(c);
+                }
+                out.write(bytes, 0, n);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void appendDegrees(StringBuilder out, int e7) {
+        if (e7 < 0) {
+            out.append('-');
+            e7 = -e7;
+        }
+        out.append(e7 / 10000000).append('.');
+        String fraction = Integer.toString(e7 % 10000000);
+        for (int i = fraction.length(); i < 7; i++) {
+            out.append('0');
+        }
+        out.append(fraction);
+    }
+
+    private static String peakRss() {
+        try {
+            BufferedReader in = new BufferedReader(new FileReader("/proc/self/status"));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("VmHWM:")) {
+                        return (Long.parseLong(line.replaceAll("[^0-9]", "")) >> 10) + " MB";
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // not Linux
+        }
+        return "n/a";
+    }
+}
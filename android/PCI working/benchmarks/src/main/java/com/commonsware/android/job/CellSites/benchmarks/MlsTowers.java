@@ -0,0 +1,127 @@
+package com.commonsware.android.job.CellSites.benchmarks;
+
+import com.commonsware.android.job.CellSites.RadioType;
+import com.commonsware.android.job.CellSites.celldb.CellRecords;
+import com.commonsware.android.job.CellSites.celldb.MlsCsvParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The GSM, UMTS and LTE towers of an MLS export with a coarse grid over
+ * them, for the benchmarks that simulate phones among real towers.
+ */
+final class MlsTowers {
+    // about 2.2 km; a scan sees the towers in the 3x3 cells around it
+    static final int GRID_E7 = 200000;
+    static final double METERS_PER_DEGREE = 111320;
+
+    final CellRecords records;
+    final Map<Long, int[]> grid;
+
+    private MlsTowers(CellRecords records, Map<Long, int[]> grid) {
+        this.records = records;
+        this.grid = grid;
+    }
+
+    static MlsTowers load(File csv) throws IOException {
+        byte[] buf = new byte[(int) csv.length()];
+        InputStream in = new FileInputStream(csv);
+        try {
+            int n = 0;
+            while (n < buf.length) {
+                int r = in.read(buf, n, buf.length - n);
+                if (r < 0) {
+                    throw new IOException("Short read of " + csv);
+                }
+                n += r;
+            }
+        } finally {
+            in.close();
+        }
+        // CDMA towers would need the app's CDMA conversion, which is not public
+        boolean[] radios = new boolean[RadioType.LTE + 1];
+        radios[RadioType.GSM] = true;
+        radios[RadioType.WCDMA] = true;
+        radios[RadioType.LTE] = true;
+        CellRecords records = new CellRecords(1024);
+        new MlsCsvParser(null, radios).parse(buf, 0, buf.length, records);
+        if (records.size() == 0) {
+            throw new IOException("No GSM, UMTS or LTE towers in " + csv);
+        }
+
+        Map<Long, List<Integer>> cells = new HashMap<Long, List<Integer>>();
+        for (int i = 0; i < records.size(); i++) {
+            Long cell = gridCell(Math.floorDiv(records.latitudeAt(i), GRID_E7),
+                    Math.floorDiv(records.longitudeAt(i), GRID_E7));
+            List<Integer> members = cells.get(cell);
+            if (members == null) {
+                members = new ArrayList<Integer>();
+                cells.put(cell, members);
+            }
+            members.add(i);
+        }
+        Map<Long, int[]> grid = new HashMap<Long, int[]>();
+        for (Map.Entry<Long, List<Integer>> cell : cells.entrySet()) {
+            List<Integer> members = cell.getValue();
+            int[] indexes = new int[members.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = members.get(i);
+            }
+            grid.put(cell.getKey(), indexes);
+        }
+        return new MlsTowers(records, grid);
+    }
+
+    private static Long gridCell(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+
+    double latitude(int index) {
+        return this.records.latitudeAt(index) / 1e7;
+    }
+
+    double longitude(int index) {
+        return this.records.longitudeAt(index) / 1e7;
+    }
+
+    double distance(int index, double latitude, double longitude) {
+        double north = (latitude(index) - latitude) * METERS_PER_DEGREE;
+        double east = (longitude(index) - longitude) * METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        return Math.sqrt(north * north + east * east);
+    }
+
+    /**
+     * The towers in the 3x3 grid cells around a position; the grid is
+     * read-only once loaded, so any thread may ask.
+     */
+    int[] near(double latitude, double longitude) {
+        int row = Math.floorDiv((int) (latitude * 1e7), GRID_E7);
+        int column = Math.floorDiv((int) (longitude * 1e7), GRID_E7);
+        int[][] found = new int[9][];
+        int total = 0;
+        int k = 0;
+        for (int r = row - 1; r <= row + 1; r++) {
+            for (int c = column - 1; c <= column + 1; c++) {
+                int[] members = this.grid.get(gridCell(r, c));
+                if (members != null) {
+                    found[k++] = members;
+                    total += members.length;
+                }
+            }
+        }
+        int[] near = new int[total];
+        int n = 0;
+        for (int i = 0; i < k; i++) {
+            System.arraycopy(found[i], 0, near, n, found[i].length);
+            n += found[i].length;
+        }
+        return near;
+    }
+}
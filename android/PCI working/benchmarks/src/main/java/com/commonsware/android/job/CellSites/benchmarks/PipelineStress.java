@@ -0,0 +1,183 @@
+package com.commonsware.android.job.CellSites.benchmarks;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.CellKey;
+import com.commonsware.android.job.CellSites.RadioType;
+import com.commonsware.android.job.CellSites.ScanRecord;
+import com.commonsware.android.job.CellSites.celldb.CellRecords;
+import com.commonsware.android.job.CellSites.celldb.CellStore;
+import com.commonsware.android.job.CellSites.codec.ScanBatchDecoder;
+import com.commonsware.android.job.CellSites.journal.ScanJournal;
+import com.commonsware.android.job.CellSites.locate.CellLocator;
+import com.commonsware.android.job.CellSites.locate.ParticleTracker;
+import com.commonsware.android.job.CellSites.pipeline.ScanSlot;
+import com.commonsware.android.job.CellSites.pipeline.ScanStages;
+import com.commonsware.android.job.CellSites.pipeline.StagedPipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Pushes synthetic scans through the real normalize, locate, encode and
+ * journal stages as fast as the producer can claim slots, then checks that
+ * every scan reached the journal exactly once and in order, and prints
+ * throughput and the per-stage latency and queue-depth counters.
+ *
+ * Usage: PipelineStress [scans] [capacity]; exits non-zero on a lost,
+ * duplicated or reordered scan.
+ */
+public class PipelineStress {
+    private static final int GRID = 40;
+    private static final double SPACING = 400;
+    private static final int DISTINCT_SCANS = 1024;
+
+    public static void main(String[] args) throws Exception {
+        int scans = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        File dir = File.createTempFile("pipeline", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        try {
+            run(dir, scans, capacity);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void run(File dir, int scans, int capacity) throws Exception {
+        CellStore store = gridStore(dir);
+        ScanJournal journal = new ScanJournal(new File(dir, "journal"));
+        CellLocator locator = new CellLocator(store);
+        List<List<CellData>> pool = synthesize(new Random(42));
+
+        List<StagedPipeline.Stage<ScanSlot>> stages = new ArrayList<StagedPipeline.Stage<ScanSlot>>();
+        stages.add(ScanStages.normalize());
+        stages.add(ScanStages.locate(locator, new ParticleTracker(store, locator, ParticleTracker.DEFAULT_PARTICLES, 42)));
+        stages.add(ScanStages.encode());
+        stages.add(ScanStages.journal(journal));
+        StagedPipeline<ScanSlot> pipeline = new StagedPipeline<ScanSlot>("stress", capacity, ScanSlot.FACTORY, stages);
+
+        pipeline.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < scans; i++) {
+            ScanSlot slot = pipeline.claim();
+            slot.clear();
+            slot.record.deviceId = "stress";
+            // one scan a second; the index is recoverable from the journal
+            slot.record.deviceTime = 1500000000000L + i * 1000L;
+            slot.scanned.addAll(pool.get(i % DISTINCT_SCANS));
+            pipeline.publish();
+        }
+        pipeline.stop();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf(Locale.US, "%d scans through %d slots in %.2f s: %.0f scans/s%n",
+                scans, pipeline.capacity(), seconds, scans / seconds);
+        String[] names = {"normalize", "locate", "encode", "journal"};
+        for (int i = 0; i < pipeline.stageCount(); i++) {
+            long processed = pipeline.getProcessed(i);
+            System.out.printf(Locale.US, "%-10s %7d in %7.1f us avg, %8.1f us max, queue max %d, %d failed%n",
+                    names[i], processed, pipeline.getTotalNanos(i) / 1e3 / Math.max(1, processed),
+                    pipeline.getMaxNanos(i) / 1e3, pipeline.getMaxQueueDepth(i), pipeline.getFailures(i));
+        }
+        System.out.printf(Locale.US, "end to end %.1f us avg, %.1f us max%n",
+                pipeline.getEndToEndTotalNanos() / 1e3 / scans, pipeline.getEndToEndMaxNanos() / 1e3);
+
+        int found = verify(journal, scans);
+        journal.close();
+        store.close();
+        if (found != scans) {
+            System.out.printf("FAILED: %d of %d scans journalled in order%n", found, scans);
+            System.exit(1);
+        }
+        System.out.printf("all %d scans journalled once, in order%n", found);
+    }
+
+    /**
+     * Counts the journal entries that decode to the expected next scan.
+     */
+    private static int verify(ScanJournal journal, int scans) throws IOException {
+        List<byte[]> entries = new ArrayList<byte[]>();
+        List<ScanRecord> decoded = new ArrayList<ScanRecord>();
+        int expected = 0;
+        while (journal.read(entries, 4096) > 0) {
+            for (byte[] entry : entries) {
+                decoded.clear();
+                ScanBatchDecoder.decode(entry, decoded);
+                ScanRecord scan = decoded.get(0);
+                int pooled = expected % DISTINCT_SCANS;
+                if (decoded.size() != 1 || scan.deviceTime != 1500000000000L + expected * 1000L
+                        || scan.cells.size() != pooled % 8 + 4 || !scan.hasRadioFix) {
+                    return expected;
+                }
+                expected++;
+            }
+            entries.clear();
+            journal.acknowledge();
+        }
+        return expected;
+    }
+
+    /**
+     * Towers on a 400 m grid, as in ParticleTrackerBenchmark.
+     */
+    private static CellStore gridStore(File dir) throws IOException {
+        double metresPerLongitude = 111320.0 * Math.cos(Math.toRadians(45));
+        CellRecords records = new CellRecords(GRID * GRID);
+        for (int i = 0; i < GRID * GRID; i++) {
+            records.add(CellKey.pack(RadioType.LTE, 302, 720, 0, i, i % 504),
+                    (int) ((45 + (i / GRID) * SPACING / 111320.0) * 1e7),
+                    (int) ((-75 + (i % GRID) * SPACING / metresPerLongitude) * 1e7),
+                    21000, 600, 10, 1500000000L);
+        }
+        records.sortAndDedupe();
+        File db = new File(dir, "cells.db");
+        records.writeTo(db, 1);
+        CellStore store = new CellStore(new File(dir, "store"));
+        store.installBase(db);
+        return store;
+    }
+
+    /**
+     * Scans of 4 to 11 distinct cells around a drive, each with one
+     * duplicate and one cell without identity for the normalize stage to drop.
+     */
+    private static List<List<CellData>> synthesize(Random random) {
+        List<List<CellData>> pool = new ArrayList<List<CellData>>(DISTINCT_SCANS);
+        for (int s = 0; s < DISTINCT_SCANS; s++) {
+            int cx = 5 + (s * 15 / 400) % (GRID - 10);
+            int cy = 5 + (s * 10 / 400) % (GRID - 10);
+            int distinct = s % 8 + 4;
+            List<CellData> scan = new ArrayList<CellData>(distinct + 2);
+            for (int c = 0; c < distinct; c++) {
+                int id = (cy + c / 4) * GRID + cx + c % 4;
+                CellData cell = new CellData();
+                cell.setLteCellInfo(302, 720, id, id % 504, 21000, 30, -70 - random.nextInt(40),
+                        c == 0 ? random.nextInt(20) : Integer.MAX_VALUE, 3);
+                cell.setIsRegistered((byte) (c == 0 ? 1 : 0));
+                scan.add(cell);
+            }
+            scan.add(scan.get(distinct - 1));
+            scan.add(new CellData());
+            pool.add(scan);
+        }
+        return pool;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            System.err.println("Cannot delete " + file);
+        }
+    }
+}
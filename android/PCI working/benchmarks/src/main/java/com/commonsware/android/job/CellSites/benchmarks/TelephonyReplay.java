@@ -0,0 +1,298 @@
+package com.commonsware.android.job.CellSites.benchmarks;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.SnapshotConverter;
+import com.commonsware.android.job.CellSites.SnapshotFilter;
+import com.commonsware.android.job.CellSites.TelephonySnapshot;
+import com.commonsware.android.job.CellSites.journal.ScanJournal;
+import com.commonsware.android.job.CellSites.pipeline.ScanSlot;
+import com.commonsware.android.job.CellSites.pipeline.ScanStages;
+import com.commonsware.android.job.CellSites.pipeline.StagedPipeline;
+import com.commonsware.android.job.CellSites.trace.ReplaySource;
+import com.commonsware.android.job.CellSites.trace.TraceReader;
+import com.commonsware.android.job.CellSites.trace.TraceWriter;
+import com.commonsware.android.job.CellSites.upload.CollectorUploader;
+import com.commonsware.android.job.CellSites.upload.JsonBatchFormat;
+import com.commonsware.android.job.CellSites.upload.UploadStats;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a telephony trace recorded on the phone (files/traces of a debug
+ * build) through the whole scan path on the JVM: snapshot conversion and
+ * the snapshot filter, the normalize, encode and journal stages, and the
+ * uploader posting to a stub collector on localhost. Without a trace it
+ * records a synthetic drive first, through the same trace writer.
+ *
+ * The replay runs once to warm up, then again measured. Per phase it
+ * prints time and bytes allocated per scan on the replay thread, then the
+ * uploader's and the stub's view of the upload.
+ *
+ * Usage: TelephonyReplay [trace|-] [loops]
+ */
+public class TelephonyReplay {
+    private static final int SYNTHETIC_SNAPSHOTS = 5000;
+    private static final SnapshotConverter.Factory<CellData> CELLS = new SnapshotConverter.Factory<CellData>() {
+        @Override
+        public CellData create() {
+            return new CellData();
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        String trace = args.length > 0 ? args[0] : "-";
+        int loops = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        File dir = File.createTempFile("replay", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        try {
+            File file = new File(trace);
+            if ("-".equals(trace)) {
+                file = new File(dir, "synthetic.trace");
+                recordSynthetic(file, new Random(42));
+            }
+            run(dir, file, loops);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void run(File dir, File file, int loops) throws Exception {
+        ReplaySource source;
+        TraceReader reader = new TraceReader(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            source = new ReplaySource(reader, loops);
+        } finally {
+            reader.close();
+        }
+        System.out.printf(Locale.US, "%s: %d snapshots, replayed %d times%n", file.getName(), source.size(), loops);
+
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong received = new AtomicLong();
+        HttpServer collector = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        collector.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    received.addAndGet(n);
+                }
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        collector.start();
+        try {
+            Replay warmup = new Replay(null);
+            warmup.drain(source);
+            source.rewind();
+
+            ScanJournal journal = new ScanJournal(new File(dir, "journal"));
+            CollectorUploader uploader = new CollectorUploader(journal,
+                    new URL("http://127.0.0.1:" + collector.getAddress().getPort() + "/"), new JsonBatchFormat(),
+                    CollectorUploader.DEFAULT_BATCH_SCANS, 1000);
+            uploader.start();
+            Replay replay = new Replay(journal);
+            long start = System.nanoTime();
+            replay.drain(source);
+            boolean drained = uploader.flushAndWait(60000);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            uploader.stop();
+            journal.close();
+
+            replay.print(seconds);
+            UploadStats stats = uploader.getStats();
+            System.out.printf(Locale.US, "upload     %s%n", stats);
+            System.out.printf(Locale.US, "collector  %d requests, %d bytes received%s%n", requests.get(), received.get(),
+                    drained ? "" : ", NOT DRAINED");
+            if (!drained || stats.getScans() != replay.scans) {
+                System.exit(1);
+            }
+        } finally {
+            collector.stop(0);
+        }
+    }
+
+    /**
+     * The scan path on one thread, timed and allocation-counted per phase.
+     */
+    private static final class Replay {
+        private final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private final TelephonySnapshot snapshot = new TelephonySnapshot();
+        private final SnapshotConverter<CellData> converter = new SnapshotConverter<CellData>(CELLS);
+        private final SnapshotFilter filter = new SnapshotFilter();
+        private final ScanSlot slot = new ScanSlot();
+        private final List<StagedPipeline.Stage<ScanSlot>> stages = new ArrayList<StagedPipeline.Stage<ScanSlot>>();
+        long snapshots;
+        long scans;
+        long cells;
+        long scanNanos;
+        long scanBytes;
+        long encodeNanos;
+        long encodeBytes;
+
+        Replay(ScanJournal journal) {
+            this.stages.add(ScanStages.normalize());
+            this.stages.add(ScanStages.encode());
+            if (journal != null) {
+                this.stages.add(ScanStages.journal(journal));
+            }
+        }
+
+        void drain(ReplaySource source) throws Exception {
+            long thread = Thread.currentThread().getId();
+            while (true) {
+                long t0 = System.nanoTime();
+                long a0 = this.threads.getThreadAllocatedBytes(thread);
+                this.snapshot.clear();
+                if (!source.read(this.snapshot)) {
+                    break;
+                }
+                this.snapshots++;
+                this.slot.clear();
+                this.converter.convert(this.snapshot, this.slot.scanned);
+                boolean accepted = !this.slot.scanned.isEmpty()
+                        && this.filter.accept(this.slot.scanned, this.snapshot.getNewestTimestampNanos());
+                long t1 = System.nanoTime();
+                long a1 = this.threads.getThreadAllocatedBytes(thread);
+                this.scanNanos += t1 - t0;
+                this.scanBytes += a1 - a0;
+                if (!accepted) {
+                    continue;
+                }
+
+                this.slot.record.deviceId = "replay";
+                // replayed scans keep the trace's spacing
+                this.slot.record.deviceTime = 1500000000000L + this.snapshot.elapsedNanos / 1000000L;
+                for (int i = 0; i < this.stages.size(); i++) {
+                    this.stages.get(i).process(this.slot);
+                }
+                this.encodeNanos += System.nanoTime() - t1;
+                this.encodeBytes += this.threads.getThreadAllocatedBytes(thread) - a1;
+                if (this.slot.encoded.size() > 0) {
+                    this.scans++;
+                    this.cells += this.slot.record.cells.size();
+                }
+            }
+        }
+
+        void print(double seconds) {
+            System.out.printf(Locale.US, "%d snapshots, %d scans past the filter (%.1f cells each), %.0f scans/s end to end"
+                    + " including upload%n", this.snapshots, this.scans, (double) this.cells / Math.max(1, this.scans),
+                    this.scans / seconds);
+            System.out.printf(Locale.US, "scan       %8.2f us/snapshot %8.0f B/snapshot (convert, dedupe, filter)%n",
+                    this.scanNanos / 1e3 / Math.max(1, this.snapshots), (double) this.scanBytes / Math.max(1, this.snapshots));
+            System.out.printf(Locale.US, "encode     %8.2f us/scan     %8.0f B/scan     (normalize, encode, journal)%n",
+                    this.encodeNanos / 1e3 / Math.max(1, this.scans), (double) this.encodeBytes / Math.max(1, this.scans));
+        }
+    }
+
+    /**
+     * A drive across an LTE grid at a snapshot a second: the serving cell
+     * and its neighbours in getAllCellInfo(), some with no MCC/MNC, some
+     * repeated as WCDMA neighbouring cells, and now and then a scan where
+     * getAllCellInfo() came back empty and only the serving GSM location
+     * was read. One in ten snapshots repeats the previous one unchanged.
+     */
+    private static void recordSynthetic(File file, Random random) throws IOException {
+        TraceWriter writer = new TraceWriter(new BufferedOutputStream(new FileOutputStream(file)), Long.MAX_VALUE);
+        TelephonySnapshot snapshot = new TelephonySnapshot();
+        TelephonySnapshot previous = new TelephonySnapshot();
+        long elapsed = 3600L * 1000000000L;
+        try {
+            for (int s = 0; s < SYNTHETIC_SNAPSHOTS; s++) {
+                elapsed += 1000000000L;
+                if (s > 0 && random.nextInt(10) == 0) {
+                    previous.elapsedNanos = elapsed;
+                    writer.write(previous);
+                    continue;
+                }
+                snapshot.clear();
+                snapshot.elapsedNanos = elapsed;
+                snapshot.phoneType = 1;
+                int x = s / 20;
+                if (random.nextInt(50) == 0) {
+                    snapshot.networkType = 2;
+                    snapshot.networkOperator = "302720";
+                    snapshot.hasServing = true;
+                    snapshot.serving.type = TelephonySnapshot.TYPE_GSM_LOCATION;
+                    snapshot.serving.lac = 300;
+                    snapshot.serving.cid = 10000 + x;
+                    snapshot.serving.psc = -1;
+                } else {
+                    int count = 3 + random.nextInt(10);
+                    for (int c = 0; c < count; c++) {
+                        TelephonySnapshot.Cell cell = snapshot.addCell();
+                        int id = x + c;
+                        cell.type = TelephonySnapshot.TYPE_LTE;
+                        cell.registered = c == 0;
+                        cell.timestampNanos = elapsed - random.nextInt(500000000);
+                        if (c == 0 || random.nextInt(3) == 0) {
+                            cell.mcc = 302;
+                            cell.mnc = 720;
+                            cell.lac = 21000;
+                            cell.cid = 0x10000 + id;
+                        }
+                        cell.psc = id % 504;
+                        cell.dbm = -70 - random.nextInt(50);
+                        cell.asu = cell.dbm + 140;
+                        cell.timingAdvance = c == 0 ? random.nextInt(30) : Integer.MAX_VALUE;
+                        cell.level = 1 + random.nextInt(4);
+                    }
+                }
+                if (random.nextInt(4) == 0) {
+                    snapshot.networkType = 3;
+                    snapshot.networkOperator = "302720";
+                    for (int n = 0; n < 3; n++) {
+                        TelephonySnapshot.Cell cell = snapshot.addNeighbour();
+                        cell.networkType = 3;
+                        cell.lac = 400;
+                        cell.cid = 20000 + x + n;
+                        cell.psc = (x + n) % 512;
+                        cell.dbm = n == 2 ? 99 : -90 - random.nextInt(20);
+                    }
+                }
+                writer.write(snapshot);
+                previous.set(snapshot);
+            }
+        } finally {
+            writer.close();
+        }
+        System.out.printf(Locale.US, "recorded %d synthetic snapshots, %d bytes%n", writer.getSnapshotCount(),
+                writer.getBytesWritten());
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            System.err.println("Cannot delete " + file);
+        }
+    }
+}
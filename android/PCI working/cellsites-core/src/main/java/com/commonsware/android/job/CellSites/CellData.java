@@ -0,0 +1,313 @@
+package com.commonsware.android.job.CellSites;
+
+/**
+ * Android-free part of CellInfo: the cell identity and signal
+ * fields plus the text formatting, so scans can be encoded and decoded on
+ * a plain JVM as well.
+ */
+public class CellData {
+    public static final String CELL_RADIO_CDMA = "cdma";
+    public static final String CELL_RADIO_GSM = "gsm";
+    public static final String CELL_RADIO_LTE = "lte";
+    public static final String CELL_RADIO_UNKNOWN = "";
+    public static final String CELL_RADIO_WCDMA = "wcdma";
+    public static final int UNKNOWN_ASU = -1;
+    public static final int UNKNOWN_CID = -1;
+    public static final int UNKNOWN_LAC = -1;
+    public static final int UNKNOWN_PCI = -1;
+    public static final int UNKNOWN_PSC = -1;
+    public static final int UNKNOWN_SIGNAL_STRENGTH = -1000;
+    protected int mAsu;
+    protected String mCellRadio;
+    protected int mCid;
+    protected int mLac;
+    protected int mMcc;
+    protected int mMnc;
+    protected int mPscPci;
+    protected int mSignalStrength;
+    protected int mTa;
+    protected int mSimpleLevel;
+    protected byte isRegistered;
+
+    public CellData() {
+        reset();
+    }
+
+    static String getCellRadioTypeName(int networkType) {
+        switch (networkType) {
+            case 1:
+            case 2:
+                return CELL_RADIO_GSM;
+            case 3:
+            case 8:
+            case 9:
+            case 10:
+            case 15:
+                return CELL_RADIO_WCDMA;
+            case 5:
+            case 6:
+            case 7:
+            case 11:
+            case 12:
+            case 14:
+                return CELL_RADIO_CDMA;
+            case 13:
+                return CELL_RADIO_LTE;
+            default:
+                return "";
+        }
+    }
+
+    public void setSignalStrength(int signalStrength) {
+        this.mSignalStrength = signalStrength;
+    }
+
+    public int getSignalStrength() {
+        return this.mSignalStrength;
+    }
+
+    public boolean isCellRadioValid() {
+        return (this.mCellRadio == null || this.mCellRadio.length() <= 0 || this.mCellRadio.equals("0")) ? false : true;
+    }
+
+    public String getCellRadio() {
+        return this.mCellRadio;
+    }
+
+    public int getMcc() {
+        return this.mMcc;
+    }
+
+    public int getMnc() {
+        return this.mMnc;
+    }
+
+    public int getCid() {
+        return this.mCid;
+    }
+
+    public int getLac() {
+        return this.mLac;
+    }
+
+    public int getPsc() {
+        return this.mPscPci;
+    }
+
+    public int getAsu() {
+        return this.mAsu;
+    }
+
+    public int getTimingAdvance() {
+        return this.mTa;
+    }
+
+    public int getSimpleLevel() { return  this.mSimpleLevel; }
+
+    public byte getIsRegistered() { return this.isRegistered; }
+
+    public void setIsRegistered(byte value) { this.isRegistered = value; }
+
+    /**
+     * Sets the identity fields verbatim, as read back from an encoded scan.
+     */
+    public void setIdentity(String cellRadio, int mcc, int mnc, int lac, int cid, int pscPci) {
+        this.mCellRadio = cellRadio;
+        this.mMcc = mcc;
+        this.mMnc = mnc;
+        this.mLac = lac;
+        this.mCid = cid;
+        this.mPscPci = pscPci;
+    }
+
+    /**
+     * Sets the measurement fields verbatim, as read back from an encoded scan.
+     */
+    public void setMeasurements(int signalStrength, int asu, int ta, int simpleLevel) {
+        this.mSignalStrength = signalStrength;
+        this.mAsu = asu;
+        this.mTa = ta;
+        this.mSimpleLevel = simpleLevel;
+    }
+
+    /**
+     * Packed identity, see {@link CellKey}; use this rather than
+     * {@link #getCellIdentity()} to dedupe, track or look up towers.
+     */
+    public long getIdentityKey() {
+        return CellKey.of(this);
+    }
+
+    public String getCellIdentity() {
+        return getCellRadio() + " " + getMcc() + " " + getMnc() + " " + getLac() + " " + getCid() + " " + getPsc();
+    }
+
+    protected void reset() {
+        this.mCellRadio = CELL_RADIO_GSM;
+        this.mMcc = -1;
+        this.mMnc = -1;
+        this.mLac = -1;
+        this.mCid = -1;
+        this.mSignalStrength = UNKNOWN_SIGNAL_STRENGTH;
+        this.mAsu = -1;
+        this.mTa = -1;
+        this.mPscPci = -1;
+        this.mSimpleLevel = -1;
+        this.isRegistered = 0;
+    }
+
+    public void setGsmCellInfo(int mcc, int mnc, int lac, int cid, int asu, int mSignalStrength, int simpleLevel) {
+        this.mCellRadio = CELL_RADIO_GSM;
+        if (mcc == Integer.MAX_VALUE) {
+            mcc = -1;
+        }
+        this.mMcc = mcc;
+        if (mnc == Integer.MAX_VALUE) {
+            mnc = -1;
+        }
+        this.mMnc = mnc;
+        if (lac == Integer.MAX_VALUE) {
+            lac = -1;
+        }
+        this.mLac = lac;
+        if (cid == Integer.MAX_VALUE) {
+            cid = -1;
+        }
+        this.mCid = cid;
+        this.mAsu = asu;
+        this.mSignalStrength = mSignalStrength;
+        this.mSimpleLevel = simpleLevel;
+    }
+
+    public void setWcdmaCellInfo(int mcc, int mnc, int lac, int cid, int psc, int asu, int signalStrength, int simpleLevel) {
+        this.mCellRadio = CELL_RADIO_WCDMA;
+        if (mcc == Integer.MAX_VALUE) {
+            mcc = -1;
+        }
+        this.mMcc = mcc;
+        if (mnc == Integer.MAX_VALUE) {
+            mnc = -1;
+        }
+        this.mMnc = mnc;
+        if (lac == Integer.MAX_VALUE) {
+            lac = -1;
+        }
+        this.mLac = lac;
+        if (cid == Integer.MAX_VALUE) {
+            cid = -1;
+        }
+        this.mCid = cid;
+        if (psc == Integer.MAX_VALUE) {
+            psc = -1;
+        }
+        this.mPscPci = psc;
+        this.mAsu = asu;
+        this.mSignalStrength = signalStrength;
+        this.mSimpleLevel = simpleLevel;
+    }
+
+    public void setLteCellInfo(int mcc, int mnc, int ci, int psc, int lac, int asu, int signalStrength, int ta, int simpleLevel) {
+        this.mCellRadio = CELL_RADIO_LTE;
+        if (mcc == Integer.MAX_VALUE) {
+            mcc = -1;
+        }
+        this.mMcc = mcc;
+        if (mnc == Integer.MAX_VALUE) {
+            mnc = -1;
+        }
+        this.mMnc = mnc;
+        if (lac == Integer.MAX_VALUE) {
+            lac = -1;
+        }
+        this.mLac = lac;
+        if (ci == Integer.MAX_VALUE) {
+            ci = -1;
+        }
+        this.mCid = ci;
+        if (psc == Integer.MAX_VALUE) {
+            psc = -1;
+        }
+        this.mPscPci = psc;
+        this.mAsu = asu;
+        this.mSignalStrength = signalStrength;
+        this.mTa = ta;
+        this.mSimpleLevel = simpleLevel;
+    }
+
+    protected void setCdmaCellInfo(int baseStationId, int networkId, int systemId, int dbm, int simpleLevel) {
+        this.mCellRadio = CELL_RADIO_CDMA;
+        if (systemId == Integer.MAX_VALUE) {
+            systemId = -1;
+        }
+        this.mMnc = systemId;
+        if (networkId == Integer.MAX_VALUE) {
+            networkId = -1;
+        }
+        this.mLac = networkId;
+        if (baseStationId == Integer.MAX_VALUE) {
+            baseStationId = -1;
+        }
+        this.mCid = baseStationId;
+        this.mSignalStrength = dbm;
+        this.mSimpleLevel = simpleLevel;
+    }
+
+    protected void setNetworkOperator(String mccMnc) {
+        if (mccMnc == null || mccMnc.length() < 5 || mccMnc.length() > 8) {
+            throw new IllegalArgumentException("Bad mccMnc: " + mccMnc);
+        }
+        this.mMcc = Integer.parseInt(mccMnc.substring(0, 3));
+        this.mMnc = Integer.parseInt(mccMnc.substring(3));
+    }
+
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof CellData)) {
+            return false;
+        }
+        CellData ci = (CellData) o;
+        if (this.mCellRadio.equals(ci.mCellRadio) &&
+                this.mMcc == ci.mMcc &&
+                this.mMnc == ci.mMnc &&
+                this.mCid == ci.mCid &&
+                this.mLac == ci.mLac &&
+                this.mSignalStrength == ci.mSignalStrength &&
+                this.mAsu == ci.mAsu &&
+                this.mTa == ci.mTa &&
+                this.mPscPci == ci.mPscPci &&
+                this.isRegistered == ci.isRegistered) {
+            return true;
+        }
+        return false;
+    }
+
+    public int hashCode() {
+        return ((((CellKey.hash(getIdentityKey()) * 31) + this.mSignalStrength) * 31 + this.mAsu) * 31) + this.mTa;
+    }
+
+    public static String header()
+    {
+        return "Radio,Mcc,Mnc,Cid,Lac,SignalS,Level,mAsu,mTa,PscPci,isReg";
+    }
+
+    public String toString() {
+        String mta = (this.mTa == Integer.MAX_VALUE) ? "max" : ((Integer)this.mTa).toString();
+        return this.mCellRadio + "," +
+                this.mMcc + "," +
+                this.mMnc + "," +
+                this.mCid + "," +
+                this.mLac + "," +
+                this.mSignalStrength + "," +
+                this.mSimpleLevel + "," +
+                this.mAsu + "," +
+                mta + "," +
+                this.mPscPci + "," +
+                this.isRegistered;
+    }
+
+    public String getTowerId() {
+        return "" + getCid() + ":" + getLac() + ":" + getPsc();
+    }
+}
@@ -0,0 +1,54 @@
+package com.commonsware.android.job.CellSites;
+
+import com.commonsware.android.job.CellSites.collections.LongHashSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Collects the cells of one scan, keeping the first sighting of every cell
+ * identity. Unlike a List.contains merge this is O(n) and ignores the
+ * signal fields, so the same tower reported by two telephony APIs counts
+ * once. Keyed by {@link CellKey}, so a scan allocates nothing once the
+ * deduper is warm.
+ */
+public class CellDeduper<T extends CellData> {
+    private final LongHashSet seen = new LongHashSet(64);
+    private final ArrayList<T> cells = new ArrayList<T>();
+
+    /**
+     * Returns false if a cell with the same identity was already added.
+     */
+    public boolean add(T cell) {
+        if (!this.seen.add(cell.getIdentityKey())) {
+            return false;
+        }
+        this.cells.add(cell);
+        return true;
+    }
+
+    public void addAll(List<? extends T> list) {
+        for (int i = 0; i < list.size(); i++) {
+            add(list.get(i));
+        }
+    }
+
+    public int size() {
+        return this.cells.size();
+    }
+
+    /**
+     * Appends the distinct cells, in first-seen order, to out.
+     */
+    public <C extends Collection<? super T>> C drainTo(C out) {
+        out.addAll(this.cells);
+        clear();
+        return out;
+    }
+
+    public void clear() {
+        this.seen.clear();
+        this.cells.clear();
+    }
+}
@@ -0,0 +1,215 @@
+package com.commonsware.android.job.CellSites;
+
+/**
+ * Packs a cell identity into one long so towers can be deduped, tracked and
+ * looked up without building identity strings.
+ *
+ * Layout, most significant bit first; unknown (-1) fields are stored as all
+ * ones:
+ * <pre>
+ * GSM and unknown radio: radio:3 mcc:10 mnc:10 lac:16 cid:16 psc:9
+ * WCDMA and LTE:         radio:3 mcc:10 mnc:10 0:3    cid:28 psc:10
+ * CDMA:                  radio:3 sid:15 nid:16 bid:16 0:4    psc:10
+ * </pre>
+ * 76 bits of LTE identity do not fit, so for WCDMA and LTE the LAC/TAC is
+ * left out: the 28-bit UTRAN cell id and E-UTRAN cell identity are already
+ * unique within their PLMN. CDMA drops the MCC the same way, as the SID is
+ * globally assigned. Values wider than their field are truncated.
+ *
+ * The PSC/PCI field is 10 bits where the radio has one, so that all of
+ * 0..511 (WCDMA PSC, CDMA PN offset) stays clear of the unknown value; GSM
+ * has no scrambling code and no spare bit, and keeps 9.
+ *
+ * Sorting keys groups cells by radio, then by network, which is the order
+ * the offline cell database uses.
+ */
+public final class CellKey {
+    // the widest PSC field, see pscBits()
+    public static final int PSC_BITS = 10;
+    // highest PSC/PCI any radio has
+    public static final int MAX_PSC = 511;
+    private static final int GSM_PSC_BITS = 9;
+    private static final int RADIO_SHIFT = 61;
+    private static final int MCC_SHIFT = 51;
+    private static final int MNC_SHIFT = 41;
+    private static final int LAC_SHIFT = 25;
+    private static final int SID_SHIFT = 46;
+    private static final int NID_SHIFT = 30;
+    private static final int BID_SHIFT = 14;
+
+    private CellKey() {
+    }
+
+    public static long pack(int radioType, int mcc, int mnc, int lac, int cid, int psc) {
+        long key = ((long) radioType & 7) << RADIO_SHIFT;
+        switch (radioType) {
+            case RadioType.CDMA:
+                key |= field(mnc, 15) << SID_SHIFT;
+                key |= field(lac, 16) << NID_SHIFT;
+                key |= field(cid, 16) << BID_SHIFT;
+                break;
+            case RadioType.WCDMA:
+            case RadioType.LTE:
+                key |= field(mcc, 10) << MCC_SHIFT;
+                key |= field(mnc, 10) << MNC_SHIFT;
+                key |= field(cid, 28) << PSC_BITS;
+                break;
+            default:
+                key |= field(mcc, 10) << MCC_SHIFT;
+                key |= field(mnc, 10) << MNC_SHIFT;
+                key |= field(lac, 16) << LAC_SHIFT;
+                key |= field(cid, 16) << GSM_PSC_BITS;
+                break;
+        }
+        return key | field(psc, pscBits(radioType));
+    }
+
+    /**
+     * True if every field the layout keeps for this radio fits its width,
+     * i.e. pack() loses nothing but the documented omissions. Unknown (-1)
+     * fields always fit.
+     */
+    public static boolean fits(int radioType, int mcc, int mnc, int lac, int cid, int psc) {
+        if (!fitsField(psc, pscBits(radioType))) {
+            return false;
+        }
+        switch (radioType) {
+            case RadioType.CDMA:
+                return fitsField(mnc, 15) && fitsField(lac, 16) && fitsField(cid, 16);
+            case RadioType.WCDMA:
+            case RadioType.LTE:
+                return fitsField(mcc, 10) && fitsField(mnc, 10) && fitsField(cid, 28);
+            default:
+                return fitsField(mcc, 10) && fitsField(mnc, 10) && fitsField(lac, 16) && fitsField(cid, 16);
+        }
+    }
+
+    public static long of(CellData cell) {
+        return pack(RadioType.fromName(cell.getCellRadio()), cell.getMcc(), cell.getMnc(),
+                cell.getLac(), cell.getCid(), cell.getPsc());
+    }
+
+    /**
+     * The key with its PCI/PSC cleared to unknown, for matching against
+     * sources such as MLS that often lack the scrambling code.
+     */
+    public static long withoutPsc(long key) {
+        return key | pscMask(radioType(key));
+    }
+
+    /**
+     * True if the key carries a PSC/PCI.
+     */
+    public static boolean hasPsc(long key) {
+        long mask = pscMask(radioType(key));
+        return (key & mask) != mask;
+    }
+
+    public static int radioType(long key) {
+        return (int) (key >>> RADIO_SHIFT);
+    }
+
+    public static int mcc(long key) {
+        return radioType(key) == RadioType.CDMA ? -1 : unfield(key >>> MCC_SHIFT, 10);
+    }
+
+    /**
+     * MNC, or the SID of a CDMA cell.
+     */
+    public static int mnc(long key) {
+        return radioType(key) == RadioType.CDMA ? unfield(key >>> SID_SHIFT, 15) : unfield(key >>> MNC_SHIFT, 10);
+    }
+
+    /**
+     * LAC, or the NID of a CDMA cell; -1 for WCDMA and LTE keys, which do
+     * not carry it.
+     */
+    public static int lac(long key) {
+        switch (radioType(key)) {
+            case RadioType.CDMA:
+                return unfield(key >>> NID_SHIFT, 16);
+            case RadioType.WCDMA:
+            case RadioType.LTE:
+                return -1;
+            default:
+                return unfield(key >>> LAC_SHIFT, 16);
+        }
+    }
+
+    /**
+     * CID/CI, or the BID of a CDMA cell.
+     */
+    public static int cid(long key) {
+        switch (radioType(key)) {
+            case RadioType.CDMA:
+                return unfield(key >>> BID_SHIFT, 16);
+            case RadioType.WCDMA:
+            case RadioType.LTE:
+                return unfield(key >>> PSC_BITS, 28);
+            default:
+                return unfield(key >>> GSM_PSC_BITS, 16);
+        }
+    }
+
+    public static int psc(long key) {
+        return unfield(key, pscBits(radioType(key)));
+    }
+
+    /**
+     * Width of the PSC/PCI field in keys of radioType.
+     */
+    static int pscBits(int radioType) {
+        switch (radioType) {
+            case RadioType.WCDMA:
+            case RadioType.LTE:
+            case RadioType.CDMA:
+                return PSC_BITS;
+            default:
+                return GSM_PSC_BITS;
+        }
+    }
+
+    private static long pscMask(int radioType) {
+        return (1L << pscBits(radioType)) - 1;
+    }
+
+    /**
+     * Spreads the key bits for open-addressing tables, whose slot is taken
+     * from the low bits.
+     */
+    public static int hash(long key) {
+        return (int) mix(key);
+    }
+
+    /**
+     * The 64-bit finalizer of MurmurHash3, for everything that hashes keys
+     * or other longs.
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    public static String toString(long key) {
+        return RadioType.toName(radioType(key)) + " " + mcc(key) + " " + mnc(key) + " " + lac(key) + " " + cid(key) + " " + psc(key);
+    }
+
+    private static long field(int value, int bits) {
+        long mask = (1L << bits) - 1;
+        return value < 0 ? mask : value & mask;
+    }
+
+    private static boolean fitsField(int value, int bits) {
+        // all ones is reserved for unknown
+        return value == -1 || (value >= 0 && value < (1 << bits) - 1);
+    }
+
+    private static int unfield(long bits, int width) {
+        int mask = (1 << width) - 1;
+        int value = (int) bits & mask;
+        return value == mask ? -1 : value;
+    }
+}
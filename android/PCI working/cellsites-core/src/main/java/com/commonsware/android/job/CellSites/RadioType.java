@@ -0,0 +1,47 @@
+package com.commonsware.android.job.CellSites;
+
+/**
+ * One-byte radio type codes used in place of the cellRadio strings
+ * wherever cells are encoded or keyed.
+ */
+public final class RadioType {
+    public static final byte UNKNOWN = 0;
+    public static final byte GSM = 1;
+    public static final byte WCDMA = 2;
+    public static final byte CDMA = 3;
+    public static final byte LTE = 4;
+
+    private RadioType() {
+    }
+
+    public static byte fromName(String cellRadio) {
+        if (CellData.CELL_RADIO_LTE.equals(cellRadio)) {
+            return LTE;
+        }
+        if (CellData.CELL_RADIO_GSM.equals(cellRadio)) {
+            return GSM;
+        }
+        if (CellData.CELL_RADIO_WCDMA.equals(cellRadio)) {
+            return WCDMA;
+        }
+        if (CellData.CELL_RADIO_CDMA.equals(cellRadio)) {
+            return CDMA;
+        }
+        return UNKNOWN;
+    }
+
+    public static String toName(int radioType) {
+        switch (radioType) {
+            case GSM:
+                return CellData.CELL_RADIO_GSM;
+            case WCDMA:
+                return CellData.CELL_RADIO_WCDMA;
+            case CDMA:
+                return CellData.CELL_RADIO_CDMA;
+            case LTE:
+                return CellData.CELL_RADIO_LTE;
+            default:
+                return CellData.CELL_RADIO_UNKNOWN;
+        }
+    }
+}
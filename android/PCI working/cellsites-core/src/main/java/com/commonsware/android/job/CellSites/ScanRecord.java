@@ -0,0 +1,102 @@
+package com.commonsware.android.job.CellSites;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One radio scan: who and when, the last GPS fix if any, and the cells.
+ * {@link #toCsv()} renders the text block the collector has always received.
+ */
+public class ScanRecord {
+    public String deviceId;
+    public long deviceTime;
+    public boolean hasLocation;
+    public double latitude;
+    public double longitude;
+    // age of the fix in seconds
+    public long locationAge;
+    // NaN when the fix does not carry the value
+    public float accuracy = Float.NaN;
+    public float speed = Float.NaN;
+    public float bearing = Float.NaN;
+    // on-device position computed from the cells, see CellLocator
+    public boolean hasRadioFix;
+    public double radioLatitude;
+    public double radioLongitude;
+    // metres
+    public int radioAccuracy;
+    public final List<CellData> cells = new ArrayList<CellData>();
+
+    public void setLocation(double latitude, double longitude, long locationAge, float accuracy, float speed, float bearing) {
+        this.hasLocation = true;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.locationAge = locationAge;
+        this.accuracy = accuracy;
+        this.speed = speed;
+        this.bearing = bearing;
+    }
+
+    public void setRadioFix(double latitude, double longitude, int accuracy) {
+        this.hasRadioFix = true;
+        this.radioLatitude = latitude;
+        this.radioLongitude = longitude;
+        this.radioAccuracy = accuracy;
+    }
+
+    public void reset() {
+        this.deviceId = null;
+        this.deviceTime = 0;
+        this.hasLocation = false;
+        this.latitude = 0;
+        this.longitude = 0;
+        this.locationAge = 0;
+        this.accuracy = Float.NaN;
+        this.speed = Float.NaN;
+        this.bearing = Float.NaN;
+        this.hasRadioFix = false;
+        this.radioLatitude = 0;
+        this.radioLongitude = 0;
+        this.radioAccuracy = 0;
+        this.cells.clear();
+    }
+
+    /**
+     * The legacy CSV block, or an empty string when no cell was seen. A
+     * radio fix goes in a trailing section whose short lines older
+     * collectors skip.
+     */
+    public String toCsv() {
+        if (this.cells.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(64 + 48 * this.cells.size());
+        sb.append("#deviceId,deviceTime\n");
+        sb.append(this.deviceId).append(',').append(this.deviceTime).append('\n');
+        sb.append("#latitude,longitude,age,accuracy,speed,bearing\n");
+        if (this.hasLocation) {
+            sb.append(String.format(Locale.US, "%.6f,%.6f", this.latitude, this.longitude))
+                    .append(',').append(this.locationAge)
+                    .append(',').append(optional(this.accuracy))
+                    .append(',').append(optional(this.speed))
+                    .append(',').append(optional(this.bearing)).append('\n');
+        } else {
+            sb.append("0,0,0,?,?,?\n");
+        }
+        sb.append('#').append(CellData.header()).append('\n');
+        for (int i = 0; i < this.cells.size(); i++) {
+            sb.append(this.cells.get(i).toString()).append('\n');
+        }
+        if (this.hasRadioFix) {
+            sb.append("#radioLatitude,radioLongitude,radioAccuracy\n");
+            sb.append(String.format(Locale.US, "%.6f,%.6f", this.radioLatitude, this.radioLongitude))
+                    .append(',').append(this.radioAccuracy).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String optional(float value) {
+        return Float.isNaN(value) ? "?" : Float.toString(value);
+    }
+}
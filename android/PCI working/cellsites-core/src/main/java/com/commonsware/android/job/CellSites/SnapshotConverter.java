@@ -0,0 +1,152 @@
+package com.commonsware.android.job.CellSites;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The platform-independent half of a scan: turns a
+ * {@link TelephonySnapshot} into cells with the same validity rules the
+ * telephony conversion always had and drops repeated identities with a
+ * {@link CellDeduper}, so a tower seen by getAllCellInfo() and again as a
+ * neighbour counts once. T is the cell class to create, so the app gets
+ * its Parcelable CellInfo and the JVM plain CellData.
+ */
+public class SnapshotConverter<T extends CellData> {
+    private static final Logger LOG = Logger.getLogger(SnapshotConverter.class.getName());
+
+    public interface Factory<T extends CellData> {
+        T create();
+    }
+
+    private final Factory<T> factory;
+    private final CellDeduper<T> deduper = new CellDeduper<T>();
+
+    public SnapshotConverter(Factory<T> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Appends the snapshot's distinct valid cells to out: getAllCellInfo()
+     * cells first, then the serving cell, then the neighbours.
+     */
+    public void convert(TelephonySnapshot snapshot, List<? super T> out) {
+        this.deduper.clear();
+        if (snapshot.phoneType == TelephonySnapshot.PHONE_TYPE_NONE) {
+            return;
+        }
+        for (int i = 0; i < snapshot.getCellCount(); i++) {
+            T cell = this.factory.create();
+            if (convertCell(snapshot.getCell(i), cell)) {
+                this.deduper.add(cell);
+            }
+        }
+        if (snapshot.hasServing) {
+            T cell = this.factory.create();
+            try {
+                convertServing(snapshot.serving, snapshot.networkType, snapshot.networkOperator, cell);
+                this.deduper.add(cell);
+            } catch (IllegalArgumentException e) {
+                LOG.log(Level.WARNING, "Skip invalid or incomplete serving cell", e);
+            }
+        }
+        for (int i = 0; i < snapshot.getNeighbourCount(); i++) {
+            T cell = this.factory.create();
+            try {
+                convertNeighbour(snapshot.getNeighbour(i), snapshot.networkOperator, cell);
+                if (cell.isCellRadioValid()) {
+                    this.deduper.add(cell);
+                }
+            } catch (IllegalArgumentException e) {
+                LOG.log(Level.WARNING, "Skip invalid or incomplete neighbouring cell", e);
+            }
+        }
+        this.deduper.drainTo(out);
+    }
+
+    /**
+     * A getAllCellInfo() cell; false if it has too little identity to keep.
+     */
+    public static boolean convertCell(TelephonySnapshot.Cell raw, CellData cell) {
+        cell.reset();
+        switch (raw.type) {
+            case TelephonySnapshot.TYPE_LTE:
+                if ((raw.mnc == Integer.MAX_VALUE || raw.mcc == Integer.MAX_VALUE) && (raw.psc < 0 || raw.psc >= 504)) {
+                    return false;
+                }
+                cell.setLteCellInfo(raw.mcc, raw.mnc, raw.cid, raw.psc, raw.lac, raw.asu, raw.dbm,
+                        raw.timingAdvance, raw.level);
+                break;
+            case TelephonySnapshot.TYPE_GSM:
+                if ((raw.mcc == Integer.MAX_VALUE || raw.mnc == Integer.MAX_VALUE) && raw.lac == Integer.MAX_VALUE) {
+                    return false;
+                }
+                cell.setGsmCellInfo(raw.mcc, raw.mnc, raw.lac, raw.cid, raw.asu, raw.dbm, raw.level);
+                break;
+            case TelephonySnapshot.TYPE_WCDMA:
+                if ((raw.mnc == Integer.MAX_VALUE || raw.mcc == Integer.MAX_VALUE) && (raw.psc < 0 || raw.psc >= 512)) {
+                    return false;
+                }
+                cell.setWcdmaCellInfo(raw.mcc, raw.mnc, raw.lac, raw.cid, raw.psc, raw.asu, raw.dbm, raw.level);
+                break;
+            case TelephonySnapshot.TYPE_CDMA:
+                cell.setCdmaCellInfo(raw.cid, raw.lac, raw.mnc, raw.dbm, raw.level);
+                break;
+            default:
+                return false;
+        }
+        if (raw.registered) {
+            cell.setIsRegistered((byte) 1);
+        }
+        return true;
+    }
+
+    /**
+     * The serving CellLocation, registered by definition.
+     */
+    public static void convertServing(TelephonySnapshot.Cell raw, int networkType, String networkOperator, CellData cell) {
+        cell.reset();
+        if (raw.type != TelephonySnapshot.TYPE_GSM_LOCATION && raw.type != TelephonySnapshot.TYPE_CDMA_LOCATION) {
+            throw new IllegalArgumentException("Unexpected serving cell type: " + raw.type);
+        }
+        cell.mCellRadio = CellData.getCellRadioTypeName(networkType);
+        cell.setNetworkOperator(networkOperator);
+        if (raw.type == TelephonySnapshot.TYPE_GSM_LOCATION) {
+            if (raw.lac >= 0) {
+                cell.mLac = raw.lac;
+            }
+            if (raw.cid >= 0) {
+                cell.mCid = raw.cid;
+            }
+            if (raw.psc >= 0) {
+                cell.mPscPci = raw.psc;
+            }
+        } else {
+            cell.mMnc = raw.mnc;
+            cell.mLac = raw.lac;
+            cell.mCid = raw.cid;
+        }
+        cell.setIsRegistered((byte) 1);
+    }
+
+    /**
+     * A NeighboringCellInfo, which carries no MCC/MNC of its own.
+     */
+    public static void convertNeighbour(TelephonySnapshot.Cell raw, String networkOperator, CellData cell) {
+        cell.reset();
+        cell.mCellRadio = CellData.getCellRadioTypeName(raw.networkType);
+        cell.setNetworkOperator(networkOperator);
+        if (raw.lac >= 0) {
+            cell.mLac = raw.lac;
+        }
+        if (raw.cid >= 0) {
+            cell.mCid = raw.cid;
+        }
+        if (raw.psc >= 0) {
+            cell.mPscPci = raw.psc;
+        }
+        if (raw.dbm != 99) {
+            cell.mSignalStrength = raw.dbm;
+        }
+    }
+}
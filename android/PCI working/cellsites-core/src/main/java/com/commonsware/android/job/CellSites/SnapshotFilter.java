@@ -0,0 +1,78 @@
+package com.commonsware.android.job.CellSites;
+
+import java.util.List;
+
+/**
+ * Decides whether a scan is a new radio snapshot worth encoding and
+ * uploading. A scan is stale when its newest cell timestamp is not after
+ * the newest one already seen (telephony handed out its cached list
+ * again), and unchanged when its cells, identities and measurements alike,
+ * are the ones last published.
+ *
+ * Scans are compared by an order-independent 64-bit fingerprint, so
+ * nothing is kept or allocated per scan. Not thread-safe.
+ */
+public class SnapshotFilter {
+    private long lastTimestampNanos;
+    private long lastFingerprint;
+    private boolean published;
+    private long staleCount;
+    private long unchangedCount;
+    private long publishedCount;
+
+    /**
+     * True if the scan should be published. timestampNanos is the newest
+     * cell timestamp on the elapsed-realtime clock, 0 when the platform
+     * gave none; such scans are only compared by content.
+     */
+    public boolean accept(List<? extends CellData> cells, long timestampNanos) {
+        if (timestampNanos > 0) {
+            if (timestampNanos <= this.lastTimestampNanos) {
+                this.staleCount++;
+                return false;
+            }
+            this.lastTimestampNanos = timestampNanos;
+        }
+        long fingerprint = fingerprint(cells);
+        if (this.published && fingerprint == this.lastFingerprint) {
+            this.unchangedCount++;
+            return false;
+        }
+        this.lastFingerprint = fingerprint;
+        this.published = true;
+        this.publishedCount++;
+        return true;
+    }
+
+    public void reset() {
+        this.lastTimestampNanos = 0;
+        this.published = false;
+    }
+
+    public long getStaleCount() {
+        return this.staleCount;
+    }
+
+    public long getUnchangedCount() {
+        return this.unchangedCount;
+    }
+
+    public long getPublishedCount() {
+        return this.publishedCount;
+    }
+
+    /**
+     * Sum of a mix of every cell's identity and measurements; the same
+     * cells in any order give the same value.
+     */
+    public static long fingerprint(List<? extends CellData> cells) {
+        long sum = cells.size();
+        for (int i = 0; i < cells.size(); i++) {
+            CellData cell = cells.get(i);
+            long measurements = ((long) cell.getSignalStrength() << 40) ^ ((long) cell.getAsu() << 24)
+                    ^ ((long) cell.getTimingAdvance() << 1) ^ cell.getIsRegistered();
+            sum += CellKey.mix(cell.getIdentityKey() * 0x9E3779B97F4A7C15L + measurements);
+        }
+        return sum;
+    }
+}
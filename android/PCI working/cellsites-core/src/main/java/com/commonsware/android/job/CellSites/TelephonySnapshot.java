@@ -0,0 +1,194 @@
+package com.commonsware.android.job.CellSites;
+
+import java.util.Arrays;
+
+/**
+ * One read of the telephony APIs, field for field as the platform reported
+ * it (Integer.MAX_VALUE where a value is unavailable), before any of
+ * {@link SnapshotConverter}'s validation: the getAllCellInfo() list (or the
+ * one pushed to a listener), the serving cell location and the
+ * neighbouring cells, plus the network operator and types they are
+ * interpreted with.
+ *
+ * This is the seam between the radio and the scan path: a
+ * {@link TelephonySource} fills it from the phone or from a recorded
+ * trace, and everything downstream is plain Java. Cells are pooled, so a
+ * reused snapshot allocates nothing once it has seen its largest scan.
+ */
+public class TelephonySnapshot {
+    // TelephonyManager.PHONE_TYPE_NONE
+    public static final int PHONE_TYPE_NONE = 0;
+
+    // which android.telephony class a cell was read from
+    public static final int TYPE_GSM = 1;
+    public static final int TYPE_WCDMA = 2;
+    public static final int TYPE_LTE = 3;
+    public static final int TYPE_CDMA = 4;
+    // serving CellLocation subclasses
+    public static final int TYPE_GSM_LOCATION = 5;
+    public static final int TYPE_CDMA_LOCATION = 6;
+    // NeighboringCellInfo
+    public static final int TYPE_NEIGHBOUR = 7;
+
+    /**
+     * One reported cell. Which fields mean what depends on the type:
+     * CDMA and CDMA locations keep the system id in mnc, the network id in
+     * lac and the base station id in cid; a neighbour keeps its network
+     * type in networkType and its RSSI in dbm.
+     */
+    public static final class Cell {
+        public int type;
+        public boolean registered;
+        // android.telephony.CellInfo.getTimeStamp(), elapsed-realtime nanos
+        public long timestampNanos;
+        public int networkType;
+        public int mcc;
+        public int mnc;
+        public int lac;
+        public int cid;
+        // PSC, or PCI for LTE
+        public int psc;
+        public int asu;
+        public int dbm;
+        public int timingAdvance;
+        public int level;
+
+        public void clear() {
+            this.type = 0;
+            this.registered = false;
+            this.timestampNanos = 0;
+            this.networkType = 0;
+            this.mcc = Integer.MAX_VALUE;
+            this.mnc = Integer.MAX_VALUE;
+            this.lac = Integer.MAX_VALUE;
+            this.cid = Integer.MAX_VALUE;
+            this.psc = Integer.MAX_VALUE;
+            this.asu = Integer.MAX_VALUE;
+            this.dbm = Integer.MAX_VALUE;
+            this.timingAdvance = Integer.MAX_VALUE;
+            this.level = 0;
+        }
+
+        public void set(Cell other) {
+            this.type = other.type;
+            this.registered = other.registered;
+            this.timestampNanos = other.timestampNanos;
+            this.networkType = other.networkType;
+            this.mcc = other.mcc;
+            this.mnc = other.mnc;
+            this.lac = other.lac;
+            this.cid = other.cid;
+            this.psc = other.psc;
+            this.asu = other.asu;
+            this.dbm = other.dbm;
+            this.timingAdvance = other.timingAdvance;
+            this.level = other.level;
+        }
+    }
+
+    // when the snapshot was read, elapsed-realtime nanos
+    public long elapsedNanos;
+    public int phoneType;
+    public int networkType;
+    // getNetworkOperator(), or the SIM operator if that has no MCC/MNC; may be null
+    public String networkOperator;
+    public final Cell serving = new Cell();
+    public boolean hasServing;
+    private Cell[] cells = new Cell[0];
+    private int cellCount;
+    private Cell[] neighbours = new Cell[0];
+    private int neighbourCount;
+
+    public TelephonySnapshot() {
+        clear();
+    }
+
+    public void clear() {
+        this.elapsedNanos = 0;
+        this.phoneType = PHONE_TYPE_NONE;
+        this.networkType = 0;
+        this.networkOperator = null;
+        this.serving.clear();
+        this.hasServing = false;
+        this.cellCount = 0;
+        this.neighbourCount = 0;
+    }
+
+    /**
+     * Appends a cleared cell to the getAllCellInfo() list and returns it
+     * to be filled in.
+     */
+    public Cell addCell() {
+        if (this.cellCount == this.cells.length) {
+            this.cells = grow(this.cells);
+        }
+        Cell cell = this.cells[this.cellCount++];
+        cell.clear();
+        return cell;
+    }
+
+    public int getCellCount() {
+        return this.cellCount;
+    }
+
+    public Cell getCell(int index) {
+        return this.cells[index];
+    }
+
+    /**
+     * Appends a cleared neighbouring cell and returns it to be filled in.
+     */
+    public Cell addNeighbour() {
+        if (this.neighbourCount == this.neighbours.length) {
+            this.neighbours = grow(this.neighbours);
+        }
+        Cell cell = this.neighbours[this.neighbourCount++];
+        cell.clear();
+        cell.type = TYPE_NEIGHBOUR;
+        return cell;
+    }
+
+    public int getNeighbourCount() {
+        return this.neighbourCount;
+    }
+
+    public Cell getNeighbour(int index) {
+        return this.neighbours[index];
+    }
+
+    /**
+     * Newest cell timestamp, 0 if the platform gave none.
+     */
+    public long getNewestTimestampNanos() {
+        long newest = 0;
+        for (int i = 0; i < this.cellCount; i++) {
+            newest = Math.max(newest, this.cells[i].timestampNanos);
+        }
+        return newest;
+    }
+
+    public void set(TelephonySnapshot other) {
+        this.elapsedNanos = other.elapsedNanos;
+        this.phoneType = other.phoneType;
+        this.networkType = other.networkType;
+        this.networkOperator = other.networkOperator;
+        this.serving.set(other.serving);
+        this.hasServing = other.hasServing;
+        this.cellCount = 0;
+        for (int i = 0; i < other.cellCount; i++) {
+            addCell().set(other.cells[i]);
+        }
+        this.neighbourCount = 0;
+        for (int i = 0; i < other.neighbourCount; i++) {
+            addNeighbour().set(other.neighbours[i]);
+        }
+    }
+
+    private static Cell[] grow(Cell[] cells) {
+        Cell[] grown = Arrays.copyOf(cells, Math.max(8, cells.length * 2));
+        for (int i = cells.length; i < grown.length; i++) {
+            grown[i] = new Cell();
+        }
+        return grown;
+    }
+}
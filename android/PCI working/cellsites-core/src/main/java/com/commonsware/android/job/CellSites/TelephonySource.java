@@ -0,0 +1,13 @@
+package com.commonsware.android.job.CellSites;
+
+/**
+ * Where a scan's raw cells come from: TelephonyManager on the phone, a
+ * recorded trace on the JVM.
+ */
+public interface TelephonySource {
+    /**
+     * Fills out (already cleared) with the current readings. False if
+     * there is nothing more to read, e.g. the end of a trace.
+     */
+    boolean read(TelephonySnapshot out);
+}
@@ -0,0 +1,168 @@
+package com.commonsware.android.job.CellSites.celldb;
+
+import com.commonsware.android.job.CellSites.CellKey;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only offline tower database: fixed-width records sorted by packed
+ * cell identity, memory-mapped and binary-searched in place. Nothing but
+ * the pages a lookup touches is ever resident, and lookups do not allocate.
+ *
+ * File layout, big-endian:
+ * <pre>
+ * header (32 bytes): 'C' 'S' 'D' 'B', int version, int recordSize, int reserved, long count, long generation
+ * count records (32 bytes each), sorted by CellKey.withoutPsc(key) as signed longs:
+ *   long key, int lat*1e7, int lon*1e7, int area, int range, int samples, int updated
+ * </pre>
+ * Keys are unique once the PSC/PCI is ignored, so a scan that lacks it
+ * still finds its tower. Absolute reads on the mapping are safe from any
+ * number of threads.
+ */
+public class CellDatabase implements Closeable {
+    // 2: CellKey PSC field widened to 10 bits
+    public static final int VERSION = 2;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+    static final int OFFSET_LATITUDE = 8;
+    static final int OFFSET_LONGITUDE = 12;
+    static final int OFFSET_AREA = 16;
+    static final int OFFSET_RANGE = 20;
+    static final int OFFSET_SAMPLES = 24;
+    static final int OFFSET_UPDATED = 28;
+    static final double DEGREE_SCALE = 1e7;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final ByteBuffer buffer;
+    private final int count;
+    private final long generation;
+
+    private CellDatabase(File file, RandomAccessFile raf, ByteBuffer buffer, int count, long generation) {
+        this.file = file;
+        this.raf = raf;
+        this.buffer = buffer;
+        this.count = count;
+        this.generation = generation;
+    }
+
+    public static CellDatabase open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException("Bad cell database size " + length + ": " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.get(0) != 'C' || buffer.get(1) != 'S' || buffer.get(2) != 'D' || buffer.get(3) != 'B') {
+                throw new IOException("Not a cell database: " + file);
+            }
+            int version = buffer.getInt(4);
+            if (version != VERSION || buffer.getInt(8) != RECORD_SIZE) {
+                throw new IOException("Unsupported cell database version " + version + ": " + file);
+            }
+            long count = buffer.getLong(16);
+            if (count < 0 || HEADER_SIZE + count * RECORD_SIZE != length) {
+                throw new IOException("Truncated cell database: " + file);
+            }
+            return new CellDatabase(file, raf, buffer, (int) count, buffer.getLong(24));
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Build or update generation this file was written as.
+     */
+    public long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Index of the record for key (its PSC/PCI is ignored), or -1.
+     */
+    public int indexOf(long key) {
+        long target = CellKey.withoutPsc(key);
+        int low = 0;
+        int high = this.count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long k = CellKey.withoutPsc(keyAt(mid));
+            if (k < target) {
+                low = mid + 1;
+            } else if (k > target) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Fills out with the tower for key; false if it is not in the database.
+     */
+    public boolean find(long key, CellSite out) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return false;
+        }
+        read(index, out);
+        return true;
+    }
+
+    public void read(int index, CellSite out) {
+        out.key = keyAt(index);
+        out.latitude = latitudeAt(index);
+        out.longitude = longitudeAt(index);
+        out.area = intAt(index, OFFSET_AREA);
+        out.range = rangeAt(index);
+        out.samples = intAt(index, OFFSET_SAMPLES);
+        out.updated = intAt(index, OFFSET_UPDATED) & 0xffffffffL;
+    }
+
+    public long keyAt(int index) {
+        return this.buffer.getLong(HEADER_SIZE + index * RECORD_SIZE);
+    }
+
+    public double latitudeAt(int index) {
+        return intAt(index, OFFSET_LATITUDE) / DEGREE_SCALE;
+    }
+
+    public double longitudeAt(int index) {
+        return intAt(index, OFFSET_LONGITUDE) / DEGREE_SCALE;
+    }
+
+    public int rangeAt(int index) {
+        return intAt(index, OFFSET_RANGE);
+    }
+
+    private int intAt(int index, int offset) {
+        return this.buffer.getInt(HEADER_SIZE + index * RECORD_SIZE + offset);
+    }
+
+    /**
+     * Closes the file. The mapping itself stays valid until it is garbage
+     * collected, so lookups racing with close() are still safe.
+     */
+    @Override
+    public void close() throws IOException {
+        this.raf.close();
+    }
+}
@@ -0,0 +1,52 @@
+package com.commonsware.android.job.CellSites.celldb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Command line entry point that turns a Mozilla Location Service cell
+ * export into a {@link CellDatabase} file with {@link MlsImporter}.
+ */
+public class CellDatabaseBuilder {
+    private static final Logger LOG = Logger.getLogger(CellDatabaseBuilder.class.getName());
+
+    /**
+     * Usage: CellDatabaseBuilder [--mcc 302,310] [--radio LTE,UMTS] mls.csv[.gz] cells.db
+     */
+    public static void main(String[] args) throws IOException {
+        MlsImporter importer = new MlsImporter();
+        int i = 0;
+        try {
+            for (; i + 1 < args.length && args[i].startsWith("--"); i += 2) {
+                String[] values = args[i + 1].split(",");
+                int[] parsed = new int[values.length];
+                for (int v = 0; v < values.length; v++) {
+                    parsed[v] = "--radio".equals(args[i])
+                            ? MlsCsvParser.radioType(values[v])
+                            : Integer.parseInt(values[v]);
+                }
+                if ("--mcc".equals(args[i])) {
+                    importer.setMccFilter(parsed);
+                } else if ("--radio".equals(args[i])) {
+                    importer.setRadioFilter(parsed);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            i = -1;
+        }
+        if (i < 0 || args.length - i != 2) {
+            System.err.println("Usage: CellDatabaseBuilder [--mcc 302,310] [--radio LTE,UMTS,GSM,CDMA] <mls.csv[.gz]> <cells.db>");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        long count = importer.importCsv(new File(args[i]), new File(args[i + 1]), System.currentTimeMillis() / 1000);
+        LOG.log(Level.INFO, String.format("%d rows, %d skipped, %d filtered, %d cells written from %d runs in %d ms",
+                importer.getRows(), importer.getSkipped(), importer.getFiltered(), count, importer.getRuns(),
+                (System.nanoTime() - start) / 1000000));
+    }
+}
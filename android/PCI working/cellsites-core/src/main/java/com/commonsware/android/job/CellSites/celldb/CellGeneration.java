@@ -0,0 +1,50 @@
+package com.commonsware.android.job.CellSites.celldb;
+
+import java.io.IOException;
+
+/**
+ * One immutable version of a {@link CellStore}: the base database plus the
+ * small delta that later MLS diffs were merged into. A reader that holds
+ * on to a generation keeps using its mappings after the store has moved on.
+ */
+public final class CellGeneration {
+    private final long generation;
+    private final CellDatabase base;
+    private final CellDatabase delta;
+
+    CellGeneration(long generation, CellDatabase base, CellDatabase delta) {
+        this.generation = generation;
+        this.base = base;
+        this.delta = delta;
+    }
+
+    public long getGeneration() {
+        return this.generation;
+    }
+
+    public CellDatabase getBase() {
+        return this.base;
+    }
+
+    /**
+     * Cells added or updated since the base was built; null if none.
+     */
+    public CellDatabase getDelta() {
+        return this.delta;
+    }
+
+    /**
+     * Fills out with the tower for key, preferring the delta; false if it
+     * is in neither file.
+     */
+    public boolean find(long key, CellSite out) {
+        return (this.delta != null && this.delta.find(key, out)) || this.base.find(key, out);
+    }
+
+    void close() throws IOException {
+        this.base.close();
+        if (this.delta != null) {
+            this.delta.close();
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.commonsware.android.job.CellSites.celldb;
+
+import com.commonsware.android.job.CellSites.CellKey;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Growable in-memory batch of tower records in primitive parallel arrays,
+ * sorted and written out in the {@link CellDatabase} layout.
+ */
+public class CellRecords {
+    private long[] keys;
+    private int[] latitudes;
+    private int[] longitudes;
+    private int[] areas;
+    private int[] ranges;
+    private int[] samples;
+    private int[] updated;
+    private int size;
+
+    public CellRecords(int capacity) {
+        capacity = Math.max(capacity, 16);
+        this.keys = new long[capacity];
+        this.latitudes = new int[capacity];
+        this.longitudes = new int[capacity];
+        this.areas = new int[capacity];
+        this.ranges = new int[capacity];
+        this.samples = new int[capacity];
+        this.updated = new int[capacity];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    public long keyAt(int index) {
+        return this.keys[index];
+    }
+
+    public int latitudeAt(int index) {
+        return this.latitudes[index];
+    }
+
+    public int longitudeAt(int index) {
+        return this.longitudes[index];
+    }
+
+    /**
+     * LAC/TAC, which WCDMA and LTE keys do not carry.
+     */
+    public int areaAt(int index) {
+        return this.areas[index];
+    }
+
+    public int rangeAt(int index) {
+        return this.ranges[index];
+    }
+
+    /**
+     * Appends a record; latitude and longitude are in 1e-7 degrees, updated
+     * in epoch seconds.
+     */
+    public void add(long key, int latitudeE7, int longitudeE7, int area, int range, int sampleCount, long updatedSeconds) {
+        if (this.size == this.keys.length) {
+            grow();
+        }
+        int i = this.size++;
+        this.keys[i] = key;
+        this.latitudes[i] = latitudeE7;
+        this.longitudes[i] = longitudeE7;
+        this.areas[i] = area;
+        this.ranges[i] = range;
+        this.samples[i] = sampleCount;
+        this.updated[i] = (int) updatedSeconds;
+    }
+
+    public void addAll(CellRecords other) {
+        int n = other.size;
+        while (this.size + n > this.keys.length) {
+            grow();
+        }
+        System.arraycopy(other.keys, 0, this.keys, this.size, n);
+        System.arraycopy(other.latitudes, 0, this.latitudes, this.size, n);
+        System.arraycopy(other.longitudes, 0, this.longitudes, this.size, n);
+        System.arraycopy(other.areas, 0, this.areas, this.size, n);
+        System.arraycopy(other.ranges, 0, this.ranges, this.size, n);
+        System.arraycopy(other.samples, 0, this.samples, this.size, n);
+        System.arraycopy(other.updated, 0, this.updated, this.size, n);
+        this.size += n;
+    }
+
+    /**
+     * Sorts by database order and collapses records of the same cell
+     * (equal keys once the PSC/PCI is ignored), keeping the most sampled,
+     * then the most recently updated one.
+     */
+    public void sortAndDedupe() {
+        quickSort(0, this.size - 1);
+        int out = 0;
+        for (int i = 0; i < this.size; i++) {
+            if (out > 0 && CellKey.withoutPsc(this.keys[out - 1]) == CellKey.withoutPsc(this.keys[i])) {
+                if (better(i, out - 1)) {
+                    copy(i, out - 1);
+                }
+            } else {
+                if (out != i) {
+                    copy(i, out);
+                }
+                out++;
+            }
+        }
+        this.size = out;
+    }
+
+    /**
+     * Writes a complete database file, atomically: to a temporary file that
+     * is synced and then renamed over target.
+     */
+    public void writeTo(File target, long generation) throws IOException {
+        File tmp = new File(target.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            FileChannel channel = out.getChannel();
+            writeFully(channel, header(this.size, generation));
+            writeRecords(channel, 0, this.size);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(target)) {
+            throw new IOException("Cannot replace " + target);
+        }
+    }
+
+    /**
+     * Appends records [from, to) to channel in the database record layout.
+     */
+    public void writeRecords(FileChannel channel, int from, int to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(2048 * CellDatabase.RECORD_SIZE);
+        for (int i = from; i < to; i++) {
+            if (buffer.remaining() < CellDatabase.RECORD_SIZE) {
+                buffer.flip();
+                writeFully(channel, buffer);
+                buffer.clear();
+            }
+            buffer.putLong(this.keys[i]);
+            buffer.putInt(this.latitudes[i]);
+            buffer.putInt(this.longitudes[i]);
+            buffer.putInt(this.areas[i]);
+            buffer.putInt(this.ranges[i]);
+            buffer.putInt(this.samples[i]);
+            buffer.putInt(this.updated[i]);
+        }
+        buffer.flip();
+        writeFully(channel, buffer);
+    }
+
+    /**
+     * Database file header, ready to write.
+     */
+    static ByteBuffer header(long count, long generation) {
+        ByteBuffer header = ByteBuffer.allocate(CellDatabase.HEADER_SIZE);
+        header.put((byte) 'C').put((byte) 'S').put((byte) 'D').put((byte) 'B');
+        header.putInt(CellDatabase.VERSION).putInt(CellDatabase.RECORD_SIZE).putInt(0);
+        header.putLong(count).putLong(generation);
+        header.flip();
+        return header;
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private boolean better(int candidate, int current) {
+        if (this.samples[candidate] != this.samples[current]) {
+            return this.samples[candidate] > this.samples[current];
+        }
+        return (this.updated[candidate] & 0xffffffffL) > (this.updated[current] & 0xffffffffL);
+    }
+
+    private void copy(int from, int to) {
+        this.keys[to] = this.keys[from];
+        this.latitudes[to] = this.latitudes[from];
+        this.longitudes[to] = this.longitudes[from];
+        this.areas[to] = this.areas[from];
+        this.ranges[to] = this.ranges[from];
+        this.samples[to] = this.samples[from];
+        this.updated[to] = this.updated[from];
+    }
+
+    private void swap(int a, int b) {
+        long k = this.keys[a];
+        this.keys[a] = this.keys[b];
+        this.keys[b] = k;
+        swap(this.latitudes, a, b);
+        swap(this.longitudes, a, b);
+        swap(this.areas, a, b);
+        swap(this.ranges, a, b);
+        swap(this.samples, a, b);
+        swap(this.updated, a, b);
+    }
+
+    private static void swap(int[] array, int a, int b) {
+        int t = array[a];
+        array[a] = array[b];
+        array[b] = t;
+    }
+
+    private long sortKey(int index) {
+        return CellKey.withoutPsc(this.keys[index]);
+    }
+
+    private void quickSort(int low, int high) {
+        while (high - low > 16) {
+            int mid = (low + high) >>> 1;
+            // median of three into mid, then Hoare partition around it
+            if (sortKey(mid) < sortKey(low)) {
+                swap(mid, low);
+            }
+            if (sortKey(high) < sortKey(low)) {
+                swap(high, low);
+            }
+            if (sortKey(high) < sortKey(mid)) {
+                swap(high, mid);
+            }
+            long pivot = sortKey(mid);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (sortKey(i) < pivot) {
+                    i++;
+                }
+                while (sortKey(j) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // recurse into the smaller half to bound the stack
+            if (j - low < high - i) {
+                quickSort(low, j);
+                low = i;
+            } else {
+                quickSort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && sortKey(j) < sortKey(j - 1); j--) {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    private void grow() {
+        int capacity = this.keys.length * 2;
+        this.keys = Arrays.copyOf(this.keys, capacity);
+        this.latitudes = Arrays.copyOf(this.latitudes, capacity);
+        this.longitudes = Arrays.copyOf(this.longitudes, capacity);
+        this.areas = Arrays.copyOf(this.areas, capacity);
+        this.ranges = Arrays.copyOf(this.ranges, capacity);
+        this.samples = Arrays.copyOf(this.samples, capacity);
+        this.updated = Arrays.copyOf(this.updated, capacity);
+    }
+}
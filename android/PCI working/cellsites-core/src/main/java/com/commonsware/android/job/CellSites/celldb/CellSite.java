@@ -0,0 +1,47 @@
+package com.commonsware.android.job.CellSites.celldb;
+
+import java.util.Locale;
+
+/**
+ * One tower read back from a {@link CellDatabase}. Mutable so a lookup can
+ * fill a caller-owned instance instead of allocating.
+ */
+public class CellSite {
+    /**
+     * Packed identity, see CellKey; carries the PSC/PCI when MLS knew it.
+     */
+    public long key;
+    public double latitude;
+    public double longitude;
+    /**
+     * MLS estimate of the cell's radius in metres.
+     */
+    public int range;
+    public int samples;
+    /**
+     * LAC/TAC, which the packed key leaves out for WCDMA and LTE.
+     */
+    public int area;
+    /**
+     * Epoch seconds of the last MLS update.
+     */
+    public long updated;
+
+    /**
+     * A longitude, or a difference of two, brought back into [-180, 180]
+     * after crossing the antimeridian once.
+     */
+    public static double wrapLongitude(double degrees) {
+        if (degrees > 180) {
+            return degrees - 360;
+        }
+        if (degrees < -180) {
+            return degrees + 360;
+        }
+        return degrees;
+    }
+
+    public String toString() {
+        return String.format(Locale.US, "%.6f,%.6f +/-%dm (%d samples)", latitude, longitude, range, samples);
+    }
+}
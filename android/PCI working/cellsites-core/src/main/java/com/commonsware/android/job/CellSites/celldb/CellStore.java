@@ -0,0 +1,310 @@
+package com.commonsware.android.job.CellSites.celldb;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Directory of {@link CellDatabase} files that MLS daily diffs are applied
+ * to incrementally.
+ *
+ * A generation is a large base file plus a small delta file. Applying a
+ * diff imports it into a sorted temp file and merges it with the current
+ * delta into a new delta (copy-on-write, newest update wins), so the cost
+ * follows the diff and delta size, not the base size. Once the delta
+ * passes 1/COMPACT_RATIO of the base the two are merged into a new base.
+ *
+ * The CURRENT manifest names the live files and is replaced by an atomic
+ * rename only after they are synced, so a crash leaves the previous
+ * generation intact. Lookups go through a volatile {@link CellGeneration}
+ * and never block; callers that hold an old generation keep its mappings.
+ */
+public class CellStore implements Closeable {
+    private static final Logger LOG = Logger.getLogger(CellStore.class.getName());
+    static final String MANIFEST = "CURRENT";
+    static final int COMPACT_RATIO = 8;
+    private static final int MERGE_BUFFER_BYTES = 256 * 1024;
+    // daily diffs are small; keep the import footprint phone sized
+    private static final int DIFF_CHUNK_BYTES = 4 << 20;
+    private static final int DIFF_RUN_RECORDS = 256 * 1024;
+
+    private final File dir;
+    private final Object writeLock = new Object();
+    private volatile CellGeneration current;
+
+    /**
+     * Opens the store in dir, creating the directory if needed; it is empty
+     * until {@link #installBase(File)}.
+     */
+    public CellStore(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        this.dir = dir;
+        File manifest = new File(dir, MANIFEST);
+        if (manifest.exists()) {
+            String[] names = readManifest(manifest);
+            long generation = Long.parseLong(names[0]);
+            CellDatabase base = CellDatabase.open(new File(dir, names[1]));
+            CellDatabase delta = names[2] == null ? null : CellDatabase.open(new File(dir, names[2]));
+            this.current = new CellGeneration(generation, base, delta);
+        }
+        deleteUnreferenced();
+    }
+
+    /**
+     * The live generation, or null if the store is empty.
+     */
+    public CellGeneration current() {
+        return this.current;
+    }
+
+    public long getGeneration() {
+        CellGeneration generation = this.current;
+        return generation == null ? 0 : generation.getGeneration();
+    }
+
+    public boolean find(long key, CellSite out) {
+        CellGeneration generation = this.current;
+        return generation != null && generation.find(key, out);
+    }
+
+    /**
+     * Makes a fully built database the new base, dropping any delta. The
+     * file is moved into the store (copied if it is on another file
+     * system).
+     */
+    public void installBase(File db) throws IOException {
+        synchronized (this.writeLock) {
+            long generation = getGeneration() + 1;
+            File base = new File(this.dir, baseName(generation));
+            if (!db.renameTo(base)) {
+                copy(db, base);
+                if (!db.delete()) {
+                    LOG.warning("Cannot delete " + db);
+                }
+            }
+            CellDatabase opened = CellDatabase.open(base);
+            swap(new CellGeneration(generation, opened, null));
+        }
+    }
+
+    /**
+     * Applies one MLS diff export (plain or .gz); returns the number of
+     * cells it added or updated.
+     */
+    public long applyDiff(File csv) throws IOException {
+        synchronized (this.writeLock) {
+            CellGeneration old = this.current;
+            if (old == null) {
+                throw new IOException("Cannot apply a diff to an empty cell store: " + this.dir);
+            }
+            long generation = old.getGeneration() + 1;
+            File diff = new File(this.dir, "diff-" + generation + ".tmp");
+            File delta = new File(this.dir, deltaName(generation));
+            try {
+                MlsImporter importer = new MlsImporter(1, DIFF_CHUNK_BYTES, DIFF_RUN_RECORDS);
+                importer.setTempDir(this.dir);
+                long changed = importer.importCsv(csv, diff, generation);
+                long deltaSize = merge(old.getDelta(), diff, delta, generation);
+                CellGeneration next;
+                if (deltaSize * COMPACT_RATIO > old.getBase().size()) {
+                    File base = new File(this.dir, baseName(generation));
+                    merge(old.getBase(), delta, base, generation);
+                    next = new CellGeneration(generation, CellDatabase.open(base), null);
+                } else {
+                    next = new CellGeneration(generation, old.getBase(), CellDatabase.open(delta));
+                }
+                swap(next);
+                return changed;
+            } finally {
+                if (diff.exists() && !diff.delete()) {
+                    LOG.warning("Cannot delete " + diff);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the live files; generations handed out earlier stay readable.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this.writeLock) {
+            CellGeneration generation = this.current;
+            this.current = null;
+            if (generation != null) {
+                generation.close();
+            }
+        }
+    }
+
+    /**
+     * Merges the older database (may be null) and the newer file into
+     * target; returns the record count.
+     */
+    private static long merge(CellDatabase older, File newer, File target, long generation) throws IOException {
+        FileInputStream olderIn = older == null ? null : new FileInputStream(older.getFile());
+        FileInputStream newerIn = new FileInputStream(newer);
+        try {
+            FileChannel newerChannel = newerIn.getChannel();
+            RecordInput newerInput = new RecordInput(newerChannel, CellDatabase.HEADER_SIZE, MERGE_BUFFER_BYTES);
+            RecordInput[] inputs = olderIn == null
+                    ? new RecordInput[]{newerInput}
+                    : new RecordInput[]{new RecordInput(olderIn.getChannel(), CellDatabase.HEADER_SIZE, MERGE_BUFFER_BYTES), newerInput};
+            return RecordMerger.merge(inputs, target, generation, true);
+        } finally {
+            newerIn.close();
+            if (olderIn != null) {
+                olderIn.close();
+            }
+        }
+    }
+
+    /**
+     * Publishes next: manifest first, then the volatile reference, then the
+     * files next no longer uses are closed and deleted. Their mappings stay
+     * valid for readers still holding the old generation.
+     */
+    private void swap(CellGeneration next) throws IOException {
+        writeManifest(next);
+        CellGeneration old = this.current;
+        this.current = next;
+        if (old != null) {
+            if (old.getBase() != next.getBase()) {
+                old.getBase().close();
+            }
+            if (old.getDelta() != null) {
+                old.getDelta().close();
+            }
+        }
+        deleteUnreferenced();
+    }
+
+    private void writeManifest(CellGeneration generation) throws IOException {
+        File tmp = new File(this.dir, MANIFEST + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            Writer writer = new OutputStreamWriter(out, "US-ASCII");
+            writer.write(generation.getGeneration() + "\n");
+            writer.write(generation.getBase().getFile().getName() + "\n");
+            if (generation.getDelta() != null) {
+                writer.write(generation.getDelta().getFile().getName() + "\n");
+            }
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(new File(this.dir, MANIFEST))) {
+            throw new IOException("Cannot replace " + MANIFEST + " in " + this.dir);
+        }
+    }
+
+    /**
+     * Returns generation, base file name and delta file name (or null).
+     */
+    private static String[] readManifest(File manifest) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "US-ASCII"));
+        try {
+            String generation = in.readLine();
+            String base = in.readLine();
+            if (generation == null || base == null) {
+                throw new IOException("Corrupt " + manifest);
+            }
+            return new String[]{generation, base, in.readLine()};
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Removes leftovers of superseded generations and interrupted updates.
+     */
+    private void deleteUnreferenced() {
+        CellGeneration live = this.current;
+        File[] files = this.dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.getName().equals(MANIFEST)) {
+                continue;
+            }
+            if (live != null && (f.equals(live.getBase().getFile())
+                    || (live.getDelta() != null && f.equals(live.getDelta().getFile())))) {
+                continue;
+            }
+            if (!f.delete()) {
+                LOG.warning("Cannot delete " + f);
+            }
+        }
+    }
+
+    private static String baseName(long generation) {
+        return String.format(Locale.US, "base-%019d.db", generation);
+    }
+
+    private static String deltaName(long generation) {
+        return String.format(Locale.US, "delta-%019d.db", generation);
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        File tmp = new File(to.getPath() + ".tmp");
+        FileInputStream in = new FileInputStream(from);
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                FileChannel source = in.getChannel();
+                long size = source.size();
+                long done = 0;
+                while (done < size) {
+                    done += source.transferTo(done, size - done, out.getChannel());
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if (!tmp.renameTo(to)) {
+            throw new IOException("Cannot create " + to);
+        }
+    }
+
+    /**
+     * Usage: CellStore dir install cells.db | CellStore dir apply diff.csv[.gz]...
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || !("install".equals(args[1]) || "apply".equals(args[1]))) {
+            System.err.println("Usage: CellStore <dir> install <cells.db> | CellStore <dir> apply <diff.csv[.gz]>...");
+            System.exit(2);
+        }
+        CellStore store = new CellStore(new File(args[0]));
+        for (int i = 2; i < args.length; i++) {
+            long start = System.nanoTime();
+            String what;
+            if ("install".equals(args[1])) {
+                store.installBase(new File(args[i]));
+                what = "installed " + args[i];
+            } else {
+                what = "applied " + store.applyDiff(new File(args[i])) + " cells from " + args[i];
+            }
+            CellGeneration generation = store.current();
+            LOG.log(Level.INFO, String.format(Locale.US, "%s in %d ms: generation %d, base %d cells, delta %d cells",
+                    what, (System.nanoTime() - start) / 1000000, generation.getGeneration(), generation.getBase().size(),
+                    generation.getDelta() == null ? 0 : generation.getDelta().size()));
+        }
+    }
+}
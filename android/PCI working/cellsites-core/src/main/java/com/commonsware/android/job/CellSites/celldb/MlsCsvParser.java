@@ -0,0 +1,255 @@
+package com.commonsware.android.job.CellSites.celldb;
+
+import com.commonsware.android.job.CellSites.CellKey;
+import com.commonsware.android.job.CellSites.RadioType;
+
+/**
+ * Parses MLS cell export rows straight out of a byte buffer into
+ * {@link CellRecords}: no Strings, no boxing, nothing allocated per row.
+ *
+ * Columns: radio,mcc,net,area,cell,unit,lon,lat,range,samples,changeable,
+ * created,updated,averageSignal; everything after updated is ignored. The
+ * unit column is the PSC (UMTS) or PCI (LTE) and is often empty; one that
+ * does not fit a packed key is dropped, rows whose identity does not fit
+ * are skipped. Not thread-safe; use one parser per thread.
+ */
+public final class MlsCsvParser {
+    private static final int MISSING = Integer.MIN_VALUE;
+
+    private final boolean[] mccAllowed;
+    private final boolean[] radioAllowed;
+    private byte[] buf;
+    private int pos;
+    private int end;
+    private long rows;
+    private long skipped;
+    private long filtered;
+
+    /**
+     * @param mccAllowed indexed by MCC, or null to accept every MCC
+     * @param radioAllowed indexed by RadioType, or null to accept every radio
+     */
+    public MlsCsvParser(boolean[] mccAllowed, boolean[] radioAllowed) {
+        this.mccAllowed = mccAllowed;
+        this.radioAllowed = radioAllowed;
+    }
+
+    public long getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Malformed rows and rows of unsupported radios.
+     */
+    public long getSkipped() {
+        return this.skipped;
+    }
+
+    /**
+     * Well-formed rows rejected by the MCC or radio filter.
+     */
+    public long getFiltered() {
+        return this.filtered;
+    }
+
+    /**
+     * Maps the MLS radio column to a RadioType; UNKNOWN for anything else.
+     */
+    public static int radioType(String mlsRadio) {
+        if ("LTE".equals(mlsRadio)) {
+            return RadioType.LTE;
+        }
+        if ("UMTS".equals(mlsRadio)) {
+            return RadioType.WCDMA;
+        }
+        if ("GSM".equals(mlsRadio)) {
+            return RadioType.GSM;
+        }
+        if ("CDMA".equals(mlsRadio)) {
+            return RadioType.CDMA;
+        }
+        return RadioType.UNKNOWN;
+    }
+
+    /**
+     * Parses every line in buf[from, to) into out. A header line is
+     * ignored; the last line need not end with a newline.
+     */
+    public void parse(byte[] buf, int from, int to, CellRecords out) {
+        this.buf = buf;
+        this.pos = from;
+        this.end = to;
+        while (this.pos < this.end) {
+            int lineStart = this.pos;
+            if (buf[lineStart] == '\n' || buf[lineStart] == '\r') {
+                this.pos++;
+                continue;
+            }
+            if (buf[lineStart] == 'r') {
+                // "radio,mcc,..." header
+                skipLine();
+                continue;
+            }
+            this.rows++;
+            if (!parseRow(out)) {
+                this.skipped++;
+            }
+            skipLine();
+        }
+        this.buf = null;
+    }
+
+    private boolean parseRow(CellRecords out) {
+        int radio = parseRadio();
+        int mcc = parseInt();
+        int mnc = parseInt();
+        int area = parseInt();
+        int cell = parseInt();
+        int unit = parseInt();
+        int lon = parseDegreesE7();
+        int lat = parseDegreesE7();
+        int range = parseInt();
+        int samples = parseInt();
+        skipField();
+        skipField();
+        long updated = parseLong();
+        if (radio == RadioType.UNKNOWN || mcc == MISSING || mnc == MISSING || area == MISSING
+                || cell == MISSING || lon == MISSING || lat == MISSING || range == MISSING
+                || samples == MISSING || updated < 0) {
+            return false;
+        }
+        if ((this.radioAllowed != null && !this.radioAllowed[radio])
+                || (this.mccAllowed != null && (mcc < 0 || mcc >= this.mccAllowed.length || !this.mccAllowed[mcc]))) {
+            this.filtered++;
+            return true;
+        }
+        if (unit == MISSING || !CellKey.fits(radio, mcc, mnc, area, cell, unit)) {
+            unit = -1;
+        }
+        if (!CellKey.fits(radio, mcc, mnc, area, cell, unit)) {
+            return false;
+        }
+        out.add(CellKey.pack(radio, mcc, mnc, area, cell, unit), lat, lon, area, range, samples, updated);
+        return true;
+    }
+
+    private int parseRadio() {
+        int start = this.pos;
+        skipField();
+        int length = this.pos - start - 1;
+        byte[] b = this.buf;
+        if (length == 3 && b[start] == 'L' && b[start + 1] == 'T' && b[start + 2] == 'E') {
+            return RadioType.LTE;
+        }
+        if (length == 4 && b[start] == 'U' && b[start + 1] == 'M' && b[start + 2] == 'T' && b[start + 3] == 'S') {
+            return RadioType.WCDMA;
+        }
+        if (length == 3 && b[start] == 'G' && b[start + 1] == 'S' && b[start + 2] == 'M') {
+            return RadioType.GSM;
+        }
+        if (length == 4 && b[start] == 'C' && b[start + 1] == 'D' && b[start + 2] == 'M' && b[start + 3] == 'A') {
+            return RadioType.CDMA;
+        }
+        return RadioType.UNKNOWN;
+    }
+
+    /**
+     * Integer field, MISSING if empty or malformed or out of int range.
+     */
+    private int parseInt() {
+        long value = parseLong();
+        return value < Integer.MIN_VALUE + 1L || value > Integer.MAX_VALUE ? MISSING : (int) value;
+    }
+
+    /**
+     * Integer field, Long.MIN_VALUE if empty or malformed. Consumes the
+     * trailing comma.
+     */
+    private long parseLong() {
+        byte[] b = this.buf;
+        int p = this.pos;
+        boolean negative = p < this.end && b[p] == '-';
+        if (negative) {
+            p++;
+        }
+        int start = p;
+        long value = 0;
+        while (p < this.end && b[p] >= '0' && b[p] <= '9' && p - start < 18) {
+            value = value * 10 + (b[p++] - '0');
+        }
+        boolean ok = p > start && (p == this.end || b[p] == ',' || b[p] == '\n' || b[p] == '\r');
+        this.pos = p;
+        skipField();
+        return ok ? (negative ? -value : value) : Long.MIN_VALUE;
+    }
+
+    /**
+     * Decimal degrees as 1e-7 fixed point, rounded half up; MISSING if
+     * empty or malformed.
+     */
+    private int parseDegreesE7() {
+        byte[] b = this.buf;
+        int p = this.pos;
+        boolean negative = p < this.end && b[p] == '-';
+        if (negative) {
+            p++;
+        }
+        int start = p;
+        long whole = 0;
+        while (p < this.end && b[p] >= '0' && b[p] <= '9' && p - start < 4) {
+            whole = whole * 10 + (b[p++] - '0');
+        }
+        boolean ok = p > start;
+        long fraction = 0;
+        int digits = 0;
+        boolean roundUp = false;
+        if (p < this.end && b[p] == '.') {
+            p++;
+            while (p < this.end && b[p] >= '0' && b[p] <= '9') {
+                if (digits < 7) {
+                    fraction = fraction * 10 + (b[p] - '0');
+                    digits++;
+                } else if (digits == 7) {
+                    roundUp = b[p] >= '5';
+                    digits++;
+                }
+                p++;
+            }
+        }
+        ok &= p == this.end || b[p] == ',' || b[p] == '\n' || b[p] == '\r';
+        this.pos = p;
+        skipField();
+        if (!ok) {
+            return MISSING;
+        }
+        for (int i = Math.min(digits, 7); i < 7; i++) {
+            fraction *= 10;
+        }
+        long value = whole * 10000000L + fraction + (roundUp ? 1 : 0);
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Moves past the next comma, or to the end of the line.
+     */
+    private void skipField() {
+        byte[] b = this.buf;
+        int p = this.pos;
+        while (p < this.end && b[p] != ',' && b[p] != '\n') {
+            p++;
+        }
+        if (p < this.end && b[p] == ',') {
+            p++;
+        }
+        this.pos = p;
+    }
+
+    private void skipLine() {
+        byte[] b = this.buf;
+        int p = this.pos;
+        while (p < this.end && b[p] != '\n') {
+            p++;
+        }
+        this.pos = p < this.end ? p + 1 : p;
+    }
+}
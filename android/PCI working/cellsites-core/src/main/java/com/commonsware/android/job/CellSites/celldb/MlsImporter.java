@@ -0,0 +1,280 @@
+package com.commonsware.android.job.CellSites.celldb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming, parallel import of a full MLS cell export into a
+ * {@link CellDatabase} file, in bounded memory.
+ *
+ * The CSV is read in large chunks; each chunk is cut into slices at line
+ * boundaries and parsed on a fork/join pool by {@link MlsCsvParser}, one
+ * parser and one reused {@link CellRecords} per slice. Parsed records fill
+ * a run buffer; a full buffer is sorted, deduped and written to a temporary
+ * run file. The runs are k-way merged (deduping across runs) into the final
+ * file, so peak memory is one chunk plus one run buffer regardless of the
+ * export size.
+ */
+public class MlsImporter {
+    public static final int DEFAULT_CHUNK_BYTES = 16 << 20;
+    public static final int DEFAULT_RUN_RECORDS = 2 << 20;
+    private static final int SLICE_BYTES = 1 << 20;
+    private static final int MERGE_BUFFER_BYTES = 1 << 20;
+
+    private final int threads;
+    private final int chunkBytes;
+    private final int runRecords;
+    private boolean[] mccAllowed;
+    private boolean[] radioAllowed;
+    private File tempDir;
+    private long rows;
+    private long skipped;
+    private long filtered;
+    private int runs;
+
+    public MlsImporter() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_BYTES, DEFAULT_RUN_RECORDS);
+    }
+
+    public MlsImporter(int threads, int chunkBytes, int runRecords) {
+        if (threads < 1 || chunkBytes < SLICE_BYTES || runRecords < 1) {
+            throw new IllegalArgumentException("Bad importer settings: threads=" + threads
+                    + " chunkBytes=" + chunkBytes + " runRecords=" + runRecords);
+        }
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+        this.runRecords = runRecords;
+    }
+
+    /**
+     * Keeps only cells of these MCCs; no argument keeps every MCC.
+     */
+    public void setMccFilter(int... mccs) {
+        this.mccAllowed = mccs.length == 0 ? null : flags(1000, mccs);
+    }
+
+    /**
+     * Keeps only cells of these RadioTypes; no argument keeps every radio.
+     */
+    public void setRadioFilter(int... radioTypes) {
+        this.radioAllowed = radioTypes.length == 0 ? null : flags(8, radioTypes);
+    }
+
+    /**
+     * Where run files go; defaults to the directory of the output file.
+     */
+    public void setTempDir(File tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    public long getRows() {
+        return this.rows;
+    }
+
+    public long getSkipped() {
+        return this.skipped;
+    }
+
+    public long getFiltered() {
+        return this.filtered;
+    }
+
+    /**
+     * Sorted runs written by the last import (0 if it fit in memory).
+     */
+    public int getRuns() {
+        return this.runs;
+    }
+
+    /**
+     * Imports csv (plain, or gzip if it ends in .gz) into out, atomically
+     * replacing it. Returns the number of cells written.
+     */
+    public long importCsv(File csv, File out, long generation) throws IOException {
+        InputStream in = new FileInputStream(csv);
+        try {
+            if (csv.getName().endsWith(".gz")) {
+                in = new GZIPInputStream(in, 256 * 1024);
+                return importCsv(Channels.newChannel(in), out, generation);
+            }
+            return importCsv(((FileInputStream) in).getChannel(), out, generation);
+        } finally {
+            in.close();
+        }
+    }
+
+    public long importCsv(ReadableByteChannel in, File out, long generation) throws IOException {
+        this.rows = 0;
+        this.skipped = 0;
+        this.filtered = 0;
+        this.runs = 0;
+        File dir = this.tempDir != null ? this.tempDir : out.getAbsoluteFile().getParentFile();
+        List<File> runFiles = new ArrayList<File>();
+        // a run is flushed after the chunk that fills it, so leave room for
+        // one more chunk of the shortest plausible rows and never regrow
+        CellRecords run = new CellRecords(this.runRecords + this.chunkBytes / 32);
+        int sliceCount = Math.max(1, this.chunkBytes / SLICE_BYTES);
+        CellRecords[] sliceRecords = new CellRecords[sliceCount];
+        MlsCsvParser[] parsers = new MlsCsvParser[sliceCount];
+        for (int i = 0; i < sliceCount; i++) {
+            sliceRecords[i] = new CellRecords(SLICE_BYTES / 32);
+            parsers[i] = new MlsCsvParser(this.mccAllowed, this.radioAllowed);
+        }
+        int[] sliceBounds = new int[sliceCount + 1];
+        byte[] chunk = new byte[this.chunkBytes];
+        try {
+            ForkJoinPool pool = new ForkJoinPool(this.threads);
+            try {
+                int filled = 0;
+                boolean eof = false;
+                while (!eof) {
+                    ByteBuffer target = ByteBuffer.wrap(chunk, filled, chunk.length - filled);
+                    while (target.hasRemaining()) {
+                        if (in.read(target) < 0) {
+                            eof = true;
+                            break;
+                        }
+                    }
+                    filled = target.position();
+                    int parseEnd = eof ? filled : lastLineEnd(chunk, filled);
+                    if (parseEnd < 0) {
+                        throw new IOException("CSV line longer than " + chunk.length + " bytes");
+                    }
+                    int slices = slice(chunk, parseEnd, sliceBounds);
+                    if (slices > 0) {
+                        pool.invoke(new ParseTask(chunk, sliceBounds, parsers, sliceRecords, 0, slices));
+                    }
+                    for (int i = 0; i < slices; i++) {
+                        run.addAll(sliceRecords[i]);
+                        sliceRecords[i].clear();
+                    }
+                    if (run.size() >= this.runRecords) {
+                        runFiles.add(writeRun(run, dir));
+                    }
+                    System.arraycopy(chunk, parseEnd, chunk, 0, filled - parseEnd);
+                    filled -= parseEnd;
+                }
+            } finally {
+                pool.shutdown();
+            }
+            for (MlsCsvParser parser : parsers) {
+                this.rows += parser.getRows();
+                this.skipped += parser.getSkipped();
+                this.filtered += parser.getFiltered();
+            }
+            if (runFiles.isEmpty()) {
+                run.sortAndDedupe();
+                run.writeTo(out, generation);
+                return run.size();
+            }
+            if (run.size() > 0) {
+                runFiles.add(writeRun(run, dir));
+            }
+            this.runs = runFiles.size();
+            return RecordMerger.merge(runFiles, out, generation, false, MERGE_BUFFER_BYTES);
+        } finally {
+            for (File f : runFiles) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Index just past the last newline in buf[0, length), or -1.
+     */
+    private static int lastLineEnd(byte[] buf, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buf[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return length == 0 ? 0 : -1;
+    }
+
+    /**
+     * Cuts buf[0, length) into roughly SLICE_BYTES slices at line ends;
+     * returns the slice count, bounds in bounds[0..count].
+     */
+    private static int slice(byte[] buf, int length, int[] bounds) {
+        int count = 0;
+        int start = 0;
+        bounds[0] = 0;
+        while (start < length && count < bounds.length - 1) {
+            int cut = Math.min(start + SLICE_BYTES, length);
+            if (count == bounds.length - 2) {
+                cut = length;
+            }
+            while (cut < length && buf[cut - 1] != '\n') {
+                cut++;
+            }
+            bounds[++count] = cut;
+            start = cut;
+        }
+        return count;
+    }
+
+    private File writeRun(CellRecords run, File dir) throws IOException {
+        run.sortAndDedupe();
+        File file = File.createTempFile("mls-run", ".tmp", dir);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            run.writeRecords(out.getChannel(), 0, run.size());
+        } finally {
+            out.close();
+        }
+        run.clear();
+        return file;
+    }
+
+    private static boolean[] flags(int size, int[] values) {
+        boolean[] result = new boolean[size];
+        for (int v : values) {
+            if (v < 0 || v >= size) {
+                throw new IllegalArgumentException("Out of range: " + v);
+            }
+            result[v] = true;
+        }
+        return result;
+    }
+
+    private static final class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final byte[] chunk;
+        private final int[] bounds;
+        private final MlsCsvParser[] parsers;
+        private final CellRecords[] records;
+        private final int from;
+        private final int to;
+
+        ParseTask(byte[] chunk, int[] bounds, MlsCsvParser[] parsers, CellRecords[] records, int from, int to) {
+            this.chunk = chunk;
+            this.bounds = bounds;
+            this.parsers = parsers;
+            this.records = records;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > 1) {
+                int mid = (this.from + this.to) >>> 1;
+                invokeAll(new ParseTask(this.chunk, this.bounds, this.parsers, this.records, this.from, mid),
+                        new ParseTask(this.chunk, this.bounds, this.parsers, this.records, mid, this.to));
+                return;
+            }
+            this.parsers[this.from].parse(this.chunk, this.bounds[this.from], this.bounds[this.from + 1], this.records[this.from]);
+        }
+    }
+}
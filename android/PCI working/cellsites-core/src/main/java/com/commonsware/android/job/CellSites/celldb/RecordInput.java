@@ -0,0 +1,56 @@
+package com.commonsware.android.job.CellSites.celldb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reader of raw {@link CellDatabase} records from a file,
+ * through a small heap buffer rather than a mapping, so merging many large
+ * inputs keeps the resident set at a few buffers.
+ */
+final class RecordInput {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long position;
+
+    RecordInput(FileChannel channel, long start, int bufferBytes) {
+        this.channel = channel;
+        this.position = start;
+        this.buffer = ByteBuffer.allocate(Math.max(bufferBytes, CellDatabase.RECORD_SIZE));
+        this.buffer.limit(0);
+    }
+
+    /**
+     * True if a whole record is available; refills the buffer as needed.
+     */
+    boolean hasRecord() throws IOException {
+        if (this.buffer.remaining() >= CellDatabase.RECORD_SIZE) {
+            return true;
+        }
+        this.buffer.compact();
+        while (this.buffer.hasRemaining()) {
+            int n = this.channel.read(this.buffer, this.position);
+            if (n < 0) {
+                break;
+            }
+            this.position += n;
+        }
+        this.buffer.flip();
+        return this.buffer.remaining() >= CellDatabase.RECORD_SIZE;
+    }
+
+    /**
+     * Key of the current record; call only after hasRecord().
+     */
+    long key() {
+        return this.buffer.getLong(this.buffer.position());
+    }
+
+    /**
+     * Copies the current record into out and moves past it.
+     */
+    void next(byte[] out) {
+        this.buffer.get(out);
+    }
+}
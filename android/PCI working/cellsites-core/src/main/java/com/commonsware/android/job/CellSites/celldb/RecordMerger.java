@@ -0,0 +1,187 @@
+package com.commonsware.android.job.CellSites.celldb;
+
+import com.commonsware.android.job.CellSites.CellKey;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * K-way merge of sorted record streams into a {@link CellDatabase} file,
+ * collapsing records that name the same cell. Used for the importer's runs
+ * and for folding MLS diffs into a {@link CellStore}.
+ */
+final class RecordMerger {
+    private RecordMerger() {
+    }
+
+    /**
+     * K-way merges sorted run files into a database file.
+     */
+    static long merge(List<File> runFiles, File target, long generation, boolean newestWins, int bufferBytes) throws IOException {
+        int k = runFiles.size();
+        RecordInput[] inputs = new RecordInput[k];
+        RandomAccessFile[] files = new RandomAccessFile[k];
+        try {
+            for (int i = 0; i < k; i++) {
+                files[i] = new RandomAccessFile(runFiles.get(i), "r");
+                inputs[i] = new RecordInput(files[i].getChannel(), 0, bufferBytes);
+            }
+            return merge(inputs, target, generation, newestWins);
+        } finally {
+            for (RandomAccessFile f : files) {
+                if (f != null) {
+                    f.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges inputs of sorted raw records into a database file, atomically
+     * replacing target; returns the record count. Of records naming the
+     * same cell, the most sampled one wins, or the most recently updated
+     * one if newestWins; remaining ties go to the later input.
+     */
+    static long merge(RecordInput[] inputs, File target, long generation, boolean newestWins) throws IOException {
+        int k = inputs.length;
+        // binary min-heap of input indexes ordered by their current key
+        int[] heap = new int[k];
+        long[] heads = new long[k];
+        int heapSize = 0;
+        for (int i = 0; i < k; i++) {
+            if (inputs[i].hasRecord()) {
+                heads[i] = CellKey.withoutPsc(inputs[i].key());
+                heap[heapSize] = i;
+                siftUp(heap, heads, heapSize++);
+            }
+        }
+        File tmp = new File(target.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        long count = 0;
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer header = CellRecords.header(0, generation);
+            CellRecords.writeFully(channel, header);
+            ByteBuffer output = ByteBuffer.allocate(2048 * CellDatabase.RECORD_SIZE);
+            byte[] pending = new byte[CellDatabase.RECORD_SIZE];
+            ByteBuffer pendingBuffer = ByteBuffer.wrap(pending);
+            byte[] record = new byte[CellDatabase.RECORD_SIZE];
+            ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+            boolean hasPending = false;
+            long pendingKey = 0;
+            while (heapSize > 0) {
+                int i = heap[0];
+                long key = heads[i];
+                RecordInput input = inputs[i];
+                input.next(record);
+                if (input.hasRecord()) {
+                    heads[i] = CellKey.withoutPsc(input.key());
+                } else {
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(heap, heads, heapSize, 0);
+
+                if (hasPending && key == pendingKey) {
+                    if (better(recordBuffer, pendingBuffer, newestWins)) {
+                        System.arraycopy(record, 0, pending, 0, record.length);
+                    }
+                    continue;
+                }
+                if (hasPending) {
+                    if (!output.hasRemaining()) {
+                        output.flip();
+                        CellRecords.writeFully(channel, output);
+                        output.clear();
+                    }
+                    output.put(pending);
+                    count++;
+                }
+                System.arraycopy(record, 0, pending, 0, record.length);
+                pendingKey = key;
+                hasPending = true;
+            }
+            if (hasPending) {
+                if (!output.hasRemaining()) {
+                    output.flip();
+                    CellRecords.writeFully(channel, output);
+                    output.clear();
+                }
+                output.put(pending);
+                count++;
+            }
+            output.flip();
+            CellRecords.writeFully(channel, output);
+            ByteBuffer countField = ByteBuffer.allocate(8);
+            countField.putLong(0, count);
+            while (countField.hasRemaining()) {
+                channel.write(countField, 16 + countField.position());
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(target)) {
+            throw new IOException("Cannot replace " + target);
+        }
+        return count;
+    }
+
+    private static boolean better(ByteBuffer candidate, ByteBuffer current, boolean newestWins) {
+        long a = candidate.getInt(CellDatabase.OFFSET_UPDATED) & 0xffffffffL;
+        long b = current.getInt(CellDatabase.OFFSET_UPDATED) & 0xffffffffL;
+        int sa = candidate.getInt(CellDatabase.OFFSET_SAMPLES);
+        int sb = current.getInt(CellDatabase.OFFSET_SAMPLES);
+        if (newestWins) {
+            return a != b ? a > b : sa >= sb;
+        }
+        return sa != sb ? sa > sb : a >= b;
+    }
+
+    private static void siftUp(int[] heap, long[] heads, int i) {
+        int node = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(node, heap[parent], heads)) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = node;
+    }
+
+    private static void siftDown(int[] heap, long[] heads, int size, int i) {
+        if (size == 0) {
+            return;
+        }
+        int node = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child + 1], heap[child], heads)) {
+                child++;
+            }
+            if (!before(heap[child], node, heads)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = node;
+    }
+
+    /**
+     * Key order, ties broken by input index so equal keys come out oldest
+     * input first.
+     */
+    private static boolean before(int a, int b, long[] heads) {
+        return heads[a] < heads[b] || (heads[a] == heads[b] && a < b);
+    }
+}
@@ -0,0 +1,222 @@
+package com.commonsware.android.job.CellSites.celldb;
+
+import com.commonsware.android.job.CellSites.CellKey;
+
+import java.util.Arrays;
+
+/**
+ * Spatial index over the towers of one {@link CellDatabase} whose PCI/PSC
+ * is known, for resolving neighbours that are reported with nothing but
+ * their PCI/PSC.
+ *
+ * Towers are bucketed into Web Mercator tiles at one zoom level. Tiles are
+ * numbered by their quadkey (x and y bits interleaved), so neighbouring
+ * tiles sit close together, and inside a tile the towers are sorted by
+ * radio and PCI/PSC. A query walks the tiles covering its radius and
+ * binary-searches each one; nothing is allocated.
+ *
+ * Memory is 6 bytes per indexed tower plus 12 per occupied tile; the tower
+ * positions themselves are read from the mapped database. Building sorts
+ * one long per tower, so it needs 8 more bytes per tower while it runs.
+ */
+public final class TileIndex {
+    public static final int MIN_ZOOM = 4;
+    public static final int MAX_ZOOM = 13;
+    static final double MAX_LATITUDE = 85.05112878;
+    private static final int UNIT_BITS = 3 + CellKey.PSC_BITS;
+    private static final double METRES_PER_DEGREE = 111320.0;
+
+    private final CellDatabase db;
+    private final int zoom;
+    // occupied tiles, sorted, and where each one's towers start
+    private final long[] tiles;
+    private final int[] tileStart;
+    // per tower, grouped by tile: radio << PSC_BITS | psc, and record index
+    private final short[] units;
+    private final int[] records;
+
+    private TileIndex(CellDatabase db, int zoom, long[] tiles, int[] tileStart, short[] units, int[] records) {
+        this.db = db;
+        this.zoom = zoom;
+        this.tiles = tiles;
+        this.tileStart = tileStart;
+        this.units = units;
+        this.records = records;
+    }
+
+    public static TileIndex build(CellDatabase db, int zoom) {
+        if (zoom < MIN_ZOOM || zoom > MAX_ZOOM) {
+            throw new IllegalArgumentException("Zoom out of range: " + zoom);
+        }
+        int recordBits = 63 - 2 * zoom - UNIT_BITS;
+        if (db.size() > 1L << recordBits) {
+            throw new IllegalArgumentException("Too many cells for zoom " + zoom + ": " + db.size());
+        }
+        int n = 0;
+        long[] sorted = new long[db.size()];
+        for (int i = 0; i < db.size(); i++) {
+            long key = db.keyAt(i);
+            if (!CellKey.hasPsc(key)) {
+                continue;
+            }
+            long tile = quadkey(tileX(db.longitudeAt(i), zoom), tileY(db.latitudeAt(i), zoom), zoom);
+            sorted[n++] = (((tile << UNIT_BITS) | unit(key)) << recordBits) | i;
+        }
+        Arrays.sort(sorted, 0, n);
+
+        long recordMask = (1L << recordBits) - 1;
+        int tileCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || (sorted[i] >>> (recordBits + UNIT_BITS)) != (sorted[i - 1] >>> (recordBits + UNIT_BITS))) {
+                tileCount++;
+            }
+        }
+        long[] tiles = new long[tileCount];
+        int[] tileStart = new int[tileCount + 1];
+        short[] units = new short[n];
+        int[] records = new int[n];
+        int t = 0;
+        for (int i = 0; i < n; i++) {
+            long tile = sorted[i] >>> (recordBits + UNIT_BITS);
+            if (i == 0 || tile != tiles[t - 1]) {
+                tiles[t] = tile;
+                tileStart[t++] = i;
+            }
+            units[i] = (short) ((sorted[i] >>> recordBits) & ((1 << UNIT_BITS) - 1));
+            records[i] = (int) (sorted[i] & recordMask);
+        }
+        tileStart[tileCount] = n;
+        return new TileIndex(db, zoom, tiles, tileStart, units, records);
+    }
+
+    public CellDatabase getDatabase() {
+        return this.db;
+    }
+
+    public int getZoom() {
+        return this.zoom;
+    }
+
+    public int getTileCount() {
+        return this.tiles.length;
+    }
+
+    public int size() {
+        return this.records.length;
+    }
+
+    public long memoryBytes() {
+        return 12L * this.tiles.length + 6L * this.records.length;
+    }
+
+    /**
+     * Record index of the tower of radioType with this PCI/PSC nearest to
+     * (latitude, longitude) and at most radiusMetres away, or -1. Towers of
+     * network mcc/mnc win over closer ones of other networks; records whose
+     * key is also in shadow (the newer delta, may be null) are skipped.
+     */
+    public int nearest(int radioType, int psc, double latitude, double longitude, int radiusMetres,
+                       int mcc, int mnc, CellDatabase shadow) {
+        if (psc < 0 || psc > CellKey.MAX_PSC) {
+            return -1;
+        }
+        int unit = radioType << CellKey.PSC_BITS | psc;
+        double metresPerLongitude = METRES_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        double dLatitude = radiusMetres / METRES_PER_DEGREE;
+        double dLongitude = metresPerLongitude < 1 ? 180 : Math.min(180, radiusMetres / metresPerLongitude);
+        int side = 1 << this.zoom;
+        int minY = tileY(Math.min(MAX_LATITUDE, latitude + dLatitude), this.zoom);
+        int maxY = tileY(Math.max(-MAX_LATITUDE, latitude - dLatitude), this.zoom);
+        int minX = tileX(longitude - dLongitude, this.zoom);
+        int maxX = tileX(longitude + dLongitude, this.zoom);
+        if (dLongitude >= 180) {
+            minX = 0;
+            maxX = side - 1;
+        } else if (maxX < minX) {
+            // crosses the antimeridian
+            maxX += side;
+        }
+        double radiusSquared = (double) radiusMetres * radiusMetres;
+        int best = -1;
+        boolean bestSameNetwork = false;
+        double bestDistance = Double.MAX_VALUE;
+        for (int y = minY; y <= maxY; y++) {
+            for (int xx = minX; xx <= maxX; xx++) {
+                int t = Arrays.binarySearch(this.tiles, quadkey(xx & (side - 1), y, this.zoom));
+                if (t < 0) {
+                    continue;
+                }
+                int from = this.tileStart[t];
+                int to = this.tileStart[t + 1];
+                for (int i = firstUnit(from, to, unit); i < to && this.units[i] == unit; i++) {
+                    int record = this.records[i];
+                    double dy = (this.db.latitudeAt(record) - latitude) * METRES_PER_DEGREE;
+                    double dx = CellSite.wrapLongitude(this.db.longitudeAt(record) - longitude) * metresPerLongitude;
+                    double distance = dx * dx + dy * dy;
+                    if (distance > radiusSquared) {
+                        continue;
+                    }
+                    long key = this.db.keyAt(record);
+                    boolean sameNetwork = CellKey.mcc(key) == mcc && CellKey.mnc(key) == mnc;
+                    if ((bestSameNetwork && !sameNetwork)
+                            || (bestSameNetwork == sameNetwork && distance >= bestDistance)) {
+                        continue;
+                    }
+                    if (shadow != null && shadow.indexOf(key) >= 0) {
+                        continue;
+                    }
+                    best = record;
+                    bestSameNetwork = sameNetwork;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * First index in units[from, to) that is not below unit.
+     */
+    private int firstUnit(int from, int to, int unit) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.units[mid] < unit) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    static int unit(long key) {
+        return CellKey.radioType(key) << CellKey.PSC_BITS | CellKey.psc(key);
+    }
+
+    static int tileX(double longitude, int zoom) {
+        int side = 1 << zoom;
+        int x = (int) Math.floor((CellSite.wrapLongitude(longitude) + 180) / 360 * side);
+        return Math.min(side - 1, Math.max(0, x));
+    }
+
+    static int tileY(double latitude, int zoom) {
+        int side = 1 << zoom;
+        double phi = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        double y = (1 - Math.log(Math.tan(phi) + 1 / Math.cos(phi)) / Math.PI) / 2 * side;
+        return Math.min(side - 1, Math.max(0, (int) Math.floor(y)));
+    }
+
+    /**
+     * Tile number with the bits of x and y interleaved, the integer form
+     * of the tile's quadkey string.
+     */
+    static long quadkey(int x, int y, int zoom) {
+        long key = 0;
+        for (int bit = zoom - 1; bit >= 0; bit--) {
+            key = (key << 2) | (((y >>> bit) & 1) << 1) | ((x >>> bit) & 1);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,71 @@
+package com.commonsware.android.job.CellSites.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Reads what {@link BinaryWriter} wrote.
+ */
+public final class BinaryReader {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+
+    public BinaryReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public BinaryReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public boolean hasRemaining() {
+        return this.position < this.limit;
+    }
+
+    public int readByte() throws IOException {
+        if (this.position >= this.limit) {
+            throw new EOFException("Truncated scan batch");
+        }
+        return this.buffer[this.position++] & 0xFF;
+    }
+
+    public int readInt() throws IOException {
+        return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    public long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public long readSignedVarint() throws IOException {
+        long raw = readVarint();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public int readSignedInt() throws IOException {
+        return (int) readSignedVarint();
+    }
+
+    public String readString() throws IOException {
+        long length = readVarint();
+        if (length > this.limit - this.position) {
+            throw new EOFException("Truncated scan batch");
+        }
+        String value = new String(this.buffer, this.position, (int) length, UTF_8);
+        this.position += (int) length;
+        return value;
+    }
+}
@@ -0,0 +1,92 @@
+package com.commonsware.android.job.CellSites.codec;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer with LEB128 varint writers.
+ */
+public final class BinaryWriter {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private byte[] buffer;
+    private int size;
+
+    public BinaryWriter() {
+        this(256);
+    }
+
+    public BinaryWriter(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    public void reset() {
+        this.size = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * The backing array, valid up to {@link #size()}; replaced as the
+     * writer grows.
+     */
+    public byte[] array() {
+        return this.buffer;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.size);
+    }
+
+    public void writeByte(int value) {
+        ensure(1);
+        this.buffer[this.size++] = (byte) value;
+    }
+
+    public void writeBytes(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, this.buffer, this.size, length);
+        this.size += length;
+    }
+
+    public void writeBytes(BinaryWriter other) {
+        writeBytes(other.buffer, 0, other.size);
+    }
+
+    public void writeInt(int value) {
+        ensure(4);
+        this.buffer[this.size++] = (byte) (value >>> 24);
+        this.buffer[this.size++] = (byte) (value >>> 16);
+        this.buffer[this.size++] = (byte) (value >>> 8);
+        this.buffer[this.size++] = (byte) value;
+    }
+
+    public void writeVarint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            this.buffer[this.size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.buffer[this.size++] = (byte) value;
+    }
+
+    /**
+     * Zigzag-encoded varint, so small negative numbers stay short.
+     */
+    public void writeSignedVarint(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    public void writeString(String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF_8);
+        writeVarint(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    private void ensure(int extra) {
+        if (this.size + extra > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.size + extra));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.commonsware.android.job.CellSites.codec;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.RadioType;
+import com.commonsware.android.job.CellSites.ScanRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes batches written by {@link ScanBatchEncoder}. Plain Java, so it can
+ * be used by server-side tooling as well as on the device.
+ */
+public final class ScanBatchDecoder {
+    private ScanBatchDecoder() {
+    }
+
+    /**
+     * True if data starts with the scan batch magic, i.e. it is not one of
+     * the legacy CSV text entries.
+     */
+    public static boolean isScanBatch(byte[] data) {
+        return data.length >= 3 && data[0] == ScanBatchEncoder.MAGIC_0 && data[1] == ScanBatchEncoder.MAGIC_1;
+    }
+
+    /**
+     * The number of scans in an entry from its header alone; 1 for a legacy
+     * CSV entry.
+     */
+    public static int scanCount(byte[] data) throws IOException {
+        if (!isScanBatch(data)) {
+            return 1;
+        }
+        BinaryReader in = new BinaryReader(data, 2, data.length - 2);
+        int version = in.readByte();
+        if (version != ScanBatchEncoder.VERSION) {
+            throw new IOException("Unsupported scan batch version " + version);
+        }
+        in.readString();
+        return (int) in.readVarint();
+    }
+
+    public static List<ScanRecord> decode(byte[] data) throws IOException {
+        List<ScanRecord> scans = new ArrayList<ScanRecord>();
+        decode(data, scans);
+        return scans;
+    }
+
+    public static void decode(byte[] data, List<ScanRecord> out) throws IOException {
+        if (!isScanBatch(data)) {
+            throw new IOException("Not a scan batch");
+        }
+        BinaryReader in = new BinaryReader(data, 2, data.length - 2);
+        int version = in.readByte();
+        if (version != ScanBatchEncoder.VERSION) {
+            throw new IOException("Unsupported scan batch version " + version);
+        }
+        String deviceId = in.readString();
+        int scanCount = (int) in.readVarint();
+
+        int dictionarySize = (int) in.readVarint();
+        if (dictionarySize > data.length) {
+            throw new IOException("Bad dictionary size " + dictionarySize);
+        }
+        String[] radios = new String[dictionarySize];
+        int[] identities = new int[dictionarySize * 5];
+        for (int i = 0; i < dictionarySize; i++) {
+            radios[i] = RadioType.toName(in.readByte());
+            for (int f = 0; f < 5; f++) {
+                identities[i * 5 + f] = in.readSignedInt();
+            }
+        }
+
+        int[] lastSignal = new int[dictionarySize];
+        long time = 0;
+        long latitude = 0;
+        long longitude = 0;
+        long radioLatitude = 0;
+        long radioLongitude = 0;
+        for (int s = 0; s < scanCount; s++) {
+            ScanRecord scan = new ScanRecord();
+            scan.deviceId = deviceId;
+            time += in.readSignedVarint();
+            scan.deviceTime = time;
+            int flags = in.readByte();
+            if ((flags & ScanBatchEncoder.SCAN_HAS_LOCATION) != 0) {
+                latitude += in.readSignedVarint();
+                longitude += in.readSignedVarint();
+                long age = in.readSignedVarint();
+                float accuracy = (flags & ScanBatchEncoder.SCAN_HAS_ACCURACY) != 0 ? Float.intBitsToFloat(in.readInt()) : Float.NaN;
+                float speed = (flags & ScanBatchEncoder.SCAN_HAS_SPEED) != 0 ? Float.intBitsToFloat(in.readInt()) : Float.NaN;
+                float bearing = (flags & ScanBatchEncoder.SCAN_HAS_BEARING) != 0 ? Float.intBitsToFloat(in.readInt()) : Float.NaN;
+                scan.setLocation(latitude / 1e6, longitude / 1e6, age, accuracy, speed, bearing);
+            }
+            if ((flags & ScanBatchEncoder.SCAN_HAS_RADIO_FIX) != 0) {
+                radioLatitude += in.readSignedVarint();
+                radioLongitude += in.readSignedVarint();
+                scan.setRadioFix(radioLatitude / 1e6, radioLongitude / 1e6, (int) in.readVarint());
+            }
+
+            int cellCount = (int) in.readVarint();
+            for (int c = 0; c < cellCount; c++) {
+                int index = (int) in.readVarint();
+                if (index < 0 || index >= dictionarySize) {
+                    throw new IOException("Bad dictionary index " + index);
+                }
+                int cellFlags = in.readByte();
+                int signal = lastSignal[index] + in.readSignedInt();
+                lastSignal[index] = signal;
+                int asu = in.readSignedInt();
+                int level = in.readSignedInt();
+                int ta = -1;
+                if ((cellFlags & ScanBatchEncoder.CELL_HAS_TA) != 0) {
+                    ta = in.readSignedInt();
+                } else if ((cellFlags & ScanBatchEncoder.CELL_TA_MAX) != 0) {
+                    ta = Integer.MAX_VALUE;
+                }
+                CellData cell = new CellData();
+                int at = index * 5;
+                cell.setIdentity(radios[index], identities[at], identities[at + 1], identities[at + 2], identities[at + 3], identities[at + 4]);
+                cell.setMeasurements(signal, asu, ta, level);
+                cell.setIsRegistered((byte) ((cellFlags & ScanBatchEncoder.CELL_REGISTERED) != 0 ? 1 : 0));
+                scan.cells.add(cell);
+            }
+            out.add(scan);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.commonsware.android.job.CellSites.codec;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.RadioType;
+import com.commonsware.android.job.CellSites.ScanRecord;
+import com.commonsware.android.job.CellSites.collections.LongIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Encodes a batch of scans from one device into the compact binary format
+ * read by {@link ScanBatchDecoder}.
+ *
+ * Layout (version 1), all integers are LEB128 varints, "s" ones zigzag:
+ * <pre>
+ * 'C' 'S' version
+ * deviceId (length-prefixed UTF-8)
+ * scanCount
+ * dictionarySize, then per cell identity: radioType byte, s mcc, s mnc, s lac, s cid, s psc
+ * per scan:
+ *   s deviceTime delta to the previous scan
+ *   flags byte (1 location, 2 accuracy, 4 speed, 8 bearing, 16 radio fix)
+ *   [s lat*1e6 delta, s lon*1e6 delta, s age, accuracy/speed/bearing float bits]
+ *   [s radio lat*1e6 delta, s radio lon*1e6 delta, radio accuracy metres]
+ *   cellCount, then per cell:
+ *     dictionary index
+ *     flags byte (1 registered, 2 timing advance present, 4 timing advance is "max")
+ *     s signal delta to the previous signal of the same identity
+ *     s asu, s level, [s timing advance]
+ * </pre>
+ * A tower seen in every scan of the batch costs its identity once and then a
+ * few bytes per scan. This is the journal entry format; uploads are rendered
+ * from it by a BatchFormat the collector accepts.
+ */
+public final class ScanBatchEncoder {
+    public static final int VERSION = 1;
+    static final byte MAGIC_0 = 'C';
+    static final byte MAGIC_1 = 'S';
+    static final int SCAN_HAS_LOCATION = 1;
+    static final int SCAN_HAS_ACCURACY = 2;
+    static final int SCAN_HAS_SPEED = 4;
+    static final int SCAN_HAS_BEARING = 8;
+    static final int SCAN_HAS_RADIO_FIX = 16;
+    static final int CELL_REGISTERED = 1;
+    static final int CELL_HAS_TA = 2;
+    static final int CELL_TA_MAX = 4;
+    private static final int IDENTITY_STRIDE = 6;
+
+    private final BinaryWriter dictionary = new BinaryWriter();
+    private final BinaryWriter scans = new BinaryWriter(1024);
+    private final LongIntHashMap identities = new LongIntHashMap(64);
+    // per dictionary index: radio, mcc, mnc, lac, cid, psc as written
+    private int[] identityFields = new int[64 * IDENTITY_STRIDE];
+    private int[] lastSignal = new int[64];
+    // per dictionary index: the next entry under the same packed key, or -1
+    private int[] nextSameKey = new int[64];
+    private int identityCount;
+    private String deviceId;
+    private int scanCount;
+    private long lastTime;
+    private long lastLatitude;
+    private long lastLongitude;
+    private long lastRadioLatitude;
+    private long lastRadioLongitude;
+
+    public static byte[] encode(ScanRecord scan) {
+        ScanBatchEncoder encoder = new ScanBatchEncoder();
+        encoder.add(scan);
+        return encoder.toByteArray();
+    }
+
+    public void add(ScanRecord scan) {
+        if (this.scanCount == 0) {
+            this.deviceId = scan.deviceId;
+        } else if (this.deviceId == null ? scan.deviceId != null : !this.deviceId.equals(scan.deviceId)) {
+            throw new IllegalArgumentException("Batch mixes devices " + this.deviceId + " and " + scan.deviceId);
+        }
+        this.scanCount++;
+
+        this.scans.writeSignedVarint(scan.deviceTime - this.lastTime);
+        this.lastTime = scan.deviceTime;
+        int flags = 0;
+        if (scan.hasLocation) {
+            flags |= SCAN_HAS_LOCATION;
+            flags |= Float.isNaN(scan.accuracy) ? 0 : SCAN_HAS_ACCURACY;
+            flags |= Float.isNaN(scan.speed) ? 0 : SCAN_HAS_SPEED;
+            flags |= Float.isNaN(scan.bearing) ? 0 : SCAN_HAS_BEARING;
+        }
+        if (scan.hasRadioFix) {
+            flags |= SCAN_HAS_RADIO_FIX;
+        }
+        this.scans.writeByte(flags);
+        if (scan.hasLocation) {
+            long latitude = Math.round(scan.latitude * 1e6);
+            long longitude = Math.round(scan.longitude * 1e6);
+            this.scans.writeSignedVarint(latitude - this.lastLatitude);
+            this.scans.writeSignedVarint(longitude - this.lastLongitude);
+            this.lastLatitude = latitude;
+            this.lastLongitude = longitude;
+            this.scans.writeSignedVarint(scan.locationAge);
+            if ((flags & SCAN_HAS_ACCURACY) != 0) {
+                this.scans.writeInt(Float.floatToIntBits(scan.accuracy));
+            }
+            if ((flags & SCAN_HAS_SPEED) != 0) {
+                this.scans.writeInt(Float.floatToIntBits(scan.speed));
+            }
+            if ((flags & SCAN_HAS_BEARING) != 0) {
+                this.scans.writeInt(Float.floatToIntBits(scan.bearing));
+            }
+        }
+        if (scan.hasRadioFix) {
+            long latitude = Math.round(scan.radioLatitude * 1e6);
+            long longitude = Math.round(scan.radioLongitude * 1e6);
+            this.scans.writeSignedVarint(latitude - this.lastRadioLatitude);
+            this.scans.writeSignedVarint(longitude - this.lastRadioLongitude);
+            this.lastRadioLatitude = latitude;
+            this.lastRadioLongitude = longitude;
+            this.scans.writeVarint(scan.radioAccuracy);
+        }
+
+        this.scans.writeVarint(scan.cells.size());
+        for (int i = 0; i < scan.cells.size(); i++) {
+            CellData cell = scan.cells.get(i);
+            int index = identityIndex(cell);
+            int ta = cell.getTimingAdvance();
+            int cellFlags = cell.getIsRegistered() != 0 ? CELL_REGISTERED : 0;
+            if (ta == Integer.MAX_VALUE) {
+                cellFlags |= CELL_TA_MAX;
+            } else if (ta != -1) {
+                cellFlags |= CELL_HAS_TA;
+            }
+            this.scans.writeVarint(index);
+            this.scans.writeByte(cellFlags);
+            this.scans.writeSignedVarint(cell.getSignalStrength() - this.lastSignal[index]);
+            this.lastSignal[index] = cell.getSignalStrength();
+            this.scans.writeSignedVarint(cell.getAsu());
+            this.scans.writeSignedVarint(cell.getSimpleLevel());
+            if ((cellFlags & CELL_HAS_TA) != 0) {
+                this.scans.writeSignedVarint(ta);
+            }
+        }
+    }
+
+    public int scanCount() {
+        return this.scanCount;
+    }
+
+    public byte[] toByteArray() {
+        BinaryWriter out = new BinaryWriter(16 + this.dictionary.size() + this.scans.size());
+        writeTo(out);
+        return out.toByteArray();
+    }
+
+    public void writeTo(BinaryWriter out) {
+        out.writeByte(MAGIC_0);
+        out.writeByte(MAGIC_1);
+        out.writeByte(VERSION);
+        out.writeString(this.deviceId);
+        out.writeVarint(this.scanCount);
+        out.writeVarint(this.identityCount);
+        out.writeBytes(this.dictionary);
+        out.writeBytes(this.scans);
+    }
+
+    public void reset() {
+        this.dictionary.reset();
+        this.scans.reset();
+        this.identities.clear();
+        this.identityCount = 0;
+        this.deviceId = null;
+        this.scanCount = 0;
+        this.lastTime = 0;
+        this.lastLatitude = 0;
+        this.lastLongitude = 0;
+        this.lastRadioLatitude = 0;
+        this.lastRadioLongitude = 0;
+    }
+
+    private int identityIndex(CellData cell) {
+        long key = cell.getIdentityKey();
+        int radio = RadioType.fromName(cell.getCellRadio());
+        // the packed key leaves out the LTE/WCDMA area code and truncates
+        // out-of-range values; such collisions get their own entry, chained
+        // behind the first, so the batch still decodes to exactly what was
+        // scanned and each identity is written once
+        int last = -1;
+        for (int i = this.identities.get(key, -1); i >= 0; i = this.nextSameKey[i]) {
+            if (sameIdentity(i, radio, cell)) {
+                return i;
+            }
+            last = i;
+        }
+        int index = this.identityCount++;
+        if (index == this.lastSignal.length) {
+            this.lastSignal = Arrays.copyOf(this.lastSignal, index * 2);
+            this.nextSameKey = Arrays.copyOf(this.nextSameKey, index * 2);
+            this.identityFields = Arrays.copyOf(this.identityFields, index * 2 * IDENTITY_STRIDE);
+        }
+        if (last < 0) {
+            this.identities.put(key, index, -1);
+        } else {
+            this.nextSameKey[last] = index;
+        }
+        this.nextSameKey[index] = -1;
+        this.lastSignal[index] = 0;
+        int base = index * IDENTITY_STRIDE;
+        this.identityFields[base] = radio;
+        this.identityFields[base + 1] = cell.getMcc();
+        this.identityFields[base + 2] = cell.getMnc();
+        this.identityFields[base + 3] = cell.getLac();
+        this.identityFields[base + 4] = cell.getCid();
+        this.identityFields[base + 5] = cell.getPsc();
+        this.dictionary.writeByte(radio);
+        this.dictionary.writeSignedVarint(cell.getMcc());
+        this.dictionary.writeSignedVarint(cell.getMnc());
+        this.dictionary.writeSignedVarint(cell.getLac());
+        this.dictionary.writeSignedVarint(cell.getCid());
+        this.dictionary.writeSignedVarint(cell.getPsc());
+        return index;
+    }
+
+    private boolean sameIdentity(int index, int radio, CellData cell) {
+        int base = index * IDENTITY_STRIDE;
+        return this.identityFields[base] == radio
+                && this.identityFields[base + 1] == cell.getMcc()
+                && this.identityFields[base + 2] == cell.getMnc()
+                && this.identityFields[base + 3] == cell.getLac()
+                && this.identityFields[base + 4] == cell.getCid()
+                && this.identityFields[base + 5] == cell.getPsc();
+    }
+}
@@ -0,0 +1,41 @@
+package com.commonsware.android.job.CellSites.collections;
+
+/**
+ * Sizing and probing helpers shared by the open-addressing tables.
+ */
+final class HashSupport {
+    static final int MAX_CAPACITY = 1 << 30;
+
+    private HashSupport() {
+    }
+
+    /**
+     * Power of two table size that holds expectedSize keys under the
+     * 0.75 load factor.
+     */
+    static int tableSize(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Bad expected size: " + expectedSize);
+        }
+        long needed = Math.max(4L, (long) Math.ceil(expectedSize / 0.75));
+        if (needed > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Too many keys: " + expectedSize);
+        }
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    static int maxFill(int capacity) {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("Table full");
+        }
+        return capacity - (capacity >>> 2);
+    }
+
+    /**
+     * True if an entry found at slot, whose probe chain starts at home, may
+     * move back to free (i.e. home is not cyclically within (free, slot]).
+     */
+    static boolean outsideChain(int home, int free, int slot) {
+        return free <= slot ? (home <= free || home > slot) : (home <= free && home > slot);
+    }
+}
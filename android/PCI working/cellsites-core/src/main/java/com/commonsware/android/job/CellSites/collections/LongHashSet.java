@@ -0,0 +1,156 @@
+package com.commonsware.android.job.CellSites.collections;
+
+import com.commonsware.android.job.CellSites.CellKey;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing set of longs, for packed {@link CellKey}s. Same table
+ * layout and iteration as {@link LongIntHashMap}.
+ */
+public class LongHashSet {
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean hasZeroKey;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        allocate(HashSupport.tableSize(expectedSize));
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public boolean contains(long key) {
+        return slotOf(key) >= 0;
+    }
+
+    /**
+     * Returns false if key was already present.
+     */
+    public boolean add(long key) {
+        if (key == 0) {
+            if (this.hasZeroKey) {
+                return false;
+            }
+            this.hasZeroKey = true;
+            this.size++;
+            return true;
+        }
+        int slot = CellKey.hash(key) & this.mask;
+        long k;
+        while ((k = this.keys[slot]) != 0) {
+            if (k == key) {
+                return false;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        this.keys[slot] = key;
+        if (++this.size > HashSupport.maxFill(this.mask + 1)) {
+            rehash((this.mask + 1) * 2);
+        }
+        return true;
+    }
+
+    public boolean remove(long key) {
+        if (key == 0) {
+            if (!this.hasZeroKey) {
+                return false;
+            }
+            this.hasZeroKey = false;
+            this.size--;
+            return true;
+        }
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return false;
+        }
+        this.size--;
+        shiftKeys(slot);
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(this.keys, 0);
+        this.hasZeroKey = false;
+        this.size = 0;
+    }
+
+    /**
+     * First occupied slot after the given one, or -1; start from -1.
+     */
+    public int nextSlot(int slot) {
+        int capacity = this.mask + 1;
+        for (slot++; slot < capacity; slot++) {
+            if (this.keys[slot] != 0) {
+                return slot;
+            }
+        }
+        return slot == capacity && this.hasZeroKey ? capacity : -1;
+    }
+
+    public long keyAt(int slot) {
+        return slot == this.mask + 1 ? 0 : this.keys[slot];
+    }
+
+    private int slotOf(long key) {
+        if (key == 0) {
+            return this.hasZeroKey ? this.mask + 1 : -1;
+        }
+        int slot = CellKey.hash(key) & this.mask;
+        long k;
+        while ((k = this.keys[slot]) != 0) {
+            if (k == key) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return -1;
+    }
+
+    private void shiftKeys(int free) {
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & this.mask;
+            long k = this.keys[slot];
+            if (k == 0) {
+                break;
+            }
+            if (HashSupport.outsideChain(CellKey.hash(k) & this.mask, free, slot)) {
+                this.keys[free] = k;
+                free = slot;
+            }
+        }
+        this.keys[free] = 0;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity + 1];
+        this.mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        int oldCapacity = this.mask + 1;
+        allocate(capacity);
+        for (int i = 0; i < oldCapacity; i++) {
+            long k = oldKeys[i];
+            if (k != 0) {
+                int slot = CellKey.hash(k) & this.mask;
+                while (this.keys[slot] != 0) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.keys[slot] = k;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.commonsware.android.job.CellSites.collections;
+
+import com.commonsware.android.job.CellSites.CellKey;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing long to int map with linear probing, for packed
+ * {@link CellKey}s. Nothing is boxed and lookups never allocate.
+ *
+ * Key 0 marks a free slot in the table, so a 0 key lives in the extra slot
+ * at index capacity. Iterate with {@link #nextSlot(int)}:
+ * <pre>
+ * for (int s = map.nextSlot(-1); s >= 0; s = map.nextSlot(s)) { map.keyAt(s); map.valueAt(s); }
+ * </pre>
+ */
+public class LongIntHashMap {
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean hasZeroKey;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        allocate(HashSupport.tableSize(expectedSize));
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return slotOf(key) >= 0;
+    }
+
+    /**
+     * Returns the value for key, or missing if there is none.
+     */
+    public int get(long key, int missing) {
+        int slot = slotOf(key);
+        return slot < 0 ? missing : this.values[slot];
+    }
+
+    /**
+     * Returns the previous value, or missing if key was absent.
+     */
+    public int put(long key, int value, int missing) {
+        if (key == 0) {
+            int zero = this.mask + 1;
+            int previous = this.hasZeroKey ? this.values[zero] : missing;
+            if (!this.hasZeroKey) {
+                this.hasZeroKey = true;
+                this.size++;
+            }
+            this.values[zero] = value;
+            return previous;
+        }
+        int slot = CellKey.hash(key) & this.mask;
+        while (this.keys[slot] != 0) {
+            if (this.keys[slot] == key) {
+                int previous = this.values[slot];
+                this.values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        if (++this.size > HashSupport.maxFill(this.mask + 1)) {
+            rehash((this.mask + 1) * 2);
+        }
+        return missing;
+    }
+
+    /**
+     * Adds delta to the value of key (0 if absent) and returns the sum.
+     */
+    public int addTo(long key, int delta) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            return this.values[slot] += delta;
+        }
+        put(key, delta, 0);
+        return delta;
+    }
+
+    /**
+     * Returns the removed value, or missing if key was absent.
+     */
+    public int remove(long key, int missing) {
+        if (key == 0) {
+            if (!this.hasZeroKey) {
+                return missing;
+            }
+            this.hasZeroKey = false;
+            this.size--;
+            return this.values[this.mask + 1];
+        }
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return missing;
+        }
+        int previous = this.values[slot];
+        this.size--;
+        shiftKeys(slot);
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(this.keys, 0);
+        this.hasZeroKey = false;
+        this.size = 0;
+    }
+
+    /**
+     * First occupied slot after the given one, or -1; start from -1.
+     * Slots are only stable while the map is not modified.
+     */
+    public int nextSlot(int slot) {
+        int capacity = this.mask + 1;
+        for (slot++; slot < capacity; slot++) {
+            if (this.keys[slot] != 0) {
+                return slot;
+            }
+        }
+        return slot == capacity && this.hasZeroKey ? capacity : -1;
+    }
+
+    public long keyAt(int slot) {
+        return this.keys[slot];
+    }
+
+    public int valueAt(int slot) {
+        return this.values[slot];
+    }
+
+    private int slotOf(long key) {
+        if (key == 0) {
+            return this.hasZeroKey ? this.mask + 1 : -1;
+        }
+        int slot = CellKey.hash(key) & this.mask;
+        long k;
+        while ((k = this.keys[slot]) != 0) {
+            if (k == key) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Backward-shift deletion: pulls later entries of the probe chain into
+     * the freed slot so lookups never need tombstones.
+     */
+    private void shiftKeys(int free) {
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & this.mask;
+            long k = this.keys[slot];
+            if (k == 0) {
+                break;
+            }
+            int home = CellKey.hash(k) & this.mask;
+            if (HashSupport.outsideChain(home, free, slot)) {
+                this.keys[free] = k;
+                this.values[free] = this.values[slot];
+                free = slot;
+            }
+        }
+        this.keys[free] = 0;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity + 1];
+        this.values = new int[capacity + 1];
+        this.mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        int oldCapacity = this.mask + 1;
+        allocate(capacity);
+        this.keys[capacity] = oldKeys[oldCapacity];
+        this.values[capacity] = oldValues[oldCapacity];
+        for (int i = 0; i < oldCapacity; i++) {
+            long k = oldKeys[i];
+            if (k != 0) {
+                int slot = CellKey.hash(k) & this.mask;
+                while (this.keys[slot] != 0) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.keys[slot] = k;
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+}
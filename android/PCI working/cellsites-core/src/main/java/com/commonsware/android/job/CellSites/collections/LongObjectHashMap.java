@@ -0,0 +1,182 @@
+package com.commonsware.android.job.CellSites.collections;
+
+import com.commonsware.android.job.CellSites.CellKey;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing long to object map, for tower records keyed by packed
+ * {@link CellKey}s. Same table layout and iteration as
+ * {@link LongIntHashMap}; null values are not allowed.
+ */
+public class LongObjectHashMap<V> {
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public LongObjectHashMap() {
+        this(16);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        allocate(HashSupport.tableSize(expectedSize));
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return slotOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int slot = slotOf(key);
+        return slot < 0 ? null : (V) this.values[slot];
+    }
+
+    /**
+     * Returns the previous value, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        if (key == 0) {
+            int zero = this.mask + 1;
+            V previous = (V) this.values[zero];
+            if (previous == null) {
+                this.size++;
+            }
+            this.values[zero] = value;
+            return previous;
+        }
+        int slot = CellKey.hash(key) & this.mask;
+        while (this.keys[slot] != 0) {
+            if (this.keys[slot] == key) {
+                V previous = (V) this.values[slot];
+                this.values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        if (++this.size > HashSupport.maxFill(this.mask + 1)) {
+            rehash((this.mask + 1) * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the removed value, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return null;
+        }
+        V previous = (V) this.values[slot];
+        this.size--;
+        if (slot == this.mask + 1) {
+            this.values[slot] = null;
+        } else {
+            shiftKeys(slot);
+        }
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(this.keys, 0);
+        Arrays.fill(this.values, null);
+        this.size = 0;
+    }
+
+    /**
+     * First occupied slot after the given one, or -1; start from -1.
+     */
+    public int nextSlot(int slot) {
+        int capacity = this.mask + 1;
+        for (slot++; slot < capacity; slot++) {
+            if (this.keys[slot] != 0) {
+                return slot;
+            }
+        }
+        return slot == capacity && this.values[capacity] != null ? capacity : -1;
+    }
+
+    public long keyAt(int slot) {
+        return this.keys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) this.values[slot];
+    }
+
+    private int slotOf(long key) {
+        if (key == 0) {
+            return this.values[this.mask + 1] != null ? this.mask + 1 : -1;
+        }
+        int slot = CellKey.hash(key) & this.mask;
+        long k;
+        while ((k = this.keys[slot]) != 0) {
+            if (k == key) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return -1;
+    }
+
+    private void shiftKeys(int free) {
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & this.mask;
+            long k = this.keys[slot];
+            if (k == 0) {
+                break;
+            }
+            if (HashSupport.outsideChain(CellKey.hash(k) & this.mask, free, slot)) {
+                this.keys[free] = k;
+                this.values[free] = this.values[slot];
+                free = slot;
+            }
+        }
+        this.keys[free] = 0;
+        this.values[free] = null;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity + 1];
+        this.values = new Object[capacity + 1];
+        this.mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        int oldCapacity = this.mask + 1;
+        allocate(capacity);
+        this.values[capacity] = oldValues[oldCapacity];
+        for (int i = 0; i < oldCapacity; i++) {
+            long k = oldKeys[i];
+            if (k != 0) {
+                int slot = CellKey.hash(k) & this.mask;
+                while (this.keys[slot] != 0) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.keys[slot] = k;
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+}
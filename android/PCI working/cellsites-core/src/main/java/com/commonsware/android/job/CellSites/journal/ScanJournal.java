@@ -0,0 +1,458 @@
+package com.commonsware.android.job.CellSites.journal;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only scan journal backed by memory-mapped segment files.
+ *
+ * Every entry is stored as [length][crc32][payload]. The length is written
+ * last, so a record only becomes visible once it is complete; on open the
+ * tail of the newest segment is validated and anything torn is discarded.
+ *
+ * There is one consumer (the uploader). It reads ahead from the durable
+ * cursor, and only {@link #acknowledge()} moves the cursor, checkpoints it
+ * and deletes the segments that are fully behind it. {@link #rewind()} makes
+ * the unacknowledged entries readable again after a failed upload.
+ */
+public class ScanJournal implements Closeable {
+    private static final Logger LOG = Logger.getLogger(ScanJournal.class.getName());
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+    static final int HEADER_SIZE = 8;
+    static final int END_OF_SEGMENT = -1;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_FILE = "cursor";
+    private static final String CURSOR_TEMP_FILE = "cursor.tmp";
+
+    private final File directory;
+    private final int segmentSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dataAvailable = lock.newCondition();
+    private final CRC32 writeCrc = new CRC32();
+    private final CRC32 readCrc = new CRC32();
+
+    // writer state, guarded by lock
+    private long writeSegmentId;
+    private MappedByteBuffer writeBuffer;
+    private int writePosition;
+    private boolean closed;
+    private boolean woken;
+
+    // consumer state, only touched by the uploader thread
+    private long readSegmentId;
+    private int readPosition;
+    private ByteBuffer readBuffer;
+    private long ackSegmentId;
+    private int ackPosition;
+
+    public ScanJournal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public ScanJournal(File directory, int segmentSize) throws IOException {
+        if (segmentSize < 4 * HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment too small: " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        recover();
+    }
+
+    /**
+     * Largest payload a single entry may carry.
+     */
+    public int maxEntrySize() {
+        return this.segmentSize - HEADER_SIZE;
+    }
+
+    /**
+     * Appends one entry. Only a memory copy into the mapped segment; the
+     * page cache makes it survive a process crash.
+     */
+    public void append(byte[] payload) throws IOException {
+        append(payload, 0, payload.length);
+    }
+
+    /**
+     * Appends payload[offset, offset + length) as one entry, so a reused
+     * buffer can be journalled without copying it out first.
+     */
+    public void append(byte[] payload, int offset, int length) throws IOException {
+        if (length <= 0 || length > maxEntrySize()) {
+            throw new IllegalArgumentException("Bad journal entry size: " + length);
+        }
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                throw new IOException("Journal closed");
+            }
+            if (this.writePosition + HEADER_SIZE + length > this.segmentSize) {
+                rollSegment();
+            }
+            this.writeCrc.reset();
+            this.writeCrc.update(payload, offset, length);
+            int at = this.writePosition;
+            this.writeBuffer.position(at + HEADER_SIZE);
+            this.writeBuffer.put(payload, offset, length);
+            this.writeBuffer.putInt(at + 4, (int) this.writeCrc.getValue());
+            this.writeBuffer.putInt(at, length);
+            this.writePosition = at + HEADER_SIZE + length;
+            this.dataAvailable.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until there is something past the read position, the timeout
+     * expires or {@link #wakeUp()} is called.
+     */
+    public boolean awaitData(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        this.lock.lock();
+        try {
+            while (!this.closed && !hasUnreadLocked()) {
+                if (nanos <= 0 || this.woken) {
+                    this.woken = false;
+                    return false;
+                }
+                nanos = this.dataAvailable.awaitNanos(nanos);
+            }
+            this.woken = false;
+            return !this.closed;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Makes a pending or the next {@link #awaitData} return at once, even
+     * if nothing was appended.
+     */
+    public void wakeUp() {
+        this.lock.lock();
+        try {
+            this.woken = true;
+            this.dataAvailable.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Reads up to maxEntries entries past the read position into out, without
+     * acknowledging them. Returns the number of entries added.
+     */
+    public int read(List<byte[]> out, int maxEntries) {
+        long lastSegmentId;
+        int lastPosition;
+        ByteBuffer lastBuffer;
+        this.lock.lock();
+        try {
+            lastSegmentId = this.writeSegmentId;
+            lastPosition = this.writePosition;
+            lastBuffer = this.writeBuffer;
+        } finally {
+            this.lock.unlock();
+        }
+
+        int count = 0;
+        while (count < maxEntries) {
+            boolean isLast = this.readSegmentId == lastSegmentId;
+            int limit = isLast ? lastPosition : this.segmentSize;
+            if (isLast && this.readPosition >= limit) {
+                break;
+            }
+            if (this.readBuffer == null) {
+                this.readBuffer = isLast ? lastBuffer.duplicate() : mapForRead(this.readSegmentId);
+                if (this.readBuffer == null) {
+                    if (!nextReadSegment(lastSegmentId)) {
+                        break;
+                    }
+                    continue;
+                }
+            }
+            int length = limit - this.readPosition < HEADER_SIZE ? 0 : this.readBuffer.getInt(this.readPosition);
+            if (length <= 0 || length > limit - this.readPosition - HEADER_SIZE) {
+                if (!nextReadSegment(lastSegmentId)) {
+                    break;
+                }
+                continue;
+            }
+            byte[] entry = new byte[length];
+            this.readBuffer.position(this.readPosition + HEADER_SIZE);
+            this.readBuffer.get(entry);
+            this.readCrc.reset();
+            this.readCrc.update(entry, 0, length);
+            if ((int) this.readCrc.getValue() != this.readBuffer.getInt(this.readPosition + 4)) {
+                LOG.warning("Corrupt entry in segment " + this.readSegmentId + " at " + this.readPosition);
+                if (!nextReadSegment(lastSegmentId)) {
+                    break;
+                }
+                continue;
+            }
+            out.add(entry);
+            this.readPosition += HEADER_SIZE + length;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Makes everything read so far durable as consumed, and trims the
+     * segments that lie entirely behind the new cursor.
+     */
+    public void acknowledge() throws IOException {
+        if (this.ackSegmentId == this.readSegmentId && this.ackPosition == this.readPosition) {
+            return;
+        }
+        writeCursor(this.readSegmentId, this.readPosition);
+        long oldSegmentId = this.ackSegmentId;
+        this.ackSegmentId = this.readSegmentId;
+        this.ackPosition = this.readPosition;
+        for (long id = oldSegmentId; id < this.ackSegmentId; id++) {
+            File segment = segmentFile(id);
+            if (segment.exists() && !segment.delete()) {
+                LOG.warning("Cannot delete journal segment " + segment);
+            }
+        }
+    }
+
+    /**
+     * Forgets everything read since the last acknowledge, so it is read again.
+     */
+    public void rewind() {
+        if (this.readSegmentId != this.ackSegmentId) {
+            this.readBuffer = null;
+        }
+        this.readSegmentId = this.ackSegmentId;
+        this.readPosition = this.ackPosition;
+    }
+
+    /**
+     * Forces the active segment to storage.
+     */
+    public void sync() {
+        this.lock.lock();
+        try {
+            if (!this.closed) {
+                this.writeBuffer.force();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.lock.lock();
+        try {
+            if (!this.closed) {
+                this.writeBuffer.force();
+                this.closed = true;
+                this.dataAvailable.signalAll();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean hasUnreadLocked() {
+        return this.readSegmentId != this.writeSegmentId || this.readPosition < this.writePosition;
+    }
+
+    private boolean nextReadSegment(long lastSegmentId) {
+        if (this.readSegmentId >= lastSegmentId) {
+            return false;
+        }
+        this.readSegmentId++;
+        this.readPosition = 0;
+        this.readBuffer = null;
+        return true;
+    }
+
+    private void rollSegment() throws IOException {
+        if (this.segmentSize - this.writePosition >= 4) {
+            this.writeBuffer.putInt(this.writePosition, END_OF_SEGMENT);
+        }
+        this.writeBuffer.force();
+        this.writeSegmentId++;
+        this.writeBuffer = mapForWrite(this.writeSegmentId);
+        this.writePosition = 0;
+    }
+
+    private void recover() throws IOException {
+        List<Long> ids = listSegments();
+        long cursorSegment = ids.isEmpty() ? 0 : ids.get(0);
+        int cursorPosition = 0;
+        long[] cursor = readCursor();
+        if (cursor != null && ids.contains(cursor[0])) {
+            cursorSegment = cursor[0];
+            cursorPosition = (int) cursor[1];
+        } else if (cursor != null && ids.isEmpty()) {
+            cursorSegment = cursor[0];
+        }
+        for (Long id : ids) {
+            if (id < cursorSegment) {
+                segmentFile(id).delete();
+            }
+        }
+
+        this.writeSegmentId = ids.isEmpty() ? cursorSegment : Math.max(cursorSegment, ids.get(ids.size() - 1));
+        this.writeBuffer = mapForWrite(this.writeSegmentId);
+        this.writePosition = validEnd(this.writeBuffer);
+        for (int i = this.writePosition; i < this.segmentSize; i++) {
+            if (this.writeBuffer.get(i) != 0) {
+                LOG.info("Discarding torn journal tail at " + this.writePosition);
+                for (int j = this.writePosition; j < this.segmentSize; j++) {
+                    this.writeBuffer.put(j, (byte) 0);
+                }
+                break;
+            }
+        }
+
+        if (cursorSegment == this.writeSegmentId && cursorPosition > this.writePosition) {
+            cursorPosition = this.writePosition;
+        }
+        this.readSegmentId = this.ackSegmentId = cursorSegment;
+        this.readPosition = this.ackPosition = cursorPosition;
+    }
+
+    private int validEnd(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        int position = 0;
+        while (this.segmentSize - position >= HEADER_SIZE) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > this.segmentSize - position - HEADER_SIZE) {
+                break;
+            }
+            byte[] entry = new byte[length];
+            buffer.position(position + HEADER_SIZE);
+            buffer.get(entry);
+            crc.reset();
+            crc.update(entry, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private MappedByteBuffer mapForWrite(long id) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(id), "rw");
+        try {
+            file.setLength(this.segmentSize);
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+        } finally {
+            file.close();
+        }
+    }
+
+    private ByteBuffer mapForRead(long id) {
+        File segment = segmentFile(id);
+        if (!segment.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(segment, "r");
+            try {
+                int size = (int) Math.min(file.length(), this.segmentSize);
+                return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Cannot map journal segment " + segment, e);
+            return null;
+        }
+    }
+
+    private List<Long> listSegments() {
+        String[] names = this.directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        List<Long> ids = new ArrayList<Long>();
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    ids.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOG.warning("Ignoring stray journal file " + name);
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private File segmentFile(long id) {
+        return new File(this.directory, String.format(Locale.US, "%019d%s", id, SEGMENT_SUFFIX));
+    }
+
+    private long[] readCursor() {
+        File file = new File(this.directory, CURSOR_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                long segment = in.readLong();
+                int position = in.readInt();
+                int check = in.readInt();
+                if (check != (int) (segment ^ (segment >>> 32) ^ position)) {
+                    LOG.warning("Journal cursor checksum mismatch, replaying from the oldest segment");
+                    return null;
+                }
+                return new long[]{segment, position};
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Cannot read journal cursor", e);
+            return null;
+        }
+    }
+
+    private void writeCursor(long segment, int position) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(16);
+        record.putLong(segment).putInt(position).putInt((int) (segment ^ (segment >>> 32) ^ position));
+        File temp = new File(this.directory, CURSOR_TEMP_FILE);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(record.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(new File(this.directory, CURSOR_FILE))) {
+            throw new IOException("Cannot checkpoint journal cursor in " + this.directory);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.commonsware.android.job.CellSites.locate;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.celldb.CellGeneration;
+import com.commonsware.android.job.CellSites.celldb.CellSite;
+import com.commonsware.android.job.CellSites.celldb.CellStore;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * On-device radio positioning: resolves the towers of a deduplicated scan
+ * against the {@link CellStore} and returns their weighted centroid, so a
+ * fix needs neither GPS nor a round trip to the server-side decoder.
+ *
+ * A tower weighs 10^(dBm/20) / range: a strong signal means it is close, a
+ * small MLS range means its position is precise. The dBm comes from
+ * signalStrength, falls back to simpleLevel, then to a weak default; the
+ * registered cell counts twice. The accuracy combines the weighted spread
+ * of the towers around the centroid with their mean range, shrunk by the
+ * square root of the tower count.
+ *
+ * With {@link TowerStats} set, a tower's smoothed dBm stands in for the
+ * instantaneous reading, which fades by several dB from scan to scan.
+ *
+ * LTE cells that report a timing advance also give a range ring of
+ * (TA + 0.5) * 78.12 m around their tower. When there is at least one, the
+ * centroid becomes the prior of a {@link Multilateration} solve that moves
+ * it onto the rings, which is far tighter than the centroid wherever towers
+ * are dense; without TA the centroid stands.
+ *
+ * One lookup per cell into the memory-mapped store, plus a
+ * {@link NeighbourResolver} query per PCI/PSC-only neighbour when one is
+ * given, and nothing allocated once the per-tower arrays have grown to the
+ * scan size. Not thread-safe; use one locator per scanning thread.
+ */
+public class CellLocator {
+    static final int MIN_RANGE = 50;
+    static final int MAX_RANGE = 40000;
+    static final int MIN_ACCURACY = 50;
+    static final int DEFAULT_DBM = -110;
+    static final double METRES_PER_DEGREE = 111320.0;
+    // one LTE TA step is 16 Ts of round trip: 16 / 30.72 MHz * c / 2
+    static final double TA_STEP_METRES = 78.12;
+    // CellSignalStrengthLte reports 0..1282, MAX_VALUE when unknown
+    static final int MAX_TA = 1282;
+
+    private final CellStore store;
+    private final NeighbourResolver resolver;
+    private final CellSite site = new CellSite();
+    private final CellSite serving = new CellSite();
+    // per resolved tower: degrees relative to the first one, range, weight
+    private double[] dLatitude = new double[16];
+    private double[] dLongitude = new double[16];
+    private double[] range = new double[16];
+    private double[] weight = new double[16];
+    // TA ring radius in metres, NaN if the cell reported none
+    private double[] taRange = new double[16];
+    private final Multilateration multilateration = new Multilateration();
+    private TowerStats towerStats;
+    private int count;
+    private double originLatitude;
+    private double originLongitude;
+
+    public CellLocator(CellStore store) {
+        this(store, null);
+    }
+
+    /**
+     * With a resolver, neighbours reported by PCI/PSC only are placed near
+     * the serving cell and join the centroid too.
+     */
+    public CellLocator(CellStore store, NeighbourResolver resolver) {
+        this.store = store;
+        this.resolver = resolver;
+    }
+
+    /**
+     * Weighs towers by their smoothed dBm from now on; null goes back to
+     * the scan's own readings.
+     */
+    public void setTowerStats(TowerStats towerStats) {
+        this.towerStats = towerStats;
+    }
+
+    /**
+     * Fills out from the cells found in the store; false (out untouched) if
+     * none of them is.
+     */
+    public boolean locate(List<CellData> cells, RadioFix out) {
+        CellGeneration generation = this.store.current();
+        if (generation == null) {
+            return false;
+        }
+        this.count = 0;
+        boolean haveServing = false;
+        for (int i = 0; i < cells.size(); i++) {
+            CellData cell = cells.get(i);
+            if (generation.find(cell.getIdentityKey(), this.site)) {
+                add(cell, this.site);
+                if (!haveServing || cell.getIsRegistered() != 0) {
+                    copy(this.site, this.serving);
+                    haveServing = true;
+                }
+            }
+        }
+        if (haveServing && this.resolver != null) {
+            for (int i = 0; i < cells.size(); i++) {
+                CellData cell = cells.get(i);
+                if (NeighbourResolver.isUnitOnly(cell) && this.resolver.resolve(generation, cell, this.serving, this.site)) {
+                    add(cell, this.site);
+                }
+            }
+        }
+        int n = this.count;
+        if (n == 0) {
+            return false;
+        }
+        double totalWeight = 0;
+        double sumLatitude = 0;
+        double sumLongitude = 0;
+        double sumRange = 0;
+        for (int i = 0; i < n; i++) {
+            double w = this.weight[i];
+            totalWeight += w;
+            sumLatitude += w * this.dLatitude[i];
+            sumLongitude += w * this.dLongitude[i];
+            sumRange += w * this.range[i];
+        }
+        double centerLatitude = sumLatitude / totalWeight;
+        double centerLongitude = sumLongitude / totalWeight;
+        double latitude = this.originLatitude + centerLatitude;
+        double metresPerLongitude = METRES_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+
+        double spread = 0;
+        for (int i = 0; i < n; i++) {
+            double y = (this.dLatitude[i] - centerLatitude) * METRES_PER_DEGREE;
+            double x = (this.dLongitude[i] - centerLongitude) * metresPerLongitude;
+            spread += this.weight[i] * (x * x + y * y);
+        }
+        double meanRange = sumRange / totalWeight;
+        double accuracy = Math.sqrt(spread / totalWeight + meanRange * meanRange / n);
+
+        out.latitude = latitude;
+        out.longitude = CellSite.wrapLongitude(this.originLongitude + centerLongitude);
+        out.accuracy = (int) Math.max(MIN_ACCURACY, Math.round(accuracy));
+        out.cellCount = n;
+        out.timingAdvanceCount = 0;
+
+        this.multilateration.reset();
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(this.taRange[i])) {
+                // the TA bin itself is +/- half a step; MLS tower positions are estimates too
+                double sigma = Math.sqrt(TA_STEP_METRES * TA_STEP_METRES / 4 + this.range[i] * this.range[i] / 100);
+                this.multilateration.addRing(this.dLongitude[i] * metresPerLongitude,
+                        this.dLatitude[i] * METRES_PER_DEGREE, this.taRange[i], sigma);
+            }
+        }
+        if (this.multilateration.ringCount() > 0
+                && this.multilateration.solve(centerLongitude * metresPerLongitude,
+                centerLatitude * METRES_PER_DEGREE, Math.max(MIN_ACCURACY, accuracy))) {
+            out.latitude = this.originLatitude + this.multilateration.getY() / METRES_PER_DEGREE;
+            out.longitude = CellSite.wrapLongitude(this.originLongitude + this.multilateration.getX() / metresPerLongitude);
+            out.accuracy = (int) Math.max(TA_STEP_METRES / 2, Math.round(this.multilateration.getAccuracy()));
+            out.timingAdvanceCount = this.multilateration.ringCount();
+        }
+        return true;
+    }
+
+    private void add(CellData cell, CellSite site) {
+        int n = this.count;
+        if (n == 0) {
+            this.originLatitude = site.latitude;
+            this.originLongitude = site.longitude;
+        }
+        if (n == this.weight.length) {
+            grow();
+        }
+        double r = Math.max(MIN_RANGE, Math.min(MAX_RANGE, site.range));
+        double w = Math.pow(10, signalDbm(cell) / 20.0) / r;
+        if (cell.getIsRegistered() != 0) {
+            w *= 2;
+        }
+        this.dLatitude[n] = site.latitude - this.originLatitude;
+        this.dLongitude[n] = CellSite.wrapLongitude(site.longitude - this.originLongitude);
+        this.range[n] = r;
+        this.weight[n] = w;
+        int ta = cell.getTimingAdvance();
+        this.taRange[n] = CellData.CELL_RADIO_LTE.equals(cell.getCellRadio()) && ta >= 0 && ta <= MAX_TA
+                ? (ta + 0.5) * TA_STEP_METRES : Double.NaN;
+        this.count = n + 1;
+    }
+
+    private static void copy(CellSite from, CellSite to) {
+        to.key = from.key;
+        to.latitude = from.latitude;
+        to.longitude = from.longitude;
+        to.range = from.range;
+        to.samples = from.samples;
+        to.area = from.area;
+        to.updated = from.updated;
+    }
+
+    /**
+     * The tower's smoothed dBm if there are tower stats with a reading for
+     * it, otherwise {@link #dbm(CellData)}.
+     */
+    double signalDbm(CellData cell) {
+        if (this.towerStats != null) {
+            float smoothed = this.towerStats.getSmoothedDbm(cell.getIdentityKey());
+            if (!Float.isNaN(smoothed)) {
+                return smoothed;
+            }
+        }
+        return dbm(cell);
+    }
+
+    /**
+     * Best available signal estimate in dBm.
+     */
+    static int dbm(CellData cell) {
+        int signal = cell.getSignalStrength();
+        if (signal > -150 && signal < -20) {
+            return signal;
+        }
+        int level = cell.getSimpleLevel();
+        if (level >= 0 && level <= 4) {
+            // SignalStrength levels are roughly 10 dB apart
+            return -115 + 10 * level;
+        }
+        return DEFAULT_DBM;
+    }
+
+    private void grow() {
+        int size = this.weight.length * 2;
+        this.dLatitude = Arrays.copyOf(this.dLatitude, size);
+        this.dLongitude = Arrays.copyOf(this.dLongitude, size);
+        this.range = Arrays.copyOf(this.range, size);
+        this.weight = Arrays.copyOf(this.weight, size);
+        this.taRange = Arrays.copyOf(this.taRange, size);
+    }
+}
@@ -0,0 +1,744 @@
+package com.commonsware.android.job.CellSites.locate;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.CellKey;
+import com.commonsware.android.job.CellSites.ScanRecord;
+import com.commonsware.android.job.CellSites.celldb.CellSite;
+import com.commonsware.android.job.CellSites.collections.LongIntHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Radio fingerprints recorded on the device: what the phone heard (serving
+ * cell plus its strongest neighbours, with their dBm) at a place GPS put it.
+ * Matching a new scan against them positions the phone where MLS tower
+ * coordinates are wrong or missing, as long as it has been there before.
+ *
+ * Only scans with a precise, current GPS label are kept (see
+ * {@link #add(ScanRecord)}). Fingerprints are indexed by the packed
+ * {@link CellKey} of their serving cell, and deduplicated on a grid of
+ * GRID_METRES squares per serving cell: a newer scan from the same square
+ * and serving cell replaces the old one, so the store follows network
+ * changes and its size is bounded by the area covered, not the time spent
+ * there. Past capacity the least recently refreshed fingerprint goes.
+ *
+ * A query compares the fingerprints filed under its serving cell and its
+ * SEARCHED_CELLS - 1 strongest neighbours (the serving cell at a spot flips
+ * with fading and handover hysteresis) and keeps the k nearest in signal
+ * space: the RMS over the union of both cell sets of the dBm difference. A
+ * cell heard on one side only is taken to have been just below the weakest
+ * cell the other side kept, and costs at least MIN_MISSING_DB. dBm are
+ * kept quantized to DBM_STEP, and each fingerprint carries a 64-bit
+ * signature of its cells' hashes; the bits that differ between query and
+ * fingerprint signatures bound the distance from below, so most candidates
+ * are rejected without comparing cells. The fix is the mean of the nearest
+ * positions weighted by their distance, leaving out any much further than
+ * the nearest.
+ *
+ * Given a {@link SignalLsh}, queries take their candidates from its
+ * buckets instead, which finds fingerprints sharing none of the scan's
+ * strongest cells and misses fewer of the true nearest, at some hashing
+ * cost per query and per add; {@link #nearest} compares either search
+ * with an exhaustive one.
+ *
+ * Fingerprints live in parallel primitive arrays, about 130 bytes each with
+ * MAX_NEIGHBOURS; the store persists as a flat file written by
+ * {@link #save(File)}. Thread-safe; every method locks the store, save()
+ * only while copying it.
+ */
+public class FingerprintStore {
+    public static final int DEFAULT_CAPACITY = 100000;
+    public static final int DEFAULT_K = 3;
+    // cells kept per fingerprint besides the serving one, strongest first
+    public static final int MAX_NEIGHBOURS = 8;
+    static final double GRID_METRES = 20;
+    // labels less precise than this, or older than it takes to cross a grid square, are not kept
+    static final float MAX_FIX_ACCURACY = 30;
+    static final int MIN_DBM = -150;
+    static final int DBM_STEP = 2;
+    static final double MIN_MISSING_DB = 6;
+    // the k nearest only count as far as this many times the nearest's mean squared dB
+    static final double NEIGHBOUR_RATIO = 1.5;
+    // serving cell and strongest neighbours whose fingerprints a query compares
+    static final int SEARCHED_CELLS = 3;
+    // a nearest fingerprint further than this (RMS dB) is no match
+    static final double MAX_DISTANCE_DB = 15;
+    static final byte MAGIC_0 = 'F';
+    static final byte MAGIC_1 = 'P';
+    // 2: CellKey PSC field widened to 10 bits
+    static final int VERSION = 2;
+    // where a query looks for the k nearest, see nearest()
+    public static final int SEARCH_CHAINS = 0;
+    public static final int SEARCH_LSH = 1;
+    public static final int SEARCH_EXACT = 2;
+    private static final int CELLS = MAX_NEIGHBOURS + 1;
+    private static final int NONE = -1;
+
+    private final int capacity;
+    private final int k;
+    private final SignalLsh lsh;
+    // serving cell key -> first fingerprint of its chain
+    private final LongIntHashMap chains;
+    // serving cell and grid square -> fingerprint
+    private final LongIntHashMap squares;
+    private final long[] serving;
+    private final int[] latitudeE6;
+    private final int[] longitudeE6;
+    private final float[] accuracy;
+    private final long[] signature;
+    // serving cell first, then the neighbours strongest first
+    private final byte[] cellCount;
+    private final long[] cellKeys;
+    private final byte[] cellDbm;
+    private final int[] chainNext;
+    private final int[] chainPrev;
+    // doubly linked recency list over the slots, most recent first
+    private final int[] newer;
+    private final int[] older;
+    private int newest = NONE;
+    private int oldest = NONE;
+    private int used;
+    // scratch: the scan being added or queried, in fingerprint cell order
+    private final long[] scanKeys = new long[CELLS];
+    private final int[] scanDbm = new int[CELLS];
+    private int scanCount;
+    // scratch: a stored fingerprint's cells, dequantized
+    private final long[] storedKeys = new long[CELLS];
+    private final int[] storedDbm = new int[CELLS];
+    private int candidates;
+    // scratch: the k nearest so far, nearest first
+    private final int[] nearest;
+    private final double[] nearestDistance;
+    private long changes;
+    private long savedChanges;
+    private long replaced;
+    private long evictions;
+    private long matched;
+    private long unmatched;
+
+    public FingerprintStore() {
+        this(DEFAULT_CAPACITY, DEFAULT_K);
+    }
+
+    public FingerprintStore(int capacity, int k) {
+        this(capacity, k, null);
+    }
+
+    /**
+     * With an empty lsh of at least the store's capacity, queries take
+     * their candidates from it instead of the serving cell chains.
+     */
+    public FingerprintStore(int capacity, int k, SignalLsh lsh) {
+        if (capacity < 1 || k < 1) {
+            throw new IllegalArgumentException("Bad fingerprint store: " + capacity + " fingerprints, k " + k);
+        }
+        if (lsh != null && (lsh.capacity() < capacity || lsh.size() > 0)) {
+            throw new IllegalArgumentException("LSH of " + lsh.capacity() + " for " + capacity + " fingerprints: " + lsh);
+        }
+        this.capacity = capacity;
+        this.k = k;
+        this.lsh = lsh;
+        this.chains = new LongIntHashMap();
+        this.squares = new LongIntHashMap(capacity);
+        this.serving = new long[capacity];
+        this.latitudeE6 = new int[capacity];
+        this.longitudeE6 = new int[capacity];
+        this.accuracy = new float[capacity];
+        this.signature = new long[capacity];
+        this.cellCount = new byte[capacity];
+        this.cellKeys = new long[capacity * CELLS];
+        this.cellDbm = new byte[capacity * CELLS];
+        this.chainNext = new int[capacity];
+        this.chainPrev = new int[capacity];
+        this.newer = new int[capacity];
+        this.older = new int[capacity];
+        this.nearest = new int[k];
+        this.nearestDistance = new double[k];
+    }
+
+    /**
+     * Stores the record's cells as a fingerprint of its GPS location; false
+     * (nothing stored) unless the record has cells and a location at most
+     * MAX_FIX_ACCURACY metres off that is either interpolated or, at the
+     * speed it reports, less than a grid square old.
+     */
+    public synchronized boolean add(ScanRecord record) {
+        if (!record.hasLocation || !(record.accuracy <= MAX_FIX_ACCURACY)) {
+            return false;
+        }
+        if (record.locationAge > 0 && !(record.speed * record.locationAge < GRID_METRES)) {
+            return false;
+        }
+        if (!prepare(record.cells)) {
+            return false;
+        }
+        put((int) Math.round(record.latitude * 1e6), (int) Math.round(record.longitude * 1e6), record.accuracy);
+        return true;
+    }
+
+    /**
+     * Fills out from the k fingerprints nearest to the scan; false (out
+     * untouched) if none is within MAX_DISTANCE_DB. The fix's cellCount is
+     * the cells the nearest fingerprint shares with the scan.
+     */
+    public synchronized boolean locate(List<CellData> cells, RadioFix out) {
+        int found = search(cells, this.lsh != null ? SEARCH_LSH : SEARCH_CHAINS);
+        if (found == 0 || this.nearestDistance[0] > MAX_DISTANCE_DB * MAX_DISTANCE_DB) {
+            this.unmatched++;
+            return false;
+        }
+
+        // a fingerprint much further than the nearest is another place, not a second opinion
+        while (found > 1 && this.nearestDistance[found - 1] > NEIGHBOUR_RATIO * this.nearestDistance[0] + 1) {
+            found--;
+        }
+        // positions relative to the nearest, weighted by 1 / (1 + mean squared dB)^2
+        int first = this.nearest[0];
+        double originLatitude = this.latitudeE6[first] / 1e6;
+        double originLongitude = this.longitudeE6[first] / 1e6;
+        double totalWeight = 0;
+        double sumLatitude = 0;
+        double sumLongitude = 0;
+        double sumAccuracy = 0;
+        for (int i = 0; i < found; i++) {
+            int slot = this.nearest[i];
+            double w = weight(this.nearestDistance[i]);
+            totalWeight += w;
+            sumLatitude += w * (this.latitudeE6[slot] / 1e6 - originLatitude);
+            sumLongitude += w * CellSite.wrapLongitude(this.longitudeE6[slot] / 1e6 - originLongitude);
+            sumAccuracy += w * this.accuracy[slot] * this.accuracy[slot];
+        }
+        double centerLatitude = sumLatitude / totalWeight;
+        double centerLongitude = sumLongitude / totalWeight;
+        double metresPerLongitude = CellLocator.METRES_PER_DEGREE
+                * Math.cos(Math.toRadians(originLatitude + centerLatitude));
+        double spread = 0;
+        for (int i = 0; i < found; i++) {
+            int slot = this.nearest[i];
+            double y = (this.latitudeE6[slot] / 1e6 - originLatitude - centerLatitude) * CellLocator.METRES_PER_DEGREE;
+            double x = (CellSite.wrapLongitude(this.longitudeE6[slot] / 1e6 - originLongitude) - centerLongitude)
+                    * metresPerLongitude;
+            spread += weight(this.nearestDistance[i]) * (x * x + y * y);
+        }
+
+        out.latitude = originLatitude + centerLatitude;
+        out.longitude = CellSite.wrapLongitude(originLongitude + centerLongitude);
+        out.accuracy = (int) Math.max(GRID_METRES / 2,
+                Math.round(Math.sqrt((spread + sumAccuracy) / totalWeight)));
+        out.cellCount = shared(first);
+        out.timingAdvanceCount = 0;
+        this.matched++;
+        return true;
+    }
+
+    /**
+     * Writes the slots of the k fingerprints nearest to the scan, nearest
+     * first, to out and their mean squared dB to distances (if not null),
+     * and returns how many there are, however far. search is where to
+     * look: SEARCH_CHAINS the fingerprints filed under the scan's strongest
+     * cells, SEARCH_LSH the candidates of the store's {@link SignalLsh},
+     * SEARCH_EXACT every fingerprint. A slot identifies a fingerprint until
+     * the next add; for comparing searches.
+     */
+    public synchronized int nearest(List<CellData> cells, int search, int[] out, double[] distances) {
+        int found = search(cells, search);
+        System.arraycopy(this.nearest, 0, out, 0, found);
+        if (distances != null) {
+            System.arraycopy(this.nearestDistance, 0, distances, 0, found);
+        }
+        return found;
+    }
+
+    /**
+     * Fingerprints the last query compared with the scan, or whose
+     * signatures ruled them out.
+     */
+    public synchronized int getLastCandidates() {
+        return this.candidates;
+    }
+
+    /**
+     * Fills nearest with the k nearest fingerprints found by search and
+     * returns how many.
+     */
+    private int search(List<CellData> cells, int search) {
+        this.candidates = 0;
+        if (this.used == 0 || !prepare(cells)) {
+            return 0;
+        }
+        long querySignature = 0;
+        for (int i = 0; i < this.scanCount; i++) {
+            querySignature |= bit(this.scanKeys[i]);
+        }
+        int queryWeakest = Math.min(this.scanDbm[0], this.scanDbm[this.scanCount - 1]);
+        int found = 0;
+        if (search == SEARCH_LSH) {
+            if (this.lsh == null) {
+                throw new IllegalStateException("No LSH");
+            }
+            int n = this.lsh.query(this.scanKeys, this.scanDbm, 0, this.scanCount);
+            int[] ids = this.lsh.getCandidates();
+            for (int c = 0; c < n; c++) {
+                found = consider(ids[c], querySignature, queryWeakest, found);
+            }
+            this.candidates = n;
+        } else if (search == SEARCH_EXACT) {
+            for (int slot = 0; slot < this.used; slot++) {
+                found = consider(slot, querySignature, queryWeakest, found);
+            }
+            this.candidates = this.used;
+        } else {
+            // the serving cell at a spot flips with fading and handover hysteresis
+            int searched = Math.min(this.scanCount, SEARCHED_CELLS);
+            for (int i = 0; i < searched; i++) {
+                for (int slot = this.chains.get(this.scanKeys[i], NONE); slot != NONE; slot = this.chainNext[slot]) {
+                    found = consider(slot, querySignature, queryWeakest, found);
+                    this.candidates++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Puts the fingerprint in slot into nearest, which holds found, if it is
+     * nearer than the k-th; returns the new count.
+     */
+    private int consider(int slot, long querySignature, int queryWeakest, int found) {
+        int count = this.cellCount[slot];
+        double worst = found < this.k ? Double.MAX_VALUE : this.nearestDistance[found - 1];
+        // every differing bit is at least one cell heard on one side only
+        double bound = MIN_MISSING_DB * MIN_MISSING_DB * Long.bitCount(querySignature ^ this.signature[slot])
+                / (this.scanCount + count);
+        if (bound >= worst) {
+            return found;
+        }
+        int base = slot * CELLS;
+        int weakest = Math.min(dequantize(this.cellDbm[base]), dequantize(this.cellDbm[base + count - 1]));
+        double sum = 0;
+        int common = 0;
+        // query cells the fingerprint has, one bit each
+        int seen = 0;
+        for (int j = 0; j < count; j++) {
+            long key = this.cellKeys[base + j];
+            int dbm = dequantize(this.cellDbm[base + j]);
+            int i = 0;
+            while (i < this.scanCount && this.scanKeys[i] != key) {
+                i++;
+            }
+            if (i < this.scanCount) {
+                double diff = this.scanDbm[i] - dbm;
+                sum += diff * diff;
+                common++;
+                seen |= 1 << i;
+            } else {
+                sum += missing(dbm, queryWeakest);
+            }
+        }
+        for (int i = 0; i < this.scanCount; i++) {
+            if ((seen & (1 << i)) == 0) {
+                sum += missing(this.scanDbm[i], weakest);
+            }
+        }
+        double distance = sum / (this.scanCount + count - common);
+        if (distance >= worst) {
+            return found;
+        }
+        // insertion into the short sorted list
+        int i = found < this.k ? found++ : found - 1;
+        while (i > 0 && this.nearestDistance[i - 1] > distance) {
+            this.nearest[i] = this.nearest[i - 1];
+            this.nearestDistance[i] = this.nearestDistance[i - 1];
+            i--;
+        }
+        this.nearest[i] = slot;
+        this.nearestDistance[i] = distance;
+        return found;
+    }
+
+    private static double weight(double distance) {
+        return 1 / ((1 + distance) * (1 + distance));
+    }
+
+    /**
+     * Cost of a cell heard at dbm on one side only: it was at most the
+     * weakest cell the other side kept, or it would be there.
+     */
+    private static double missing(int dbm, int otherWeakest) {
+        double db = Math.max(MIN_MISSING_DB, dbm - otherWeakest);
+        return db * db;
+    }
+
+    private int shared(int slot) {
+        int common = 0;
+        int base = slot * CELLS;
+        for (int j = 0; j < this.cellCount[slot]; j++) {
+            for (int i = 0; i < this.scanCount; i++) {
+                if (this.scanKeys[i] == this.cellKeys[base + j]) {
+                    common++;
+                    break;
+                }
+            }
+        }
+        return common;
+    }
+
+    /**
+     * Puts the scan's cells into the scratch arrays in fingerprint order:
+     * the registered cell (or the strongest) first, then up to
+     * MAX_NEIGHBOURS others, strongest first; false if there are none.
+     */
+    private boolean prepare(List<CellData> cells) {
+        int n = 0;
+        int registered = NONE;
+        for (int c = 0; c < cells.size(); c++) {
+            CellData cell = cells.get(c);
+            long key = cell.getIdentityKey();
+            int dbm = CellLocator.dbm(cell);
+            if (registered == NONE && cell.getIsRegistered() != 0) {
+                registered = c;
+                // the serving cell goes in front whatever its strength
+                dbm = Integer.MAX_VALUE;
+            }
+            if (n == CELLS && dbm <= this.scanDbm[n - 1]) {
+                continue;
+            }
+            int i = n < CELLS ? n++ : n - 1;
+            while (i > 0 && this.scanDbm[i - 1] < dbm) {
+                this.scanKeys[i] = this.scanKeys[i - 1];
+                this.scanDbm[i] = this.scanDbm[i - 1];
+                i--;
+            }
+            this.scanKeys[i] = key;
+            this.scanDbm[i] = dbm;
+        }
+        if (registered != NONE) {
+            this.scanDbm[0] = CellLocator.dbm(cells.get(registered));
+        }
+        this.scanCount = n;
+        return n > 0;
+    }
+
+    /**
+     * Stores the scratch cells at the position, replacing the fingerprint of
+     * the same serving cell and grid square if there is one.
+     */
+    private void put(int latitudeE6, int longitudeE6, float accuracy) {
+        long servingKey = this.scanKeys[0];
+        long square = square(servingKey, latitudeE6, longitudeE6);
+        int slot = this.squares.get(square, NONE);
+        if (slot != NONE && this.serving[slot] == servingKey
+                && square(servingKey, this.latitudeE6[slot], this.longitudeE6[slot]) == square) {
+            touch(slot);
+            unfile(slot);
+            this.replaced++;
+        } else {
+            if (slot != NONE) {
+                // two squares hashed alike; the older fingerprint goes
+                remove(slot);
+            }
+            slot = allocate();
+            this.serving[slot] = servingKey;
+            this.squares.put(square, slot, NONE);
+            int head = this.chains.put(servingKey, slot, NONE);
+            this.chainPrev[slot] = NONE;
+            this.chainNext[slot] = head;
+            if (head != NONE) {
+                this.chainPrev[head] = slot;
+            }
+        }
+        this.latitudeE6[slot] = latitudeE6;
+        this.longitudeE6[slot] = longitudeE6;
+        this.accuracy[slot] = accuracy;
+        long bits = 0;
+        int base = slot * CELLS;
+        for (int i = 0; i < this.scanCount; i++) {
+            this.cellKeys[base + i] = this.scanKeys[i];
+            this.cellDbm[base + i] = quantize(this.scanDbm[i]);
+            bits |= bit(this.scanKeys[i]);
+        }
+        this.cellCount[slot] = (byte) this.scanCount;
+        this.signature[slot] = bits;
+        file(slot);
+        this.changes++;
+    }
+
+    private int allocate() {
+        if (this.used == this.capacity) {
+            remove(this.oldest);
+            this.evictions++;
+        }
+        int slot = this.used++;
+        linkNewest(slot);
+        return slot;
+    }
+
+    /**
+     * Unindexes the fingerprint in slot and moves the last one into it, so
+     * the used slots stay contiguous.
+     */
+    private void remove(int slot) {
+        unfile(slot);
+        unlinkChain(slot);
+        this.squares.remove(square(this.serving[slot], this.latitudeE6[slot], this.longitudeE6[slot]), NONE);
+        unlink(slot);
+        int last = --this.used;
+        if (slot == last) {
+            return;
+        }
+        unfile(last);
+        unlinkChain(last);
+        unlink(last);
+        this.serving[slot] = this.serving[last];
+        this.latitudeE6[slot] = this.latitudeE6[last];
+        this.longitudeE6[slot] = this.longitudeE6[last];
+        this.accuracy[slot] = this.accuracy[last];
+        this.signature[slot] = this.signature[last];
+        this.cellCount[slot] = this.cellCount[last];
+        System.arraycopy(this.cellKeys, last * CELLS, this.cellKeys, slot * CELLS, CELLS);
+        System.arraycopy(this.cellDbm, last * CELLS, this.cellDbm, slot * CELLS, CELLS);
+        this.squares.put(square(this.serving[slot], this.latitudeE6[slot], this.longitudeE6[slot]), slot, NONE);
+        int head = this.chains.put(this.serving[slot], slot, NONE);
+        this.chainPrev[slot] = NONE;
+        this.chainNext[slot] = head;
+        if (head != NONE) {
+            this.chainPrev[head] = slot;
+        }
+        file(slot);
+        // keeps its recency
+        linkAfter(slot, this.newer[last]);
+    }
+
+    private void file(int slot) {
+        if (this.lsh != null) {
+            this.lsh.add(slot, this.storedKeys, this.storedDbm, 0, stored(slot));
+        }
+    }
+
+    private void unfile(int slot) {
+        if (this.lsh != null) {
+            this.lsh.remove(slot, this.storedKeys, this.storedDbm, 0, stored(slot));
+        }
+    }
+
+    /**
+     * Copies the fingerprint's cells into the stored scratch arrays and
+     * returns their count.
+     */
+    private int stored(int slot) {
+        int count = this.cellCount[slot];
+        for (int j = 0; j < count; j++) {
+            this.storedKeys[j] = this.cellKeys[slot * CELLS + j];
+            this.storedDbm[j] = dequantize(this.cellDbm[slot * CELLS + j]);
+        }
+        return count;
+    }
+
+    private void unlinkChain(int slot) {
+        int prev = this.chainPrev[slot];
+        int next = this.chainNext[slot];
+        if (prev == NONE) {
+            if (next == NONE) {
+                this.chains.remove(this.serving[slot], NONE);
+            } else {
+                this.chains.put(this.serving[slot], next, NONE);
+            }
+        } else {
+            this.chainNext[prev] = next;
+        }
+        if (next != NONE) {
+            this.chainPrev[next] = prev;
+        }
+    }
+
+    private void touch(int slot) {
+        if (slot != this.newest) {
+            unlink(slot);
+            linkNewest(slot);
+        }
+    }
+
+    private void unlink(int slot) {
+        int n = this.newer[slot];
+        int o = this.older[slot];
+        if (n == NONE) {
+            this.newest = o;
+        } else {
+            this.older[n] = o;
+        }
+        if (o == NONE) {
+            this.oldest = n;
+        } else {
+            this.newer[o] = n;
+        }
+    }
+
+    private void linkNewest(int slot) {
+        linkAfter(slot, NONE);
+    }
+
+    /**
+     * Links slot in just older than newerSlot; NONE makes it the newest.
+     */
+    private void linkAfter(int slot, int newerSlot) {
+        int olderSlot = newerSlot == NONE ? this.newest : this.older[newerSlot];
+        this.newer[slot] = newerSlot;
+        this.older[slot] = olderSlot;
+        if (newerSlot == NONE) {
+            this.newest = slot;
+        } else {
+            this.older[newerSlot] = slot;
+        }
+        if (olderSlot == NONE) {
+            this.oldest = slot;
+        } else {
+            this.newer[olderSlot] = slot;
+        }
+    }
+
+    /**
+     * Serving cell and grid square hashed into one key; squares are
+     * GRID_METRES on a side, the east-west size taken at their latitude.
+     */
+    static long square(long servingKey, int latitudeE6, int longitudeE6) {
+        double degrees = GRID_METRES / CellLocator.METRES_PER_DEGREE;
+        long row = (long) Math.floor(latitudeE6 / 1e6 / degrees);
+        double columnDegrees = degrees / Math.max(0.01, Math.cos(Math.toRadians((row + 0.5) * degrees)));
+        long column = (long) Math.floor(longitudeE6 / 1e6 / columnDegrees);
+        return CellKey.mix(servingKey * 0x9E3779B97F4A7C15L + row * 0xC2B2AE3D27D4EB4FL + column);
+    }
+
+    private static long bit(long key) {
+        return 1L << (CellKey.hash(key) >>> 26);
+    }
+
+    static byte quantize(int dbm) {
+        return (byte) Math.max(0, Math.min(127, Math.round((dbm - MIN_DBM) / (float) DBM_STEP)));
+    }
+
+    static int dequantize(byte q) {
+        return MIN_DBM + q * DBM_STEP;
+    }
+
+    public synchronized int size() {
+        return this.used;
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * True if fingerprints were added or replaced since the last
+     * {@link #save(File)} or {@link #load(File)}.
+     */
+    public synchronized boolean hasUnsavedChanges() {
+        return this.changes != this.savedChanges;
+    }
+
+    /**
+     * Writes every fingerprint, oldest first, atomically: to a temporary
+     * file that is synced and then renamed over target. The store is only
+     * locked while it is copied to memory.
+     *
+     * Layout: 'F', 'P', version, count, then per fingerprint latitude and
+     * longitude E6, accuracy, the cell count and the cells (serving first)
+     * as key and quantized dBm.
+     */
+    public void save(File target) throws IOException {
+        ByteArrayOutputStream bytes;
+        long saved;
+        synchronized (this) {
+            bytes = new ByteArrayOutputStream(16 + this.used * 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(new byte[]{MAGIC_0, MAGIC_1, VERSION});
+            out.writeInt(this.used);
+            for (int slot = this.oldest; slot != NONE; slot = this.newer[slot]) {
+                out.writeInt(this.latitudeE6[slot]);
+                out.writeInt(this.longitudeE6[slot]);
+                out.writeFloat(this.accuracy[slot]);
+                int count = this.cellCount[slot];
+                out.writeByte(count);
+                for (int j = 0; j < count; j++) {
+                    out.writeLong(this.cellKeys[slot * CELLS + j]);
+                    out.writeByte(this.cellDbm[slot * CELLS + j]);
+                }
+            }
+            saved = this.changes;
+        }
+        File tmp = new File(target.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            bytes.writeTo(out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(target)) {
+            throw new IOException("Cannot replace " + target);
+        }
+        synchronized (this) {
+            this.savedChanges = saved;
+        }
+    }
+
+    /**
+     * Adds the fingerprints of a file written by {@link #save(File)} as if
+     * they had just been scanned, oldest first; returns how many were read,
+     * 0 if there is no file. Past capacity the oldest of them are dropped.
+     */
+    public synchronized int load(File source) throws IOException {
+        if (!source.exists()) {
+            return 0;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)));
+        try {
+            byte[] header = new byte[3];
+            in.readFully(header);
+            if (header[0] != MAGIC_0 || header[1] != MAGIC_1) {
+                throw new IOException("Not a fingerprint store: " + source);
+            }
+            if (header[2] != VERSION) {
+                throw new IOException("Unsupported fingerprint store version " + header[2]);
+            }
+            int count = in.readInt();
+            for (int f = 0; f < count; f++) {
+                int latitude = in.readInt();
+                int longitude = in.readInt();
+                float fixAccuracy = in.readFloat();
+                int cells = in.readUnsignedByte();
+                if (cells < 1 || cells > CELLS) {
+                    throw new IOException("Bad fingerprint with " + cells + " cells in " + source);
+                }
+                for (int j = 0; j < cells; j++) {
+                    this.scanKeys[j] = in.readLong();
+                    this.scanDbm[j] = dequantize(in.readByte());
+                }
+                this.scanCount = cells;
+                put(latitude, longitude, fixAccuracy);
+            }
+            this.savedChanges = this.changes;
+            return count;
+        } catch (EOFException e) {
+            throw new IOException("Truncated fingerprint store " + source, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.used + "/" + this.capacity + " fingerprints, " + this.chains.size() + " serving cells, "
+                + this.replaced + " replaced, " + this.evictions + " evicted; scans " + this.matched + " matched, "
+                + this.unmatched + " unmatched" + (this.lsh == null ? "" : "; LSH " + this.lsh);
+    }
+}
@@ -0,0 +1,151 @@
+package com.commonsware.android.job.CellSites.locate;
+
+import com.commonsware.android.job.CellSites.ScanRecord;
+import com.commonsware.android.job.CellSites.celldb.CellSite;
+
+/**
+ * The most recent GPS fixes, in time order on the elapsed-realtime clock,
+ * for labelling radio scans with where the phone actually was.
+ *
+ * A scan taken at time t is joined to the fixes around it: if there is
+ * one at most tolerance before t and one at most tolerance after, the
+ * position is interpolated between them; otherwise the nearer of the two
+ * is used if it is within tolerance; otherwise the scan stays unlabelled.
+ * A fix minutes old, which getLastKnownLocation() hands out without
+ * complaint, never labels a scan.
+ *
+ * Fixes live in a ring of primitive arrays; once full, the oldest is
+ * overwritten. Fixes must arrive in time order, a fix not newer than the
+ * last one (the same fix from a second listener) is ignored. Thread-safe.
+ */
+public class GroundTruthBuffer {
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final long DEFAULT_TOLERANCE_NANOS = 10000000000L;
+
+    private final long[] times;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    // NaN when the fix does not carry the value
+    private final float[] accuracies;
+    private final float[] speeds;
+    private final float[] bearings;
+    // index of the oldest fix, and the number of fixes held
+    private int first;
+    private int size;
+    private long added;
+    private long interpolated;
+    private long nearest;
+    private long missed;
+
+    public GroundTruthBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public GroundTruthBuffer(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Bad capacity: " + capacity);
+        }
+        this.times = new long[capacity];
+        this.latitudes = new double[capacity];
+        this.longitudes = new double[capacity];
+        this.accuracies = new float[capacity];
+        this.speeds = new float[capacity];
+        this.bearings = new float[capacity];
+    }
+
+    /**
+     * Adds a fix taken at elapsedNanos; false (and ignored) if it is not
+     * newer than the newest fix held.
+     */
+    public synchronized boolean add(long elapsedNanos, double latitude, double longitude, float accuracy, float speed,
+                                    float bearing) {
+        if (this.size > 0 && elapsedNanos <= this.times[index(this.size - 1)]) {
+            return false;
+        }
+        int i;
+        if (this.size < this.times.length) {
+            i = index(this.size++);
+        } else {
+            i = this.first;
+            this.first = index(1);
+        }
+        this.times[i] = elapsedNanos;
+        this.latitudes[i] = latitude;
+        this.longitudes[i] = longitude;
+        this.accuracies[i] = accuracy;
+        this.speeds[i] = speed;
+        this.bearings[i] = bearing;
+        this.added++;
+        return true;
+    }
+
+    /**
+     * Sets the record's location from the fixes around elapsedNanos, as
+     * described above; false (record untouched) if none is close enough.
+     * The location age is the distance in time to the fix used, 0 when
+     * interpolated.
+     */
+    public synchronized boolean join(long elapsedNanos, long toleranceNanos, ScanRecord record) {
+        // first fix at or after the scan
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.times[index(mid)] < elapsedNanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int before = low > 0 ? index(low - 1) : -1;
+        int after = low < this.size ? index(low) : -1;
+        long beforeGap = before < 0 ? Long.MAX_VALUE : elapsedNanos - this.times[before];
+        long afterGap = after < 0 ? Long.MAX_VALUE : this.times[after] - elapsedNanos;
+
+        if (beforeGap <= toleranceNanos && afterGap <= toleranceNanos && afterGap > 0) {
+            double f = (double) beforeGap / (beforeGap + afterGap);
+            // the short way across the antimeridian
+            double dLongitude = CellSite.wrapLongitude(this.longitudes[after] - this.longitudes[before]);
+            double longitude = CellSite.wrapLongitude(this.longitudes[before] + f * dLongitude);
+            int nearer = f <= 0.5 ? before : after;
+            record.setLocation(this.latitudes[before] + f * (this.latitudes[after] - this.latitudes[before]), longitude,
+                    0, Math.max(this.accuracies[before], this.accuracies[after]),
+                    (float) (this.speeds[before] + f * (this.speeds[after] - this.speeds[before])),
+                    this.bearings[nearer]);
+            this.interpolated++;
+            return true;
+        }
+        int nearer = beforeGap <= afterGap ? before : after;
+        long gap = Math.min(beforeGap, afterGap);
+        if (nearer < 0 || gap > toleranceNanos) {
+            this.missed++;
+            return false;
+        }
+        record.setLocation(this.latitudes[nearer], this.longitudes[nearer], Math.round(gap / 1e9),
+                this.accuracies[nearer], this.speeds[nearer], this.bearings[nearer]);
+        this.nearest++;
+        return true;
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Elapsed-realtime nanos of the newest fix; 0 if there is none.
+     */
+    public synchronized long getNewestNanos() {
+        return this.size == 0 ? 0 : this.times[index(this.size - 1)];
+    }
+
+    private int index(int offset) {
+        int i = this.first + offset;
+        return i >= this.times.length ? i - this.times.length : i;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.added + " fixes (" + this.size + " held), scans " + this.interpolated + " interpolated, "
+                + this.nearest + " nearest, " + this.missed + " unlabelled";
+    }
+}
@@ -0,0 +1,139 @@
+package com.commonsware.android.job.CellSites.locate;
+
+import java.util.Arrays;
+
+/**
+ * Weighted least-squares position from range rings, solved by
+ * Gauss-Newton in a local plane (metres east and north of some origin).
+ *
+ * Minimises sum(((|p - tower| - range) / sigma)^2) plus a prior term
+ * |p - prior|^2 / priorSigma^2, which keeps the problem well-posed with
+ * fewer than three rings: with a single timing-advance ring the answer is
+ * the point of the ring nearest the prior. The normal equations are 2x2,
+ * so every iteration is a handful of multiply-adds on fields and nothing
+ * is allocated once the ring arrays have grown to the ring count.
+ */
+public final class Multilateration {
+    static final int MAX_ITERATIONS = 10;
+    static final double CONVERGED_METRES = 0.1;
+
+    private double[] ringX = new double[8];
+    private double[] ringY = new double[8];
+    private double[] ringRange = new double[8];
+    private double[] ringWeight = new double[8];
+    private int rings;
+    private double x;
+    private double y;
+    private double accuracy;
+    private int iterations;
+
+    public void reset() {
+        this.rings = 0;
+    }
+
+    public int ringCount() {
+        return this.rings;
+    }
+
+    /**
+     * Adds a tower at (x, y) that the device is range metres from, give or
+     * take sigma.
+     */
+    public void addRing(double x, double y, double range, double sigma) {
+        if (this.rings == this.ringX.length) {
+            int size = this.rings * 2;
+            this.ringX = Arrays.copyOf(this.ringX, size);
+            this.ringY = Arrays.copyOf(this.ringY, size);
+            this.ringRange = Arrays.copyOf(this.ringRange, size);
+            this.ringWeight = Arrays.copyOf(this.ringWeight, size);
+        }
+        this.ringX[this.rings] = x;
+        this.ringY[this.rings] = y;
+        this.ringRange[this.rings] = range;
+        this.ringWeight[this.rings] = 1 / (sigma * sigma);
+        this.rings++;
+    }
+
+    /**
+     * Solves starting from the prior; false if the normal equations were
+     * singular (the result is then the prior).
+     */
+    public boolean solve(double priorX, double priorY, double priorSigma) {
+        double priorWeight = 1 / (priorSigma * priorSigma);
+        double px = priorX;
+        double py = priorY;
+        double a = 0;
+        double b = 0;
+        double c = 0;
+        boolean ok = true;
+        this.iterations = 0;
+        while (this.iterations < MAX_ITERATIONS) {
+            this.iterations++;
+            // J^T W J = [a b; b c], J^T W r = (gx, gy); the prior's Jacobian is I
+            a = priorWeight;
+            b = 0;
+            c = priorWeight;
+            double gx = priorWeight * (px - priorX);
+            double gy = priorWeight * (py - priorY);
+            for (int i = 0; i < this.rings; i++) {
+                double dx = px - this.ringX[i];
+                double dy = py - this.ringY[i];
+                double d = Math.sqrt(dx * dx + dy * dy);
+                if (d < 1e-3) {
+                    // on top of the tower the direction is undefined; nudge
+                    dx = 1e-3;
+                    dy = 0;
+                    d = 1e-3;
+                }
+                double ux = dx / d;
+                double uy = dy / d;
+                double w = this.ringWeight[i];
+                double r = d - this.ringRange[i];
+                a += w * ux * ux;
+                b += w * ux * uy;
+                c += w * uy * uy;
+                gx += w * ux * r;
+                gy += w * uy * r;
+            }
+            double det = a * c - b * b;
+            if (!(det > 1e-18)) {
+                ok = false;
+                px = priorX;
+                py = priorY;
+                break;
+            }
+            double stepX = (c * gx - b * gy) / det;
+            double stepY = (a * gy - b * gx) / det;
+            px -= stepX;
+            py -= stepY;
+            if (stepX * stepX + stepY * stepY < CONVERGED_METRES * CONVERGED_METRES) {
+                break;
+            }
+        }
+        this.x = px;
+        this.y = py;
+        // 1-sigma radius from the covariance (J^T W J)^-1 at the solution
+        double det = a * c - b * b;
+        this.accuracy = ok ? Math.sqrt((a + c) / det) : priorSigma;
+        return ok;
+    }
+
+    public double getX() {
+        return this.x;
+    }
+
+    public double getY() {
+        return this.y;
+    }
+
+    /**
+     * Metres; the square root of the trace of the solution's covariance.
+     */
+    public double getAccuracy() {
+        return this.accuracy;
+    }
+
+    public int getIterations() {
+        return this.iterations;
+    }
+}
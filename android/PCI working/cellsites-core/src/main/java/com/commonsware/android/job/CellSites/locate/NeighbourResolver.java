@@ -0,0 +1,103 @@
+package com.commonsware.android.job.CellSites.locate;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.CellKey;
+import com.commonsware.android.job.CellSites.RadioType;
+import com.commonsware.android.job.CellSites.celldb.CellDatabase;
+import com.commonsware.android.job.CellSites.celldb.CellGeneration;
+import com.commonsware.android.job.CellSites.celldb.CellSite;
+import com.commonsware.android.job.CellSites.celldb.TileIndex;
+
+/**
+ * Resolves neighbours reported with only a PCI/PSC (cid -1) to the tower
+ * nearest the serving cell that uses that code, on the device and without
+ * the server's radius queries. Towers of the serving network win over
+ * closer ones of other networks, as in the server-side ResolveCell.
+ *
+ * Keeps a {@link TileIndex} for the base and the delta of the generation
+ * it was last asked about and rebuilds only the one that changed. Not
+ * thread-safe.
+ */
+public class NeighbourResolver {
+    // ~110 km tiles: the fewest tiles per 35 km query in TileIndexBenchmark
+    public static final int DEFAULT_ZOOM = 8;
+    // what the server-side decoder searches
+    public static final int DEFAULT_RADIUS_METRES = 35000;
+
+    private final int zoom;
+    private final int radiusMetres;
+    private TileIndex baseIndex;
+    private TileIndex deltaIndex;
+
+    public NeighbourResolver() {
+        this(DEFAULT_ZOOM, DEFAULT_RADIUS_METRES);
+    }
+
+    public NeighbourResolver(int zoom, int radiusMetres) {
+        if (zoom < TileIndex.MIN_ZOOM || zoom > TileIndex.MAX_ZOOM || radiusMetres <= 0) {
+            throw new IllegalArgumentException("Bad resolver settings: zoom=" + zoom + " radius=" + radiusMetres);
+        }
+        this.zoom = zoom;
+        this.radiusMetres = radiusMetres;
+    }
+
+    /**
+     * True for a cell that only the PCI/PSC identifies.
+     */
+    public static boolean isUnitOnly(CellData cell) {
+        return cell.getCid() == CellData.UNKNOWN_CID && cell.getPsc() >= 0 && cell.getPsc() <= CellKey.MAX_PSC;
+    }
+
+    /**
+     * Fills out with the tower for a PCI/PSC-only cell seen while the
+     * serving cell was at serving; false if no tower within the radius
+     * uses that code.
+     */
+    public boolean resolve(CellGeneration generation, CellData cell, CellSite serving, CellSite out) {
+        int radio = RadioType.fromName(cell.getCellRadio());
+        int mcc = CellKey.mcc(serving.key);
+        int mnc = CellKey.mnc(serving.key);
+        CellDatabase delta = generation.getDelta();
+        if (this.baseIndex == null || this.baseIndex.getDatabase() != generation.getBase()) {
+            this.baseIndex = TileIndex.build(generation.getBase(), this.zoom);
+        }
+        if (delta == null) {
+            this.deltaIndex = null;
+        } else if (this.deltaIndex == null || this.deltaIndex.getDatabase() != delta) {
+            this.deltaIndex = TileIndex.build(delta, this.zoom);
+        }
+
+        int fromBase = this.baseIndex.nearest(radio, cell.getPsc(), serving.latitude, serving.longitude,
+                this.radiusMetres, mcc, mnc, delta);
+        int fromDelta = this.deltaIndex == null ? -1 : this.deltaIndex.nearest(radio, cell.getPsc(),
+                serving.latitude, serving.longitude, this.radiusMetres, mcc, mnc, null);
+        if (fromDelta < 0) {
+            if (fromBase < 0) {
+                return false;
+            }
+            generation.getBase().read(fromBase, out);
+            return true;
+        }
+        delta.read(fromDelta, out);
+        if (fromBase < 0) {
+            return true;
+        }
+        // both have one; keep the delta's unless the base's is a better match
+        boolean deltaSameNetwork = CellKey.mcc(out.key) == mcc && CellKey.mnc(out.key) == mnc;
+        double deltaDistance = distanceSquared(out.latitude, out.longitude, serving);
+        CellDatabase base = generation.getBase();
+        long baseKey = base.keyAt(fromBase);
+        boolean baseSameNetwork = CellKey.mcc(baseKey) == mcc && CellKey.mnc(baseKey) == mnc;
+        double baseDistance = distanceSquared(base.latitudeAt(fromBase), base.longitudeAt(fromBase), serving);
+        if ((baseSameNetwork && !deltaSameNetwork) || (baseSameNetwork == deltaSameNetwork && baseDistance < deltaDistance)) {
+            base.read(fromBase, out);
+        }
+        return true;
+    }
+
+    private static double distanceSquared(double latitude, double longitude, CellSite from) {
+        double dy = latitude - from.latitude;
+        double dx = (longitude - from.longitude) * Math.cos(Math.toRadians(from.latitude));
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,350 @@
+package com.commonsware.android.job.CellSites.locate;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.celldb.CellGeneration;
+import com.commonsware.android.job.CellSites.celldb.CellSite;
+import com.commonsware.android.job.CellSites.celldb.CellStore;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fuses successive scans into one smooth track with a particle filter,
+ * instead of decoding every scan from scratch.
+ *
+ * Particles are (x, y, vx, vy) in metres east/north of the first fix, in
+ * parallel primitive arrays. Each update:
+ * <ul>
+ * <li>predicts with a constant-velocity model driven by random
+ * acceleration, for the time since the previous scan;</li>
+ * <li>weighs every particle by how well its distance to each resolved
+ * tower matches the distance the signal implies (log-distance path loss,
+ * Gaussian with a spread proportional to that distance), or the timing
+ * advance ring when the cell reports one;</li>
+ * <li>resamples systematically into a second set of arrays, swapped with
+ * the first, once the effective sample size falls below half.</li>
+ * </ul>
+ * The filter is seeded, and reseeded after a long gap or when every
+ * particle has become implausible, around the {@link CellLocator} fix.
+ * Nothing is allocated per update once the tower arrays have grown to the
+ * scan size. Not thread-safe.
+ */
+public class ParticleTracker {
+    // ~0.1 ms per update on a desktop JVM (ParticleTrackerBenchmark), a few ms on a low-end phone
+    public static final int DEFAULT_PARTICLES = 1000;
+    // white-noise acceleration spectral density, m^2/s^3
+    static final double ACCELERATION_DENSITY = 1.0;
+    static final double MAX_SPEED = 50;
+    static final long MAX_GAP_MILLIS = 120000;
+    // log-distance path loss: REFERENCE_DBM at REFERENCE_METRES, exponent PATH_LOSS_EXPONENT
+    static final double REFERENCE_DBM = -70;
+    static final double REFERENCE_METRES = 200;
+    static final double PATH_LOSS_EXPONENT = 3.5;
+    static final double MIN_SIGMA = 100;
+
+    private final CellStore store;
+    private final CellLocator locator;
+    private final int size;
+    private final CellSite site = new CellSite();
+    private final RadioFix seed = new RadioFix();
+    private double[] x;
+    private double[] y;
+    private double[] vx;
+    private double[] vy;
+    private double[] spareX;
+    private double[] spareY;
+    private double[] spareVx;
+    private double[] spareVy;
+    private final double[] weight;
+    // per resolved tower of the current scan, in the track's plane
+    private double[] towerX = new double[16];
+    private double[] towerY = new double[16];
+    private double[] towerDistance = new double[16];
+    private double[] towerInverseVariance = new double[16];
+    private int towers;
+    private boolean initialized;
+    private double originLatitude;
+    private double originLongitude;
+    private double metresPerLongitude;
+    private long lastTime;
+    private long random;
+    private double spareGaussian = Double.NaN;
+
+    public ParticleTracker(CellStore store, CellLocator locator, int particles, long seed) {
+        if (particles < 1) {
+            throw new IllegalArgumentException("Bad particle count: " + particles);
+        }
+        this.store = store;
+        this.locator = locator;
+        this.size = particles;
+        this.x = new double[particles];
+        this.y = new double[particles];
+        this.vx = new double[particles];
+        this.vy = new double[particles];
+        this.spareX = new double[particles];
+        this.spareY = new double[particles];
+        this.spareVx = new double[particles];
+        this.spareVy = new double[particles];
+        this.weight = new double[particles];
+        this.random = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+    }
+
+    public void reset() {
+        this.initialized = false;
+    }
+
+    /**
+     * Advances the track to a scan taken at timeMillis and fills out with
+     * the particles' mean and spread; false (out untouched) if none of the
+     * scan's towers is in the store.
+     */
+    public boolean update(List<CellData> cells, long timeMillis, RadioFix out) {
+        CellGeneration generation = this.store.current();
+        if (generation == null) {
+            return false;
+        }
+        long gap = timeMillis - this.lastTime;
+        if (!this.initialized || gap < 0 || gap > MAX_GAP_MILLIS) {
+            if (!this.locator.locate(cells, this.seed)) {
+                return false;
+            }
+            seed(this.seed);
+            gap = 0;
+        }
+        this.lastTime = timeMillis;
+        predict(gap / 1000.0);
+        if (resolve(generation, cells) == 0) {
+            return false;
+        }
+        if (!weigh()) {
+            // every particle is implausible: the track is lost
+            if (!this.locator.locate(cells, this.seed)) {
+                return false;
+            }
+            seed(this.seed);
+            resolve(generation, cells);
+            if (!weigh()) {
+                Arrays.fill(this.weight, 1.0 / this.size);
+            }
+        }
+        estimate(out);
+        resampleIfDegenerate();
+        return true;
+    }
+
+    private void seed(RadioFix fix) {
+        this.originLatitude = fix.latitude;
+        this.originLongitude = fix.longitude;
+        this.metresPerLongitude = CellLocator.METRES_PER_DEGREE * Math.cos(Math.toRadians(fix.latitude));
+        double w = 1.0 / this.size;
+        for (int i = 0; i < this.size; i++) {
+            this.x[i] = gaussian() * fix.accuracy;
+            this.y[i] = gaussian() * fix.accuracy;
+            this.vx[i] = 0;
+            this.vy[i] = 0;
+            this.weight[i] = w;
+        }
+        this.initialized = true;
+    }
+
+    private void predict(double dt) {
+        if (dt <= 0) {
+            return;
+        }
+        // continuous white-noise acceleration: var(v) = q dt, var(p) = q dt^3 / 3
+        double velocityNoise = Math.sqrt(ACCELERATION_DENSITY * dt);
+        double positionNoise = Math.sqrt(ACCELERATION_DENSITY * dt * dt * dt / 3);
+        for (int i = 0; i < this.size; i++) {
+            double ax = gaussian();
+            double ay = gaussian();
+            this.x[i] += this.vx[i] * dt + ax * positionNoise;
+            this.y[i] += this.vy[i] * dt + ay * positionNoise;
+            double nvx = this.vx[i] + ax * velocityNoise;
+            double nvy = this.vy[i] + ay * velocityNoise;
+            double speed = Math.sqrt(nvx * nvx + nvy * nvy);
+            if (speed > MAX_SPEED) {
+                nvx *= MAX_SPEED / speed;
+                nvy *= MAX_SPEED / speed;
+            }
+            this.vx[i] = nvx;
+            this.vy[i] = nvy;
+        }
+    }
+
+    /**
+     * Looks the scan's towers up and turns each into an expected distance
+     * with its uncertainty; returns how many were found.
+     */
+    private int resolve(CellGeneration generation, List<CellData> cells) {
+        this.towers = 0;
+        for (int i = 0; i < cells.size(); i++) {
+            CellData cell = cells.get(i);
+            if (!generation.find(cell.getIdentityKey(), this.site)) {
+                continue;
+            }
+            int n = this.towers;
+            if (n == this.towerX.length) {
+                grow();
+            }
+            double range = Math.max(CellLocator.MIN_RANGE, Math.min(CellLocator.MAX_RANGE, this.site.range));
+            double distance;
+            double sigma;
+            int ta = cell.getTimingAdvance();
+            if (CellData.CELL_RADIO_LTE.equals(cell.getCellRadio()) && ta >= 0 && ta <= CellLocator.MAX_TA) {
+                distance = (ta + 0.5) * CellLocator.TA_STEP_METRES;
+                sigma = Math.sqrt(CellLocator.TA_STEP_METRES * CellLocator.TA_STEP_METRES / 4 + range * range / 100);
+            } else {
+                distance = REFERENCE_METRES * Math.pow(10, (REFERENCE_DBM - this.locator.signalDbm(cell)) / (10 * PATH_LOSS_EXPONENT));
+                distance = Math.min(distance, 2 * range);
+                sigma = Math.max(MIN_SIGMA, distance / 2);
+            }
+            this.towerX[n] = CellSite.wrapLongitude(this.site.longitude - this.originLongitude) * this.metresPerLongitude;
+            this.towerY[n] = (this.site.latitude - this.originLatitude) * CellLocator.METRES_PER_DEGREE;
+            this.towerDistance[n] = distance;
+            this.towerInverseVariance[n] = 1 / (2 * sigma * sigma);
+            this.towers = n + 1;
+        }
+        return this.towers;
+    }
+
+    /**
+     * Multiplies the weights by the scan's likelihood and normalises them;
+     * false if they all underflowed.
+     */
+    private boolean weigh() {
+        double maxLog = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < this.size; i++) {
+            double px = this.x[i];
+            double py = this.y[i];
+            double log = 0;
+            for (int t = 0; t < this.towers; t++) {
+                double dx = px - this.towerX[t];
+                double dy = py - this.towerY[t];
+                double r = Math.sqrt(dx * dx + dy * dy) - this.towerDistance[t];
+                log -= r * r * this.towerInverseVariance[t];
+            }
+            // weights are kept as logs until the maximum is known
+            log += Math.log(this.weight[i]);
+            this.weight[i] = log;
+            if (log > maxLog) {
+                maxLog = log;
+            }
+        }
+        if (maxLog == Double.NEGATIVE_INFINITY || maxLog < -700) {
+            return false;
+        }
+        double total = 0;
+        for (int i = 0; i < this.size; i++) {
+            double w = Math.exp(this.weight[i] - maxLog);
+            this.weight[i] = w;
+            total += w;
+        }
+        for (int i = 0; i < this.size; i++) {
+            this.weight[i] /= total;
+        }
+        return true;
+    }
+
+    private void estimate(RadioFix out) {
+        double mx = 0;
+        double my = 0;
+        for (int i = 0; i < this.size; i++) {
+            mx += this.weight[i] * this.x[i];
+            my += this.weight[i] * this.y[i];
+        }
+        double spread = 0;
+        for (int i = 0; i < this.size; i++) {
+            double dx = this.x[i] - mx;
+            double dy = this.y[i] - my;
+            spread += this.weight[i] * (dx * dx + dy * dy);
+        }
+        out.latitude = this.originLatitude + my / CellLocator.METRES_PER_DEGREE;
+        out.longitude = CellSite.wrapLongitude(this.originLongitude + mx / this.metresPerLongitude);
+        out.accuracy = (int) Math.max(CellLocator.TA_STEP_METRES / 2, Math.round(Math.sqrt(spread)));
+        out.cellCount = this.towers;
+        out.timingAdvanceCount = 0;
+    }
+
+    /**
+     * Systematic resampling once the effective sample size drops below
+     * half the particles.
+     */
+    private void resampleIfDegenerate() {
+        double sumSquares = 0;
+        for (int i = 0; i < this.size; i++) {
+            sumSquares += this.weight[i] * this.weight[i];
+        }
+        if (1 / sumSquares >= this.size / 2.0) {
+            return;
+        }
+        double step = 1.0 / this.size;
+        double u = uniform() * step;
+        double cumulative = this.weight[0];
+        int j = 0;
+        for (int i = 0; i < this.size; i++) {
+            while (u > cumulative && j < this.size - 1) {
+                cumulative += this.weight[++j];
+            }
+            this.spareX[i] = this.x[j];
+            this.spareY[i] = this.y[j];
+            this.spareVx[i] = this.vx[j];
+            this.spareVy[i] = this.vy[j];
+            u += step;
+        }
+        double[] swap = this.x;
+        this.x = this.spareX;
+        this.spareX = swap;
+        swap = this.y;
+        this.y = this.spareY;
+        this.spareY = swap;
+        swap = this.vx;
+        this.vx = this.spareVx;
+        this.spareVx = swap;
+        swap = this.vy;
+        this.vy = this.spareVy;
+        this.spareVy = swap;
+        Arrays.fill(this.weight, step);
+    }
+
+    /**
+     * xorshift64*, in [0, 1).
+     */
+    private double uniform() {
+        long r = this.random;
+        r ^= r >>> 12;
+        r ^= r << 25;
+        r ^= r >>> 27;
+        this.random = r;
+        return ((r * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Standard normal by the Marsaglia polar method, keeping the spare.
+     */
+    private double gaussian() {
+        if (!Double.isNaN(this.spareGaussian)) {
+            double g = this.spareGaussian;
+            this.spareGaussian = Double.NaN;
+            return g;
+        }
+        double u;
+        double v;
+        double s;
+        do {
+            u = 2 * uniform() - 1;
+            v = 2 * uniform() - 1;
+            s = u * u + v * v;
+        } while (s >= 1 || s == 0);
+        double m = Math.sqrt(-2 * Math.log(s) / s);
+        this.spareGaussian = v * m;
+        return u * m;
+    }
+
+    private void grow() {
+        int size = this.towerX.length * 2;
+        this.towerX = Arrays.copyOf(this.towerX, size);
+        this.towerY = Arrays.copyOf(this.towerY, size);
+        this.towerDistance = Arrays.copyOf(this.towerDistance, size);
+        this.towerInverseVariance = Arrays.copyOf(this.towerInverseVariance, size);
+    }
+}
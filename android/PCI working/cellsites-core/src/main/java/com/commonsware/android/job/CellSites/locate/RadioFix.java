@@ -0,0 +1,29 @@
+package com.commonsware.android.job.CellSites.locate;
+
+import java.util.Locale;
+
+/**
+ * A position computed from the radio alone. Mutable so the locator can fill
+ * a caller-owned instance on every scan.
+ */
+public class RadioFix {
+    public double latitude;
+    public double longitude;
+    /**
+     * Radius in metres that the device is likely within.
+     */
+    public int accuracy;
+    /**
+     * Towers that were found in the cell store and contributed.
+     */
+    public int cellCount;
+    /**
+     * Of those, the ones whose LTE timing advance placed the fix; 0 for a
+     * plain signal-weighted centroid.
+     */
+    public int timingAdvanceCount;
+
+    public String toString() {
+        return String.format(Locale.US, "%.6f,%.6f +/-%dm (%d cells, %d TA)", latitude, longitude, accuracy, cellCount, timingAdvanceCount);
+    }
+}
@@ -0,0 +1,200 @@
+package com.commonsware.android.job.CellSites.locate;
+
+import com.commonsware.android.job.CellSites.CellKey;
+import com.commonsware.android.job.CellSites.collections.LongIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Locality-sensitive hashing of sparse cell-to-dBm vectors, for finding the
+ * fingerprints likely to be near a scan without comparing them all.
+ *
+ * A vector becomes a set of tokens, one per cell and signal level it
+ * reaches: a cell at dBm d gives (cell, 0) .. (cell, (d - FLOOR_DBM) /
+ * levelDb), at least the first. Two vectors share a token for every level
+ * both cells reach, so the Jaccard similarity of the token sets is the
+ * weighted Jaccard sum(min) / sum(max) of the quantized levels: strong
+ * cells dominate, and a few dB of difference only costs a level or two.
+ *
+ * MinHash over the tokens, with bands x rows hash functions: each band's
+ * rows minima hash to a bucket, and a fingerprint is a candidate for a
+ * query if they share a bucket in any band. A pair of similarity s
+ * collides with probability 1 - (1 - s^rows)^bands. More rows make the
+ * buckets more selective (fewer, closer candidates, faster); more bands
+ * recover the recall that costs, at bands lookups per query and bands
+ * entries per fingerprint.
+ *
+ * Buckets are doubly linked lists of (fingerprint, band) entries threaded
+ * through two int arrays, off a bucket-to-head map; a fingerprint is
+ * removed by hashing its vector again. Nothing is allocated per add or
+ * query once the candidate buffer has grown. Not thread-safe; the
+ * {@link FingerprintStore} that owns it locks.
+ */
+public class SignalLsh {
+    public static final int DEFAULT_BANDS = 8;
+    public static final int DEFAULT_ROWS = 2;
+    public static final int DEFAULT_LEVEL_DB = 6;
+    static final int FLOOR_DBM = -125;
+    private static final int NONE = -1;
+
+    private final int capacity;
+    private final int bands;
+    private final int rows;
+    private final int levelDb;
+    private final long[] seeds;
+    // bucket key -> first entry; entry = id * bands + band
+    private final LongIntHashMap heads;
+    private final int[] next;
+    private final int[] prev;
+    // scratch
+    private final long[] minima;
+    private final long[] buckets;
+    private int[] candidates = new int[64];
+    private final int[] stamps;
+    private int stamp;
+    private int size;
+
+    public SignalLsh(int capacity) {
+        this(capacity, DEFAULT_BANDS, DEFAULT_ROWS, DEFAULT_LEVEL_DB);
+    }
+
+    public SignalLsh(int capacity, int bands, int rows, int levelDb) {
+        if (capacity < 1 || bands < 1 || rows < 1 || levelDb < 1) {
+            throw new IllegalArgumentException("Bad LSH: " + capacity + " vectors, " + bands + " bands of " + rows
+                    + " rows, " + levelDb + " dB levels");
+        }
+        this.capacity = capacity;
+        this.bands = bands;
+        this.rows = rows;
+        this.levelDb = levelDb;
+        this.seeds = new long[bands * rows];
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < this.seeds.length; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            this.seeds[i] = CellKey.mix(seed);
+        }
+        this.heads = new LongIntHashMap(capacity * 2);
+        this.next = new int[capacity * bands];
+        this.prev = new int[capacity * bands];
+        this.minima = new long[bands * rows];
+        this.buckets = new long[bands];
+        this.stamps = new int[capacity];
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Files vector id (0 to capacity - 1): the count cells in keys and dbm
+     * from offset.
+     */
+    public void add(int id, long[] keys, int[] dbm, int offset, int count) {
+        hash(keys, dbm, offset, count);
+        for (int band = 0; band < this.bands; band++) {
+            int entry = id * this.bands + band;
+            int head = this.heads.put(this.buckets[band], entry, NONE);
+            this.prev[entry] = NONE;
+            this.next[entry] = head;
+            if (head != NONE) {
+                this.prev[head] = entry;
+            }
+        }
+        this.size++;
+    }
+
+    /**
+     * Unfiles vector id, which must have been added with the same cells.
+     */
+    public void remove(int id, long[] keys, int[] dbm, int offset, int count) {
+        hash(keys, dbm, offset, count);
+        for (int band = 0; band < this.bands; band++) {
+            int entry = id * this.bands + band;
+            int p = this.prev[entry];
+            int n = this.next[entry];
+            if (p == NONE) {
+                if (n == NONE) {
+                    this.heads.remove(this.buckets[band], NONE);
+                } else {
+                    this.heads.put(this.buckets[band], n, NONE);
+                }
+            } else {
+                this.next[p] = n;
+            }
+            if (n != NONE) {
+                this.prev[n] = p;
+            }
+        }
+        this.size--;
+    }
+
+    /**
+     * Collects the ids sharing a bucket with the vector, each once, into
+     * {@link #getCandidates()}; returns how many.
+     */
+    public int query(long[] keys, int[] dbm, int offset, int count) {
+        hash(keys, dbm, offset, count);
+        if (++this.stamp == 0) {
+            Arrays.fill(this.stamps, 0);
+            this.stamp = 1;
+        }
+        int found = 0;
+        for (int band = 0; band < this.bands; band++) {
+            for (int entry = this.heads.get(this.buckets[band], NONE); entry != NONE; entry = this.next[entry]) {
+                int id = entry / this.bands;
+                if (this.stamps[id] != this.stamp) {
+                    this.stamps[id] = this.stamp;
+                    if (found == this.candidates.length) {
+                        this.candidates = Arrays.copyOf(this.candidates, found * 2);
+                    }
+                    this.candidates[found++] = id;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * The ids found by the last {@link #query}; valid until the next one.
+     */
+    public int[] getCandidates() {
+        return this.candidates;
+    }
+
+    /**
+     * Fills buckets with the band keys of the vector.
+     */
+    private void hash(long[] keys, int[] dbm, int offset, int count) {
+        Arrays.fill(this.minima, Long.MAX_VALUE);
+        for (int c = offset; c < offset + count; c++) {
+            long cell = keys[c] * 0x9E3779B97F4A7C15L;
+            int levels = 1 + Math.max(0, (dbm[c] - FLOOR_DBM) / this.levelDb);
+            for (int level = 0; level < levels; level++) {
+                long token = cell + level;
+                for (int i = 0; i < this.minima.length; i++) {
+                    long h = CellKey.mix(token ^ this.seeds[i]);
+                    if (h < this.minima[i]) {
+                        this.minima[i] = h;
+                    }
+                }
+            }
+        }
+        for (int band = 0; band < this.bands; band++) {
+            long h = band;
+            for (int row = 0; row < this.rows; row++) {
+                h = CellKey.mix(h * 31 + this.minima[band * this.rows + row]);
+            }
+            this.buckets[band] = h;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.size + " vectors, " + this.heads.size() + " buckets in " + this.bands + " bands of " + this.rows
+                + " rows, " + this.levelDb + " dB levels";
+    }
+}
@@ -0,0 +1,249 @@
+package com.commonsware.android.job.CellSites.locate;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.CellKey;
+import com.commonsware.android.job.CellSites.collections.LongIntHashMap;
+
+import java.util.List;
+
+/**
+ * What the device has seen of every tower lately, keyed by packed
+ * {@link CellKey}: sightings, first and last seen, an exponentially
+ * weighted mean and variance of its dBm, and the last LTE timing advance.
+ * The smoothed dBm takes the fast fading out of a single reading, for the
+ * locators and, optionally, for what the scan reports.
+ *
+ * The weight of a new reading grows with the time since the previous one,
+ * alpha = 1 - exp(-dt / timeConstant), but is at least MIN_ALPHA: readings
+ * seconds apart are averaged, a reading after a long gap mostly replaces
+ * the old mean. Variance follows the same weights.
+ *
+ * Towers live in a fixed number of slots, parallel primitive arrays plus a
+ * key-to-slot map; when all are taken the least recently seen tower is
+ * evicted. Nothing is allocated per reading. Thread-safe; every method
+ * locks the store.
+ */
+public class TowerStats {
+    public static final int DEFAULT_CAPACITY = 2048;
+    public static final long DEFAULT_TIME_CONSTANT_MS = 30000;
+    static final double MIN_ALPHA = 0.1;
+    private static final int NONE = -1;
+
+    private final int capacity;
+    private final double timeConstantMs;
+    private final LongIntHashMap slots;
+    private final long[] keys;
+    private final int[] counts;
+    private final long[] firstSeen;
+    private final long[] lastSeen;
+    // time of the last dBm reading, which not every sighting has
+    private final long[] lastSignal;
+    private final float[] mean;
+    private final float[] variance;
+    private final int[] lastTa;
+    // doubly linked recency list over the slots, most recent first
+    private final int[] newer;
+    private final int[] older;
+    private int newest = NONE;
+    private int oldest = NONE;
+    private int used;
+    private long evictions;
+
+    public TowerStats() {
+        this(DEFAULT_CAPACITY, DEFAULT_TIME_CONSTANT_MS);
+    }
+
+    public TowerStats(int capacity, long timeConstantMs) {
+        if (capacity < 1 || timeConstantMs < 1) {
+            throw new IllegalArgumentException("Bad tower stats: " + capacity + " towers, " + timeConstantMs + " ms");
+        }
+        this.capacity = capacity;
+        this.timeConstantMs = timeConstantMs;
+        this.slots = new LongIntHashMap(capacity);
+        this.keys = new long[capacity];
+        this.counts = new int[capacity];
+        this.firstSeen = new long[capacity];
+        this.lastSeen = new long[capacity];
+        this.lastSignal = new long[capacity];
+        this.mean = new float[capacity];
+        this.variance = new float[capacity];
+        this.lastTa = new int[capacity];
+        this.newer = new int[capacity];
+        this.older = new int[capacity];
+    }
+
+    /**
+     * Adds every cell of a scan taken at timeMillis (wall clock).
+     */
+    public synchronized void update(List<? extends CellData> cells, long timeMillis) {
+        for (int i = 0; i < cells.size(); i++) {
+            update(cells.get(i), timeMillis);
+        }
+    }
+
+    public synchronized void update(CellData cell, long timeMillis) {
+        long key = cell.getIdentityKey();
+        int slot = this.slots.get(key, NONE);
+        if (slot == NONE) {
+            slot = allocate(key, timeMillis);
+        } else {
+            touch(slot);
+        }
+        this.counts[slot]++;
+        this.lastSeen[slot] = timeMillis;
+        int ta = cell.getTimingAdvance();
+        if (ta >= 0 && ta <= CellLocator.MAX_TA) {
+            this.lastTa[slot] = ta;
+        }
+        int dbm = cell.getSignalStrength();
+        if (dbm <= -150 || dbm >= -20) {
+            return;
+        }
+        if (Float.isNaN(this.mean[slot])) {
+            this.mean[slot] = dbm;
+            this.variance[slot] = 0;
+        } else {
+            double dt = Math.max(0, timeMillis - this.lastSignal[slot]);
+            double alpha = Math.max(MIN_ALPHA, 1 - Math.exp(-dt / this.timeConstantMs));
+            double diff = dbm - this.mean[slot];
+            double step = alpha * diff;
+            this.mean[slot] += step;
+            this.variance[slot] = (float) ((1 - alpha) * (this.variance[slot] + diff * step));
+        }
+        this.lastSignal[slot] = timeMillis;
+    }
+
+    /**
+     * Replaces each cell's signalStrength with its tower's smoothed dBm,
+     * where there is one; call after {@link #update(List, long)}.
+     */
+    public synchronized void smooth(List<? extends CellData> cells) {
+        for (int i = 0; i < cells.size(); i++) {
+            CellData cell = cells.get(i);
+            int slot = this.slots.get(cell.getIdentityKey(), NONE);
+            if (slot != NONE && !Float.isNaN(this.mean[slot])) {
+                cell.setSignalStrength(Math.round(this.mean[slot]));
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return this.used;
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Towers dropped to make room for new ones.
+     */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    public synchronized int getCount(long key) {
+        int slot = this.slots.get(key, NONE);
+        return slot == NONE ? 0 : this.counts[slot];
+    }
+
+    /**
+     * Wall clock of the first sighting; 0 if the tower is not tracked.
+     */
+    public synchronized long getFirstSeen(long key) {
+        int slot = this.slots.get(key, NONE);
+        return slot == NONE ? 0 : this.firstSeen[slot];
+    }
+
+    public synchronized long getLastSeen(long key) {
+        int slot = this.slots.get(key, NONE);
+        return slot == NONE ? 0 : this.lastSeen[slot];
+    }
+
+    /**
+     * Smoothed dBm; NaN if the tower is not tracked or never had a signal
+     * reading.
+     */
+    public synchronized float getSmoothedDbm(long key) {
+        int slot = this.slots.get(key, NONE);
+        return slot == NONE ? Float.NaN : this.mean[slot];
+    }
+
+    /**
+     * Standard deviation of the dBm around the smoothed value; NaN as for
+     * {@link #getSmoothedDbm(long)}.
+     */
+    public synchronized float getDbmStdDev(long key) {
+        int slot = this.slots.get(key, NONE);
+        return slot == NONE ? Float.NaN : (float) Math.sqrt(this.variance[slot]);
+    }
+
+    /**
+     * Last LTE timing advance reported; -1 if none.
+     */
+    public synchronized int getLastTa(long key) {
+        int slot = this.slots.get(key, NONE);
+        return slot == NONE ? -1 : this.lastTa[slot];
+    }
+
+    private int allocate(long key, long timeMillis) {
+        int slot;
+        if (this.used < this.capacity) {
+            slot = this.used++;
+        } else {
+            slot = this.oldest;
+            unlink(slot);
+            this.slots.remove(this.keys[slot], NONE);
+            this.evictions++;
+        }
+        this.keys[slot] = key;
+        this.slots.put(key, slot, NONE);
+        this.counts[slot] = 0;
+        this.firstSeen[slot] = timeMillis;
+        this.lastSignal[slot] = timeMillis;
+        this.mean[slot] = Float.NaN;
+        this.variance[slot] = Float.NaN;
+        this.lastTa[slot] = -1;
+        linkNewest(slot);
+        return slot;
+    }
+
+    private void touch(int slot) {
+        if (slot != this.newest) {
+            unlink(slot);
+            linkNewest(slot);
+        }
+    }
+
+    private void unlink(int slot) {
+        int n = this.newer[slot];
+        int o = this.older[slot];
+        if (n == NONE) {
+            this.newest = o;
+        } else {
+            this.older[n] = o;
+        }
+        if (o == NONE) {
+            this.oldest = n;
+        } else {
+            this.newer[o] = n;
+        }
+    }
+
+    private void linkNewest(int slot) {
+        this.newer[slot] = NONE;
+        this.older[slot] = this.newest;
+        if (this.newest != NONE) {
+            this.newer[this.newest] = slot;
+        }
+        this.newest = slot;
+        if (this.oldest == NONE) {
+            this.oldest = slot;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.used + "/" + this.capacity + " towers, " + this.evictions + " evicted";
+    }
+}
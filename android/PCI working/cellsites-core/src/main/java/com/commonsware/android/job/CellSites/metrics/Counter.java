@@ -0,0 +1,36 @@
+package com.commonsware.android.job.CellSites.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing count, safe to bump from any thread.
+ */
+public final class Counter {
+    private final String name;
+    private final AtomicLong value = new AtomicLong();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void increment() {
+        this.value.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        this.value.addAndGet(delta);
+    }
+
+    public long get() {
+        return this.value.get();
+    }
+
+    @Override
+    public String toString() {
+        return this.name + " " + get();
+    }
+}
@@ -0,0 +1,39 @@
+package com.commonsware.android.job.CellSites.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latest value of something that goes up and down, such as a queue
+ * depth, and the highest value it was ever set to.
+ */
+public final class Gauge {
+    private final String name;
+    private final AtomicLong value = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Gauge(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void set(long value) {
+        this.value.set(value);
+        Histogram.raise(this.max, value);
+    }
+
+    public long get() {
+        return this.value.get();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    @Override
+    public String toString() {
+        return this.name + " " + get() + " (max " + getMax() + ")";
+    }
+}
@@ -0,0 +1,130 @@
+package com.commonsware.android.job.CellSites.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values (durations in microseconds, cells,
+ * bytes) over fixed log-linear buckets: values below 8 get a bucket each,
+ * above that every power of two is split into 8 equal buckets, so a
+ * percentile is off by at most 12.5% whatever the magnitude. The 488
+ * buckets cover the whole long range; recording is one atomic add per
+ * bucket, count and sum, and never allocates or locks.
+ *
+ * Percentiles are read while other threads record, so they are a close
+ * approximation rather than a consistent cut.
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Records value count times, e.g. a per-scan average for a batch of
+     * count scans. Negative values are recorded as 0.
+     */
+    public void record(long value, long count) {
+        if (count <= 0) {
+            return;
+        }
+        if (value < 0) {
+            value = 0;
+        }
+        this.buckets.addAndGet(bucket(value), count);
+        this.count.addAndGet(count);
+        this.sum.addAndGet(value * count);
+        raise(this.max, value);
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        long n = this.count.get();
+        return n == 0 ? 0 : (double) this.sum.get() / n;
+    }
+
+    /**
+     * The value at quantile q (0 to 1): the upper bound of the bucket it
+     * falls in, but never more than the largest value recorded; 0 if
+     * nothing was recorded.
+     */
+    public long getPercentile(double q) {
+        long n = this.count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long upperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+    }
+
+    static void raise(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d", this.name, getCount(), getMean(),
+                getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), getMax());
+    }
+}
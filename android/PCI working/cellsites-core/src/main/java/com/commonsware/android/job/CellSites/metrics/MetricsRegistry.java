@@ -0,0 +1,126 @@
+package com.commonsware.android.job.CellSites.metrics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The named counters, gauges and histograms of the scan path, shared by
+ * the scanner, the pipeline stages and the uploader.
+ *
+ * Metrics are created on first lookup; callers look them up once and keep
+ * the reference, so updating one never touches the registry. Reading
+ * (for the in-app view or the snapshot piggybacked on uploads) walks a
+ * copy-on-write array and does not block writers either.
+ *
+ * Upload metrics are kept per endpoint, as the name plus "@host".
+ */
+public final class MetricsRegistry {
+    // scanner: one telephony read and conversion, and the cells it found
+    public static final String SCAN_MICROS = "scan.us";
+    public static final String SCAN_CELLS = "scan.cells";
+    // encode stage or wake entry: time and encoded bytes per scan
+    public static final String ENCODE_MICROS = "encode.us";
+    public static final String ENCODE_BYTES = "encode.bytes";
+    // live pipeline: scans published but not through the last stage, and scans dropped on a full ring
+    public static final String PIPELINE_DEPTH = "pipeline.depth";
+    public static final String PIPELINE_DROPPED = "pipeline.dropped";
+    // scan scheduler: the interval it picked last, and why (a ScanScheduler REASON_ value)
+    public static final String SCHEDULE_INTERVAL_MILLIS = "schedule.interval.ms";
+    public static final String SCHEDULE_REASON = "schedule.reason";
+    // uploader, per endpoint
+    public static final String UPLOAD_MICROS = "upload.us";
+    public static final String UPLOAD_REQUESTS = "upload.requests";
+    public static final String UPLOAD_FAILURES = "upload.failures";
+    public static final String UPLOAD_RETRIES = "upload.retries";
+    public static final String UPLOAD_BYTES = "upload.bytes";
+
+    // compact snapshot format version
+    private static final String VERSION = "m1";
+
+    private final Map<String, Object> byName = new HashMap<String, Object>();
+    private volatile Object[] metrics = new Object[0];
+
+    public Counter counter(String name) {
+        return lookup(name, Counter.class);
+    }
+
+    public Gauge gauge(String name) {
+        return lookup(name, Gauge.class);
+    }
+
+    public Histogram histogram(String name) {
+        return lookup(name, Histogram.class);
+    }
+
+    /**
+     * name@host, the name of a metric kept per upload endpoint.
+     */
+    public static String forEndpoint(String name, String host) {
+        return name + "@" + host;
+    }
+
+    private synchronized <M> M lookup(String name, Class<M> type) {
+        Object metric = this.byName.get(name);
+        if (metric == null) {
+            if (type == Counter.class) {
+                metric = new Counter(name);
+            } else if (type == Gauge.class) {
+                metric = new Gauge(name);
+            } else {
+                metric = new Histogram(name);
+            }
+            this.byName.put(name, metric);
+            Object[] grown = Arrays.copyOf(this.metrics, this.metrics.length + 1);
+            grown[grown.length - 1] = metric;
+            this.metrics = grown;
+        } else if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is a " + metric.getClass().getSimpleName() + ", not a "
+                    + type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * Every metric in one line of printable ASCII, small enough for an
+     * HTTP header: "m1;name=value;..." in registration order, where a
+     * counter's value is its count, a gauge's "current/max" and a
+     * histogram's "count/p50/p90/p99/max". Values are totals since the
+     * process started; the collector diffs consecutive snapshots of a
+     * device for rates.
+     */
+    public String toCompactString() {
+        StringBuilder out = new StringBuilder(64 + this.metrics.length * 32);
+        out.append(VERSION);
+        for (Object metric : this.metrics) {
+            out.append(';');
+            if (metric instanceof Counter) {
+                Counter counter = (Counter) metric;
+                out.append(counter.getName()).append('=').append(counter.get());
+            } else if (metric instanceof Gauge) {
+                Gauge gauge = (Gauge) metric;
+                out.append(gauge.getName()).append('=').append(gauge.get()).append('/').append(gauge.getMax());
+            } else {
+                Histogram histogram = (Histogram) metric;
+                out.append(histogram.getName()).append('=').append(histogram.getCount())
+                        .append('/').append(histogram.getPercentile(0.5))
+                        .append('/').append(histogram.getPercentile(0.9))
+                        .append('/').append(histogram.getPercentile(0.99))
+                        .append('/').append(histogram.getMax());
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * One metric per line, for the in-app view.
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (Object metric : this.metrics) {
+            out.append(metric).append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,41 @@
+package com.commonsware.android.job.CellSites.pipeline;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.ScanRecord;
+import com.commonsware.android.job.CellSites.codec.BinaryWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One scan on its way through a {@link StagedPipeline}: the cells as the
+ * scanner returned them, the record the stages build from them, and its
+ * encoding. Slots are reused, so stages must not keep references to them.
+ */
+public final class ScanSlot {
+    public static final StagedPipeline.SlotFactory<ScanSlot> FACTORY = new StagedPipeline.SlotFactory<ScanSlot>() {
+        @Override
+        public ScanSlot create() {
+            return new ScanSlot();
+        }
+    };
+
+    // filled by the producer, with the scan metadata in record
+    public final List<CellData> scanned = new ArrayList<CellData>();
+    // elapsed-realtime nanos of the scan, for joining GPS fixes; 0 if unknown
+    public long elapsedNanos;
+    // cells filled by the normalize stage, radio fix by the locate stage
+    public final ScanRecord record = new ScanRecord();
+    // filled by the encode stage; empty if there was nothing to encode
+    public final BinaryWriter encoded = new BinaryWriter(1024);
+
+    /**
+     * Called by the producer before it fills a claimed slot.
+     */
+    public void clear() {
+        this.scanned.clear();
+        this.elapsedNanos = 0;
+        this.record.reset();
+        this.encoded.reset();
+    }
+}
@@ -0,0 +1,185 @@
+package com.commonsware.android.job.CellSites.pipeline;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.CellDeduper;
+import com.commonsware.android.job.CellSites.ScanRecord;
+import com.commonsware.android.job.CellSites.codec.ScanBatchEncoder;
+import com.commonsware.android.job.CellSites.journal.ScanJournal;
+import com.commonsware.android.job.CellSites.locate.CellLocator;
+import com.commonsware.android.job.CellSites.locate.FingerprintStore;
+import com.commonsware.android.job.CellSites.locate.GroundTruthBuffer;
+import com.commonsware.android.job.CellSites.locate.ParticleTracker;
+import com.commonsware.android.job.CellSites.locate.RadioFix;
+import com.commonsware.android.job.CellSites.locate.TowerStats;
+import com.commonsware.android.job.CellSites.metrics.Histogram;
+import com.commonsware.android.job.CellSites.metrics.MetricsRegistry;
+
+import java.util.List;
+
+/**
+ * The stages of the scan pipeline after the scanner itself: normalize,
+ * ground truth, tower stats, locate, fingerprints, encode, journal. Each
+ * keeps its scratch state (deduper, encoder, fix) for the life of its
+ * thread, so none allocates per scan beyond what its work produces.
+ */
+public final class ScanStages {
+    private ScanStages() {
+    }
+
+    /**
+     * Copies the scanned cells into the record, dropping those without a
+     * valid radio or without either a cell id or a PCI/PSC, and repeated
+     * identities (the first sighting stays).
+     */
+    public static StagedPipeline.Stage<ScanSlot> normalize() {
+        return new StagedPipeline.Stage<ScanSlot>() {
+            private final CellDeduper<CellData> deduper = new CellDeduper<CellData>();
+
+            @Override
+            public void process(ScanSlot slot) {
+                List<CellData> scanned = slot.scanned;
+                for (int i = 0; i < scanned.size(); i++) {
+                    CellData cell = scanned.get(i);
+                    if (cell.isCellRadioValid() && (cell.getCid() != CellData.UNKNOWN_CID || cell.getPsc() >= 0)) {
+                        this.deduper.add(cell);
+                    }
+                }
+                this.deduper.drainTo(slot.record.cells);
+            }
+        };
+    }
+
+    /**
+     * Labels the record with the GPS fixes around the slot's scan time, see
+     * {@link GroundTruthBuffer#join}; a scan without a time or without a
+     * fix close enough goes unlabelled.
+     */
+    public static StagedPipeline.Stage<ScanSlot> groundTruth(final GroundTruthBuffer fixes, final long toleranceNanos) {
+        return new StagedPipeline.Stage<ScanSlot>() {
+            @Override
+            public void process(ScanSlot slot) {
+                if (slot.elapsedNanos > 0 && !slot.record.cells.isEmpty()) {
+                    fixes.join(slot.elapsedNanos, toleranceNanos, slot.record);
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds the record's cells to the tower stats. With smooth, their
+     * signalStrength also becomes the tower's smoothed dBm, so that is
+     * what gets located, encoded and uploaded; without, only locators
+     * given the stats use it.
+     */
+    public static StagedPipeline.Stage<ScanSlot> towerStats(final TowerStats stats, final boolean smooth) {
+        return new StagedPipeline.Stage<ScanSlot>() {
+            @Override
+            public void process(ScanSlot slot) {
+                ScanRecord record = slot.record;
+                stats.update(record.cells, record.deviceTime);
+                if (smooth) {
+                    stats.smooth(record.cells);
+                }
+            }
+        };
+    }
+
+    /**
+     * Sets the record's radio fix from the tracker, or from the locator if
+     * the tracker has nothing; tracker may be null.
+     */
+    public static StagedPipeline.Stage<ScanSlot> locate(final CellLocator locator, final ParticleTracker tracker) {
+        return locate(locator, tracker, null);
+    }
+
+    /**
+     * As {@link #locate(CellLocator, ParticleTracker)}, but a match in the
+     * fingerprints (may be null) that claims a better accuracy than the
+     * tower fix replaces it.
+     */
+    public static StagedPipeline.Stage<ScanSlot> locate(final CellLocator locator, final ParticleTracker tracker,
+                                                        final FingerprintStore fingerprints) {
+        return new StagedPipeline.Stage<ScanSlot>() {
+            private final RadioFix fix = new RadioFix();
+            private final RadioFix matched = new RadioFix();
+
+            @Override
+            public void process(ScanSlot slot) {
+                ScanRecord record = slot.record;
+                if (record.cells.isEmpty()) {
+                    return;
+                }
+                if ((tracker != null && tracker.update(record.cells, record.deviceTime, this.fix))
+                        || locator.locate(record.cells, this.fix)) {
+                    record.setRadioFix(this.fix.latitude, this.fix.longitude, this.fix.accuracy);
+                }
+                if (fingerprints != null && fingerprints.locate(record.cells, this.matched)
+                        && (!record.hasRadioFix || this.matched.accuracy < record.radioAccuracy)) {
+                    record.setRadioFix(this.matched.latitude, this.matched.longitude, this.matched.accuracy);
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds the record to the fingerprints if it carries a good enough GPS
+     * label, see {@link FingerprintStore#add}. Runs after locate, so a scan
+     * is never located from its own fingerprint.
+     */
+    public static StagedPipeline.Stage<ScanSlot> fingerprints(final FingerprintStore fingerprints) {
+        return new StagedPipeline.Stage<ScanSlot>() {
+            @Override
+            public void process(ScanSlot slot) {
+                fingerprints.add(slot.record);
+            }
+        };
+    }
+
+    /**
+     * Encodes the record as a one-scan batch into the slot.
+     */
+    public static StagedPipeline.Stage<ScanSlot> encode() {
+        return encode(null);
+    }
+
+    /**
+     * As {@link #encode()}, also recording the encode time and size of
+     * every scan in metrics (may be null).
+     */
+    public static StagedPipeline.Stage<ScanSlot> encode(MetricsRegistry metrics) {
+        final Histogram micros = metrics == null ? null : metrics.histogram(MetricsRegistry.ENCODE_MICROS);
+        final Histogram bytes = metrics == null ? null : metrics.histogram(MetricsRegistry.ENCODE_BYTES);
+        return new StagedPipeline.Stage<ScanSlot>() {
+            private final ScanBatchEncoder encoder = new ScanBatchEncoder();
+
+            @Override
+            public void process(ScanSlot slot) {
+                if (slot.record.cells.isEmpty()) {
+                    return;
+                }
+                long start = System.nanoTime();
+                this.encoder.reset();
+                this.encoder.add(slot.record);
+                this.encoder.writeTo(slot.encoded);
+                if (micros != null) {
+                    micros.record((System.nanoTime() - start) / 1000);
+                    bytes.record(slot.encoded.size());
+                }
+            }
+        };
+    }
+
+    /**
+     * Appends the encoding to the journal, which the uploader drains.
+     */
+    public static StagedPipeline.Stage<ScanSlot> journal(final ScanJournal journal) {
+        return new StagedPipeline.Stage<ScanSlot>() {
+            @Override
+            public void process(ScanSlot slot) throws Exception {
+                if (slot.encoded.size() > 0) {
+                    journal.append(slot.encoded.array(), 0, slot.encoded.size());
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,318 @@
+package com.commonsware.android.job.CellSites.pipeline;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A chain of stages, each on its own thread, passing preallocated slots
+ * down a bounded ring.
+ *
+ * There is one ring of slots and one cursor per party: the producer's
+ * counts published slots, each stage's counts the slots it has finished.
+ * Stage i works on the slots between its own cursor and stage i-1's, the
+ * producer may reuse a slot once the last stage is past it. Every
+ * boundary therefore is a single-producer/single-consumer queue over the
+ * same slots: no locks, no copying, and nothing allocated per item. The
+ * cursors sit 128 bytes apart so neighbouring parties do not share cache
+ * lines.
+ *
+ * An idle stage spins briefly, then parks until its upstream publishes;
+ * publishing unparks only a party that is actually waiting, so a quiet
+ * pipeline costs no wakeups.
+ *
+ * Per stage it counts items, failures (the exception is logged and the
+ * slot moves on), total and maximum processing time and the deepest queue
+ * seen, plus the producer-to-last-stage latency. One producer thread only.
+ */
+public final class StagedPipeline<T> {
+    private static final Logger LOG = Logger.getLogger(StagedPipeline.class.getName());
+    // longs between padded counters: 128 bytes
+    private static final int PAD = 16;
+    private static final int SPINS = 256;
+    private static final int PROCESSED = 0;
+    private static final int FAILURES = 1;
+    private static final int TOTAL_NANOS = 2;
+    private static final int MAX_NANOS = 3;
+    private static final int MAX_DEPTH = 4;
+
+    public interface SlotFactory<T> {
+        T create();
+    }
+
+    public interface Stage<T> {
+        /**
+         * Works on one slot; an exception is counted and logged, and the
+         * slot still goes on to the next stage.
+         */
+        void process(T slot) throws Exception;
+    }
+
+    private final String name;
+    private final Object[] slots;
+    private final int mask;
+    private final Stage<T>[] stages;
+    // cursor 0 is the producer's, cursor i the one of stage i-1
+    private final AtomicLongArray cursors;
+    // per stage a row of the counters above, then one row for the end-to-end latency
+    private final AtomicLongArray stats;
+    // the thread parked until cursor i-1 moves (for 0: the producer, on the last cursor)
+    private final AtomicReferenceArray<Thread> waiters;
+    private final long[] publishedNanos;
+    private final Thread[] threads;
+    private volatile boolean running;
+    private volatile int finishing;
+    private long next;
+    private volatile long dropped;
+
+    /**
+     * capacity is rounded up to a power of two.
+     */
+    @SuppressWarnings("unchecked")
+    public StagedPipeline(String name, int capacity, SlotFactory<T> factory, List<? extends Stage<T>> stages) {
+        if (capacity < 1 || capacity > 1 << 20 || stages.isEmpty()) {
+            throw new IllegalArgumentException("Bad pipeline: capacity " + capacity + ", " + stages.size() + " stages");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.name = name;
+        this.slots = new Object[size];
+        for (int i = 0; i < size; i++) {
+            this.slots[i] = factory.create();
+        }
+        this.mask = size - 1;
+        this.stages = (Stage<T>[]) stages.toArray(new Stage<?>[stages.size()]);
+        this.cursors = new AtomicLongArray((this.stages.length + 1) * PAD);
+        this.stats = new AtomicLongArray((this.stages.length + 1) * PAD);
+        this.waiters = new AtomicReferenceArray<Thread>(this.stages.length + 1);
+        this.publishedNanos = new long[size];
+        this.threads = new Thread[this.stages.length];
+    }
+
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
+        this.running = true;
+        this.finishing = 0;
+        for (int i = 0; i < this.stages.length; i++) {
+            final int stage = i + 1;
+            this.threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    consume(stage);
+                }
+            }, this.name + "-" + stage);
+            this.threads[i].setDaemon(true);
+            this.threads[i].start();
+        }
+    }
+
+    /**
+     * Lets every stage finish what its upstream published, then stops the
+     * threads. Call once the producer is done.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        LockSupport.unpark(this.waiters.get(0));
+        for (int i = 0; i < this.threads.length; i++) {
+            this.finishing = i + 1;
+            LockSupport.unpark(this.threads[i]);
+            this.threads[i].join();
+            this.threads[i] = null;
+        }
+    }
+
+    public int capacity() {
+        return this.slots.length;
+    }
+
+    public int stageCount() {
+        return this.stages.length;
+    }
+
+    /**
+     * The next free slot for the producer to fill and {@link #publish()},
+     * or null (counted as dropped) if the ring is full.
+     */
+    public T tryClaim() {
+        if (this.next - this.cursors.get(this.stages.length * PAD) >= this.slots.length) {
+            this.dropped++;
+            return null;
+        }
+        return slot(this.next);
+    }
+
+    /**
+     * As {@link #tryClaim()}, but waits for a free slot; null only once the
+     * pipeline is stopped.
+     */
+    public T claim() {
+        int last = this.stages.length * PAD;
+        int spins = 0;
+        while (this.next - this.cursors.get(last) >= this.slots.length) {
+            if (!this.running) {
+                return null;
+            }
+            if (++spins < SPINS) {
+                continue;
+            }
+            this.waiters.set(0, Thread.currentThread());
+            if (this.next - this.cursors.get(last) >= this.slots.length && this.running) {
+                LockSupport.park(this);
+            }
+            this.waiters.set(0, null);
+        }
+        return slot(this.next);
+    }
+
+    /**
+     * Hands the claimed slot to the first stage.
+     */
+    public void publish() {
+        this.publishedNanos[(int) this.next & this.mask] = System.nanoTime();
+        this.cursors.set(0, ++this.next);
+        LockSupport.unpark(this.waiters.get(1));
+    }
+
+    /**
+     * Slots the producer could not claim because the ring was full.
+     */
+    public long getDropped() {
+        return this.dropped;
+    }
+
+    public long getProcessed(int stage) {
+        return this.stats.get(stage * PAD + PROCESSED);
+    }
+
+    public long getFailures(int stage) {
+        return this.stats.get(stage * PAD + FAILURES);
+    }
+
+    public long getTotalNanos(int stage) {
+        return this.stats.get(stage * PAD + TOTAL_NANOS);
+    }
+
+    public long getMaxNanos(int stage) {
+        return this.stats.get(stage * PAD + MAX_NANOS);
+    }
+
+    /**
+     * Slots waiting for the stage right now.
+     */
+    public long getQueueDepth(int stage) {
+        return this.cursors.get(stage * PAD) - this.cursors.get((stage + 1) * PAD);
+    }
+
+    /**
+     * Slots published and not yet through the last stage.
+     */
+    public long getInFlight() {
+        return this.cursors.get(0) - this.cursors.get(this.stages.length * PAD);
+    }
+
+    public long getMaxQueueDepth(int stage) {
+        return this.stats.get(stage * PAD + MAX_DEPTH);
+    }
+
+    /**
+     * Total and maximum time from publish() to the end of the last stage.
+     */
+    public long getEndToEndTotalNanos() {
+        return this.stats.get(this.stages.length * PAD + TOTAL_NANOS);
+    }
+
+    public long getEndToEndMaxNanos() {
+        return this.stats.get(this.stages.length * PAD + MAX_NANOS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T slot(long sequence) {
+        return (T) this.slots[(int) sequence & this.mask];
+    }
+
+    private void consume(int stage) {
+        Stage<T> work = this.stages[stage - 1];
+        int upstream = (stage - 1) * PAD;
+        int own = stage * PAD;
+        int row = (stage - 1) * PAD;
+        boolean last = stage == this.stages.length;
+        long done = this.cursors.get(own);
+        int spins = 0;
+        while (true) {
+            long available = this.cursors.get(upstream);
+            if (available == done) {
+                if (this.finishing >= stage) {
+                    return;
+                }
+                if (++spins < SPINS) {
+                    continue;
+                }
+                this.waiters.set(stage, Thread.currentThread());
+                if (this.cursors.get(upstream) == done && this.finishing < stage) {
+                    LockSupport.park(this);
+                }
+                this.waiters.set(stage, null);
+                continue;
+            }
+            spins = 0;
+            if (available - done > this.stats.get(row + MAX_DEPTH)) {
+                this.stats.lazySet(row + MAX_DEPTH, available - done);
+            }
+            while (done < available) {
+                long start = System.nanoTime();
+                try {
+                    work.process(slot(done));
+                } catch (Exception e) {
+                    this.stats.lazySet(row + FAILURES, this.stats.get(row + FAILURES) + 1);
+                    LOG.log(Level.WARNING, this.name + " stage " + stage + " failed", e);
+                }
+                long end = System.nanoTime();
+                record(row, end - start);
+                if (last) {
+                    record(this.stages.length * PAD, end - this.publishedNanos[(int) done & this.mask]);
+                }
+                this.cursors.set(own, ++done);
+                LockSupport.unpark(this.waiters.get(last ? 0 : stage + 1));
+            }
+        }
+    }
+
+    private void record(int row, long nanos) {
+        this.stats.lazySet(row + PROCESSED, this.stats.get(row + PROCESSED) + 1);
+        this.stats.lazySet(row + TOTAL_NANOS, this.stats.get(row + TOTAL_NANOS) + nanos);
+        if (nanos > this.stats.get(row + MAX_NANOS)) {
+            this.stats.lazySet(row + MAX_NANOS, nanos);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(this.name);
+        for (int i = 0; i < this.stages.length; i++) {
+            long processed = getProcessed(i);
+            out.append(String.format(" | %d: %d in %.0f/%.0f us avg/max, depth %d/%d", i + 1, processed,
+                    processed == 0 ? 0.0 : getTotalNanos(i) / 1e3 / processed, getMaxNanos(i) / 1e3,
+                    getQueueDepth(i), getMaxQueueDepth(i)));
+            if (getFailures(i) > 0) {
+                out.append(", ").append(getFailures(i)).append(" failed");
+            }
+        }
+        long total = this.stats.get(this.stages.length * PAD + PROCESSED);
+        out.append(String.format(" | end to end %.0f/%.0f us", total == 0 ? 0.0 : getEndToEndTotalNanos() / 1e3 / total,
+                getEndToEndMaxNanos() / 1e3));
+        if (this.dropped > 0) {
+            out.append(", ").append(this.dropped).append(" dropped");
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,209 @@
+package com.commonsware.android.job.CellSites.schedule;
+
+import com.commonsware.android.job.CellSites.CellData;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Picks the time to the next scan from how fast the radio environment
+ * changes, instead of a fixed period: a parked phone backs off towards the
+ * maximum interval, one on a highway closes in on the minimum.
+ *
+ * Each scan's cells are reduced to their sorted, distinct packed
+ * identities ({@link com.commonsware.android.job.CellSites.CellKey}), and
+ * the Jaccard distance to the previous scan, divided by the time between
+ * them, is the change rate, smoothed by an EWMA. The interval aims for
+ * targetDistance between consecutive scans, i.e. targetDistance / rate,
+ * clamped to the bounds. With hysteresis: nothing moves while the aim is
+ * within a factor (1 + hysteresis) of the current interval, a faster
+ * environment shortens it at once, a calmer one lengthens it at most
+ * MAX_GROWTH times per scan.
+ *
+ * Two identity arrays are swapped between scans, so nothing is allocated
+ * once they have grown to the scan size. Not thread-safe, but the chosen
+ * interval and reason may be read from any thread.
+ */
+public class ScanScheduler {
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 5000;
+    public static final long DEFAULT_MAX_INTERVAL_MILLIS = 300000;
+    public static final double DEFAULT_TARGET_DISTANCE = 0.2;
+    public static final double DEFAULT_HYSTERESIS = 0.5;
+    static final double MAX_GROWTH = 2;
+    static final double RATE_SMOOTHING = 0.5;
+
+    // why the current interval was chosen
+    public static final int REASON_INITIAL = 0;
+    public static final int REASON_CHANGING = 1;
+    public static final int REASON_STABLE = 2;
+    public static final int REASON_HOLD = 3;
+
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final double targetDistance;
+    private final double hysteresis;
+    private long[] previous = new long[32];
+    private long[] current = new long[32];
+    private int previousCount = -1;
+    private long lastTimeMillis;
+    private double rate;
+    private double distance;
+    private volatile long intervalMillis;
+    private volatile int reason = REASON_INITIAL;
+
+    public ScanScheduler() {
+        this(DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_MAX_INTERVAL_MILLIS, DEFAULT_TARGET_DISTANCE, DEFAULT_HYSTERESIS);
+    }
+
+    public ScanScheduler(long minIntervalMillis, long maxIntervalMillis) {
+        this(minIntervalMillis, maxIntervalMillis, DEFAULT_TARGET_DISTANCE, DEFAULT_HYSTERESIS);
+    }
+
+    public ScanScheduler(long minIntervalMillis, long maxIntervalMillis, double targetDistance, double hysteresis) {
+        if (minIntervalMillis <= 0 || maxIntervalMillis < minIntervalMillis || !(targetDistance > 0)
+                || targetDistance > 1 || !(hysteresis >= 0)) {
+            throw new IllegalArgumentException("Bad scheduler settings: " + minIntervalMillis + ".." + maxIntervalMillis
+                    + " ms, target " + targetDistance + ", hysteresis " + hysteresis);
+        }
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.targetDistance = targetDistance;
+        this.hysteresis = hysteresis;
+        this.intervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * Takes in a scan made at timeMillis (any monotonic clock) and returns
+     * the interval to the next one.
+     */
+    public long observe(List<? extends CellData> cells, long timeMillis) {
+        int count = collect(cells);
+        if (this.previousCount < 0 || timeMillis <= this.lastTimeMillis) {
+            // nothing to compare with yet, or the clock did not move: start over from this scan
+            if (this.previousCount < 0) {
+                this.reason = REASON_INITIAL;
+            }
+            swap(count, timeMillis);
+            return this.intervalMillis;
+        }
+        this.distance = jaccardDistance(this.previous, this.previousCount, this.current, count);
+        double instant = this.distance * 1000.0 / (timeMillis - this.lastTimeMillis);
+        this.rate = this.reason == REASON_INITIAL ? instant : this.rate + RATE_SMOOTHING * (instant - this.rate);
+        swap(count, timeMillis);
+
+        double aim = this.rate > 0 ? this.targetDistance * 1000.0 / this.rate : this.maxIntervalMillis;
+        long desired = (long) Math.max(this.minIntervalMillis, Math.min(this.maxIntervalMillis, aim));
+        long interval = this.intervalMillis;
+        if (desired * (1 + this.hysteresis) < interval) {
+            this.intervalMillis = desired;
+            this.reason = REASON_CHANGING;
+        } else if (desired > interval * (1 + this.hysteresis)) {
+            this.intervalMillis = Math.min(desired, (long) (interval * MAX_GROWTH));
+            this.reason = REASON_STABLE;
+        } else {
+            this.reason = REASON_HOLD;
+        }
+        return this.intervalMillis;
+    }
+
+    public void reset() {
+        this.previousCount = -1;
+        this.intervalMillis = this.minIntervalMillis;
+        this.reason = REASON_INITIAL;
+    }
+
+    public long getIntervalMillis() {
+        return this.intervalMillis;
+    }
+
+    public int getReason() {
+        return this.reason;
+    }
+
+    /**
+     * Jaccard distance between the last two scans.
+     */
+    public double getDistance() {
+        return this.distance;
+    }
+
+    /**
+     * Smoothed Jaccard distance per second.
+     */
+    public double getChangeRate() {
+        return this.rate;
+    }
+
+    public static String reasonName(int reason) {
+        switch (reason) {
+            case REASON_INITIAL:
+                return "initial";
+            case REASON_CHANGING:
+                return "changing";
+            case REASON_STABLE:
+                return "stable";
+            case REASON_HOLD:
+                return "hold";
+            default:
+                return "unknown";
+        }
+    }
+
+    /**
+     * 1 - |a & b| / |a | b| over two sorted arrays of distinct keys; 0 for
+     * two empty scans.
+     */
+    static double jaccardDistance(long[] a, int aCount, long[] b, int bCount) {
+        int i = 0;
+        int j = 0;
+        int common = 0;
+        while (i < aCount && j < bCount) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        int union = aCount + bCount - common;
+        return union == 0 ? 0 : 1 - (double) common / union;
+    }
+
+    /**
+     * Fills current with the scan's sorted, distinct identities.
+     */
+    private int collect(List<? extends CellData> cells) {
+        int n = cells.size();
+        if (n > this.current.length) {
+            this.current = new long[Math.max(n, this.current.length * 2)];
+        }
+        for (int i = 0; i < n; i++) {
+            this.current[i] = cells.get(i).getIdentityKey();
+        }
+        Arrays.sort(this.current, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (distinct == 0 || this.current[i] != this.current[distinct - 1]) {
+                this.current[distinct++] = this.current[i];
+            }
+        }
+        return distinct;
+    }
+
+    private void swap(int count, long timeMillis) {
+        long[] t = this.previous;
+        this.previous = this.current;
+        this.current = t;
+        this.previousCount = count;
+        this.lastTimeMillis = timeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d ms (%s), distance %.2f, rate %.4f/s", this.intervalMillis,
+                reasonName(this.reason), this.distance, this.rate);
+    }
+}
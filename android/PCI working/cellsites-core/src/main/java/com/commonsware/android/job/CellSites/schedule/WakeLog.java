@@ -0,0 +1,76 @@
+package com.commonsware.android.job.CellSites.schedule;
+
+import java.util.Locale;
+
+/**
+ * What each wake cost, for tuning how many scans to take per wake and how
+ * many wakes to let pass between uploads: wall time held awake, CPU time
+ * spent, time the upload kept the modem busy, scans taken and bytes
+ * journalled.
+ *
+ * Keeps running totals only, so recording allocates nothing. Thread-safe.
+ */
+public class WakeLog {
+    private long count;
+    private long totalAwakeMillis;
+    private long totalCpuMillis;
+    private long totalRadioMillis;
+    private long totalScans;
+    private long totalBytes;
+    private long uploads;
+
+    /**
+     * One wake; radioMillis is 0 for a wake that did not upload.
+     */
+    public synchronized void record(long awakeMillis, long cpuMillis, long radioMillis, int scans, int bytes) {
+        this.count++;
+        this.totalAwakeMillis += awakeMillis;
+        this.totalCpuMillis += cpuMillis;
+        this.totalRadioMillis += radioMillis;
+        this.totalScans += scans;
+        this.totalBytes += bytes;
+        if (radioMillis > 0) {
+            this.uploads++;
+        }
+    }
+
+    public synchronized long getWakes() {
+        return this.count;
+    }
+
+    public synchronized long getUploads() {
+        return this.uploads;
+    }
+
+    public synchronized long getTotalAwakeMillis() {
+        return this.totalAwakeMillis;
+    }
+
+    public synchronized long getTotalCpuMillis() {
+        return this.totalCpuMillis;
+    }
+
+    public synchronized long getTotalRadioMillis() {
+        return this.totalRadioMillis;
+    }
+
+    public synchronized long getTotalScans() {
+        return this.totalScans;
+    }
+
+    public synchronized long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (this.count == 0) {
+            return "no wakes";
+        }
+        return String.format(Locale.US, "%d wakes, %d uploads; per wake %.0f ms awake, %.0f ms cpu, %.1f scans, %.0f B;"
+                        + " per upload %.0f ms radio", this.count, this.uploads,
+                (double) this.totalAwakeMillis / this.count, (double) this.totalCpuMillis / this.count,
+                (double) this.totalScans / this.count, (double) this.totalBytes / this.count,
+                this.uploads == 0 ? 0.0 : (double) this.totalRadioMillis / this.uploads);
+    }
+}
@@ -0,0 +1,73 @@
+package com.commonsware.android.job.CellSites.trace;
+
+import com.commonsware.android.job.CellSites.TelephonySnapshot;
+import com.commonsware.android.job.CellSites.TelephonySource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays a recorded trace back as a {@link TelephonySource}, from memory so
+ * disk reads stay out of whatever is being measured. With more than one
+ * loop the clock keeps moving forward, a second past the end of the trace
+ * per loop, so replayed scans are never mistaken for stale ones.
+ */
+public class ReplaySource implements TelephonySource {
+    private final List<TelephonySnapshot> snapshots = new ArrayList<TelephonySnapshot>();
+    private final int loops;
+    private long loopNanos;
+    private int next;
+    private int loop;
+
+    public ReplaySource(TraceReader reader, int loops) throws IOException {
+        if (loops < 1) {
+            throw new IllegalArgumentException("Bad loop count: " + loops);
+        }
+        this.loops = loops;
+        TelephonySnapshot snapshot = new TelephonySnapshot();
+        while (reader.read(snapshot)) {
+            this.snapshots.add(snapshot);
+            snapshot = new TelephonySnapshot();
+        }
+        if (!this.snapshots.isEmpty()) {
+            this.loopNanos = this.snapshots.get(this.snapshots.size() - 1).elapsedNanos
+                    - this.snapshots.get(0).elapsedNanos + 1000000000L;
+        }
+    }
+
+    /**
+     * Snapshots per loop.
+     */
+    public int size() {
+        return this.snapshots.size();
+    }
+
+    public void rewind() {
+        this.next = 0;
+        this.loop = 0;
+    }
+
+    @Override
+    public boolean read(TelephonySnapshot out) {
+        if (this.next == this.snapshots.size()) {
+            if (this.loop + 1 >= this.loops || this.snapshots.isEmpty()) {
+                return false;
+            }
+            this.loop++;
+            this.next = 0;
+        }
+        out.set(this.snapshots.get(this.next++));
+        long shift = this.loop * this.loopNanos;
+        if (shift != 0) {
+            out.elapsedNanos += shift;
+            for (int i = 0; i < out.getCellCount(); i++) {
+                TelephonySnapshot.Cell cell = out.getCell(i);
+                if (cell.timestampNanos != 0) {
+                    cell.timestampNanos += shift;
+                }
+            }
+        }
+        return true;
+    }
+}
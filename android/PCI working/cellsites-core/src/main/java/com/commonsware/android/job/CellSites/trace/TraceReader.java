@@ -0,0 +1,126 @@
+package com.commonsware.android.job.CellSites.trace;
+
+import com.commonsware.android.job.CellSites.TelephonySnapshot;
+import com.commonsware.android.job.CellSites.codec.BinaryReader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads back a trace written by {@link TraceWriter}, one snapshot at a
+ * time. A record cut short at the end of the stream counts as the end of
+ * the trace.
+ */
+public class TraceReader implements Closeable {
+    private final InputStream in;
+    private byte[] record = new byte[1024];
+    private long lastElapsedNanos;
+
+    public TraceReader(InputStream in) throws IOException {
+        this.in = in;
+        byte[] header = new byte[3];
+        if (!readFully(header, 3) || header[0] != TraceWriter.MAGIC_0 || header[1] != TraceWriter.MAGIC_1) {
+            throw new IOException("Not a telephony trace");
+        }
+        if (header[2] != TraceWriter.VERSION) {
+            throw new IOException("Unsupported telephony trace version " + header[2]);
+        }
+    }
+
+    /**
+     * Fills out with the next snapshot; false at the end of the trace.
+     */
+    public boolean read(TelephonySnapshot out) throws IOException {
+        long length = readLength();
+        if (length < 0) {
+            return false;
+        }
+        if (length > 1 << 24) {
+            throw new IOException("Bad trace record length " + length);
+        }
+        if (length > this.record.length) {
+            this.record = new byte[(int) Math.max(length, this.record.length * 2L)];
+        }
+        if (!readFully(this.record, (int) length)) {
+            return false;
+        }
+
+        BinaryReader r = new BinaryReader(this.record, 0, (int) length);
+        out.clear();
+        out.elapsedNanos = this.lastElapsedNanos + r.readSignedVarint();
+        this.lastElapsedNanos = out.elapsedNanos;
+        out.phoneType = (int) r.readVarint();
+        out.networkType = (int) r.readVarint();
+        int flags = r.readByte();
+        if ((flags & TraceWriter.FLAG_OPERATOR) != 0) {
+            out.networkOperator = r.readString();
+        }
+        if ((flags & TraceWriter.FLAG_SERVING) != 0) {
+            out.hasServing = true;
+            readCell(r, out.serving, out.elapsedNanos);
+        }
+        int cells = (int) r.readVarint();
+        for (int i = 0; i < cells; i++) {
+            readCell(r, out.addCell(), out.elapsedNanos);
+        }
+        int neighbours = (int) r.readVarint();
+        for (int i = 0; i < neighbours; i++) {
+            readCell(r, out.addNeighbour(), out.elapsedNanos);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    private static void readCell(BinaryReader r, TelephonySnapshot.Cell cell, long elapsedNanos) throws IOException {
+        cell.type = r.readByte();
+        int flags = r.readByte();
+        cell.registered = (flags & TraceWriter.CELL_REGISTERED) != 0;
+        cell.timestampNanos = (flags & TraceWriter.CELL_TIMESTAMP) != 0 ? elapsedNanos - r.readSignedVarint() : 0;
+        cell.networkType = (int) r.readVarint();
+        cell.mcc = r.readSignedInt();
+        cell.mnc = r.readSignedInt();
+        cell.lac = r.readSignedInt();
+        cell.cid = r.readSignedInt();
+        cell.psc = r.readSignedInt();
+        cell.asu = r.readSignedInt();
+        cell.dbm = r.readSignedInt();
+        cell.timingAdvance = r.readSignedInt();
+        cell.level = r.readSignedInt();
+    }
+
+    /**
+     * The next record's length, -1 at a clean or torn end of stream.
+     */
+    private long readLength() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = this.in.read();
+            if (b < 0) {
+                return -1;
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed trace record length");
+    }
+
+    private boolean readFully(byte[] buffer, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int n = this.in.read(buffer, done, length - done);
+            if (n < 0) {
+                return false;
+            }
+            done += n;
+        }
+        return true;
+    }
+}
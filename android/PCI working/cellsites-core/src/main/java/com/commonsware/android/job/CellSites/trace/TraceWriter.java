@@ -0,0 +1,119 @@
+package com.commonsware.android.job.CellSites.trace;
+
+import com.commonsware.android.job.CellSites.TelephonySnapshot;
+import com.commonsware.android.job.CellSites.codec.BinaryWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records {@link TelephonySnapshot}s as they were read on the phone, so the
+ * scan path can be replayed off the device with {@link TraceReader}.
+ *
+ * The stream is a 3-byte header ('T', 'T', version) followed by one
+ * length-prefixed record per snapshot: the time since the previous one,
+ * phone and network type, operator, serving cell, then the cell and
+ * neighbour lists, all as varints. A record is buffered whole before it is
+ * written, so a trace cut short by a crash loses at most its tail, which
+ * the reader ignores. Stops recording, rather than fail, at maxBytes.
+ */
+public class TraceWriter implements Closeable {
+    static final byte MAGIC_0 = 'T';
+    static final byte MAGIC_1 = 'T';
+    static final int VERSION = 1;
+    static final int FLAG_OPERATOR = 1;
+    static final int FLAG_SERVING = 2;
+    static final int CELL_REGISTERED = 1;
+    static final int CELL_TIMESTAMP = 2;
+
+    private final OutputStream out;
+    private final long maxBytes;
+    private final BinaryWriter record = new BinaryWriter(1024);
+    private final BinaryWriter length = new BinaryWriter(8);
+    private long lastElapsedNanos;
+    private long written;
+    private int snapshots;
+
+    public TraceWriter(OutputStream out, long maxBytes) throws IOException {
+        this.out = out;
+        this.maxBytes = maxBytes;
+        out.write(new byte[]{MAGIC_0, MAGIC_1, VERSION});
+        this.written = 3;
+    }
+
+    /**
+     * Appends the snapshot; false, and nothing written, once the trace
+     * would grow past maxBytes.
+     */
+    public boolean write(TelephonySnapshot snapshot) throws IOException {
+        this.record.reset();
+        this.record.writeSignedVarint(snapshot.elapsedNanos - this.lastElapsedNanos);
+        this.record.writeVarint(snapshot.phoneType);
+        this.record.writeVarint(snapshot.networkType);
+        this.record.writeByte((snapshot.networkOperator != null ? FLAG_OPERATOR : 0)
+                | (snapshot.hasServing ? FLAG_SERVING : 0));
+        if (snapshot.networkOperator != null) {
+            this.record.writeString(snapshot.networkOperator);
+        }
+        if (snapshot.hasServing) {
+            writeCell(snapshot.serving, snapshot.elapsedNanos);
+        }
+        this.record.writeVarint(snapshot.getCellCount());
+        for (int i = 0; i < snapshot.getCellCount(); i++) {
+            writeCell(snapshot.getCell(i), snapshot.elapsedNanos);
+        }
+        this.record.writeVarint(snapshot.getNeighbourCount());
+        for (int i = 0; i < snapshot.getNeighbourCount(); i++) {
+            writeCell(snapshot.getNeighbour(i), snapshot.elapsedNanos);
+        }
+
+        this.length.reset();
+        this.length.writeVarint(this.record.size());
+        if (this.written + this.length.size() + this.record.size() > this.maxBytes) {
+            return false;
+        }
+        this.out.write(this.length.array(), 0, this.length.size());
+        this.out.write(this.record.array(), 0, this.record.size());
+        this.written += this.length.size() + this.record.size();
+        this.lastElapsedNanos = snapshot.elapsedNanos;
+        this.snapshots++;
+        return true;
+    }
+
+    public long getBytesWritten() {
+        return this.written;
+    }
+
+    public int getSnapshotCount() {
+        return this.snapshots;
+    }
+
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+
+    private void writeCell(TelephonySnapshot.Cell cell, long elapsedNanos) {
+        this.record.writeByte(cell.type);
+        this.record.writeByte((cell.registered ? CELL_REGISTERED : 0) | (cell.timestampNanos != 0 ? CELL_TIMESTAMP : 0));
+        if (cell.timestampNanos != 0) {
+            // usually a little before the read
+            this.record.writeSignedVarint(elapsedNanos - cell.timestampNanos);
+        }
+        this.record.writeVarint(cell.networkType);
+        this.record.writeSignedVarint(cell.mcc);
+        this.record.writeSignedVarint(cell.mnc);
+        this.record.writeSignedVarint(cell.lac);
+        this.record.writeSignedVarint(cell.cid);
+        this.record.writeSignedVarint(cell.psc);
+        this.record.writeSignedVarint(cell.asu);
+        this.record.writeSignedVarint(cell.dbm);
+        this.record.writeSignedVarint(cell.timingAdvance);
+        this.record.writeSignedVarint(cell.level);
+    }
+}
@@ -0,0 +1,14 @@
+package com.commonsware.android.job.CellSites.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Turns a batch of journal entries into a request body.
+ */
+public interface BatchFormat {
+    String getContentType();
+
+    void write(List<byte[]> entries, OutputStream out) throws IOException;
+}
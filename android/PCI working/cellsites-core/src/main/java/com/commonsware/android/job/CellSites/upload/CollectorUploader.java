@@ -0,0 +1,370 @@
+package com.commonsware.android.job.CellSites.upload;
+
+import com.commonsware.android.job.CellSites.codec.ScanBatchDecoder;
+import com.commonsware.android.job.CellSites.journal.ScanJournal;
+import com.commonsware.android.job.CellSites.metrics.Counter;
+import com.commonsware.android.job.CellSites.metrics.Histogram;
+import com.commonsware.android.job.CellSites.metrics.MetricsRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Single long-lived thread that drains the {@link ScanJournal} to the
+ * collector.
+ *
+ * Scans are batched: a request goes out once maxBatchScans entries are
+ * pending or the oldest pending entry is maxBatchDelayMs old, whichever comes
+ * first. The batch is rendered by a {@link BatchFormat} (by default the JSON
+ * array accepted by /collector/radioLocationBatch) and gzip-compressed. The
+ * response is always drained and the connection is not disconnected on
+ * success, so HttpURLConnection keeps the socket alive for the next batch.
+ *
+ * While {@link #setDeferred(boolean)} is on, nothing goes out until a
+ * {@link #flush()}, which then sends everything journalled so far: the
+ * caller decides when the modem gets powered up. A journal entry may hold
+ * several scans (a whole wake's worth); batches are sized in entries, the
+ * stats count scans.
+ *
+ * Entries are acknowledged (and eventually trimmed from the journal) only
+ * after the collector answered 2xx; on failure the batch is rewound and
+ * retried with exponential backoff.
+ *
+ * With a {@link MetricsRegistry} set, every request's latency, size,
+ * failure and retry is recorded under this endpoint, and the registry's
+ * compact snapshot rides along in the {@link #METRICS_HEADER} header.
+ */
+public class CollectorUploader implements Runnable {
+    private static final Logger LOG = Logger.getLogger(CollectorUploader.class.getName());
+    public static final int DEFAULT_BATCH_SCANS = 30;
+    public static final long DEFAULT_BATCH_DELAY_MS = 5 * 60 * 1000;
+    static final long MIN_BACKOFF_MS = 1000;
+    static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    public static final String METRICS_HEADER = "X-Scan-Metrics";
+
+    private final ScanJournal journal;
+    private final URL endpoint;
+    private final int maxBatchScans;
+    private final long maxBatchDelayMs;
+    private final BatchFormat format;
+    private final UploadStats stats = new UploadStats();
+    private final List<byte[]> entries = new ArrayList<byte[]>();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(16 * 1024);
+    private final byte[] responseBuffer = new byte[512];
+    private volatile Thread thread;
+    private long backoff = MIN_BACKOFF_MS;
+    private final Object flushLock = new Object();
+    private volatile boolean flushRequested;
+    private boolean deferred;
+    private boolean lastFlushOk;
+    // set before start(), used on the upload thread only
+    private MetricsRegistry metrics;
+    private Histogram latency;
+    private Counter requests;
+    private Counter failures;
+    private Counter retries;
+    private Counter bytesSent;
+    private boolean retrying;
+
+    public CollectorUploader(ScanJournal journal, URL endpoint) {
+        this(journal, endpoint, new JsonBatchFormat(), DEFAULT_BATCH_SCANS, DEFAULT_BATCH_DELAY_MS);
+    }
+
+    public CollectorUploader(ScanJournal journal, URL endpoint, BatchFormat format, int maxBatchScans, long maxBatchDelayMs) {
+        if (maxBatchScans < 1) {
+            throw new IllegalArgumentException("Bad batch size: " + maxBatchScans);
+        }
+        this.journal = journal;
+        this.endpoint = endpoint;
+        this.format = format;
+        this.maxBatchScans = maxBatchScans;
+        this.maxBatchDelayMs = maxBatchDelayMs;
+    }
+
+    public UploadStats getStats() {
+        return this.stats;
+    }
+
+    /**
+     * Records this endpoint's upload metrics in metrics and piggybacks its
+     * snapshot on every request. Call before {@link #start()}.
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        String host = this.endpoint.getHost();
+        this.metrics = metrics;
+        this.latency = metrics.histogram(MetricsRegistry.forEndpoint(MetricsRegistry.UPLOAD_MICROS, host));
+        this.requests = metrics.counter(MetricsRegistry.forEndpoint(MetricsRegistry.UPLOAD_REQUESTS, host));
+        this.failures = metrics.counter(MetricsRegistry.forEndpoint(MetricsRegistry.UPLOAD_FAILURES, host));
+        this.retries = metrics.counter(MetricsRegistry.forEndpoint(MetricsRegistry.UPLOAD_RETRIES, host));
+        this.bytesSent = metrics.counter(MetricsRegistry.forEndpoint(MetricsRegistry.UPLOAD_BYTES, host));
+    }
+
+    /**
+     * While deferred, entries are only sent on {@link #flush()}; turning it
+     * off lets the usual batching take over again.
+     */
+    public void setDeferred(boolean deferred) {
+        synchronized (this.flushLock) {
+            this.deferred = deferred;
+            this.flushLock.notifyAll();
+        }
+    }
+
+    /**
+     * Sends the pending entries now instead of waiting for the batch to
+     * fill up or age out; for scan bursts that want their data on the wire
+     * while the radio is still up.
+     */
+    public void flush() {
+        synchronized (this.flushLock) {
+            this.flushRequested = true;
+            this.flushLock.notifyAll();
+        }
+        this.journal.wakeUp();
+    }
+
+    /**
+     * {@link #flush()}, then waits at most timeoutMs for everything
+     * journalled so far to be sent. True if it all went out, false on an
+     * upload failure (the entries stay for a later flush) or timeout.
+     */
+    public boolean flushAndWait(long timeoutMs) throws InterruptedException {
+        flush();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (this.flushLock) {
+            while (this.flushRequested) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                this.flushLock.wait(remaining);
+            }
+            return this.lastFlushOk;
+        }
+    }
+
+    public synchronized void start() {
+        if (this.thread == null) {
+            this.thread = new Thread(this, "CollectorUploader");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+    }
+
+    public synchronized void stop() {
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        Thread self = Thread.currentThread();
+        while (this.thread == self) {
+            try {
+                awaitTurn();
+                if (!collectBatch()) {
+                    continue;
+                }
+                long rawBytes;
+                try {
+                    rawBytes = encode(this.entries);
+                } catch (IOException e) {
+                    // retrying cannot fix an undecodable entry; don't let it block the journal
+                    LOG.log(Level.SEVERE, "Dropping " + this.entries.size() + " undecodable journal entries", e);
+                    this.journal.acknowledge();
+                    continue;
+                }
+                post(scanCount(this.entries), rawBytes);
+                this.journal.acknowledge();
+                this.backoff = MIN_BACKOFF_MS;
+                this.retrying = false;
+                if (this.flushRequested && !this.journal.awaitData(0, TimeUnit.NANOSECONDS)) {
+                    finishFlush(true);
+                }
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Upload failed, retrying in " + this.backoff + " ms", e);
+                this.stats.onFailure();
+                if (this.metrics != null) {
+                    this.failures.increment();
+                }
+                this.retrying = true;
+                this.journal.rewind();
+                // the flush is over; while deferred the retry waits for the next one
+                finishFlush(false);
+                try {
+                    Thread.sleep(this.backoff);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                this.backoff = Math.min(this.backoff * 2, MAX_BACKOFF_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * While deferred, blocks until a flush is requested or deferral ends.
+     */
+    private void awaitTurn() throws InterruptedException {
+        synchronized (this.flushLock) {
+            while (this.deferred && !this.flushRequested) {
+                this.flushLock.wait();
+            }
+        }
+    }
+
+    private void finishFlush(boolean ok) {
+        synchronized (this.flushLock) {
+            if (this.flushRequested) {
+                this.flushRequested = false;
+                this.lastFlushOk = ok;
+                this.flushLock.notifyAll();
+            }
+        }
+    }
+
+    private static int scanCount(List<byte[]> batch) throws IOException {
+        int count = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            count += ScanBatchDecoder.scanCount(batch.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * Fills entries with up to maxBatchScans journal entries, waiting at most
+     * maxBatchDelayMs after the first one for the batch to fill up, or
+     * until a flush.
+     */
+    private boolean collectBatch() throws InterruptedException {
+        this.entries.clear();
+        if (!this.journal.awaitData(1, TimeUnit.MINUTES)) {
+            // a flush with nothing (left) to send
+            finishFlush(true);
+            return false;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.maxBatchDelayMs);
+        this.journal.read(this.entries, this.maxBatchScans);
+        while (this.entries.size() < this.maxBatchScans && !this.flushRequested) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !this.journal.awaitData(remaining, TimeUnit.NANOSECONDS)) {
+                break;
+            }
+            this.journal.read(this.entries, this.maxBatchScans - this.entries.size());
+        }
+        if (this.flushRequested) {
+            // whatever the flush was for has been appended by now; the flag
+            // stays up until the journal is drained
+            this.journal.read(this.entries, this.maxBatchScans - this.entries.size());
+        }
+        return !this.entries.isEmpty();
+    }
+
+    /**
+     * Renders the batch into the gzip body; returns the uncompressed size.
+     */
+    private long encode(List<byte[]> batch) throws IOException {
+        this.body.reset();
+        CountingOutputStream raw = new CountingOutputStream(new GZIPOutputStream(this.body));
+        this.format.write(batch, raw);
+        raw.close();
+        return raw.count;
+    }
+
+    private void post(int scanCount, long rawBytes) throws IOException {
+        if (this.metrics != null && this.retrying) {
+            this.retries.increment();
+        }
+        long start = System.nanoTime();
+        HttpURLConnection conn = (HttpURLConnection) this.endpoint.openConnection();
+        boolean ok = false;
+        try {
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            conn.setDoOutput(true);
+            conn.setInstanceFollowRedirects(false);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", this.format.getContentType());
+            conn.setRequestProperty("Content-Encoding", "gzip");
+            conn.setFixedLengthStreamingMode(this.body.size());
+            conn.setUseCaches(false);
+            if (this.metrics != null) {
+                conn.setRequestProperty(METRICS_HEADER, this.metrics.toCompactString());
+            }
+            OutputStream out = conn.getOutputStream();
+            try {
+                this.body.writeTo(out);
+            } finally {
+                out.close();
+            }
+
+            int code = conn.getResponseCode();
+            if (code < 200 || code >= 300) {
+                throw new IOException("Collector answered " + code);
+            }
+            long received = 0;
+            InputStream in = conn.getInputStream();
+            try {
+                int n;
+                while ((n = in.read(this.responseBuffer)) >= 0) {
+                    received += n;
+                }
+            } finally {
+                in.close();
+            }
+            this.stats.onRequest(scanCount, rawBytes, this.body.size(), received);
+            if (this.metrics != null) {
+                this.latency.record((System.nanoTime() - start) / 1000);
+                this.requests.increment();
+                this.bytesSent.add(this.body.size());
+            }
+            ok = true;
+        } finally {
+            if (!ok) {
+                // don't hand a half-used socket back to the keep-alive pool
+                conn.disconnect();
+            }
+        }
+    }
+
+    static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.commonsware.android.job.CellSites.upload;
+
+import com.commonsware.android.job.CellSites.ScanRecord;
+import com.commonsware.android.job.CellSites.codec.ScanBatchDecoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSON array of {"location": csv} messages, as accepted by
+ * /collector/radioLocationBatch. Binary journal entries are rendered back to
+ * the CSV text; entries journaled as text before the binary format existed
+ * are passed through.
+ */
+public class JsonBatchFormat implements BatchFormat {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private final List<ScanRecord> scans = new ArrayList<ScanRecord>();
+
+    @Override
+    public String getContentType() {
+        return "application/json; charset=utf-8";
+    }
+
+    @Override
+    public void write(List<byte[]> entries, OutputStream out) throws IOException {
+        Writer json = new OutputStreamWriter(out, UTF_8);
+        json.write('[');
+        boolean first = true;
+        for (int i = 0; i < entries.size(); i++) {
+            byte[] entry = entries.get(i);
+            if (!ScanBatchDecoder.isScanBatch(entry)) {
+                first = writeMessage(json, new String(entry, UTF_8), first);
+                continue;
+            }
+            this.scans.clear();
+            ScanBatchDecoder.decode(entry, this.scans);
+            for (int s = 0; s < this.scans.size(); s++) {
+                first = writeMessage(json, this.scans.get(s).toCsv(), first);
+            }
+        }
+        json.write(']');
+        json.flush();
+    }
+
+    private static boolean writeMessage(Writer json, String location, boolean first) throws IOException {
+        if (!first) {
+            json.write(',');
+        }
+        json.write("{\"location\":");
+        writeJsonString(json, location);
+        json.write('}');
+        return false;
+    }
+
+    static void writeJsonString(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,70 @@
+package com.commonsware.android.job.CellSites.upload;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of what the uploader put on the wire.
+ */
+public class UploadStats {
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong scans = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    void onRequest(int scanCount, long uncompressed, long sent, long received) {
+        this.requests.incrementAndGet();
+        this.scans.addAndGet(scanCount);
+        this.rawBytes.addAndGet(uncompressed);
+        this.bytesSent.addAndGet(sent);
+        this.bytesReceived.addAndGet(received);
+    }
+
+    void onFailure() {
+        this.failures.incrementAndGet();
+    }
+
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    public long getScans() {
+        return this.scans.get();
+    }
+
+    /**
+     * Request body bytes before compression.
+     */
+    public long getRawBytes() {
+        return this.rawBytes.get();
+    }
+
+    /**
+     * Request plus response body bytes actually transferred.
+     */
+    public long getBytesOnWire() {
+        return this.bytesSent.get() + this.bytesReceived.get();
+    }
+
+    public double getRequestsPerScan() {
+        long s = this.scans.get();
+        return s == 0 ? 0 : (double) this.requests.get() / s;
+    }
+
+    public double getBytesPerScan() {
+        long s = this.scans.get();
+        return s == 0 ? 0 : (double) getBytesOnWire() / s;
+    }
+
+    public String toString() {
+        return String.format(Locale.US, "scans=%d requests=%d (%.3f/scan) failures=%d wire=%dB (%.0fB/scan) raw=%dB",
+                getScans(), getRequests(), getRequestsPerScan(), getFailures(),
+                getBytesOnWire(), getBytesPerScan(), getRawBytes());
+    }
+}
@@ -0,0 +1,67 @@
+package com.commonsware.android.job.CellSites;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CellKeyTest {
+
+    @Test
+    public void roundTripsEachLayout() {
+        long gsm = CellKey.pack(RadioType.GSM, 302, 720, 41000, 65000, -1);
+        assertEquals(RadioType.GSM, CellKey.radioType(gsm));
+        assertEquals(302, CellKey.mcc(gsm));
+        assertEquals(720, CellKey.mnc(gsm));
+        assertEquals(41000, CellKey.lac(gsm));
+        assertEquals(65000, CellKey.cid(gsm));
+        assertEquals(-1, CellKey.psc(gsm));
+
+        long lte = CellKey.pack(RadioType.LTE, 302, 720, 21000, 268435000, 503);
+        assertEquals(302, CellKey.mcc(lte));
+        assertEquals(720, CellKey.mnc(lte));
+        assertEquals(-1, CellKey.lac(lte));
+        assertEquals(268435000, CellKey.cid(lte));
+        assertEquals(503, CellKey.psc(lte));
+
+        long cdma = CellKey.pack(RadioType.CDMA, -1, 4100, 12, 6001, 300);
+        assertEquals(-1, CellKey.mcc(cdma));
+        assertEquals(4100, CellKey.mnc(cdma));
+        assertEquals(12, CellKey.lac(cdma));
+        assertEquals(6001, CellKey.cid(cdma));
+        assertEquals(300, CellKey.psc(cdma));
+    }
+
+    @Test
+    public void keepsPsc511ApartFromUnknown() {
+        long known = CellKey.pack(RadioType.WCDMA, 302, 610, 5100, 654321, 511);
+        long unknown = CellKey.pack(RadioType.WCDMA, 302, 610, 5100, 654321, -1);
+        assertTrue(CellKey.fits(RadioType.WCDMA, 302, 610, 5100, 654321, 511));
+        assertEquals(511, CellKey.psc(known));
+        assertTrue(CellKey.hasPsc(known));
+        assertEquals(-1, CellKey.psc(unknown));
+        assertFalse(CellKey.hasPsc(unknown));
+        assertTrue(known != unknown);
+        assertEquals(unknown, CellKey.withoutPsc(known));
+        assertEquals(654321, CellKey.cid(CellKey.withoutPsc(known)));
+    }
+
+    @Test
+    public void withoutPscLeavesGsmCellIdAlone() {
+        long even = CellKey.pack(RadioType.GSM, 302, 720, 41000, 64000, -1);
+        long odd = CellKey.pack(RadioType.GSM, 302, 720, 41000, 64001, -1);
+        assertEquals(even, CellKey.withoutPsc(even));
+        assertTrue(CellKey.withoutPsc(even) != CellKey.withoutPsc(odd));
+        assertFalse(CellKey.hasPsc(even));
+    }
+
+    @Test
+    public void sortsByRadioThenNetwork() {
+        long gsm = CellKey.pack(RadioType.GSM, 999, 999, 65000, 65000, -1);
+        long wcdma = CellKey.pack(RadioType.WCDMA, 1, 1, 1, 1, 1);
+        long wcdmaNext = CellKey.pack(RadioType.WCDMA, 1, 2, 1, 1, 1);
+        assertTrue(gsm < wcdma);
+        assertTrue(wcdma < wcdmaNext);
+    }
+}
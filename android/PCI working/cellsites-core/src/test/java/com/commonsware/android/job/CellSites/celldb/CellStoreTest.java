@@ -0,0 +1,168 @@
+package com.commonsware.android.job.CellSites.celldb;
+
+import com.commonsware.android.job.CellSites.CellKey;
+import com.commonsware.android.job.CellSites.RadioType;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CellStoreTest {
+    private static final String HEADER = "radio,mcc,net,area,cell,unit,lon,lat,range,samples,changeable,created,"
+            + "updated,averageSignal\n";
+    // enough base cells that a one-row diff stays in the delta
+    private static final int BASE_CELLS = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private CellStore store;
+    private final CellSite site = new CellSite();
+
+    @Before
+    public void setUp() throws IOException {
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (int i = 0; i < BASE_CELLS; i++) {
+            csv.append(row("UMTS", 1000 + i, 100 + i, 45 + i * 0.01, -75, 1000));
+        }
+        File db = this.folder.newFile("cells.db");
+        new MlsImporter(1, MlsImporter.DEFAULT_CHUNK_BYTES, 1024).importCsv(csv(csv.toString()), db, 1);
+        this.dir = new File(this.folder.getRoot(), "store");
+        this.store = new CellStore(this.dir);
+        this.store.installBase(db);
+        assertEquals(1, this.store.getGeneration());
+    }
+
+    @Test
+    public void diffUpdatesCellThroughDelta() throws IOException {
+        CellDatabase base = this.store.current().getBase();
+        assertEquals(1, this.store.applyDiff(csv(HEADER + row("UMTS", 1003, 103, 46.5, -74, 2000))));
+
+        CellGeneration generation = this.store.current();
+        assertEquals(2, generation.getGeneration());
+        assertSame(base, generation.getBase());
+        assertNotNull(generation.getDelta());
+        assertEquals(1, generation.getDelta().size());
+        assertTrue(this.store.find(key(1003, 103), this.site));
+        assertEquals(46.5, this.site.latitude, 1e-7);
+        assertEquals(2000, this.site.updated);
+        // the base record is still there, shadowed
+        assertTrue(base.find(key(1003, 103), this.site));
+        assertEquals(45.03, this.site.latitude, 1e-7);
+    }
+
+    @Test
+    public void diffInsertsNewCell() throws IOException {
+        assertFalse(this.store.find(key(5000, 7), this.site));
+        this.store.applyDiff(csv(HEADER + row("UMTS", 5000, 7, 47, -73, 2000)));
+
+        assertTrue(this.store.find(key(5000, 7), this.site));
+        assertEquals(47, this.site.latitude, 1e-7);
+        assertTrue(this.store.find(key(1000, 100), this.site));
+        assertEquals(45, this.site.latitude, 1e-7);
+    }
+
+    @Test
+    public void olderRecordInDiffLoses() throws IOException {
+        this.store.applyDiff(csv(HEADER + row("UMTS", 1001, 101, 46, -74, 3000)));
+        this.store.applyDiff(csv(HEADER + row("UMTS", 1001, 101, 48, -74, 2000)));
+        assertTrue(this.store.find(key(1001, 101), this.site));
+        assertEquals(46, this.site.latitude, 1e-7);
+    }
+
+    @Test
+    public void deltaShadowsBaseRecordWithOldPsc() throws IOException {
+        // the cell was re-planned from PSC 105 to PSC 300
+        this.store.applyDiff(csv(HEADER + row("UMTS", 1005, 300, 46, -74, 2000)));
+        CellGeneration generation = this.store.current();
+
+        assertTrue(generation.find(key(1005, 105), this.site));
+        assertEquals(300, CellKey.psc(this.site.key));
+        TileIndex base = TileIndex.build(generation.getBase(), 8);
+        TileIndex delta = TileIndex.build(generation.getDelta(), 8);
+        assertTrue(base.nearest(RadioType.WCDMA, 105, 45.05, -75, 10000, 302, 610, null) >= 0);
+        assertEquals(-1, base.nearest(RadioType.WCDMA, 105, 45.05, -75, 10000, 302, 610, generation.getDelta()));
+        assertTrue(delta.nearest(RadioType.WCDMA, 300, 46, -74, 10000, 302, 610, null) >= 0);
+    }
+
+    @Test
+    public void largeDeltaIsCompactedIntoNewBase() throws IOException {
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (int i = 0; i < BASE_CELLS / CellStore.COMPACT_RATIO + 1; i++) {
+            csv.append(row("UMTS", 6000 + i, 1 + i, 47, -73, 2000));
+        }
+        csv.append(row("UMTS", 1002, 102, 46, -74, 2000));
+        this.store.applyDiff(csv(csv.toString()));
+
+        CellGeneration generation = this.store.current();
+        assertNull(generation.getDelta());
+        assertEquals(BASE_CELLS + BASE_CELLS / CellStore.COMPACT_RATIO + 1, generation.getBase().size());
+        assertTrue(this.store.find(key(1002, 102), this.site));
+        assertEquals(46, this.site.latitude, 1e-7);
+        assertTrue(this.store.find(key(6000, 1), this.site));
+    }
+
+    @Test
+    public void readersKeepOldGenerationAcrossSwap() throws IOException {
+        this.store.applyDiff(csv(HEADER + row("UMTS", 1007, 107, 46, -74, 2000)));
+        CellGeneration old = this.store.current();
+        File oldDelta = old.getDelta().getFile();
+
+        this.store.applyDiff(csv(HEADER + row("UMTS", 1007, 107, 47, -74, 3000)));
+        assertFalse(oldDelta.exists());
+        assertTrue(old.find(key(1007, 107), this.site));
+        assertEquals(46, this.site.latitude, 1e-7);
+        assertTrue(this.store.find(key(1007, 107), this.site));
+        assertEquals(47, this.site.latitude, 1e-7);
+    }
+
+    @Test
+    public void reopensLastPublishedGeneration() throws IOException {
+        this.store.applyDiff(csv(HEADER + row("UMTS", 1009, 109, 46, -74, 2000)));
+        this.store.close();
+
+        CellStore reopened = new CellStore(this.dir);
+        assertEquals(2, reopened.getGeneration());
+        assertTrue(reopened.find(key(1009, 109), this.site));
+        assertEquals(46, this.site.latitude, 1e-7);
+        // CURRENT, base and delta; nothing left of the replaced files
+        assertEquals(3, this.dir.list().length);
+        reopened.close();
+    }
+
+    private static long key(int cid, int psc) {
+        return CellKey.pack(RadioType.WCDMA, 302, 610, 5100, cid, psc);
+    }
+
+    private static String row(String radio, int cid, int psc, double latitude, double longitude, long updated) {
+        return String.format(Locale.US, "%s,302,610,5100,%d,%d,%.7f,%.7f,500,10,1,1000,%d,\n", radio, cid, psc,
+                longitude, latitude, updated);
+    }
+
+    private File csv(String text) throws IOException {
+        File file = this.folder.newFile();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "US-ASCII");
+        try {
+            out.write(text);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
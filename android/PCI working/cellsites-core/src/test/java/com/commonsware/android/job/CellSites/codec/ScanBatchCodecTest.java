@@ -0,0 +1,185 @@
+package com.commonsware.android.job.CellSites.codec;
+
+import com.commonsware.android.job.CellSites.CellData;
+import com.commonsware.android.job.CellSites.ScanRecord;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScanBatchCodecTest {
+
+    @Test
+    public void roundTripsWakeOfScans() throws IOException {
+        ScanRecord[] wake = {
+                scan(1000, -80, -95, -101),
+                scan(6000, -86, -90, -101),
+                scan(11000, -79, -104, -99)
+        };
+        wake[0].setLocation(45.421530, -75.697193, 3, 8.5f, Float.NaN, Float.NaN);
+        wake[1].setLocation(45.421612, -75.697001, 0, 4f, 1.25f, 270f);
+        wake[2].setRadioFix(45.42, -75.69, 350);
+
+        ScanBatchEncoder encoder = new ScanBatchEncoder();
+        for (ScanRecord scan : wake) {
+            encoder.add(scan);
+        }
+        byte[] data = encoder.toByteArray();
+        assertTrue(ScanBatchDecoder.isScanBatch(data));
+        assertEquals(3, ScanBatchDecoder.scanCount(data));
+
+        List<ScanRecord> decoded = ScanBatchDecoder.decode(data);
+        assertEquals(3, decoded.size());
+        for (int i = 0; i < wake.length; i++) {
+            assertEquals(wake[i].toCsv(), decoded.get(i).toCsv());
+        }
+        ScanRecord first = decoded.get(0);
+        assertEquals("device-1", first.deviceId);
+        assertEquals(1000, first.deviceTime);
+        assertTrue(first.hasLocation);
+        assertTrue(Float.isNaN(first.speed));
+        assertFalse(first.hasRadioFix);
+        ScanRecord last = decoded.get(2);
+        assertFalse(last.hasLocation);
+        assertTrue(last.hasRadioFix);
+        assertEquals(45.42, last.radioLatitude, 1e-6);
+        assertEquals(-75.69, last.radioLongitude, 1e-6);
+        assertEquals(350, last.radioAccuracy);
+    }
+
+    @Test
+    public void writesEachIdentityOnce() throws IOException {
+        ScanBatchEncoder encoder = new ScanBatchEncoder();
+        for (int i = 0; i < 10; i++) {
+            encoder.add(scan(i * 5000, -80 - i, -95 + i, -101));
+        }
+        byte[] data = encoder.toByteArray();
+        assertEquals(3, dictionarySize(data));
+        // identities once, then a few bytes per cell per scan: under half of ten entries of one scan
+        assertTrue(2 * data.length < 10 * ScanBatchEncoder.encode(scan(0, -80, -95, -101)).length);
+
+        List<ScanRecord> decoded = ScanBatchDecoder.decode(data);
+        for (int i = 0; i < 10; i++) {
+            List<CellData> cells = decoded.get(i).cells;
+            assertEquals(-80 - i, cells.get(0).getSignalStrength());
+            assertEquals(-95 + i, cells.get(1).getSignalStrength());
+            assertEquals(-101, cells.get(2).getSignalStrength());
+        }
+    }
+
+    @Test
+    public void keepsIdentitiesThePackedKeyConfuses() throws IOException {
+        // LTE keys leave out the TAC: same key, different cells
+        CellData a = new CellData();
+        a.setLteCellInfo(302, 720, 123456, 17, 21000, 30, -90, Integer.MAX_VALUE, 3);
+        CellData b = new CellData();
+        b.setLteCellInfo(302, 720, 123456, 17, 21001, 25, -97, 4, 2);
+        assertEquals(a.getIdentityKey(), b.getIdentityKey());
+        ScanRecord scan = new ScanRecord();
+        scan.deviceId = "device-1";
+        scan.cells.add(a);
+        scan.cells.add(b);
+
+        byte[] data = ScanBatchEncoder.encode(scan);
+        assertEquals(2, dictionarySize(data));
+        List<CellData> cells = ScanBatchDecoder.decode(data).get(0).cells;
+        assertEquals(a.toString(), cells.get(0).toString());
+        assertEquals(b.toString(), cells.get(1).toString());
+    }
+
+    @Test
+    public void internsEachCollidingIdentityOnce() throws IOException {
+        ScanBatchEncoder encoder = new ScanBatchEncoder();
+        ScanRecord[] wake = new ScanRecord[4];
+        for (int i = 0; i < wake.length; i++) {
+            ScanRecord scan = new ScanRecord();
+            scan.deviceId = "device-1";
+            scan.deviceTime = i * 5000;
+            // three TACs behind one packed key
+            for (int tac = 21000; tac < 21003; tac++) {
+                CellData cell = new CellData();
+                cell.setLteCellInfo(302, 720, 123456, 17, tac, 30, -90 - i - tac % 10, Integer.MAX_VALUE, 3);
+                scan.cells.add(cell);
+            }
+            encoder.add(scan);
+            wake[i] = scan;
+        }
+        byte[] data = encoder.toByteArray();
+        assertEquals(3, dictionarySize(data));
+
+        List<ScanRecord> decoded = ScanBatchDecoder.decode(data);
+        for (int i = 0; i < wake.length; i++) {
+            assertEquals(wake[i].toCsv(), decoded.get(i).toCsv());
+        }
+    }
+
+    @Test
+    public void restartsDeltasAfterReset() throws IOException {
+        ScanBatchEncoder encoder = new ScanBatchEncoder();
+        encoder.add(scan(1000, -80, -95, -101));
+        encoder.reset();
+        ScanRecord scan = scan(2000, -70, -85, -91);
+        encoder.add(scan);
+        List<ScanRecord> decoded = ScanBatchDecoder.decode(encoder.toByteArray());
+        assertEquals(1, decoded.size());
+        assertEquals(scan.toCsv(), decoded.get(0).toCsv());
+    }
+
+    @Test
+    public void rejectsMixedDevices() {
+        ScanBatchEncoder encoder = new ScanBatchEncoder();
+        encoder.add(scan(1000, -80, -95, -101));
+        ScanRecord other = scan(2000, -80, -95, -101);
+        other.deviceId = "device-2";
+        try {
+            encoder.add(other);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsOtherVersions() {
+        byte[] data = ScanBatchEncoder.encode(scan(1000, -80, -95, -101));
+        data[2] = ScanBatchEncoder.VERSION + 1;
+        try {
+            ScanBatchDecoder.decode(data);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * A registered LTE cell with a timing advance, an LTE neighbour whose
+     * timing advance is "max" and a WCDMA neighbour without one.
+     */
+    private static ScanRecord scan(long time, int serving, int neighbour, int wcdma) {
+        ScanRecord scan = new ScanRecord();
+        scan.deviceId = "device-1";
+        scan.deviceTime = time;
+        CellData cell = new CellData();
+        cell.setLteCellInfo(302, 720, 1234567, 101, 21000, serving + 140, serving, 7, 3);
+        cell.setIsRegistered((byte) 1);
+        scan.cells.add(cell);
+        cell = new CellData();
+        cell.setLteCellInfo(302, 720, 1234568, 102, 21000, neighbour + 140, neighbour, Integer.MAX_VALUE, 2);
+        scan.cells.add(cell);
+        cell = new CellData();
+        cell.setWcdmaCellInfo(302, 610, 5100, 654321, 511, wcdma + 116, wcdma, 1);
+        scan.cells.add(cell);
+        return scan;
+    }
+
+    private static int dictionarySize(byte[] data) throws IOException {
+        BinaryReader in = new BinaryReader(data, 3, data.length - 3);
+        in.readString();
+        in.readVarint();
+        return (int) in.readVarint();
+    }
+}
@@ -0,0 +1,195 @@
+package com.commonsware.android.job.CellSites.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanJournalTest {
+    // two 20-byte entries per segment
+    private static final int SEGMENT_SIZE = 64;
+    private static final int ENTRY_SIZE = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasAppended() throws IOException {
+        File directory = this.folder.newFolder();
+        ScanJournal journal = new ScanJournal(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 5; i++) {
+            journal.append(entry(i));
+        }
+        List<byte[]> out = new ArrayList<byte[]>();
+        assertEquals(5, journal.read(out, 100));
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(entry(i), out.get(i));
+        }
+        assertEquals(0, journal.read(out, 100));
+        journal.close();
+    }
+
+    @Test
+    public void discardsRecordWhoseLengthWasNeverWritten() throws IOException {
+        File directory = this.folder.newFolder();
+        ScanJournal journal = new ScanJournal(directory, SEGMENT_SIZE);
+        journal.append(entry(0));
+        journal.close();
+        // a crash after the payload and CRC of the second entry, before its length
+        RandomAccessFile file = new RandomAccessFile(segment(directory, 0), "rw");
+        try {
+            int at = ScanJournal.HEADER_SIZE + ENTRY_SIZE;
+            file.seek(at + 4);
+            file.writeInt(0x12345678);
+            file.write(entry(1));
+        } finally {
+            file.close();
+        }
+
+        journal = new ScanJournal(directory, SEGMENT_SIZE);
+        List<byte[]> out = new ArrayList<byte[]>();
+        assertEquals(1, journal.read(out, 100));
+        assertArrayEquals(entry(0), out.get(0));
+        // the torn tail is overwritten, not read after the next entry
+        journal.append(entry(2));
+        out.clear();
+        assertEquals(1, journal.read(out, 100));
+        assertArrayEquals(entry(2), out.get(0));
+        journal.close();
+    }
+
+    @Test
+    public void rejectsRecordWithBadCrc() throws IOException {
+        File directory = this.folder.newFolder();
+        ScanJournal journal = new ScanJournal(directory, SEGMENT_SIZE);
+        journal.append(entry(0));
+        journal.append(entry(1));
+        journal.close();
+        RandomAccessFile file = new RandomAccessFile(segment(directory, 0), "rw");
+        try {
+            int at = 2 * ScanJournal.HEADER_SIZE + ENTRY_SIZE + 3;
+            file.seek(at);
+            int b = file.read();
+            file.seek(at);
+            file.write(b ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        journal = new ScanJournal(directory, SEGMENT_SIZE);
+        List<byte[]> out = new ArrayList<byte[]>();
+        assertEquals(1, journal.read(out, 100));
+        assertArrayEquals(entry(0), out.get(0));
+        journal.close();
+    }
+
+    @Test
+    public void reopensAtAcknowledgedCursor() throws IOException {
+        File directory = this.folder.newFolder();
+        ScanJournal journal = new ScanJournal(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 5; i++) {
+            journal.append(entry(i));
+        }
+        List<byte[]> out = new ArrayList<byte[]>();
+        assertEquals(3, journal.read(out, 3));
+        journal.acknowledge();
+        // read but never acknowledged: delivered again after a restart
+        assertEquals(1, journal.read(out, 1));
+        journal.close();
+
+        journal = new ScanJournal(directory, SEGMENT_SIZE);
+        out.clear();
+        assertEquals(2, journal.read(out, 100));
+        assertArrayEquals(entry(3), out.get(0));
+        assertArrayEquals(entry(4), out.get(1));
+        journal.close();
+    }
+
+    @Test
+    public void ignoresCorruptCursor() throws IOException {
+        File directory = this.folder.newFolder();
+        ScanJournal journal = new ScanJournal(directory, SEGMENT_SIZE);
+        journal.append(entry(0));
+        journal.append(entry(1));
+        List<byte[]> out = new ArrayList<byte[]>();
+        journal.read(out, 1);
+        journal.acknowledge();
+        journal.close();
+        // segment 0, position 28, with a check value that does not match
+        byte[] record = new byte[16];
+        record[11] = 28;
+        FileOutputStream cursor = new FileOutputStream(new File(directory, "cursor"));
+        try {
+            cursor.write(record);
+        } finally {
+            cursor.close();
+        }
+
+        journal = new ScanJournal(directory, SEGMENT_SIZE);
+        out.clear();
+        assertEquals(2, journal.read(out, 100));
+        journal.close();
+    }
+
+    @Test
+    public void trimsSegmentsOnlyOnAcknowledge() throws IOException {
+        File directory = this.folder.newFolder();
+        ScanJournal journal = new ScanJournal(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 5; i++) {
+            journal.append(entry(i));
+        }
+        assertTrue(segment(directory, 0).exists());
+        assertTrue(segment(directory, 2).exists());
+
+        List<byte[]> out = new ArrayList<byte[]>();
+        assertEquals(4, journal.read(out, 4));
+        assertTrue(segment(directory, 0).exists());
+        assertTrue(segment(directory, 1).exists());
+
+        // a failed upload: everything read is delivered again
+        journal.rewind();
+        out.clear();
+        assertEquals(5, journal.read(out, 100));
+        assertArrayEquals(entry(0), out.get(0));
+        assertTrue(segment(directory, 0).exists());
+
+        journal.rewind();
+        out.clear();
+        journal.read(out, 4);
+        journal.acknowledge();
+        assertFalse(segment(directory, 0).exists());
+        // the cursor is still at the end of segment 1
+        assertTrue(segment(directory, 1).exists());
+        out.clear();
+        assertEquals(1, journal.read(out, 100));
+        assertArrayEquals(entry(4), out.get(0));
+        journal.acknowledge();
+        assertFalse(segment(directory, 1).exists());
+        assertTrue(segment(directory, 2).exists());
+        journal.close();
+    }
+
+    private static byte[] entry(int i) {
+        byte[] entry = new byte[ENTRY_SIZE];
+        for (int j = 0; j < entry.length; j++) {
+            entry[j] = (byte) (i * 31 + j);
+        }
+        return entry;
+    }
+
+    private static File segment(File directory, long id) {
+        return new File(directory, String.format(Locale.US, "%019d.seg", id));
+    }
+}
@@ -0,0 +1,79 @@
+package com.commonsware.android.job.CellSites.locate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MultilaterationTest {
+    // a prior this loose hardly pulls on the rings
+    private static final double WEAK_PRIOR = 1e5;
+
+    private final Multilateration solver = new Multilateration();
+
+    @Test
+    public void findsIntersectionOfThreeRings() {
+        this.solver.addRing(0, 0, 500, 50);
+        this.solver.addRing(1000, 0, Math.hypot(700, 400), 50);
+        this.solver.addRing(0, 1000, Math.hypot(300, 600), 50);
+
+        assertTrue(this.solver.solve(500, 500, WEAK_PRIOR));
+        assertEquals(300, this.solver.getX(), 0.5);
+        assertEquals(400, this.solver.getY(), 0.5);
+        assertTrue(this.solver.getIterations() < Multilateration.MAX_ITERATIONS);
+    }
+
+    @Test
+    public void accuracyFollowsRingGeometry() {
+        // three towers 120 degrees apart around the answer: J^T W J = 1.5 / sigma^2 I
+        double sigma = 40;
+        for (int i = 0; i < 3; i++) {
+            double angle = Math.toRadians(90 + 120 * i);
+            this.solver.addRing(2000 * Math.cos(angle), 2000 * Math.sin(angle), 2000, sigma);
+        }
+
+        assertTrue(this.solver.solve(100, -100, WEAK_PRIOR));
+        assertEquals(0, this.solver.getX(), 0.5);
+        assertEquals(0, this.solver.getY(), 0.5);
+        assertEquals(sigma * Math.sqrt(4 / 3.0), this.solver.getAccuracy(), 0.01 * sigma);
+    }
+
+    @Test
+    public void singleRingLandsNearestThePrior() {
+        // an LTE timing-advance ring 1 km around the tower
+        this.solver.addRing(0, 0, 1000, 78);
+
+        assertTrue(this.solver.solve(30, 40, WEAK_PRIOR));
+        assertEquals(600, this.solver.getX(), 1);
+        assertEquals(800, this.solver.getY(), 1);
+
+        assertTrue(this.solver.solve(3000, 4000, WEAK_PRIOR));
+        assertEquals(600, this.solver.getX(), 1);
+        assertEquals(800, this.solver.getY(), 1);
+    }
+
+    @Test
+    public void singularSystemReturnsThePrior() {
+        // without a prior, one ring only fixes the distance along its axis
+        this.solver.addRing(1000, 0, 500, 50);
+
+        assertFalse(this.solver.solve(0, 0, Double.POSITIVE_INFINITY));
+        assertEquals(0, this.solver.getX(), 0);
+        assertEquals(0, this.solver.getY(), 0);
+        assertEquals(Double.POSITIVE_INFINITY, this.solver.getAccuracy(), 0);
+    }
+
+    @Test
+    public void resetForgetsRings() {
+        this.solver.addRing(0, 0, 500, 50);
+        this.solver.reset();
+        assertEquals(0, this.solver.ringCount());
+
+        // only the prior is left: the answer is the prior itself
+        assertTrue(this.solver.solve(10, 20, 100));
+        assertEquals(10, this.solver.getX(), 1e-9);
+        assertEquals(20, this.solver.getY(), 1e-9);
+        assertEquals(100 * Math.sqrt(2), this.solver.getAccuracy(), 1e-6);
+    }
+}
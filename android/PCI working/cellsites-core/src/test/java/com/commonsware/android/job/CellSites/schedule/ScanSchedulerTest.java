@@ -0,0 +1,116 @@
+package com.commonsware.android.job.CellSites.schedule;
+
+import com.commonsware.android.job.CellSites.CellData;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScanSchedulerTest {
+
+    @Test
+    public void measuresJaccardDistance() {
+        long[] a = {1, 2, 3};
+        long[] b = {2, 3, 4};
+        assertEquals(0.5, ScanScheduler.jaccardDistance(a, 3, b, 3), 1e-9);
+        assertEquals(0, ScanScheduler.jaccardDistance(a, 3, a, 3), 1e-9);
+        assertEquals(1, ScanScheduler.jaccardDistance(a, 3, new long[]{7, 8}, 2), 1e-9);
+        assertEquals(0, ScanScheduler.jaccardDistance(a, 0, b, 0), 1e-9);
+    }
+
+    @Test
+    public void ignoresOrderAndDuplicates() {
+        ScanScheduler scheduler = new ScanScheduler(1000, 100000);
+        scheduler.observe(cells(3, 1, 2), 0);
+        scheduler.observe(cells(2, 2, 3, 1), 1000);
+        assertEquals(0, scheduler.getDistance(), 1e-9);
+    }
+
+    @Test
+    public void calmEnvironmentGrowsAtMostTwiceEachScan() {
+        ScanScheduler scheduler = new ScanScheduler(1000, 100000, 0.2, 0.5);
+        assertEquals(1000, scheduler.observe(cells(1, 2, 3), 0));
+        assertEquals(ScanScheduler.REASON_INITIAL, scheduler.getReason());
+
+        long time = 0;
+        long interval = 1000;
+        for (int i = 0; i < 4; i++) {
+            time += interval;
+            // no change at all aims for the maximum, but only doubles per scan
+            interval = scheduler.observe(cells(1, 2, 3), time);
+            assertEquals(2000L << i, interval);
+            assertEquals(ScanScheduler.REASON_STABLE, scheduler.getReason());
+        }
+        assertEquals(16000, scheduler.getIntervalMillis());
+    }
+
+    @Test
+    public void changingEnvironmentShortensAtOnce() {
+        ScanScheduler scheduler = grownTo16Seconds();
+        // every cell replaced after 10 s: rate 0.5 * 0.1/s, aim 0.2 / 0.05/s = 4 s
+        assertEquals(4000, scheduler.observe(cells(7, 8, 9), 25000));
+        assertEquals(ScanScheduler.REASON_CHANGING, scheduler.getReason());
+        assertEquals(1, scheduler.getDistance(), 1e-9);
+    }
+
+    @Test
+    public void holdsWithinHysteresis() {
+        ScanScheduler scheduler = grownTo16Seconds();
+        scheduler.observe(cells(7, 8, 9), 25000);
+        assertEquals(4000, scheduler.getIntervalMillis());
+
+        // one cell of four new after 3 s: rate (0.05 + 0.083)/2, aim 3 s, within 4 s / 1.5
+        assertEquals(4000, scheduler.observe(cells(7, 8, 9, 10), 28000));
+        assertEquals(ScanScheduler.REASON_HOLD, scheduler.getReason());
+        assertEquals(0.25, scheduler.getDistance(), 1e-9);
+    }
+
+    @Test
+    public void staysWithinBounds() {
+        ScanScheduler scheduler = new ScanScheduler(1000, 4000);
+        scheduler.observe(cells(1), 0);
+        scheduler.observe(cells(2), 10);
+        assertEquals(1000, scheduler.getIntervalMillis());
+        long time = 10;
+        for (int i = 0; i < 20; i++) {
+            time += 1000;
+            scheduler.observe(cells(2), time);
+        }
+        assertEquals(4000, scheduler.getIntervalMillis());
+    }
+
+    @Test
+    public void resetStartsOver() {
+        ScanScheduler scheduler = grownTo16Seconds();
+        scheduler.reset();
+        assertEquals(1000, scheduler.getIntervalMillis());
+        assertEquals(1000, scheduler.observe(cells(7, 8, 9), 50000));
+        assertEquals(ScanScheduler.REASON_INITIAL, scheduler.getReason());
+    }
+
+    private static ScanScheduler grownTo16Seconds() {
+        ScanScheduler scheduler = new ScanScheduler(1000, 100000, 0.2, 0.5);
+        long time = 0;
+        long interval = scheduler.observe(cells(1, 2, 3), time);
+        while (interval < 16000) {
+            time += interval;
+            interval = scheduler.observe(cells(1, 2, 3), time);
+        }
+        // last scan at 15 s
+        assertEquals(15000, time);
+        return scheduler;
+    }
+
+    private static List<CellData> cells(int... cids) {
+        List<CellData> cells = new ArrayList<CellData>();
+        for (int cid : cids) {
+            CellData cell = new CellData();
+            cell.setLteCellInfo(302, 720, 1000 + cid, 100, 21000, 40, -100, Integer.MAX_VALUE, 2);
+            cells.add(cell);
+        }
+        return cells;
+    }
+}
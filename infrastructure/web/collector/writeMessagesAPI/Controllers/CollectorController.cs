@@ -1,4 +1,7 @@
-﻿using System.Collections.Generic;
+﻿using System;
+using System.Collections.Generic;
+using System.IO;
+using System.IO.Compression;
 using Microsoft.AspNetCore.Mvc;
 using AutoMapper;
 using WriteMessagesApi.Helpers;
@@ -8,6 +11,7 @@ using Microsoft.AspNetCore.Authorization;
 using WriteMessagesApi.Dtos;
 using Confluent.Kafka;
 using Confluent.Kafka.Serialization;
+using Newtonsoft.Json;
 
 namespace WriteMessagesApi.Controllers
 {
@@ -66,5 +70,40 @@ namespace WriteMessagesApi.Controllers
                 Id = "Ok!"
             });
         }
+
+        // Batched variant used by the app's uploader: a JSON array of messages,
+        // optionally gzip-compressed (Content-Encoding: gzip).
+        [AllowAnonymous]
+        [HttpPost("radioLocationBatch")]
+        public IActionResult RadioLocationBatch()
+        {
+            Stream body = Request.Body;
+            if (string.Equals(Request.Headers["Content-Encoding"], "gzip", StringComparison.OrdinalIgnoreCase))
+            {
+                body = new GZipStream(body, CompressionMode.Decompress);
+            }
+
+            List<MessageDto> messages;
+            using (var reader = new StreamReader(body, Encoding.UTF8))
+            {
+                messages = JsonConvert.DeserializeObject<List<MessageDto>>(reader.ReadToEnd());
+            }
+            if (messages == null)
+            {
+                return BadRequest();
+            }
+
+            var collectionDateTime = System.DateTimeOffset.UtcNow.ToUnixTimeMilliseconds();
+            foreach (var message in messages)
+            {
+                KafkaProducer.ProduceAsync(messagesTopic, null, $"#collectionDateTime\n{collectionDateTime}\n{message.Location}");
+            }
+
+            return Ok(new
+            {
+                Id = "Ok!",
+                Count = messages.Count
+            });
+        }
     }
 }